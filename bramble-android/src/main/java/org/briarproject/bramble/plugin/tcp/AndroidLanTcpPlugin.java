@@ -14,6 +14,7 @@ import org.briarproject.bramble.api.Pair;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.network.event.NetworkStatusEvent;
 import org.briarproject.bramble.api.plugin.Backoff;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.settings.Settings;
 import org.briarproject.nullsafety.NotNullByDefault;
@@ -70,14 +71,14 @@ class AndroidLanTcpPlugin extends LanTcpPlugin {
 	private volatile SocketFactory socketFactory;
 
 	AndroidLanTcpPlugin(Executor ioExecutor,
-			Executor wakefulIoExecutor,
+			ConnectionScheduler connectionScheduler,
 			Application app,
 			Backoff backoff,
 			PluginCallback callback,
 			long maxLatency,
 			int maxIdleTime,
 			int connectionTimeout) {
-		super(ioExecutor, wakefulIoExecutor, backoff, callback, maxLatency,
+		super(ioExecutor, connectionScheduler, backoff, callback, maxLatency,
 				maxIdleTime, connectionTimeout);
 		// Don't execute more than one connection status check at a time
 		connectionStatusExecutor =
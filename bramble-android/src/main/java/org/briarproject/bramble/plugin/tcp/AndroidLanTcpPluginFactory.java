@@ -6,11 +6,12 @@ import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.plugin.Backoff;
 import org.briarproject.bramble.api.plugin.BackoffFactory;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
+import org.briarproject.bramble.api.plugin.ConnectionSchedulerFactory;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.plugin.duplex.DuplexPlugin;
 import org.briarproject.bramble.api.plugin.duplex.DuplexPluginFactory;
-import org.briarproject.bramble.api.system.WakefulIoExecutor;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.util.concurrent.Executor;
@@ -30,22 +31,24 @@ public class AndroidLanTcpPluginFactory implements DuplexPluginFactory {
 	private static final int MIN_POLLING_INTERVAL = 60_000; // 1 minute
 	private static final int MAX_POLLING_INTERVAL = 600_000; // 10 mins
 	private static final double BACKOFF_BASE = 1.2;
+	private static final int MAX_CONCURRENT_CONNECTION_ATTEMPTS = 16;
 
-	private final Executor ioExecutor, wakefulIoExecutor;
+	private final Executor ioExecutor;
 	private final EventBus eventBus;
 	private final BackoffFactory backoffFactory;
+	private final ConnectionSchedulerFactory connectionSchedulerFactory;
 	private final Application app;
 
 	@Inject
 	AndroidLanTcpPluginFactory(@IoExecutor Executor ioExecutor,
-			@WakefulIoExecutor Executor wakefulIoExecutor,
 			EventBus eventBus,
 			BackoffFactory backoffFactory,
+			ConnectionSchedulerFactory connectionSchedulerFactory,
 			Application app) {
 		this.ioExecutor = ioExecutor;
-		this.wakefulIoExecutor = wakefulIoExecutor;
 		this.eventBus = eventBus;
 		this.backoffFactory = backoffFactory;
+		this.connectionSchedulerFactory = connectionSchedulerFactory;
 		this.app = app;
 	}
 
@@ -63,8 +66,10 @@ public class AndroidLanTcpPluginFactory implements DuplexPluginFactory {
 	public DuplexPlugin createPlugin(PluginCallback callback) {
 		Backoff backoff = backoffFactory.createBackoff(MIN_POLLING_INTERVAL,
 				MAX_POLLING_INTERVAL, BACKOFF_BASE);
+		ConnectionScheduler connectionScheduler = connectionSchedulerFactory
+				.createConnectionScheduler(MAX_CONCURRENT_CONNECTION_ATTEMPTS);
 		AndroidLanTcpPlugin plugin = new AndroidLanTcpPlugin(ioExecutor,
-				wakefulIoExecutor, app, backoff, callback,
+				connectionScheduler, app, backoff, callback,
 				MAX_LATENCY, MAX_IDLE_TIME, CONNECTION_TIMEOUT);
 		eventBus.addListener(plugin);
 		return plugin;
@@ -11,12 +11,13 @@ import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.network.NetworkManager;
 import org.briarproject.bramble.api.plugin.Backoff;
 import org.briarproject.bramble.api.plugin.BackoffFactory;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
+import org.briarproject.bramble.api.plugin.ConnectionSchedulerFactory;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.plugin.TorControlPort;
 import org.briarproject.bramble.api.plugin.TorDirectory;
 import org.briarproject.bramble.api.plugin.TorSocksPort;
 import org.briarproject.bramble.api.system.Clock;
-import org.briarproject.bramble.api.system.WakefulIoExecutor;
 import org.briarproject.nullsafety.NotNullByDefault;
 import org.briarproject.onionwrapper.AndroidTorWrapper;
 import org.briarproject.onionwrapper.CircumventionProvider;
@@ -43,12 +44,12 @@ public class AndroidTorPluginFactory extends TorPluginFactory {
 	@Inject
 	AndroidTorPluginFactory(@IoExecutor Executor ioExecutor,
 			@EventExecutor Executor eventExecutor,
-			@WakefulIoExecutor Executor wakefulIoExecutor,
 			NetworkManager networkManager,
 			LocationUtils locationUtils,
 			EventBus eventBus,
 			SocketFactory torSocketFactory,
 			BackoffFactory backoffFactory,
+			ConnectionSchedulerFactory connectionSchedulerFactory,
 			CircumventionProvider circumventionProvider,
 			BatteryManager batteryManager,
 			Clock clock,
@@ -58,10 +59,11 @@ public class AndroidTorPluginFactory extends TorPluginFactory {
 			@TorControlPort int torControlPort,
 			Application app,
 			AndroidWakeLockManager wakeLockManager) {
-		super(ioExecutor, eventExecutor, wakefulIoExecutor, networkManager,
-				locationUtils, eventBus, torSocketFactory, backoffFactory,
-				circumventionProvider, batteryManager, clock, crypto,
-				torDirectory, torSocksPort, torControlPort);
+		super(ioExecutor, eventExecutor, networkManager, locationUtils,
+				eventBus, torSocketFactory, backoffFactory,
+				connectionSchedulerFactory, circumventionProvider,
+				batteryManager, clock, crypto, torDirectory, torSocksPort,
+				torControlPort);
 		this.app = app;
 		this.wakeLockManager = wakeLockManager;
 	}
@@ -80,12 +82,13 @@ public class AndroidTorPluginFactory extends TorPluginFactory {
 
 	@Override
 	TorPlugin createPluginInstance(Backoff backoff,
+			ConnectionScheduler connectionScheduler,
 			TorRendezvousCrypto torRendezvousCrypto, PluginCallback callback,
 			String architecture) {
 		TorWrapper tor = new AndroidTorWrapper(app, wakeLockManager,
 				ioExecutor, eventExecutor, architecture, torDirectory,
 				torSocksPort, torControlPort);
-		return new TorPlugin(ioExecutor, wakefulIoExecutor,
+		return new TorPlugin(ioExecutor, connectionScheduler,
 				networkManager, locationUtils, torSocketFactory,
 				circumventionProvider, batteryManager, backoff,
 				torRendezvousCrypto, tor, callback, MAX_LATENCY,
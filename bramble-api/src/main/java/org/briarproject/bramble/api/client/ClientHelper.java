@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfSlice;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
@@ -82,6 +83,15 @@ public interface ClientHelper {
 	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
 			Transaction txn, GroupId g) throws DbException, FormatException;
 
+	/**
+	 * Returns the metadata for all delivered messages in any of the given
+	 * groups as dictionaries, grouped by group. Groups without any delivered
+	 * messages with metadata are omitted.
+	 */
+	Map<GroupId, Map<MessageId, BdfDictionary>> getMessageMetadataByGroup(
+			Transaction txn, Collection<GroupId> groupIds)
+			throws DbException, FormatException;
+
 	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(GroupId g,
 			BdfDictionary query) throws DbException, FormatException;
 
@@ -89,6 +99,23 @@ public interface ClientHelper {
 			Transaction txn, GroupId g, BdfDictionary query) throws DbException,
 			FormatException;
 
+	/**
+	 * Returns the metadata for any messages in the given group with metadata
+	 * that matches all entries in the given query, including only the given
+	 * metadata keys.
+	 */
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, BdfDictionary query,
+			Collection<String> keys) throws DbException, FormatException;
+
+	/**
+	 * Returns the metadata for any of the given messages that are delivered
+	 * and have metadata.
+	 */
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids) throws DbException,
+			FormatException;
+
 	void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException;
 
@@ -130,6 +157,18 @@ public interface ClientHelper {
 
 	BdfList toList(Author a);
 
+	/**
+	 * Returns a {@link BdfSlice} for the BDF object encoded in the given
+	 * range of the array. The object is validated but not copied or decoded,
+	 * so it's cheaper to access a few fields of the slice than to convert
+	 * the array to a {@link BdfList} or {@link BdfDictionary}.
+	 */
+	BdfSlice toSlice(byte[] b, int off, int len) throws FormatException;
+
+	BdfSlice toSlice(byte[] b) throws FormatException;
+
+	BdfSlice toSlice(Message m) throws FormatException;
+
 	byte[] sign(String label, BdfList toSign, PrivateKey privateKey)
 			throws FormatException, GeneralSecurityException;
 
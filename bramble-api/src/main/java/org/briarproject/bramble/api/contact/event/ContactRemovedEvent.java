@@ -2,16 +2,21 @@ package org.briarproject.bramble.api.contact.event;
 
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.KeyedEvent;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
+
 import javax.annotation.concurrent.Immutable;
 
+import static java.util.Collections.singletonList;
+
 /**
  * An event that is broadcast when a contact is removed.
  */
 @Immutable
 @NotNullByDefault
-public class ContactRemovedEvent extends Event {
+public class ContactRemovedEvent extends Event implements KeyedEvent {
 
 	private final ContactId contactId;
 
@@ -22,4 +27,9 @@ public class ContactRemovedEvent extends Event {
 	public ContactId getContactId() {
 		return contactId;
 	}
+
+	@Override
+	public Collection<?> getKeys() {
+		return singletonList(contactId);
+	}
 }
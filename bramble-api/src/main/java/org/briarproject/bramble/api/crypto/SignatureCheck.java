@@ -0,0 +1,46 @@
+package org.briarproject.bramble.api.crypto;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A signature to be verified by a {@link SignatureVerifier}, along with the
+ * signed data and the public key.
+ */
+@Immutable
+@NotNullByDefault
+public class SignatureCheck {
+
+	private final byte[] signature, signed;
+	private final String label;
+	private final PublicKey publicKey;
+
+	/**
+	 * @param label A namespaced label indicating the purpose of the
+	 * signature, as passed to {@link CryptoComponent#sign}
+	 */
+	public SignatureCheck(byte[] signature, String label, byte[] signed,
+			PublicKey publicKey) {
+		this.signature = signature;
+		this.label = label;
+		this.signed = signed;
+		this.publicKey = publicKey;
+	}
+
+	public byte[] getSignature() {
+		return signature;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public byte[] getSigned() {
+		return signed;
+	}
+
+	public PublicKey getPublicKey() {
+		return publicKey;
+	}
+}
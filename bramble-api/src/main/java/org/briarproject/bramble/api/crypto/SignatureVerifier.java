@@ -0,0 +1,37 @@
+package org.briarproject.bramble.api.crypto;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Verifies signatures on the {@link CryptoExecutor}, so that a caller with
+ * several signatures to check can use more than one core.
+ * <p>
+ * Waiting for a result never deadlocks the crypto executor: if a check
+ * hasn't been started by the executor when the caller needs its result, the
+ * check is performed on the caller's thread. It's therefore safe to call
+ * these methods from tasks that are running on the crypto executor, such as
+ * message validators.
+ */
+@NotNullByDefault
+public interface SignatureVerifier {
+
+	/**
+	 * Verifies the given signatures in parallel.
+	 *
+	 * @return An array containing true for each signature that was valid
+	 * and false for each signature that was invalid, in the same order as
+	 * the checks.
+	 */
+	boolean[] verify(List<SignatureCheck> checks);
+
+	/**
+	 * Submits the given signature to be verified asynchronously.
+	 *
+	 * @return A future that returns true if the signature was valid, or
+	 * false if it was invalid.
+	 */
+	Future<Boolean> verifyAsync(SignatureCheck check);
+}
@@ -13,6 +13,14 @@ public interface StreamDecrypterFactory {
 	 */
 	StreamDecrypter createStreamDecrypter(InputStream in, StreamContext ctx);
 
+	/**
+	 * Creates a {@link StreamDecrypter} for decrypting a transport stream,
+	 * which reads and decrypts frames ahead of the caller on a background
+	 * thread.
+	 */
+	StreamDecrypter createReadAheadStreamDecrypter(InputStream in,
+			StreamContext ctx);
+
 	/**
 	 * Creates a {@link StreamDecrypter} for decrypting a contact exchange
 	 * stream.
@@ -13,6 +13,15 @@ public interface StreamEncrypterFactory {
 	 */
 	StreamEncrypter createStreamEncrypter(OutputStream out, StreamContext ctx);
 
+	/**
+	 * Creates a {@link StreamEncrypter} for encrypting a transport stream,
+	 * which writes encrypted frames to the output stream on a background
+	 * thread so that encrypting a frame can overlap with writing the previous
+	 * frames. Flushing the encrypter waits for all frames to be written.
+	 */
+	StreamEncrypter createPipelinedStreamEncrypter(OutputStream out,
+			StreamContext ctx);
+
 	/**
 	 * Creates a {@link StreamEncrypter} for encrypting a contact exchange
 	 * stream.
@@ -0,0 +1,26 @@
+package org.briarproject.bramble.api.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+/**
+ * A forward-only cursor over a sequence of encoded BDF objects, such as the
+ * elements of a list. Moving the cursor skips over objects without decoding
+ * them.
+ */
+@NotNullByDefault
+public interface BdfCursor {
+
+	/**
+	 * Returns true if there are more objects in the sequence.
+	 */
+	boolean hasNext();
+
+	/**
+	 * Returns a slice containing the next object in the sequence and moves
+	 * the cursor past it.
+	 *
+	 * @throws FormatException if there are no more objects in the sequence.
+	 */
+	BdfSlice next() throws FormatException;
+}
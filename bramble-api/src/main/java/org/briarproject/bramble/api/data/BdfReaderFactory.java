@@ -1,8 +1,10 @@
 package org.briarproject.bramble.api.data;
 
+import org.briarproject.bramble.api.FormatException;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 @NotNullByDefault
 public interface BdfReaderFactory {
@@ -19,4 +21,24 @@ public interface BdfReaderFactory {
 
 	BdfReader createReader(InputStream in, int nestedLimit,
 			int maxBufferSize, boolean canonical);
+
+	/**
+	 * Validates the single BDF object encoded in the given range of the
+	 * array and returns a {@link BdfSlice} for it. The array is not copied.
+	 *
+	 * @throws FormatException if the range does not contain exactly one
+	 * canonically encoded BDF object.
+	 */
+	BdfSlice createSlice(byte[] b, int off, int len) throws FormatException;
+
+	/**
+	 * Validates the single BDF object encoded in the remaining bytes of the
+	 * given buffer and returns a {@link BdfSlice} for it. The contents of
+	 * the buffer are not copied unless the buffer has no accessible array.
+	 * The buffer's position is not changed.
+	 *
+	 * @throws FormatException if the remaining bytes do not contain exactly
+	 * one canonically encoded BDF object.
+	 */
+	BdfSlice createSlice(ByteBuffer b) throws FormatException;
 }
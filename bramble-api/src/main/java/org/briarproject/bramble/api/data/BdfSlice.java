@@ -0,0 +1,139 @@
+package org.briarproject.bramble.api.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.Nullable;
+
+/**
+ * A read-only view of a single BDF object encoded in a byte array. The
+ * encoding is validated when the slice is created, but values are only
+ * decoded when they're requested, and nested objects that aren't requested
+ * are skipped without being decoded. The underlying array is not copied, so
+ * it must not be modified while the slice is in use.
+ * <p>
+ * Validation applies the same rules as {@link BdfReader} in canonical mode,
+ * so an array can be parsed as a slice if and only if it can be read as a
+ * single object by a reader with the default limits.
+ * <p>
+ * The getX() methods throw {@link FormatException} if the object does not
+ * have the requested type. The methods for accessing elements and entries
+ * throw {@link FormatException} if the object is not a list or dictionary
+ * respectively.
+ */
+@NotNullByDefault
+public interface BdfSlice {
+
+	boolean isNull();
+
+	boolean isBoolean();
+
+	boolean isLong();
+
+	boolean isDouble();
+
+	boolean isString();
+
+	boolean isRaw();
+
+	boolean isList();
+
+	boolean isDictionary();
+
+	boolean getBoolean() throws FormatException;
+
+	long getLong() throws FormatException;
+
+	/**
+	 * Returns the value of the integer.
+	 *
+	 * @throws FormatException if the object is not an integer or cannot be
+	 * represented as a Java int.
+	 */
+	int getInt() throws FormatException;
+
+	double getDouble() throws FormatException;
+
+	/**
+	 * Decodes and returns the value of the string.
+	 */
+	String getString() throws FormatException;
+
+	/**
+	 * Returns a copy of the value of the raw.
+	 */
+	byte[] getRaw() throws FormatException;
+
+	/**
+	 * Returns the array containing the slice. Together with
+	 * {@link #getValueOffset()} and {@link #getValueLength()}, this gives
+	 * access to the bytes of a string or raw value without copying them.
+	 */
+	byte[] getBuffer();
+
+	/**
+	 * Returns the offset into the {@link #getBuffer() buffer} of the UTF-8
+	 * bytes of a string or the bytes of a raw.
+	 */
+	int getValueOffset() throws FormatException;
+
+	/**
+	 * Returns the length of the UTF-8 bytes of a string or the bytes of a
+	 * raw.
+	 */
+	int getValueLength() throws FormatException;
+
+	/**
+	 * Returns the number of elements in a list or entries in a dictionary.
+	 */
+	int size() throws FormatException;
+
+	/**
+	 * Returns the element of a list at the given index.
+	 *
+	 * @throws FormatException if the object is not a list or the index is
+	 * out of range.
+	 */
+	BdfSlice get(int index) throws FormatException;
+
+	/**
+	 * Returns the key of the entry of a dictionary at the given index. The
+	 * entries are sorted by key.
+	 *
+	 * @throws FormatException if the object is not a dictionary or the index
+	 * is out of range.
+	 */
+	String getKey(int index) throws FormatException;
+
+	/**
+	 * Returns the value of the entry of a dictionary at the given index. The
+	 * entries are sorted by key.
+	 *
+	 * @throws FormatException if the object is not a dictionary or the index
+	 * is out of range.
+	 */
+	BdfSlice getValue(int index) throws FormatException;
+
+	/**
+	 * Returns the value of a dictionary for the given key, or null if the
+	 * dictionary does not contain the key.
+	 */
+	@Nullable
+	BdfSlice get(String key) throws FormatException;
+
+	/**
+	 * Returns a cursor over the elements of a list, or over the keys and
+	 * values of a dictionary in alternating order.
+	 */
+	BdfCursor getCursor() throws FormatException;
+
+	/**
+	 * Decodes the slice as a {@link BdfList}.
+	 */
+	BdfList toList() throws FormatException;
+
+	/**
+	 * Decodes the slice as a {@link BdfDictionary}.
+	 */
+	BdfDictionary toDictionary() throws FormatException;
+}
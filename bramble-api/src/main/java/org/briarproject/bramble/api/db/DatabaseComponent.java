@@ -28,6 +28,7 @@ import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -76,6 +77,15 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	void close() throws DbException;
 
+	/**
+	 * Declares that the given message metadata keys are used in queries, so
+	 * the database should index them. Keys are indexed by name across all
+	 * clients. This method must be called before the database is opened.
+	 *
+	 * @throws IllegalStateException if the database has already been opened
+	 */
+	void registerIndexedMetadataKeys(Collection<String> keys);
+
 	/**
 	 * Stores a contact associated with the given local and remote pseudonyms,
 	 * and returns an ID for the contact.
@@ -125,6 +135,20 @@ public interface DatabaseComponent extends TransactionManager {
 	KeySetId addTransportKeys(Transaction txn, PendingContactId p,
 			TransportKeys k) throws DbException;
 
+	/**
+	 * Compacts the database's storage for up to the given number of
+	 * milliseconds, aiming for the given percentage of the storage to be
+	 * used by live data. Returns true if the target hasn't been reached and
+	 * compaction can continue, or false if it's finished or the database
+	 * doesn't support incremental compaction.
+	 * <p/>
+	 * The storage is only compacted if read-only transactions can't run
+	 * concurrently with read-write transactions, as compaction may require
+	 * exclusive access to the storage.
+	 */
+	boolean compactStorage(Transaction txn, int targetFillRate, long maxMillis)
+			throws DbException;
+
 	/**
 	 * Returns true if there are any acks to send to the given contact.
 	 * <p/>
@@ -217,6 +241,27 @@ public interface DatabaseComponent extends TransactionManager {
 	Collection<Message> generateBatch(Transaction txn, ContactId c,
 			long capacity, long maxLatency) throws DbException;
 
+	/**
+	 * Returns the next batch of messages from the given cursor and advances
+	 * the cursor past them. The total length of the messages, including
+	 * record headers, will be no more than the given capacity. Returns null
+	 * if there are no more messages that would fit in the given capacity.
+	 * <p/>
+	 * Unlike {@link #generateBatch(Transaction, ContactId, long, long)} this
+	 * method continues from the cursor's position rather than scanning the
+	 * messages to send from the start, so a session can export a large
+	 * number of messages without rescanning the ones it has already sent.
+	 * <p/>
+	 * Read-only if {@code markAsSent} is false.
+	 *
+	 * @param markAsSent True if the messages should be marked as sent.
+	 * If false they can be marked as sent by calling
+	 * {@link #setMessagesSent(Transaction, ContactId, Collection, long)}.
+	 */
+	@Nullable
+	Collection<Message> generateBatch(Transaction txn, MessageCursor cursor,
+			long capacity, boolean markAsSent) throws DbException;
+
 	/**
 	 * Returns an offer for the given contact for transmission over a
 	 * transport with the given maximum latency, or null if there are no
@@ -328,6 +373,13 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	Collection<Identity> getIdentities(Transaction txn) throws DbException;
 
+	/**
+	 * Returns the time at which the latest read-write transaction was
+	 * started, or zero if no read-write transaction has been started. This
+	 * can be used to tell whether the database is idle.
+	 */
+	long getLastWriteTime();
+
 	/**
 	 * Returns the message with the given ID.
 	 * <p/>
@@ -337,6 +389,35 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	Message getMessage(Transaction txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns a stream for reading the body of the given message, starting
+	 * at the given offset. Large bodies are read from storage as the stream
+	 * is read, rather than being loaded into memory. The caller is
+	 * responsible for closing the stream.
+	 * <p/>
+	 * Read-only.
+	 *
+	 * @throws MessageDeletedException if the message has been deleted
+	 */
+	InputStream getMessageBody(Transaction txn, MessageId m, int offset)
+			throws DbException;
+
+	/**
+	 * Returns a cursor for sending messages to the given contact over a
+	 * transport with the given maximum latency. The cursor's batches are
+	 * generated by
+	 * {@link #generateBatch(Transaction, MessageCursor, long, boolean)}.
+	 * <p/>
+	 * If {@code eager} is true the cursor includes all unacked messages, in
+	 * the order returned by
+	 * {@link #getUnackedMessagesToSend(Transaction, ContactId)}. Otherwise it
+	 * includes the messages that are due to be sent, in timestamp order.
+	 * <p/>
+	 * Read-only.
+	 */
+	MessageCursor getMessageCursor(Transaction txn, ContactId c,
+			long maxLatency, boolean eager) throws DbException;
+
 	/**
 	 * Returns the IDs of all delivered messages in the given group.
 	 * <p/>
@@ -355,6 +436,22 @@ public interface DatabaseComponent extends TransactionManager {
 	Collection<MessageId> getMessageIds(Transaction txn, GroupId g,
 			Metadata query) throws DbException;
 
+	/**
+	 * Returns the IDs and timestamps of the newest delivered messages in
+	 * the given group with timestamps earlier than the given timestamp.
+	 * The map's iteration order is newest first, with messages that have
+	 * equal timestamps ordered by ID.
+	 * <p/>
+	 * At least the given number of IDs are returned if there are enough
+	 * messages. If the limit falls among messages with equal timestamps,
+	 * all the messages with that timestamp are returned, so the timestamp
+	 * of the last message can be used as the cursor for the next call.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Long> getMessageIds(Transaction txn, GroupId g,
+			long beforeTimestamp, int limit) throws DbException;
+
 	/**
 	 * Returns the IDs of all messages received from the given contact that
 	 * need to be acknowledged.
@@ -422,6 +519,16 @@ public interface DatabaseComponent extends TransactionManager {
 	Map<MessageId, Metadata> getMessageMetadata(Transaction txn, GroupId g)
 			throws DbException;
 
+	/**
+	 * Returns the metadata for all delivered messages in any of the given
+	 * groups, grouped by group. Groups that aren't in the database or don't
+	 * have any delivered messages with metadata are omitted.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, Map<MessageId, Metadata>> getMessageMetadataByGroup(
+			Transaction txn, Collection<GroupId> groupIds) throws DbException;
+
 	/**
 	 * Returns the metadata for any delivered messages in the given group with
 	 * metadata that matches all entries in the given query. If the query is
@@ -432,6 +539,18 @@ public interface DatabaseComponent extends TransactionManager {
 	Map<MessageId, Metadata> getMessageMetadata(Transaction txn, GroupId g,
 			Metadata query) throws DbException;
 
+	/**
+	 * Returns the metadata for any delivered messages in the given group with
+	 * metadata that matches all entries in the given query, including only
+	 * the given metadata keys. Messages that match the query but have none
+	 * of the given keys are returned with empty metadata. If the query is
+	 * empty, the metadata for all delivered messages is returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(Transaction txn, GroupId g,
+			Metadata query, Collection<String> keys) throws DbException;
+
 	/**
 	 * Returns the metadata for the given delivered message.
 	 * <p/>
@@ -440,6 +559,15 @@ public interface DatabaseComponent extends TransactionManager {
 	Metadata getMessageMetadata(Transaction txn, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the metadata for any of the given messages that are delivered
+	 * and have metadata.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(Transaction txn,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the metadata for the given delivered or pending message.
 	 * This is only meant to be used by the ValidationManager.
@@ -495,6 +623,15 @@ public interface DatabaseComponent extends TransactionManager {
 	MessageStatus getMessageStatus(Transaction txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the status of any of the given messages that are delivered
+	 * with respect to the given contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, MessageStatus> getMessageStatus(Transaction txn,
+			ContactId c, Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the message with the given ID for transmission to the given
 	 * contact over a transport with the given maximum latency. Returns null
@@ -586,6 +723,14 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	Settings getSettings(Transaction txn, String namespace) throws DbException;
 
+	/**
+	 * Returns the percentage of the database's storage that is used by live
+	 * data, or 100 if the database doesn't support incremental compaction.
+	 * <p/>
+	 * Read-only.
+	 */
+	int getStorageFillRate(Transaction txn) throws DbException;
+
 	/**
 	 * Returns the versions of the sync protocol supported by the given contact.
 	 * <p/>
@@ -649,6 +794,15 @@ public interface DatabaseComponent extends TransactionManager {
 	void receiveMessage(Transaction txn, ContactId c, Message m)
 			throws DbException;
 
+	/**
+	 * Processes a batch of messages from the given contact. This has the
+	 * same effect as calling
+	 * {@link #receiveMessage(Transaction, ContactId, Message)} for each
+	 * message in order, but needs fewer database lookups.
+	 */
+	void receiveMessages(Transaction txn, ContactId c,
+			Collection<Message> messages) throws DbException;
+
 	/**
 	 * Processes an offer from the given contact.
 	 */
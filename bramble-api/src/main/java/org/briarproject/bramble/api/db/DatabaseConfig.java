@@ -26,4 +26,29 @@ public interface DatabaseConfig {
 	 */
 	@Nullable
 	KeyStrengthener getKeyStrengthener();
+
+	/**
+	 * Returns the maximum number of read-only transactions that may run
+	 * concurrently with a read-write transaction, or zero if a read-write
+	 * transaction should exclude all other transactions.
+	 * <p>
+	 * A read-only transaction that runs concurrently with a read-write
+	 * transaction sees a snapshot of the database as of the start of the
+	 * read-only transaction. Databases that can't provide snapshots ignore
+	 * this setting, and read-write transactions exclude all other
+	 * transactions.
+	 */
+	int getMaxConcurrentReadTransactions();
+
+	/**
+	 * Returns the maximum time in milliseconds for which the database may
+	 * delay writing committed read-write transactions to disk, so that the
+	 * writes of several transactions can be combined, or zero if each
+	 * transaction should be written to disk when it commits.
+	 * <p>
+	 * Events and tasks attached to a transaction are not submitted until the
+	 * transaction has been written to disk. A transaction can be written to
+	 * disk without delay by calling {@link Transaction#setSynchronousCommit()}.
+	 */
+	long getGroupCommitDelay();
 }
@@ -0,0 +1,37 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A position in an ordered scan of the messages to send to a contact. A
+ * cursor allows an outgoing session to generate a series of batches, each in
+ * its own transaction, without rescanning the messages it has already
+ * passed.
+ * <p/>
+ * Cursors are created by {@link DatabaseComponent#getMessageCursor} and
+ * advanced by {@link DatabaseComponent#generateBatch}.
+ */
+@NotThreadSafe
+@NotNullByDefault
+public interface MessageCursor {
+
+	/**
+	 * Returns the ID of the contact to which the messages will be sent.
+	 */
+	ContactId getContactId();
+
+	/**
+	 * Returns the maximum latency of the transport over which the messages
+	 * will be sent.
+	 */
+	long getMaxLatency();
+
+	/**
+	 * Returns true if the cursor includes messages that have already been
+	 * sent and are not yet due for retransmission.
+	 */
+	boolean isEager();
+}
@@ -7,9 +7,4 @@ public interface MigrationListener {
 	 * It will be called once for each migration being applied.
 	 */
 	void onDatabaseMigration();
-
-	/**
-	 * This is called when compaction is started while opening the database.
-	 */
-	void onDatabaseCompaction();
 }
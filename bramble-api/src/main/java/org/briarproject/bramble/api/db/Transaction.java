@@ -20,7 +20,7 @@ public class Transaction {
 	private final boolean readOnly;
 
 	private List<CommitAction> actions = null;
-	private boolean committed = false;
+	private boolean synchronousCommit = false, committed = false;
 
 	public Transaction(Object txn, boolean readOnly) {
 		this.txn = txn;
@@ -73,6 +73,33 @@ public class Transaction {
 		return actions == null ? emptyList() : actions;
 	}
 
+	/**
+	 * Requests that the transaction be written to disk before
+	 * {@link DatabaseComponent#commitTransaction(Transaction)} returns, even
+	 * if the database {@link DatabaseConfig#getGroupCommitDelay() delays
+	 * writing committed transactions to disk}. This should be used for
+	 * changes that must not be lost if the device crashes after the results
+	 * of the transaction have been used, such as updates to transport keys.
+	 * <p>
+	 * If the transaction is committed but can't be written to disk,
+	 * {@link DatabaseComponent#commitTransaction(Transaction)} throws a
+	 * {@link DbException} even though the transaction's changes are visible
+	 * to later transactions. The caller should treat the results of the
+	 * transaction as not yet durable rather than retrying the transaction.
+	 * The transaction's events and tasks are dispatched when a later attempt
+	 * writes it to disk.
+	 */
+	public void setSynchronousCommit() {
+		synchronousCommit = true;
+	}
+
+	/**
+	 * Returns true if {@link #setSynchronousCommit()} has been called.
+	 */
+	public boolean isSynchronousCommit() {
+		return synchronousCommit;
+	}
+
 	/**
 	 * Returns true if the transaction has been committed.
 	 */
@@ -9,10 +9,20 @@ import javax.annotation.concurrent.ThreadSafe;
 /**
  * An interface for managing database transactions.
  * <p>
- * Read-only transactions may access the database concurrently. Read-write
- * transactions access the database exclusively, so starting a read-only or
- * read-write transaction will block until there are no read-write
- * transactions in progress.
+ * Read-only transactions may access the database concurrently. Only one
+ * read-write transaction may access the database at a time. Unless
+ * {@link DatabaseConfig#getMaxConcurrentReadTransactions()} allows read-only
+ * transactions to run alongside it, a read-write transaction also excludes
+ * all read-only transactions.
+ * <p>
+ * A read-only transaction that runs alongside a read-write transaction may
+ * load data that the read-write transaction changes before the read-only
+ * transaction ends. Any event that the read-write transaction broadcasts
+ * when it commits may therefore be handled before the read-only transaction
+ * ends. A component that caches data loaded in read-only transactions and
+ * invalidates the cache when such an event is handled must not cache data
+ * that was loaded before the invalidation, for example by checking a
+ * counter that is incremented by each invalidation.
  * <p>
  * Failing to {@link #endTransaction(Transaction) end} a transaction will
  * prevent other callers from accessing the database, so it is recommended to
@@ -44,6 +54,12 @@ public interface TransactionManager {
 	 * Commits a transaction to the database.
 	 * {@link #endTransaction(Transaction)} must be called to release the
 	 * database lock.
+	 * <p>
+	 * If the transaction {@link Transaction#setSynchronousCommit() must be
+	 * written to disk} before this method returns and that fails, a
+	 * {@link DbException} is thrown after the transaction has been
+	 * committed. In that case {@link Transaction#isCommitted()} returns
+	 * true.
 	 */
 	void commitTransaction(Transaction txn) throws DbException;
 
@@ -11,7 +11,27 @@ public interface EventBus {
 	void addListener(EventListener l);
 
 	/**
-	 * Removes a listener.
+	 * Adds a listener to be notified when events of the given type, or any
+	 * subtype, occur. This is cheaper than notifying the listener of all
+	 * events. A listener may be added for more than one type, in which case
+	 * it's notified once for each registration that matches an event.
+	 */
+	void addListener(Class<? extends Event> type, EventListener l);
+
+	/**
+	 * Adds a listener to be notified when events of the given type, or any
+	 * subtype, occur that concern the given key, such as a
+	 * {@link org.briarproject.bramble.api.contact.ContactId ContactId} or
+	 * {@link org.briarproject.bramble.api.plugin.TransportId TransportId}.
+	 *
+	 * @see #addListener(Class, EventListener)
+	 */
+	void addListener(Class<? extends KeyedEvent> type, Object key,
+			EventListener l);
+
+	/**
+	 * Removes a listener, including all its registrations for particular
+	 * event types and keys.
 	 */
 	void removeListener(EventListener l);
 
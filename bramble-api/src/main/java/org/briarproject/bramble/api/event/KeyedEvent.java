@@ -0,0 +1,21 @@
+package org.briarproject.bramble.api.event;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.Collection;
+
+/**
+ * An {@link Event} that concerns one or more contacts, transports or other
+ * objects, identified by keys. Listeners can use
+ * {@link EventBus#addListener(Class, Object, EventListener)} to be notified
+ * only of events that concern a particular key.
+ */
+@NotNullByDefault
+public interface KeyedEvent {
+
+	/**
+	 * Returns the keys of the objects the event concerns. Keys are compared
+	 * using {@link Object#equals(Object)}.
+	 */
+	Collection<?> getKeys();
+}
@@ -40,6 +40,11 @@ public interface LifecycleManager {
 		CREATED,
 		STARTING,
 		MIGRATING_DATABASE,
+		/**
+		 * @deprecated The database is compacted in the background rather
+		 * than while it's being opened, so this state is no longer entered.
+		 */
+		@Deprecated
 		COMPACTING_DATABASE,
 		STARTING_SERVICES,
 		RUNNING,
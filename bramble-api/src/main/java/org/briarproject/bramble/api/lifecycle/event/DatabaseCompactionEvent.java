@@ -0,0 +1,39 @@
+package org.briarproject.bramble.api.lifecycle.event;
+
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when the database's storage has been compacted
+ * in the background, to report the progress of the compaction.
+ */
+@Immutable
+@NotNullByDefault
+public class DatabaseCompactionEvent extends Event {
+
+	private final int fillRate;
+	private final boolean finished;
+
+	public DatabaseCompactionEvent(int fillRate, boolean finished) {
+		this.fillRate = fillRate;
+		this.finished = finished;
+	}
+
+	/**
+	 * Returns the percentage of the database's storage that is used by live
+	 * data.
+	 */
+	public int getFillRate() {
+		return fillRate;
+	}
+
+	/**
+	 * Returns true if compaction has finished, or false if it will continue
+	 * when the database is idle.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+}
@@ -0,0 +1,67 @@
+package org.briarproject.bramble.api.plugin;
+
+import org.briarproject.bramble.api.Pair;
+import org.briarproject.bramble.api.plugin.duplex.DuplexTransportConnection;
+import org.briarproject.bramble.api.properties.TransportProperties;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.Collection;
+
+import javax.annotation.Nullable;
+
+/**
+ * Schedules outgoing connection attempts for a duplex transport plugin,
+ * limiting the number of attempts that run concurrently.
+ */
+@NotNullByDefault
+public interface ConnectionScheduler {
+
+	/**
+	 * Schedules attempts to connect to the given contacts, replacing any
+	 * attempts from a previous call that have not yet started.
+	 * <p>
+	 * Contacts with recent successful connections are tried first. Contacts
+	 * with several consecutive failed attempts are skipped until their retry
+	 * delay has elapsed. As many attempts as can run concurrently are
+	 * started immediately, and the start times of any further attempts are
+	 * spread across the given window.
+	 *
+	 * @param window The time in milliseconds over which to spread the
+	 * attempts, usually the plugin's polling interval.
+	 */
+	void schedule(Collection<Pair<TransportProperties, ConnectionHandler>>
+			properties, int window, Connector connector);
+
+	/**
+	 * Cancels any attempts that have not yet started. Attempts that have
+	 * already started are allowed to finish. This method should be called
+	 * when the plugin stops.
+	 */
+	void cancel();
+
+	/**
+	 * Returns the number of connection attempts that have been started.
+	 */
+	long getAttemptCount();
+
+	/**
+	 * Returns the number of connection attempts that have succeeded.
+	 */
+	long getSuccessCount();
+
+	/**
+	 * Returns the number of connection attempts waiting to be started.
+	 */
+	int getQueueDepth();
+
+	@NotNullByDefault
+	interface Connector {
+
+		/**
+		 * Tries to create a connection using the given transport
+		 * properties, returning null if the attempt fails.
+		 */
+		@Nullable
+		DuplexTransportConnection connect(TransportProperties p);
+	}
+}
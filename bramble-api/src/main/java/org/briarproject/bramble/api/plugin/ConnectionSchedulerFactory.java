@@ -0,0 +1,6 @@
+package org.briarproject.bramble.api.plugin;
+
+public interface ConnectionSchedulerFactory {
+
+	ConnectionScheduler createConnectionScheduler(int maxConcurrentAttempts);
+}
@@ -1,19 +1,24 @@
 package org.briarproject.bramble.api.plugin.event;
 
 import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.KeyedEvent;
 import org.briarproject.bramble.api.plugin.Plugin.State;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
+
 import javax.annotation.concurrent.Immutable;
 
+import static java.util.Collections.singletonList;
+
 /**
  * An event that is broadcast when a plugin leaves the {@link State#ACTIVE}
  * state.
  */
 @Immutable
 @NotNullByDefault
-public class TransportInactiveEvent extends Event {
+public class TransportInactiveEvent extends Event implements KeyedEvent {
 
 	private final TransportId transportId;
 
@@ -24,4 +29,9 @@ public class TransportInactiveEvent extends Event {
 	public TransportId getTransportId() {
 		return transportId;
 	}
+
+	@Override
+	public Collection<?> getKeys() {
+		return singletonList(transportId);
+	}
 }
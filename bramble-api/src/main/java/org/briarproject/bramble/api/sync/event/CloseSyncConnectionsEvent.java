@@ -1,18 +1,23 @@
 package org.briarproject.bramble.api.sync.event;
 
 import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.KeyedEvent;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
+
 import javax.annotation.concurrent.Immutable;
 
+import static java.util.Collections.singletonList;
+
 /**
  * An event that is broadcast when all sync connections using a given
  * transport should be closed.
  */
 @Immutable
 @NotNullByDefault
-public class CloseSyncConnectionsEvent extends Event {
+public class CloseSyncConnectionsEvent extends Event implements KeyedEvent {
 
 	private final TransportId transportId;
 
@@ -23,4 +28,9 @@ public class CloseSyncConnectionsEvent extends Event {
 	public TransportId getTransportId() {
 		return transportId;
 	}
+
+	@Override
+	public Collection<?> getKeys() {
+		return singletonList(transportId);
+	}
 }
@@ -2,6 +2,7 @@ package org.briarproject.bramble.api.sync.event;
 
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.KeyedEvent;
 import org.briarproject.bramble.api.sync.Group.Visibility;
 import org.briarproject.nullsafety.NotNullByDefault;
 
@@ -14,7 +15,7 @@ import javax.annotation.concurrent.Immutable;
  */
 @Immutable
 @NotNullByDefault
-public class GroupVisibilityUpdatedEvent extends Event {
+public class GroupVisibilityUpdatedEvent extends Event implements KeyedEvent {
 
 	private final Visibility visibility;
 	private final Collection<ContactId> affected;
@@ -35,4 +36,9 @@ public class GroupVisibilityUpdatedEvent extends Event {
 	public Collection<ContactId> getAffectedContacts() {
 		return affected;
 	}
+
+	@Override
+	public Collection<?> getKeys() {
+		return affected;
+	}
 }
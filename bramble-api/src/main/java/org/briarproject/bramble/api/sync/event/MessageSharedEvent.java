@@ -2,11 +2,13 @@ package org.briarproject.bramble.api.sync.event;
 
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.KeyedEvent;
 import org.briarproject.bramble.api.sync.Group.Visibility;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
 import java.util.Map;
 
 import javax.annotation.concurrent.Immutable;
@@ -16,7 +18,7 @@ import javax.annotation.concurrent.Immutable;
  */
 @Immutable
 @NotNullByDefault
-public class MessageSharedEvent extends Event {
+public class MessageSharedEvent extends Event implements KeyedEvent {
 
 	private final MessageId messageId;
 	private final GroupId groupId;
@@ -47,4 +49,9 @@ public class MessageSharedEvent extends Event {
 	public Map<ContactId, Boolean> getGroupVisibility() {
 		return groupVisibility;
 	}
+
+	@Override
+	public Collection<?> getKeys() {
+		return groupVisibility.keySet();
+	}
 }
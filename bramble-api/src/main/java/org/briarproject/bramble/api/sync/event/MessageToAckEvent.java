@@ -2,17 +2,22 @@ package org.briarproject.bramble.api.sync.event;
 
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.KeyedEvent;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
+
 import javax.annotation.concurrent.Immutable;
 
+import static java.util.Collections.singletonList;
+
 /**
  * An event that is broadcast when a message is received from, or offered by, a
  * contact and needs to be acknowledged.
  */
 @Immutable
 @NotNullByDefault
-public class MessageToAckEvent extends Event {
+public class MessageToAckEvent extends Event implements KeyedEvent {
 
 	private final ContactId contactId;
 
@@ -23,4 +28,9 @@ public class MessageToAckEvent extends Event {
 	public ContactId getContactId() {
 		return contactId;
 	}
+
+	@Override
+	public Collection<?> getKeys() {
+		return singletonList(contactId);
+	}
 }
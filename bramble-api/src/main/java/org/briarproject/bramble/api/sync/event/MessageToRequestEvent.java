@@ -2,17 +2,22 @@ package org.briarproject.bramble.api.sync.event;
 
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.KeyedEvent;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
+
 import javax.annotation.concurrent.Immutable;
 
+import static java.util.Collections.singletonList;
+
 /**
  * An event that is broadcast when a message is offered by a contact and needs
  * to be requested.
  */
 @Immutable
 @NotNullByDefault
-public class MessageToRequestEvent extends Event {
+public class MessageToRequestEvent extends Event implements KeyedEvent {
 
 	private final ContactId contactId;
 
@@ -23,4 +28,9 @@ public class MessageToRequestEvent extends Event {
 	public ContactId getContactId() {
 		return contactId;
 	}
+
+	@Override
+	public Collection<?> getKeys() {
+		return singletonList(contactId);
+	}
 }
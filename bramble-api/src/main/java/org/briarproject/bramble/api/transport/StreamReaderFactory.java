@@ -14,6 +14,20 @@ public interface StreamReaderFactory {
 	 */
 	InputStream createStreamReader(InputStream in, StreamContext ctx);
 
+	/**
+	 * Creates an {@link InputStream InputStream} for reading from a
+	 * transport stream, which reads and decrypts frames ahead of the caller
+	 * on a background thread. This is useful for transports with high
+	 * bandwidth, where reading and decryption would otherwise wait for the
+	 * caller.
+	 * <p/>
+	 * The background thread may remain blocked reading from the given
+	 * stream until the stream is closed, so this is best suited to streams
+	 * that don't wait for data, such as files.
+	 */
+	InputStream createReadAheadStreamReader(InputStream in,
+			StreamContext ctx);
+
 	/**
 	 * Creates an {@link InputStream InputStream} for reading from a contact
 	 * exchange stream.
@@ -12,6 +12,15 @@ public interface StreamWriterFactory {
 	 */
 	StreamWriter createStreamWriter(OutputStream out, StreamContext ctx);
 
+	/**
+	 * Creates a {@link StreamWriter} for writing to a transport stream, which
+	 * writes encrypted frames to the output stream on a background thread.
+	 * This is useful for transports with high bandwidth, where encryption
+	 * and writing would otherwise wait for each other.
+	 */
+	StreamWriter createPipelinedStreamWriter(OutputStream out,
+			StreamContext ctx);
+
 	/**
 	 * Creates a {@link StreamWriter} for writing to a contact exchange stream.
 	 */
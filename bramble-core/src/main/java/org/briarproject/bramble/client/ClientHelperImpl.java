@@ -13,6 +13,7 @@ import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.BdfReader;
 import org.briarproject.bramble.api.data.BdfReaderFactory;
+import org.briarproject.bramble.api.data.BdfSlice;
 import org.briarproject.bramble.api.data.BdfWriter;
 import org.briarproject.bramble.api.data.BdfWriterFactory;
 import org.briarproject.bramble.api.data.MetadataEncoder;
@@ -86,13 +87,14 @@ class ClientHelperImpl implements ClientHelper {
 	private final MetadataEncoder metadataEncoder;
 	private final CryptoComponent crypto;
 	private final AuthorFactory authorFactory;
+	private final ContactGroupCache contactGroupCache;
 
 	@Inject
 	ClientHelperImpl(DatabaseComponent db, MessageFactory messageFactory,
 			BdfReaderFactory bdfReaderFactory,
 			BdfWriterFactory bdfWriterFactory, MetadataParser metadataParser,
 			MetadataEncoder metadataEncoder, CryptoComponent crypto,
-			AuthorFactory authorFactory) {
+			AuthorFactory authorFactory, ContactGroupCache contactGroupCache) {
 		this.db = db;
 		this.messageFactory = messageFactory;
 		this.bdfReaderFactory = bdfReaderFactory;
@@ -101,6 +103,7 @@ class ClientHelperImpl implements ClientHelper {
 		this.metadataEncoder = metadataEncoder;
 		this.crypto = crypto;
 		this.authorFactory = authorFactory;
+		this.contactGroupCache = contactGroupCache;
 	}
 
 	@Override
@@ -215,6 +218,24 @@ class ClientHelperImpl implements ClientHelper {
 		return parsed;
 	}
 
+	@Override
+	public Map<GroupId, Map<MessageId, BdfDictionary>> getMessageMetadataByGroup(
+			Transaction txn, Collection<GroupId> groupIds)
+			throws DbException, FormatException {
+		Map<GroupId, Map<MessageId, Metadata>> raw =
+				db.getMessageMetadataByGroup(txn, groupIds);
+		Map<GroupId, Map<MessageId, BdfDictionary>> parsed =
+				new HashMap<>(raw.size());
+		for (Entry<GroupId, Map<MessageId, Metadata>> e : raw.entrySet()) {
+			Map<MessageId, BdfDictionary> group =
+					new HashMap<>(e.getValue().size());
+			for (Entry<MessageId, Metadata> e1 : e.getValue().entrySet())
+				group.put(e1.getKey(), metadataParser.parse(e1.getValue()));
+			parsed.put(e.getKey(), group);
+		}
+		return parsed;
+	}
+
 	@Override
 	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
 			GroupId g, BdfDictionary query) throws DbException,
@@ -235,6 +256,30 @@ class ClientHelperImpl implements ClientHelper {
 		return parsed;
 	}
 
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, BdfDictionary query,
+			Collection<String> keys) throws DbException, FormatException {
+		Metadata metadata = metadataEncoder.encode(query);
+		Map<MessageId, Metadata> raw =
+				db.getMessageMetadata(txn, g, metadata, keys);
+		Map<MessageId, BdfDictionary> parsed = new HashMap<>(raw.size());
+		for (Entry<MessageId, Metadata> e : raw.entrySet())
+			parsed.put(e.getKey(), metadataParser.parse(e.getValue()));
+		return parsed;
+	}
+
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids) throws DbException,
+			FormatException {
+		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, ids);
+		Map<MessageId, BdfDictionary> parsed = new HashMap<>(raw.size());
+		for (Entry<MessageId, Metadata> e : raw.entrySet())
+			parsed.put(e.getKey(), metadataParser.parse(e.getValue()));
+		return parsed;
+	}
+
 	@Override
 	public void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException {
@@ -358,6 +403,22 @@ class ClientHelperImpl implements ClientHelper {
 		return BdfList.of(a.getFormatVersion(), a.getName(), a.getPublicKey());
 	}
 
+	@Override
+	public BdfSlice toSlice(byte[] b, int off, int len)
+			throws FormatException {
+		return bdfReaderFactory.createSlice(b, off, len);
+	}
+
+	@Override
+	public BdfSlice toSlice(byte[] b) throws FormatException {
+		return bdfReaderFactory.createSlice(b, 0, b.length);
+	}
+
+	@Override
+	public BdfSlice toSlice(Message m) throws FormatException {
+		return toSlice(m.getBody());
+	}
+
 	@Override
 	public byte[] sign(String label, BdfList toSign, PrivateKey privateKey)
 			throws FormatException, GeneralSecurityException {
@@ -499,6 +560,8 @@ class ClientHelperImpl implements ClientHelper {
 	@Override
 	public ContactId getContactId(Transaction txn, GroupId contactGroupId)
 			throws DbException {
+		ContactId cached = contactGroupCache.getContactId(contactGroupId);
+		if (cached != null) return cached;
 		try {
 			BdfDictionary meta =
 					getGroupMetadataAsDictionary(txn, contactGroupId);
@@ -2,6 +2,11 @@ package org.briarproject.bramble.client;
 
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.contact.ContactManager;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+
+import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
@@ -20,4 +25,14 @@ public class ClientModule {
 		return contactGroupFactory;
 	}
 
+	@Provides
+	@Singleton
+	ContactGroupCache provideContactGroupCache(DatabaseComponent db,
+			LifecycleManager lifecycleManager, ContactManager contactManager) {
+		ContactGroupCache contactGroupCache = new ContactGroupCache(db);
+		lifecycleManager.registerOpenDatabaseHook(contactGroupCache);
+		contactManager.registerContactHook(contactGroupCache);
+		return contactGroupCache;
+	}
+
 }
@@ -0,0 +1,148 @@
+package org.briarproject.bramble.client;
+
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.ContactManager.ContactHook;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager.OpenDatabaseHook;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Remembers the contact groups that have been created for each contact and
+ * client, so they don't have to be derived again by encoding and hashing the
+ * group descriptor, and the contact to which each contact group belongs, so
+ * it doesn't have to be loaded from the group's metadata.
+ * <p>
+ * The contacts are loaded when the database is opened and kept up to date
+ * through a {@link ContactHook}. The first time a contact group is created
+ * for a client, the client's groups for all the other contacts are derived
+ * and cached as well.
+ * <p>
+ * The entries for a contact are dropped while the contact is being removed,
+ * and the contact is remembered as removed so that no entries for it are
+ * returned or added afterwards, even by tasks racing with the removal. If the
+ * removal is rolled back, lookups for the contact just miss the cache.
+ */
+@ThreadSafe
+@NotNullByDefault
+class ContactGroupCache implements OpenDatabaseHook, ContactHook {
+
+	private final DatabaseComponent db;
+
+	private final ConcurrentMap<ContactId, Contact> liveContacts =
+			new ConcurrentHashMap<>();
+	private final Set<ContactId> removedContacts =
+			Collections.newSetFromMap(
+					new ConcurrentHashMap<ContactId, Boolean>());
+	private final Set<ClientMajorVersion> clients = Collections.newSetFromMap(
+			new ConcurrentHashMap<ClientMajorVersion, Boolean>());
+	private final ConcurrentMap<ContactId,
+			ConcurrentMap<ClientMajorVersion, Group>> groups =
+			new ConcurrentHashMap<>();
+	private final ConcurrentMap<GroupId, ContactId> contacts =
+			new ConcurrentHashMap<>();
+
+	ContactGroupCache(DatabaseComponent db) {
+		this.db = db;
+	}
+
+	@Override
+	public void onDatabaseOpened(Transaction txn) throws DbException {
+		for (Contact c : db.getContacts(txn)) addContact(c);
+	}
+
+	@Override
+	public void addingContact(Transaction txn, Contact c) {
+		addContact(c);
+	}
+
+	@Override
+	public void removingContact(Transaction txn, Contact c) {
+		ContactId id = c.getId();
+		removedContacts.add(id);
+		liveContacts.remove(id);
+		ConcurrentMap<ClientMajorVersion, Group> clientGroups =
+				groups.remove(id);
+		if (clientGroups == null) return;
+		for (Group g : clientGroups.values()) contacts.remove(g.getId(), id);
+	}
+
+	private void addContact(Contact c) {
+		if (!removedContacts.contains(c.getId())) {
+			liveContacts.put(c.getId(), c);
+		}
+	}
+
+	/**
+	 * Records that contact groups are being created for the given client and
+	 * returns true if this is the first time.
+	 */
+	boolean addClient(ClientId clientId, int majorVersion) {
+		return clients.add(new ClientMajorVersion(clientId, majorVersion));
+	}
+
+	/**
+	 * Returns the contacts that haven't been removed.
+	 */
+	Collection<Contact> getContacts() {
+		return new ArrayList<>(liveContacts.values());
+	}
+
+	/**
+	 * Returns the cached contact group for the given client and contact, or
+	 * null if the group isn't cached or the contact has been removed.
+	 */
+	@Nullable
+	Group getContactGroup(ClientId clientId, int majorVersion, ContactId c) {
+		if (removedContacts.contains(c)) return null;
+		ConcurrentMap<ClientMajorVersion, Group> clientGroups = groups.get(c);
+		if (clientGroups == null) return null;
+		return clientGroups.get(new ClientMajorVersion(clientId,
+				majorVersion));
+	}
+
+	/**
+	 * Caches the given contact group for the given client and contact,
+	 * unless the contact has been removed.
+	 */
+	void addContactGroup(ClientId clientId, int majorVersion, ContactId c,
+			Group g) {
+		if (removedContacts.contains(c)) return;
+		ConcurrentMap<ClientMajorVersion, Group> clientGroups = groups.get(c);
+		if (clientGroups == null) {
+			clientGroups = new ConcurrentHashMap<>();
+			ConcurrentMap<ClientMajorVersion, Group> existing =
+					groups.putIfAbsent(c, clientGroups);
+			if (existing != null) clientGroups = existing;
+		}
+		clientGroups.put(new ClientMajorVersion(clientId, majorVersion), g);
+		contacts.put(g.getId(), c);
+	}
+
+	/**
+	 * Returns the contact to which the given contact group belongs, or null
+	 * if the group isn't cached or the contact has been removed.
+	 */
+	@Nullable
+	ContactId getContactId(GroupId g) {
+		ContactId c = contacts.get(g);
+		if (c == null || removedContacts.contains(c)) return null;
+		return c;
+	}
+}
@@ -22,12 +22,14 @@ class ContactGroupFactoryImpl implements ContactGroupFactory {
 
 	private final GroupFactory groupFactory;
 	private final ClientHelper clientHelper;
+	private final ContactGroupCache contactGroupCache;
 
 	@Inject
 	ContactGroupFactoryImpl(GroupFactory groupFactory,
-			ClientHelper clientHelper) {
+			ClientHelper clientHelper, ContactGroupCache contactGroupCache) {
 		this.groupFactory = groupFactory;
 		this.clientHelper = clientHelper;
+		this.contactGroupCache = contactGroupCache;
 	}
 
 	@Override
@@ -39,6 +41,26 @@ class ContactGroupFactoryImpl implements ContactGroupFactory {
 	@Override
 	public Group createContactGroup(ClientId clientId, int majorVersion,
 			Contact contact) {
+		Group cached = contactGroupCache.getContactGroup(clientId,
+				majorVersion, contact.getId());
+		if (cached != null) return cached;
+		if (contactGroupCache.addClient(clientId, majorVersion)) {
+			// Cache this client's groups for all the other contacts too
+			for (Contact c : contactGroupCache.getContacts()) {
+				if (c.getId().equals(contact.getId())) continue;
+				Group g = deriveContactGroup(clientId, majorVersion, c);
+				contactGroupCache.addContactGroup(clientId, majorVersion,
+						c.getId(), g);
+			}
+		}
+		Group g = deriveContactGroup(clientId, majorVersion, contact);
+		contactGroupCache.addContactGroup(clientId, majorVersion,
+				contact.getId(), g);
+		return g;
+	}
+
+	private Group deriveContactGroup(ClientId clientId, int majorVersion,
+			Contact contact) {
 		AuthorId local = contact.getLocalAuthorId();
 		AuthorId remote = contact.getAuthor().getId();
 		byte[] descriptor = createGroupDescriptor(local, remote);
@@ -99,8 +99,7 @@ abstract class DuplexSyncConnection extends SyncConnection
 	SyncSession createDuplexOutgoingSession(StreamContext ctx,
 			TransportConnectionWriter w, @Nullable Priority priority)
 			throws IOException {
-		StreamWriter streamWriter = streamWriterFactory.createStreamWriter(
-				w.getOutputStream(), ctx);
+		StreamWriter streamWriter = createStreamWriter(ctx, w);
 		ContactId c = requireNonNull(ctx.getContactId());
 		return syncSessionFactory.createDuplexOutgoingSession(c,
 				ctx.getTransportId(), w.getMaxLatency(), w.getMaxIdleTime(),
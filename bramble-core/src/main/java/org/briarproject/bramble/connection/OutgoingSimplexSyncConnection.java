@@ -75,8 +75,7 @@ class OutgoingSimplexSyncConnection extends SyncConnection implements Runnable {
 
 	private SyncSession createSimplexOutgoingSession(StreamContext ctx,
 			TransportConnectionWriter w) throws IOException {
-		StreamWriter streamWriter = streamWriterFactory.createStreamWriter(
-				w.getOutputStream(), ctx);
+		StreamWriter streamWriter = createStreamWriter(ctx, w);
 		ContactId c = requireNonNull(ctx.getContactId());
 		if (sessionRecord == null) {
 			// Use eager retransmission if the transport is lossy and cheap
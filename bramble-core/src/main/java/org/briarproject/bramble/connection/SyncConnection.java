@@ -3,8 +3,11 @@ package org.briarproject.bramble.connection;
 import org.briarproject.bramble.api.connection.ConnectionRegistry;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.plugin.LanTcpConstants;
 import org.briarproject.bramble.api.plugin.TransportConnectionReader;
+import org.briarproject.bramble.api.plugin.TransportConnectionWriter;
 import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.plugin.file.RemovableDriveConstants;
 import org.briarproject.bramble.api.properties.TransportPropertyManager;
 import org.briarproject.bramble.api.sync.PriorityHandler;
 import org.briarproject.bramble.api.sync.SyncSession;
@@ -12,14 +15,19 @@ import org.briarproject.bramble.api.sync.SyncSessionFactory;
 import org.briarproject.bramble.api.transport.KeyManager;
 import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.bramble.api.transport.StreamReaderFactory;
+import org.briarproject.bramble.api.transport.StreamWriter;
 import org.briarproject.bramble.api.transport.StreamWriterFactory;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
 
 import javax.annotation.Nullable;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.logging.Level.WARNING;
 import static org.briarproject.bramble.util.LogUtils.logException;
 import static org.briarproject.nullsafety.NullSafety.requireNonNull;
@@ -27,6 +35,23 @@ import static org.briarproject.nullsafety.NullSafety.requireNonNull;
 @NotNullByDefault
 class SyncConnection extends Connection {
 
+	/**
+	 * Transports with enough bandwidth that encryption and I/O should be
+	 * pipelined rather than waiting for each other.
+	 */
+	private static final Collection<TransportId> PIPELINED_TRANSPORTS =
+			asList(LanTcpConstants.ID, RemovableDriveConstants.ID);
+
+	/**
+	 * Transports for which decryption and I/O should be pipelined. The
+	 * read-ahead task may block on the underlying stream until it's closed,
+	 * which would pin an extra thread for every connection on transports
+	 * that wait for data from the network, so this only includes transports
+	 * that read from local storage.
+	 */
+	private static final Collection<TransportId> READ_AHEAD_TRANSPORTS =
+			singletonList(RemovableDriveConstants.ID);
+
 	final SyncSessionFactory syncSessionFactory;
 	final TransportPropertyManager transportPropertyManager;
 
@@ -55,10 +80,24 @@ class SyncConnection extends Connection {
 	SyncSession createIncomingSession(StreamContext ctx,
 			TransportConnectionReader r, PriorityHandler handler)
 			throws IOException {
-		InputStream streamReader = streamReaderFactory.createStreamReader(
-				r.getInputStream(), ctx);
+		InputStream in = r.getInputStream();
+		InputStream streamReader;
+		if (READ_AHEAD_TRANSPORTS.contains(ctx.getTransportId())) {
+			streamReader =
+					streamReaderFactory.createReadAheadStreamReader(in, ctx);
+		} else {
+			streamReader = streamReaderFactory.createStreamReader(in, ctx);
+		}
 		ContactId c = requireNonNull(ctx.getContactId());
 		return syncSessionFactory
 				.createIncomingSession(c, streamReader, handler);
 	}
+
+	StreamWriter createStreamWriter(StreamContext ctx,
+			TransportConnectionWriter w) throws IOException {
+		OutputStream out = w.getOutputStream();
+		if (PIPELINED_TRANSPORTS.contains(ctx.getTransportId()))
+			return streamWriterFactory.createPipelinedStreamWriter(out, ctx);
+		return streamWriterFactory.createStreamWriter(out, ctx);
+	}
 }
@@ -6,7 +6,7 @@ import org.briarproject.nullsafety.NotNullByDefault;
 import java.security.GeneralSecurityException;
 
 @NotNullByDefault
-interface AuthenticatedCipher {
+public interface AuthenticatedCipher {
 
 	/**
 	 * Initializes this cipher for encryption or decryption with a key and an
@@ -66,6 +66,7 @@ class CryptoComponentImpl implements CryptoComponent {
 	private static final byte PBKDF_FORMAT_SCRYPT_STRENGTHENED = 1;
 	private static final byte ONION_HS_PROTOCOL_VERSION = 3;
 	private static final int ONION_CHECKSUM_BYTES = 2;
+	private static final int MAX_CACHED_PUBLIC_KEYS = 1024;
 
 	private final SecureRandom secureRandom;
 	private final PasswordBasedKdf passwordBasedKdf;
@@ -73,6 +74,7 @@ class CryptoComponentImpl implements CryptoComponent {
 	private final KeyPairGenerator signatureKeyPairGenerator;
 	private final KeyParser agreementKeyParser, signatureKeyParser;
 	private final MessageEncrypter messageEncrypter;
+	private final PublicKeyCache publicKeyCache;
 
 	@Inject
 	CryptoComponentImpl(SecureRandomProvider secureRandomProvider,
@@ -104,6 +106,7 @@ class CryptoComponentImpl implements CryptoComponent {
 		agreementKeyParser = new AgreementKeyParser();
 		signatureKeyParser = new SignatureKeyParser();
 		messageEncrypter = new MessageEncrypter(secureRandom);
+		publicKeyCache = new PublicKeyCache(MAX_CACHED_PUBLIC_KEYS);
 	}
 
 	// Based on https://android-developers.googleblog.com/2013/08/some-securerandom-thoughts.html
@@ -296,8 +299,8 @@ class CryptoComponentImpl implements CryptoComponent {
 			throws GeneralSecurityException {
 		if (!publicKey.getKeyType().equals(KEY_TYPE_SIGNATURE))
 			throw new IllegalArgumentException();
-		Signature sig = new EdSignature();
-		sig.initVerify(publicKey);
+		EdSignature sig = new EdSignature();
+		sig.initVerify(publicKeyCache.getPublicKey(publicKey));
 		updateSignature(sig, label, signed);
 		return sig.verify(signature);
 	}
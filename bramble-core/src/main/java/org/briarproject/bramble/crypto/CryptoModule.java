@@ -3,12 +3,15 @@ package org.briarproject.bramble.crypto;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.crypto.KeyAgreementCrypto;
 import org.briarproject.bramble.api.crypto.PasswordStrengthEstimator;
+import org.briarproject.bramble.api.crypto.SignatureVerifier;
 import org.briarproject.bramble.api.crypto.StreamDecrypterFactory;
 import org.briarproject.bramble.api.crypto.StreamEncrypterFactory;
 import org.briarproject.bramble.api.crypto.TransportCrypto;
+import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.system.SecureRandomProvider;
 
 import java.security.SecureRandom;
+import java.util.concurrent.Executor;
 
 import javax.inject.Provider;
 import javax.inject.Singleton;
@@ -37,6 +40,12 @@ public class CryptoModule {
 		return new PasswordStrengthEstimatorImpl();
 	}
 
+	@Provides
+	SignatureVerifier provideSignatureVerifier(
+			SignatureVerifierImpl signatureVerifier) {
+		return signatureVerifier;
+	}
+
 	@Provides
 	TransportCrypto provideTransportCrypto(
 			TransportCryptoImpl transportCrypto) {
@@ -45,16 +54,18 @@ public class CryptoModule {
 
 	@Provides
 	StreamDecrypterFactory provideStreamDecrypterFactory(
-			Provider<AuthenticatedCipher> cipherProvider) {
-		return new StreamDecrypterFactoryImpl(cipherProvider);
+			Provider<AuthenticatedCipher> cipherProvider,
+			@IoExecutor Executor ioExecutor) {
+		return new StreamDecrypterFactoryImpl(cipherProvider, ioExecutor);
 	}
 
 	@Provides
 	StreamEncrypterFactory provideStreamEncrypterFactory(
 			CryptoComponent crypto, TransportCrypto transportCrypto,
-			Provider<AuthenticatedCipher> cipherProvider) {
+			Provider<AuthenticatedCipher> cipherProvider,
+			@IoExecutor Executor ioExecutor) {
 		return new StreamEncrypterFactoryImpl(crypto, transportCrypto,
-				cipherProvider);
+				cipherProvider, ioExecutor);
 	}
 
 	@Provides
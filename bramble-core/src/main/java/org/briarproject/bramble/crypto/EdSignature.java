@@ -49,11 +49,27 @@ class EdSignature implements Signature {
 
 	@Override
 	public void initVerify(PublicKey k) throws GeneralSecurityException {
+		initVerify(parsePublicKey(k));
+	}
+
+	/**
+	 * Initialises the signature for verification with a key that has
+	 * already been parsed by {@link #parsePublicKey(PublicKey)}.
+	 */
+	void initVerify(EdDSAPublicKey k) throws GeneralSecurityException {
+		signature.initVerify(k);
+	}
+
+	/**
+	 * Parses the given public key, which involves decompressing a curve
+	 * point. The parsed key is immutable and can be used by any number of
+	 * signatures concurrently.
+	 */
+	static EdDSAPublicKey parsePublicKey(PublicKey k) {
 		if (!k.getKeyType().equals(KEY_TYPE_SIGNATURE))
 			throw new IllegalArgumentException();
-		EdDSAPublicKey publicKey = new EdDSAPublicKey(
+		return new EdDSAPublicKey(
 				new EdDSAPublicKeySpec(k.getEncoded(), CURVE_SPEC));
-		signature.initVerify(publicKey);
 	}
 
 	@Override
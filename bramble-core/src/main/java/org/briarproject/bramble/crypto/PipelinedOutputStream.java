@@ -0,0 +1,167 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.lifecycle.IoExecutor;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+
+/**
+ * An {@link OutputStream} that copies data into a bounded ring of buffers,
+ * which are written to the underlying stream by a background task. Writing
+ * only blocks when the ring is full, and {@link #flush()} blocks until all
+ * the buffered data has been written and flushed.
+ * <p/>
+ * The background task only runs while there's buffered data, so no thread
+ * is left waiting if the stream is abandoned without being closed.
+ * <p/>
+ * This class is not thread-safe: it may be used by one thread at a time,
+ * alongside its own background task.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class PipelinedOutputStream extends OutputStream {
+
+	/**
+	 * The number of buffers in the ring.
+	 */
+	// Package access for testing
+	static final int RING_SIZE = 32;
+
+	/**
+	 * The capacity of each buffer, which is enough for a full-size frame.
+	 */
+	// Package access for testing
+	static final int BUFFER_LENGTH = MAX_FRAME_LENGTH;
+
+	private final OutputStream out;
+	private final Executor ioExecutor;
+	private final byte[][] buffers = new byte[RING_SIZE][BUFFER_LENGTH];
+	private final int[] lengths = new int[RING_SIZE];
+	private final Object lock = new Object();
+
+	// The index of the first buffered buffer and the number of buffered
+	// buffers. The producer owns the buffers outside this range
+	@GuardedBy("lock")
+	private int head = 0, count = 0;
+	@GuardedBy("lock")
+	private boolean writing = false, waiting = false;
+	@GuardedBy("lock")
+	@Nullable
+	private IOException error = null;
+
+	PipelinedOutputStream(OutputStream out, @IoExecutor Executor ioExecutor) {
+		this.out = out;
+		this.ioExecutor = ioExecutor;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int tail;
+			synchronized (lock) {
+				while (count == RING_SIZE && error == null) waitForTask();
+				if (error != null) throw error;
+				tail = (head + count) % RING_SIZE;
+			}
+			// The background task doesn't touch the buffer until it's queued
+			int n = Math.min(len, BUFFER_LENGTH);
+			System.arraycopy(b, off, buffers[tail], 0, n);
+			lengths[tail] = n;
+			off += n;
+			len -= n;
+			boolean start;
+			synchronized (lock) {
+				count++;
+				start = !writing;
+				writing = true;
+			}
+			if (start) ioExecutor.execute(this::writeBuffers);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		synchronized (lock) {
+			while (writing && error == null) waitForTask();
+			if (error != null) throw error;
+		}
+		// The background task has stopped, so it's safe to use the stream
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		out.close();
+	}
+
+	@GuardedBy("lock")
+	private void waitForTask() throws IOException {
+		waiting = true;
+		try {
+			lock.wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing");
+		} finally {
+			waiting = false;
+		}
+	}
+
+	@IoExecutor
+	private void writeBuffers() {
+		IOException failure = new IOException("Background task failed");
+		try {
+			while (true) {
+				int slot;
+				synchronized (lock) {
+					if (count == 0) {
+						writing = false;
+						lock.notifyAll();
+						return;
+					}
+					slot = head;
+				}
+				out.write(buffers[slot], 0, lengths[slot]);
+				synchronized (lock) {
+					head = (head + 1) % RING_SIZE;
+					count--;
+					// Avoid waking the producer unless it's waiting for space
+					if (waiting) lock.notifyAll();
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = new IOException(e);
+			throw e;
+		} finally {
+			// If the task stopped early, pass the failure to the producer
+			synchronized (lock) {
+				if (writing) {
+					error = failure;
+					writing = false;
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package org.briarproject.bramble.crypto;
+
+import net.i2p.crypto.eddsa.EdDSAPublicKey;
+
+import org.briarproject.bramble.api.Bytes;
+import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static org.briarproject.bramble.api.crypto.CryptoConstants.KEY_TYPE_SIGNATURE;
+
+/**
+ * A bounded cache of parsed signature public keys, keyed by their encodings.
+ * Parsing a key involves decompressing a curve point, which is a
+ * significant part of the cost of verifying a signature, and the same
+ * authors' keys are used to verify many messages. When the cache is full,
+ * the least recently used key is evicted.
+ */
+@ThreadSafe
+@NotNullByDefault
+class PublicKeyCache {
+
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	private final Map<Bytes, EdDSAPublicKey> cache;
+
+	PublicKeyCache(int maxSize) {
+		if (maxSize < 1) throw new IllegalArgumentException();
+		cache = new LinkedHashMap<Bytes, EdDSAPublicKey>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Bytes, EdDSAPublicKey> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the parsed form of the given key, parsing it if it's not
+	 * in the cache.
+	 */
+	EdDSAPublicKey getPublicKey(PublicKey k) {
+		if (!k.getKeyType().equals(KEY_TYPE_SIGNATURE))
+			throw new IllegalArgumentException();
+		Bytes encoded = new Bytes(k.getEncoded());
+		synchronized (lock) {
+			EdDSAPublicKey cached = cache.get(encoded);
+			if (cached != null) return cached;
+		}
+		// Parse the key without holding the lock. If two threads parse the
+		// same key concurrently, both results are valid
+		EdDSAPublicKey parsed = EdSignature.parsePublicKey(k);
+		synchronized (lock) {
+			cache.put(encoded, parsed);
+		}
+		return parsed;
+	}
+
+	int size() {
+		synchronized (lock) {
+			return cache.size();
+		}
+	}
+}
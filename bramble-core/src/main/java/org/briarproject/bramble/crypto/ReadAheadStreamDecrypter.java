@@ -0,0 +1,144 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.StreamDecrypter;
+import org.briarproject.bramble.api.lifecycle.IoExecutor;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+
+/**
+ * A {@link StreamDecrypter} that reads and decrypts frames ahead of the
+ * caller on a background task, storing the payloads in a bounded ring of
+ * buffers.
+ * <p/>
+ * The background task only runs while there's space in the ring, so no
+ * thread is left waiting if the caller stops reading, although a task may
+ * remain blocked reading from the underlying stream until it's closed.
+ * <p/>
+ * This class is not thread-safe: it may be used by one thread at a time,
+ * alongside its own background task.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class ReadAheadStreamDecrypter implements StreamDecrypter {
+
+	/**
+	 * The number of payload buffers in the ring.
+	 */
+	// Package access for testing
+	static final int RING_SIZE = 32;
+
+	private final StreamDecrypter decrypter;
+	private final Executor ioExecutor;
+	private final byte[][] buffers = new byte[RING_SIZE][MAX_PAYLOAD_LENGTH];
+	private final int[] lengths = new int[RING_SIZE];
+	private final Object lock = new Object();
+
+	// The index of the first decrypted payload and the number of decrypted
+	// payloads. The background task owns the buffers outside this range
+	@GuardedBy("lock")
+	private int head = 0, count = 0;
+	@GuardedBy("lock")
+	private boolean reading = false, finished = false, waiting = false;
+	@GuardedBy("lock")
+	@Nullable
+	private IOException error = null;
+
+	ReadAheadStreamDecrypter(StreamDecrypter decrypter,
+			@IoExecutor Executor ioExecutor) {
+		this.decrypter = decrypter;
+		this.ioExecutor = ioExecutor;
+	}
+
+	@Override
+	public int readFrame(byte[] payload) throws IOException {
+		// The buffer must be big enough for a full-size frame
+		if (payload.length < MAX_PAYLOAD_LENGTH)
+			throw new IllegalArgumentException();
+		int slot;
+		synchronized (lock) {
+			startTaskIfNeeded();
+			while (count == 0) {
+				if (error != null) throw error;
+				if (finished) return -1;
+				waiting = true;
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while reading");
+				} finally {
+					waiting = false;
+				}
+			}
+			slot = head;
+		}
+		// The background task doesn't touch the buffer until it's released
+		int length = lengths[slot];
+		System.arraycopy(buffers[slot], 0, payload, 0, length);
+		synchronized (lock) {
+			head = (head + 1) % RING_SIZE;
+			count--;
+			startTaskIfNeeded();
+		}
+		return length;
+	}
+
+	@GuardedBy("lock")
+	private void startTaskIfNeeded() {
+		if (reading || finished || error != null || count == RING_SIZE) return;
+		reading = true;
+		ioExecutor.execute(this::readFrames);
+	}
+
+	@IoExecutor
+	private void readFrames() {
+		IOException failure = new IOException("Background task failed");
+		try {
+			while (true) {
+				int tail;
+				synchronized (lock) {
+					if (count == RING_SIZE) {
+						reading = false;
+						return;
+					}
+					tail = (head + count) % RING_SIZE;
+				}
+				int length = decrypter.readFrame(buffers[tail]);
+				synchronized (lock) {
+					if (length == -1) {
+						finished = true;
+						reading = false;
+					} else {
+						lengths[tail] = length;
+						count++;
+					}
+					// Avoid waking the consumer unless it's waiting for data
+					if (waiting) lock.notifyAll();
+					if (finished) return;
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = new IOException(e);
+			throw e;
+		} finally {
+			// If the task stopped early, pass the failure to the consumer
+			synchronized (lock) {
+				if (reading) {
+					error = failure;
+					reading = false;
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+}
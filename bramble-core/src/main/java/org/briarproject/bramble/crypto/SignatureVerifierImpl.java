@@ -0,0 +1,129 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.CryptoExecutor;
+import org.briarproject.bramble.api.crypto.SignatureCheck;
+import org.briarproject.bramble.api.crypto.SignatureVerifier;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.util.LogUtils.logException;
+
+@Immutable
+@NotNullByDefault
+class SignatureVerifierImpl implements SignatureVerifier {
+
+	private static final Logger LOG =
+			getLogger(SignatureVerifierImpl.class.getName());
+
+	private final CryptoComponent crypto;
+	private final Executor cryptoExecutor;
+
+	@Inject
+	SignatureVerifierImpl(CryptoComponent crypto,
+			@CryptoExecutor Executor cryptoExecutor) {
+		this.crypto = crypto;
+		this.cryptoExecutor = cryptoExecutor;
+	}
+
+	@Override
+	public boolean[] verify(List<SignatureCheck> checks) {
+		int size = checks.size();
+		boolean[] results = new boolean[size];
+		if (size == 0) return results;
+		// Offer all but the first check to the executor, then work through
+		// the checks in order, performing any that haven't been started
+		List<VerificationTask> tasks = new ArrayList<>(size);
+		for (SignatureCheck check : checks) {
+			VerificationTask task = new VerificationTask(check);
+			if (!tasks.isEmpty()) cryptoExecutor.execute(task);
+			tasks.add(task);
+		}
+		for (int i = 0; i < size; i++) results[i] = tasks.get(i).getResult();
+		return results;
+	}
+
+	@Override
+	public Future<Boolean> verifyAsync(SignatureCheck check) {
+		VerificationTask task = new VerificationTask(check);
+		cryptoExecutor.execute(task);
+		return task;
+	}
+
+	@CryptoExecutor
+	private boolean verifySignature(SignatureCheck check) {
+		try {
+			return crypto.verifySignature(check.getSignature(),
+					check.getLabel(), check.getSigned(), check.getPublicKey());
+		} catch (GeneralSecurityException e) {
+			logException(LOG, INFO, e);
+			return false;
+		}
+	}
+
+	/**
+	 * A verification task that's performed on the caller's thread if it
+	 * hasn't been started when the caller waits for its result.
+	 */
+	@NotNullByDefault
+	private class VerificationTask extends FutureTask<Boolean> {
+
+		private VerificationTask(SignatureCheck check) {
+			super(() -> verifySignature(check));
+		}
+
+		@Override
+		public Boolean get() throws InterruptedException, ExecutionException {
+			// This has no effect if the task has been started
+			run();
+			return super.get();
+		}
+
+		@Override
+		public Boolean get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException,
+				TimeoutException {
+			run();
+			return super.get(timeout, unit);
+		}
+
+		/**
+		 * Waits uninterruptibly for the result, which only involves waiting
+		 * if another thread is performing the check.
+		 */
+		private boolean getResult() {
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return get();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				throw new AssertionError(cause);
+			} finally {
+				if (interrupted) Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -3,10 +3,12 @@ package org.briarproject.bramble.crypto;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.crypto.StreamDecrypter;
 import org.briarproject.bramble.api.crypto.StreamDecrypterFactory;
+import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.InputStream;
+import java.util.concurrent.Executor;
 
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
@@ -17,10 +19,13 @@ import javax.inject.Provider;
 class StreamDecrypterFactoryImpl implements StreamDecrypterFactory {
 
 	private final Provider<AuthenticatedCipher> cipherProvider;
+	private final Executor ioExecutor;
 
 	@Inject
-	StreamDecrypterFactoryImpl(Provider<AuthenticatedCipher> cipherProvider) {
+	StreamDecrypterFactoryImpl(Provider<AuthenticatedCipher> cipherProvider,
+			@IoExecutor Executor ioExecutor) {
 		this.cipherProvider = cipherProvider;
+		this.ioExecutor = ioExecutor;
 	}
 
 	@Override
@@ -31,6 +36,13 @@ class StreamDecrypterFactoryImpl implements StreamDecrypterFactory {
 				ctx.getHeaderKey());
 	}
 
+	@Override
+	public StreamDecrypter createReadAheadStreamDecrypter(InputStream in,
+			StreamContext ctx) {
+		return new ReadAheadStreamDecrypter(createStreamDecrypter(in, ctx),
+				ioExecutor);
+	}
+
 	@Override
 	public StreamDecrypter createContactExchangeStreamDecrypter(InputStream in,
 			SecretKey headerKey) {
@@ -5,10 +5,12 @@ import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.crypto.StreamEncrypter;
 import org.briarproject.bramble.api.crypto.StreamEncrypterFactory;
 import org.briarproject.bramble.api.crypto.TransportCrypto;
+import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.OutputStream;
+import java.util.concurrent.Executor;
 
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
@@ -25,14 +27,17 @@ class StreamEncrypterFactoryImpl implements StreamEncrypterFactory {
 	private final CryptoComponent crypto;
 	private final TransportCrypto transportCrypto;
 	private final Provider<AuthenticatedCipher> cipherProvider;
+	private final Executor ioExecutor;
 
 	@Inject
 	StreamEncrypterFactoryImpl(CryptoComponent crypto,
 			TransportCrypto transportCrypto,
-			Provider<AuthenticatedCipher> cipherProvider) {
+			Provider<AuthenticatedCipher> cipherProvider,
+			@IoExecutor Executor ioExecutor) {
 		this.crypto = crypto;
 		this.transportCrypto = transportCrypto;
 		this.cipherProvider = cipherProvider;
+		this.ioExecutor = ioExecutor;
 	}
 
 	@Override
@@ -50,6 +55,13 @@ class StreamEncrypterFactoryImpl implements StreamEncrypterFactory {
 				streamHeaderNonce, ctx.getHeaderKey(), frameKey);
 	}
 
+	@Override
+	public StreamEncrypter createPipelinedStreamEncrypter(OutputStream out,
+			StreamContext ctx) {
+		return createStreamEncrypter(
+				new PipelinedOutputStream(out, ioExecutor), ctx);
+	}
+
 	@Override
 	public StreamEncrypter createContactExchangeStreamEncrypter(
 			OutputStream out, SecretKey headerKey) {
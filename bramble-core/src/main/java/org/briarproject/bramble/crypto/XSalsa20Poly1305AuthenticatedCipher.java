@@ -13,6 +13,7 @@ import java.security.GeneralSecurityException;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
+import static java.util.Arrays.fill;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
 
 /**
@@ -21,6 +22,10 @@ import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENG
  * crypto_secretbox in NaCl, and to the C implementations of crypto_secretbox
  * in NaCl and libsodium once the zero-padding has been removed.
  * <p/>
+ * The cipher keeps its buffers and parameters between operations, so
+ * reinitialising it and processing data don't allocate any objects, apart
+ * from a small amount of scratch space used by the XSalsa20 key setup.
+ * <p/>
  * References:
  * <ul>
  * <li>http://nacl.cr.yp.to/secretbox.html</li>
@@ -36,24 +41,46 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 	 */
 	private static final int SUBKEY_LENGTH = 32;
 
-	private final XSalsa20Engine xSalsa20Engine;
+	/**
+	 * Length of the XSalsa20 nonce
+	 */
+	private static final int NONCE_LENGTH = 24;
+
+	private final ReusableXSalsa20Engine xSalsa20Engine;
 	private final Poly1305 poly1305;
+	private final byte[] zero, mac;
+	// The subkey is written directly into the parameters used to initialise
+	// Poly1305, which don't copy the array they were created with
+	private final KeyParameter subKeyParameter;
+	private final byte[] subKey;
 
-	private boolean encrypting;
+	private boolean encrypting, initialised = false;
 
 	XSalsa20Poly1305AuthenticatedCipher() {
-		xSalsa20Engine = new XSalsa20Engine();
+		xSalsa20Engine = new ReusableXSalsa20Engine();
 		poly1305 = new Poly1305();
+		zero = new byte[SUBKEY_LENGTH];
+		mac = new byte[MAC_LENGTH];
+		subKeyParameter = new KeyParameter(new byte[SUBKEY_LENGTH]);
+		subKey = subKeyParameter.getKey();
 	}
 
 	@Override
 	public void init(boolean encrypt, SecretKey key, byte[] iv)
 			throws GeneralSecurityException {
 		encrypting = encrypt;
-		KeyParameter k = new KeyParameter(key.getBytes());
-		ParametersWithIV params = new ParametersWithIV(k, iv);
+		if (iv.length != NONCE_LENGTH)
+			throw new GeneralSecurityException("Invalid IV");
 		try {
-			xSalsa20Engine.init(encrypt, params);
+			if (initialised) {
+				// Reuse the engine's state rather than creating parameters
+				xSalsa20Engine.rekey(key.getBytes(), iv);
+			} else {
+				KeyParameter k = new KeyParameter(key.getBytes());
+				ParametersWithIV params = new ParametersWithIV(k, iv);
+				xSalsa20Engine.init(encrypt, params);
+				initialised = true;
+			}
 		} catch (IllegalArgumentException e) {
 			throw new GeneralSecurityException(e.getMessage());
 		}
@@ -66,20 +93,16 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 			throw new GeneralSecurityException("Invalid MAC");
 		try {
 			// Generate the Poly1305 subkey from an empty array
-			byte[] zero = new byte[SUBKEY_LENGTH];
-			byte[] subKey = new byte[SUBKEY_LENGTH];
 			xSalsa20Engine.processBytes(zero, 0, SUBKEY_LENGTH, subKey, 0);
 
 			// Clamp the subkey
 			Poly1305KeyGenerator.clamp(subKey);
 
 			// Initialize Poly1305 with the subkey
-			KeyParameter k = new KeyParameter(subKey);
-			poly1305.init(k);
+			poly1305.init(subKeyParameter);
 
 			// If we are decrypting, verify the MAC
 			if (!encrypting) {
-				byte[] mac = new byte[MAC_LENGTH];
 				poly1305.update(input, inputOff + MAC_LENGTH, len - MAC_LENGTH);
 				poly1305.doFinal(mac, 0);
 				// Constant-time comparison
@@ -105,6 +128,9 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 			return encrypting ? processed + MAC_LENGTH : processed;
 		} catch (DataLengthException e) {
 			throw new GeneralSecurityException(e.getMessage());
+		} finally {
+			// Don't leave the subkey lying around
+			fill(subKey, (byte) 0);
 		}
 	}
 
@@ -112,4 +138,22 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 	public int getMacBytes() {
 		return MAC_LENGTH;
 	}
+
+	/**
+	 * An XSalsa20 engine that can be given a new key and nonce without
+	 * creating a new set of parameters.
+	 */
+	@NotThreadSafe
+	@NotNullByDefault
+	private static class ReusableXSalsa20Engine extends XSalsa20Engine {
+
+		/**
+		 * Sets the key and nonce and resets the keystream. The engine must
+		 * already have been initialised.
+		 */
+		private void rekey(byte[] key, byte[] iv) {
+			setKey(key, iv);
+			reset();
+		}
+	}
 }
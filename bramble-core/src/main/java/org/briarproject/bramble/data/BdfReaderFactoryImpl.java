@@ -1,10 +1,13 @@
 package org.briarproject.bramble.data;
 
+import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.data.BdfReader;
 import org.briarproject.bramble.api.data.BdfReaderFactory;
+import org.briarproject.bramble.api.data.BdfSlice;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import javax.annotation.concurrent.Immutable;
 
@@ -32,4 +35,22 @@ class BdfReaderFactoryImpl implements BdfReaderFactory {
 			int maxBufferSize, boolean canonical) {
 		return new BdfReaderImpl(in, nestedLimit, maxBufferSize, canonical);
 	}
+
+	@Override
+	public BdfSlice createSlice(byte[] b, int off, int len)
+			throws FormatException {
+		return BdfSliceImpl.create(b, off, len, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE);
+	}
+
+	@Override
+	public BdfSlice createSlice(ByteBuffer b) throws FormatException {
+		if (b.hasArray()) {
+			return createSlice(b.array(), b.arrayOffset() + b.position(),
+					b.remaining());
+		}
+		byte[] copy = new byte[b.remaining()];
+		b.duplicate().get(copy);
+		return createSlice(copy, 0, copy.length);
+	}
 }
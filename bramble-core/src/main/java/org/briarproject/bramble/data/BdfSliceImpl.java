@@ -0,0 +1,544 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.data.BdfCursor;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfReader;
+import org.briarproject.bramble.api.data.BdfSlice;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.util.Arrays.copyOfRange;
+import static org.briarproject.bramble.data.Types.DICTIONARY;
+import static org.briarproject.bramble.data.Types.END;
+import static org.briarproject.bramble.data.Types.FALSE;
+import static org.briarproject.bramble.data.Types.FLOAT_64;
+import static org.briarproject.bramble.data.Types.INT_16;
+import static org.briarproject.bramble.data.Types.INT_32;
+import static org.briarproject.bramble.data.Types.INT_64;
+import static org.briarproject.bramble.data.Types.INT_8;
+import static org.briarproject.bramble.data.Types.LIST;
+import static org.briarproject.bramble.data.Types.NULL;
+import static org.briarproject.bramble.data.Types.RAW_16;
+import static org.briarproject.bramble.data.Types.RAW_32;
+import static org.briarproject.bramble.data.Types.RAW_8;
+import static org.briarproject.bramble.data.Types.STRING_16;
+import static org.briarproject.bramble.data.Types.STRING_32;
+import static org.briarproject.bramble.data.Types.STRING_8;
+import static org.briarproject.bramble.data.Types.TRUE;
+import static org.briarproject.bramble.util.StringUtils.fromUtf8;
+import static org.briarproject.bramble.util.StringUtils.toUtf8;
+
+/**
+ * A {@link BdfSlice} over an array that has already been validated, so
+ * accessing the slice only needs to check types and indices.
+ * <p/>
+ * The low four bits of the type of an integer, float, string or raw give
+ * the length in bytes of the value or length field that follows the type.
+ */
+@NotThreadSafe
+@NotNullByDefault
+final class BdfSliceImpl implements BdfSlice {
+
+	private final byte[] buf;
+	private final int offset, end;
+	private final byte type;
+
+	// The offsets of the elements of a list, or of the keys and values of a
+	// dictionary, which are found when the list or dictionary is first
+	// accessed
+	@Nullable
+	private int[] index = null;
+	private int indexSize = 0;
+
+	private BdfSliceImpl(byte[] buf, int offset, int end) {
+		this.buf = buf;
+		this.offset = offset;
+		this.end = end;
+		type = buf[offset];
+	}
+
+	/**
+	 * Validates the object encoded in the given range of the array and
+	 * returns a slice for it.
+	 */
+	static BdfSlice create(byte[] b, int off, int len, int nestedLimit,
+			int maxBufferSize) throws FormatException {
+		if (off < 0 || len < 0 || off + len > b.length)
+			throw new IllegalArgumentException();
+		int end = off + len;
+		Validator v = new Validator(b, end, nestedLimit, maxBufferSize);
+		if (v.validateObject(off, 1) != end) throw new FormatException();
+		return new BdfSliceImpl(b, off, end);
+	}
+
+	@Override
+	public boolean isNull() {
+		return type == NULL;
+	}
+
+	@Override
+	public boolean isBoolean() {
+		return type == FALSE || type == TRUE;
+	}
+
+	@Override
+	public boolean isLong() {
+		return type == INT_8 || type == INT_16 || type == INT_32 ||
+				type == INT_64;
+	}
+
+	@Override
+	public boolean isDouble() {
+		return type == FLOAT_64;
+	}
+
+	@Override
+	public boolean isString() {
+		return type == STRING_8 || type == STRING_16 || type == STRING_32;
+	}
+
+	@Override
+	public boolean isRaw() {
+		return type == RAW_8 || type == RAW_16 || type == RAW_32;
+	}
+
+	@Override
+	public boolean isList() {
+		return type == LIST;
+	}
+
+	@Override
+	public boolean isDictionary() {
+		return type == DICTIONARY;
+	}
+
+	@Override
+	public boolean getBoolean() throws FormatException {
+		if (!isBoolean()) throw new FormatException();
+		return type == TRUE;
+	}
+
+	@Override
+	public long getLong() throws FormatException {
+		if (!isLong()) throw new FormatException();
+		return readInteger(buf, offset + 1, type & 0x0F);
+	}
+
+	@Override
+	public int getInt() throws FormatException {
+		long value = getLong();
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			throw new FormatException();
+		return (int) value;
+	}
+
+	@Override
+	public double getDouble() throws FormatException {
+		if (!isDouble()) throw new FormatException();
+		return Double.longBitsToDouble(readInteger(buf, offset + 1, 8));
+	}
+
+	@Override
+	public String getString() throws FormatException {
+		if (!isString()) throw new FormatException();
+		return fromUtf8(buf, getValueOffset(), getValueLength());
+	}
+
+	@Override
+	public byte[] getRaw() throws FormatException {
+		if (!isRaw()) throw new FormatException();
+		int valueOffset = getValueOffset();
+		return copyOfRange(buf, valueOffset, valueOffset + getValueLength());
+	}
+
+	@Override
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	@Override
+	public int getValueOffset() throws FormatException {
+		if (!isString() && !isRaw()) throw new FormatException();
+		return offset + 1 + (type & 0x0F);
+	}
+
+	@Override
+	public int getValueLength() throws FormatException {
+		if (!isString() && !isRaw()) throw new FormatException();
+		return (int) readInteger(buf, offset + 1, type & 0x0F);
+	}
+
+	@Override
+	public int size() throws FormatException {
+		if (!isList() && !isDictionary()) throw new FormatException();
+		getIndex();
+		return isList() ? indexSize : indexSize / 2;
+	}
+
+	@Override
+	public BdfSlice get(int i) throws FormatException {
+		if (!isList()) throw new FormatException();
+		return getIndexedObject(i);
+	}
+
+	@Override
+	public String getKey(int i) throws FormatException {
+		if (!isDictionary() || i < 0) throw new FormatException();
+		return getIndexedObject(i * 2).getString();
+	}
+
+	@Override
+	public BdfSlice getValue(int i) throws FormatException {
+		if (!isDictionary() || i < 0) throw new FormatException();
+		return getIndexedObject(i * 2 + 1);
+	}
+
+	@Nullable
+	@Override
+	public BdfSlice get(String key) throws FormatException {
+		if (!isDictionary()) throw new FormatException();
+		// Only encode the key if it contains non-ASCII characters
+		byte[] utf8 = isAscii(key) ? null : toUtf8(key);
+		int[] index = getIndex();
+		for (int i = 0; i < indexSize; i += 2) {
+			if (keyEquals(index[i], key, utf8)) return getIndexedObject(i + 1);
+		}
+		return null;
+	}
+
+	@Override
+	public BdfCursor getCursor() throws FormatException {
+		if (!isList() && !isDictionary()) throw new FormatException();
+		return new Cursor(offset + 1);
+	}
+
+	@Override
+	public BdfList toList() throws FormatException {
+		if (!isList()) throw new FormatException();
+		try {
+			return createReader().readList();
+		} catch (FormatException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	@Override
+	public BdfDictionary toDictionary() throws FormatException {
+		if (!isDictionary()) throw new FormatException();
+		try {
+			return createReader().readDictionary();
+		} catch (FormatException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private BdfReader createReader() {
+		ByteArrayInputStream in =
+				new ByteArrayInputStream(buf, offset, end - offset);
+		// The slice has been validated, so don't apply any further limits
+		return new BdfReaderImpl(in, Integer.MAX_VALUE, Integer.MAX_VALUE,
+				true);
+	}
+
+	private BdfSlice getIndexedObject(int i) throws FormatException {
+		int[] index = getIndex();
+		if (i < 0 || i >= indexSize) throw new FormatException();
+		return new BdfSliceImpl(buf, index[i], skipObject(buf, index[i]));
+	}
+
+	private int[] getIndex() {
+		if (index != null) return index;
+		int[] offsets = new int[8];
+		int size = 0;
+		int pos = offset + 1;
+		while (buf[pos] != END) {
+			if (size == offsets.length) {
+				int[] bigger = new int[offsets.length * 2];
+				System.arraycopy(offsets, 0, bigger, 0, size);
+				offsets = bigger;
+			}
+			offsets[size++] = pos;
+			pos = skipObject(buf, pos);
+		}
+		index = offsets;
+		indexSize = size;
+		return offsets;
+	}
+
+	private boolean keyEquals(int keyOffset, String key,
+			@Nullable byte[] utf8) {
+		int lengthBytes = buf[keyOffset] & 0x0F;
+		int length = (int) readInteger(buf, keyOffset + 1, lengthBytes);
+		int pos = keyOffset + 1 + lengthBytes;
+		if (utf8 == null) {
+			if (length != key.length()) return false;
+			for (int i = 0; i < length; i++)
+				if (buf[pos + i] != key.charAt(i)) return false;
+		} else {
+			if (length != utf8.length) return false;
+			for (int i = 0; i < length; i++)
+				if (buf[pos + i] != utf8[i]) return false;
+		}
+		return true;
+	}
+
+	private static boolean isAscii(String s) {
+		for (int i = 0; i < s.length(); i++)
+			if (s.charAt(i) >= 0x80) return false;
+		return true;
+	}
+
+	private static boolean isString(byte type) {
+		return type == STRING_8 || type == STRING_16 || type == STRING_32;
+	}
+
+	private static boolean isRaw(byte type) {
+		return type == RAW_8 || type == RAW_16 || type == RAW_32;
+	}
+
+	/**
+	 * Reads a big-endian signed integer of the given length in bytes.
+	 */
+	private static long readInteger(byte[] b, int pos, int bytes) {
+		long value = b[pos];
+		for (int i = 1; i < bytes; i++)
+			value = (value << 8) | (b[pos + i] & 0xFF);
+		return value;
+	}
+
+	/**
+	 * Returns the offset of the end of the validated object starting at the
+	 * given offset.
+	 */
+	private static int skipObject(byte[] b, int pos) {
+		byte type = b[pos];
+		if (type == NULL || type == FALSE || type == TRUE) return pos + 1;
+		if (type == LIST || type == DICTIONARY) {
+			pos++;
+			while (b[pos] != END) pos = skipObject(b, pos);
+			return pos + 1;
+		}
+		int bytes = type & 0x0F;
+		if (isString(type) || isRaw(type))
+			return pos + 1 + bytes + (int) readInteger(b, pos + 1, bytes);
+		return pos + 1 + bytes;
+	}
+
+	@NotThreadSafe
+	@NotNullByDefault
+	private class Cursor implements BdfCursor {
+
+		private int pos;
+
+		private Cursor(int pos) {
+			this.pos = pos;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return buf[pos] != END;
+		}
+
+		@Override
+		public BdfSlice next() throws FormatException {
+			if (!hasNext()) throw new FormatException();
+			int start = pos;
+			pos = skipObject(buf, pos);
+			return new BdfSliceImpl(buf, start, pos);
+		}
+	}
+
+	/**
+	 * Checks that an array contains canonically encoded BDF, applying the
+	 * same rules as {@link BdfReaderImpl} in canonical mode.
+	 */
+	@NotThreadSafe
+	@NotNullByDefault
+	private static class Validator {
+
+		private final byte[] b;
+		private final int end, nestedLimit, maxBufferSize;
+
+		private Validator(byte[] b, int end, int nestedLimit,
+				int maxBufferSize) {
+			this.b = b;
+			this.end = end;
+			this.nestedLimit = nestedLimit;
+			this.maxBufferSize = maxBufferSize;
+		}
+
+		/**
+		 * Validates the object starting at the given offset and returns the
+		 * offset of the end of the object.
+		 */
+		private int validateObject(int pos, int level)
+				throws FormatException {
+			if (pos >= end) throw new FormatException();
+			byte type = b[pos];
+			if (type == NULL || type == FALSE || type == TRUE) return pos + 1;
+			if (type == INT_8 || type == INT_16 || type == INT_32 ||
+					type == INT_64) {
+				readCanonicalInteger(pos + 1, type & 0x0F);
+				return pos + 1 + (type & 0x0F);
+			}
+			if (type == FLOAT_64) {
+				checkAvailable(pos + 1, 8);
+				return pos + 9;
+			}
+			if (isString(type)) return validateString(pos);
+			if (isRaw(type)) {
+				int start = pos + 1 + (type & 0x0F);
+				return start + readLength(pos + 1, type & 0x0F);
+			}
+			if (type == LIST) return validateList(pos, level);
+			if (type == DICTIONARY) return validateDictionary(pos, level);
+			throw new FormatException();
+		}
+
+		private int validateString(int pos) throws FormatException {
+			int bytes = b[pos] & 0x0F;
+			int length = readLength(pos + 1, bytes);
+			int start = pos + 1 + bytes;
+			checkUtf8(start, length);
+			return start + length;
+		}
+
+		private int validateList(int pos, int level) throws FormatException {
+			if (level > nestedLimit) throw new FormatException();
+			pos++;
+			while (true) {
+				if (pos >= end) throw new FormatException();
+				if (b[pos] == END) return pos + 1;
+				pos = validateObject(pos, level + 1);
+			}
+		}
+
+		private int validateDictionary(int pos, int level)
+				throws FormatException {
+			if (level > nestedLimit) throw new FormatException();
+			pos++;
+			int prevKey = -1;
+			while (true) {
+				if (pos >= end) throw new FormatException();
+				if (b[pos] == END) return pos + 1;
+				if (!isString(b[pos])) throw new FormatException();
+				int valuePos = validateString(pos);
+				if (prevKey != -1 && compareKeys(prevKey, pos) >= 0) {
+					// Keys not unique and sorted
+					throw new FormatException();
+				}
+				prevKey = pos;
+				pos = validateObject(valuePos, level + 1);
+			}
+		}
+
+		private void checkAvailable(int pos, int length)
+				throws FormatException {
+			if (length > end - pos) throw new FormatException();
+		}
+
+		private long readCanonicalInteger(int pos, int bytes)
+				throws FormatException {
+			checkAvailable(pos, bytes);
+			long value = readInteger(b, pos, bytes);
+			// Reject values that could have been encoded in fewer bytes
+			if (bytes == 2 && value >= Byte.MIN_VALUE &&
+					value <= Byte.MAX_VALUE) {
+				throw new FormatException();
+			}
+			if (bytes == 4 && value >= Short.MIN_VALUE &&
+					value <= Short.MAX_VALUE) {
+				throw new FormatException();
+			}
+			if (bytes == 8 && value >= Integer.MIN_VALUE &&
+					value <= Integer.MAX_VALUE) {
+				throw new FormatException();
+			}
+			return value;
+		}
+
+		/**
+		 * Reads the length field of a string or raw and checks that the
+		 * value fits in the array.
+		 */
+		private int readLength(int pos, int bytes) throws FormatException {
+			long length = readCanonicalInteger(pos, bytes);
+			if (length < 0 || length > maxBufferSize)
+				throw new FormatException();
+			checkAvailable(pos + bytes, (int) length);
+			return (int) length;
+		}
+
+		/**
+		 * Compares two validated dictionary keys in the same order as
+		 * {@link String#compareTo(String)}.
+		 */
+		private int compareKeys(int aPos, int bPos) throws FormatException {
+			int aBytes = b[aPos] & 0x0F, bBytes = b[bPos] & 0x0F;
+			int aLength = (int) readInteger(b, aPos + 1, aBytes);
+			int bLength = (int) readInteger(b, bPos + 1, bBytes);
+			int aStart = aPos + 1 + aBytes, bStart = bPos + 1 + bBytes;
+			int common = Math.min(aLength, bLength);
+			for (int i = 0; i < common; i++) {
+				int x = b[aStart + i] & 0xFF, y = b[bStart + i] & 0xFF;
+				if (x == y) continue;
+				// UTF-8 byte order matches UTF-16 order unless one of the
+				// characters is above U+E000, in which case decode the keys
+				if (x < 0xEE && y < 0xEE) return x - y;
+				String aKey = fromUtf8(b, aStart, aLength);
+				String bKey = fromUtf8(b, bStart, bLength);
+				return aKey.compareTo(bKey);
+			}
+			return aLength - bLength;
+		}
+
+		/**
+		 * Checks that the given range contains well-formed UTF-8, rejecting
+		 * overlong encodings, surrogates and code points above U+10FFFF.
+		 */
+		private void checkUtf8(int pos, int length) throws FormatException {
+			int end = pos + length;
+			while (pos < end) {
+				int lead = b[pos] & 0xFF;
+				if (lead < 0x80) {
+					pos++;
+					continue;
+				}
+				int continuation, min = 0x80, max = 0xBF;
+				if (lead >= 0xC2 && lead <= 0xDF) {
+					continuation = 1;
+				} else if (lead >= 0xE0 && lead <= 0xEF) {
+					continuation = 2;
+					if (lead == 0xE0) min = 0xA0;
+					else if (lead == 0xED) max = 0x9F;
+				} else if (lead >= 0xF0 && lead <= 0xF4) {
+					continuation = 3;
+					if (lead == 0xF0) min = 0x90;
+					else if (lead == 0xF4) max = 0x8F;
+				} else {
+					throw new FormatException();
+				}
+				if (continuation > end - pos - 1) throw new FormatException();
+				// The second byte has a restricted range for some lead bytes
+				int second = b[pos + 1] & 0xFF;
+				if (second < min || second > max) throw new FormatException();
+				for (int i = 2; i <= continuation; i++) {
+					int c = b[pos + i] & 0xFF;
+					if (c < 0x80 || c > 0xBF) throw new FormatException();
+				}
+				pos += continuation + 1;
+			}
+		}
+	}
+}
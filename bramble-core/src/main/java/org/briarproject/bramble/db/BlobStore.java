@@ -0,0 +1,41 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+/**
+ * Stores the bodies of large messages outside the database, keyed by message
+ * ID. The database keeps track of which messages have stored bodies and is
+ * responsible for keeping the store consistent with its own transactions.
+ */
+@NotNullByDefault
+interface BlobStore {
+
+	/**
+	 * Stores the given bytes as the blob for the given message, replacing
+	 * any existing blob. The blob is durable when this method returns.
+	 */
+	void write(MessageId m, byte[] src, int off, int len) throws IOException;
+
+	/**
+	 * Returns a stream for reading the blob for the given message, starting
+	 * at the given offset. The stream throws an IOException if the blob has
+	 * been modified or truncated.
+	 */
+	InputStream read(MessageId m, int offset) throws IOException;
+
+	/**
+	 * Deletes the blob for the given message, if it exists.
+	 */
+	void delete(MessageId m);
+
+	/**
+	 * Deletes any partially written blobs and returns the IDs of the messages
+	 * with stored blobs.
+	 */
+	Collection<MessageId> recover();
+}
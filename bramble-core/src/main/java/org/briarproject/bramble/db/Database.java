@@ -32,6 +32,7 @@ import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -75,6 +76,25 @@ interface Database<T> {
 	 */
 	boolean wasDirtyOnInitialisation();
 
+	/**
+	 * Declares that the given message metadata keys are used in queries.
+	 * When the database is opened, an index is created for the values of the
+	 * declared keys and any keys that are no longer declared are removed
+	 * from the index. This method must be called before the database is
+	 * opened.
+	 *
+	 * @throws IllegalStateException if the database has already been opened
+	 */
+	void registerIndexedMetadataKeys(Collection<String> keys);
+
+	/**
+	 * Returns true if read-only transactions can run concurrently with a
+	 * read-write transaction. Each read-only transaction then sees a
+	 * consistent snapshot of the database as of the start of the
+	 * transaction, unaffected by changes committed while it runs.
+	 */
+	boolean supportsConcurrentReads();
+
 	/**
 	 * Starts a new transaction and returns an object representing it.
 	 */
@@ -92,6 +112,26 @@ interface Database<T> {
 	 */
 	void commitTransaction(T txn) throws DbException;
 
+	/**
+	 * Commits the given transaction and runs the given task when the
+	 * transaction has been written to disk. If the database delays writing
+	 * committed transactions to disk so their writes can be combined, and
+	 * {@code sync} is false, the task may be run on another thread after this
+	 * method returns. Otherwise the transaction is written to disk and the
+	 * task is run before this method returns.
+	 * <p>
+	 * The tasks of successive transactions are run in the order the
+	 * transactions were committed, so read-write transactions must not be
+	 * committed concurrently.
+	 * <p>
+	 * If {@code sync} is true and the transaction is committed but can't be
+	 * written to disk, a {@link DbException} is thrown. The transaction's
+	 * changes remain visible, and its task is run when a later attempt
+	 * writes it to disk.
+	 */
+	void commitTransaction(T txn, boolean sync, Runnable onDurable)
+			throws DbException;
+
 	/**
 	 * Stores a contact associated with the given local and remote pseudonyms,
 	 * and returns an ID for the contact.
@@ -137,6 +177,12 @@ interface Database<T> {
 	 */
 	void addOfferedMessage(T txn, ContactId c, MessageId m) throws DbException;
 
+	/**
+	 * Records that the given messages have been offered by the given contact.
+	 */
+	void addOfferedMessages(T txn, ContactId c, Collection<MessageId> ids)
+			throws DbException;
+
 	/**
 	 * Stores a pending contact.
 	 */
@@ -162,6 +208,18 @@ interface Database<T> {
 	KeySetId addTransportKeys(T txn, PendingContactId p, TransportKeys k)
 			throws DbException;
 
+	/**
+	 * Compacts the database's storage for up to the given number of
+	 * milliseconds, aiming for the given percentage of the storage to be
+	 * used by live data. Returns true if the target hasn't been reached and
+	 * compaction can continue, or false if it's finished or the database
+	 * doesn't support incremental compaction.
+	 * <p/>
+	 * No other transaction may be open while the storage is compacted.
+	 */
+	boolean compactStorage(T txn, int targetFillRate, long maxMillis)
+			throws DbException;
+
 	/**
 	 * Returns true if there are any acks to send to the given contact.
 	 * <p/>
@@ -254,6 +312,16 @@ interface Database<T> {
 	boolean containsVisibleMessage(T txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of any of the given messages that are in the database,
+	 * shared, and in groups that are {@link Visibility VISIBLE} or
+	 * {@link Visibility SHARED} to the given contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<MessageId> getVisibleMessages(T txn, ContactId c,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the number of messages offered by the given contact.
 	 * <p/>
@@ -386,6 +454,26 @@ interface Database<T> {
 	 */
 	Message getMessage(T txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns a stream for reading the body of the given message, starting
+	 * at the given offset.
+	 * <p/>
+	 * Read-only.
+	 *
+	 * @throws MessageDeletedException if the message has been deleted
+	 */
+	InputStream getMessageBody(T txn, MessageId m, int offset)
+			throws DbException;
+
+	/**
+	 * Returns the messages with the given IDs. Messages that are missing or
+	 * have been deleted are not included in the returned map.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Message> getMessages(T txn, Collection<MessageId> ids)
+			throws DbException;
+
 	/**
 	 * Returns the IDs and states of all dependencies of the given message.
 	 * For missing dependencies and dependencies in other groups, the state
@@ -423,6 +511,22 @@ interface Database<T> {
 	Collection<MessageId> getMessageIds(T txn, GroupId g, Metadata query)
 			throws DbException;
 
+	/**
+	 * Returns the IDs and timestamps of the newest delivered messages in
+	 * the given group with timestamps earlier than the given timestamp.
+	 * The map's iteration order is newest first, with messages that have
+	 * equal timestamps ordered by ID.
+	 * <p/>
+	 * At least the given number of IDs are returned if there are enough
+	 * messages. If the limit falls among messages with equal timestamps,
+	 * all the messages with that timestamp are returned, so the timestamp
+	 * of the last message can be used as the cursor for the next call.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Long> getMessageIds(T txn, GroupId g,
+			long beforeTimestamp, int limit) throws DbException;
+
 	/**
 	 * Returns the length of the given message in bytes, including the
 	 * message header.
@@ -437,6 +541,16 @@ interface Database<T> {
 	Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g)
 			throws DbException;
 
+	/**
+	 * Returns the metadata for all delivered messages in any of the given
+	 * groups, grouped by group. Groups without any delivered messages with
+	 * metadata are omitted.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, Map<MessageId, Metadata>> getMessageMetadataByGroup(T txn,
+			Collection<GroupId> groupIds) throws DbException;
+
 	/**
 	 * Returns the metadata for any delivered messages in the given group with
 	 * metadata that matches all entries in the given query. If the query is
@@ -447,6 +561,17 @@ interface Database<T> {
 	Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g,
 			Metadata query) throws DbException;
 
+	/**
+	 * Returns the metadata for any delivered messages in the given group with
+	 * metadata that matches all entries in the given query, including only
+	 * the given metadata keys. If the query is empty, the metadata for all
+	 * delivered messages is returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g,
+			Metadata query, Collection<String> keys) throws DbException;
+
 	/**
 	 * Returns the metadata for the given delivered or pending message.
 	 * This is only meant to be used by the ValidationManager.
@@ -463,6 +588,15 @@ interface Database<T> {
 	 */
 	Metadata getMessageMetadata(T txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns the metadata for any of the given messages that are delivered
+	 * and have metadata.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(T txn,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the validation and delivery state of the given message.
 	 * <p/>
@@ -490,6 +624,15 @@ interface Database<T> {
 	MessageStatus getMessageStatus(T txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the status of any of the given messages that are delivered
+	 * with respect to the given contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, MessageStatus> getMessageStatus(T txn, ContactId c,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the IDs of some messages received from the given contact that
 	 * need to be acknowledged, up to the given number of messages.
@@ -531,6 +674,22 @@ interface Database<T> {
 	Collection<MessageId> getMessagesToSend(T txn, ContactId c, long capacity,
 			long maxLatency) throws DbException;
 
+	/**
+	 * Returns the IDs of some messages that are eligible to be sent to the
+	 * given contact, continuing a scan ordered by timestamp and message ID
+	 * from the given position. The total length of the messages including
+	 * record headers will be no more than the given capacity.
+	 * <p/>
+	 * Only messages that come after the message with the given timestamp and
+	 * ID in the scan order are returned. If the ID is null the scan starts
+	 * from the beginning.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<MessageId> getMessagesToSend(T txn, ContactId c, long capacity,
+			long maxLatency, long afterTimestamp, @Nullable MessageId afterId)
+			throws DbException;
+
 	/**
 	 * Returns the IDs of all messages that are eligible to be sent to the
 	 * given contact.
@@ -544,6 +703,17 @@ interface Database<T> {
 	Collection<MessageId> getUnackedMessagesToSend(T txn, ContactId c)
 			throws DbException;
 
+	/**
+	 * Returns the IDs and lengths of all messages that are eligible to be
+	 * sent to the given contact. The map's iteration order is the order in
+	 * which {@link #getUnackedMessagesToSend(Object, ContactId)} returns the
+	 * IDs.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Integer> getUnackedMessageLengthsToSend(T txn,
+			ContactId c) throws DbException;
+
 	/**
 	 * Returns the total length, including headers, of all messages that are
 	 * eligible to be sent to the given contact. This may include messages
@@ -641,6 +811,14 @@ interface Database<T> {
 	 */
 	Settings getSettings(T txn, String namespace) throws DbException;
 
+	/**
+	 * Returns the percentage of the database's storage that is used by live
+	 * data, or 100 if the database doesn't support incremental compaction.
+	 * <p/>
+	 * Read-only.
+	 */
+	int getStorageFillRate(T txn) throws DbException;
+
 	/**
 	 * Returns the versions of the sync protocol supported by the given contact.
 	 * <p/>
@@ -711,6 +889,13 @@ interface Database<T> {
 	 */
 	void raiseAckFlag(T txn, ContactId c, MessageId m) throws DbException;
 
+	/**
+	 * Marks the given messages as needing to be acknowledged to the given
+	 * contact.
+	 */
+	void raiseAckFlags(T txn, ContactId c, Collection<MessageId> ids)
+			throws DbException;
+
 	/**
 	 * Marks a message as having been requested by the given contact.
 	 */
@@ -723,6 +908,12 @@ interface Database<T> {
 	 */
 	boolean raiseSeenFlag(T txn, ContactId c, MessageId m) throws DbException;
 
+	/**
+	 * Marks the given messages as having been seen by the given contact.
+	 */
+	void raiseSeenFlags(T txn, ContactId c, Collection<MessageId> ids)
+			throws DbException;
+
 	/**
 	 * Removes a contact from the database.
 	 */
@@ -870,6 +1061,15 @@ interface Database<T> {
 	 */
 	long startCleanupTimer(T txn, MessageId m) throws DbException;
 
+	/**
+	 * Starts the cleanup timers for any of the given messages that have a
+	 * timer duration and haven't already had their timers started.
+	 *
+	 * @return The cleanup deadlines of the messages whose timers were started.
+	 */
+	Map<MessageId, Long> startCleanupTimers(T txn, Collection<MessageId> ids)
+			throws DbException;
+
 	/**
 	 * Stops the cleanup timer for the given message, if the timer has been
 	 * started.
@@ -886,6 +1086,16 @@ interface Database<T> {
 	void updateRetransmissionData(T txn, ContactId c, MessageId m,
 			long maxLatency) throws DbException;
 
+	/**
+	 * Updates the transmission count, expiry time and max latency of the given
+	 * messages with respect to the given contact.
+	 *
+	 * @param maxLatency latency of the transport over which the messages were
+	 * sent.
+	 */
+	void updateRetransmissionData(T txn, ContactId c,
+			Collection<MessageId> ids, long maxLatency) throws DbException;
+
 	/**
 	 * Stores the given transport keys, deleting any keys they have replaced.
 	 */
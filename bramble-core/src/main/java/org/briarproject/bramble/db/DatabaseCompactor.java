@@ -0,0 +1,198 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.Cancellable;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.lifecycle.Service;
+import org.briarproject.bramble.api.lifecycle.event.DatabaseCompactionEvent;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.util.LogUtils.logDuration;
+import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.bramble.util.LogUtils.now;
+
+/**
+ * A service that compacts the database's storage in the background. The
+ * fill rate of the storage is checked periodically, and if too much of the
+ * storage is unused, the storage is compacted in short steps. Each step runs
+ * on the {@link DatabaseExecutor} in a read-write transaction, so steps
+ * wait for any queued database tasks to finish and other tasks can run
+ * between steps.
+ * <p>
+ * Steps only run when the database is idle, meaning that no read-write
+ * transactions other than the compactor's own steps have been started for
+ * {@link #IDLE_PERIOD_MS}. If there's any activity, the next step waits
+ * until the database has been idle again for that long.
+ */
+@ThreadSafe
+@NotNullByDefault
+class DatabaseCompactor implements Service {
+
+	private static final Logger LOG =
+			getLogger(DatabaseCompactor.class.getName());
+
+	/**
+	 * How long to wait after startup before checking the fill rate.
+	 */
+	static final long FIRST_CHECK_DELAY_MS = MINUTES.toMillis(1);
+
+	/**
+	 * How often to check the fill rate when compaction isn't needed.
+	 */
+	static final long CHECK_INTERVAL_MS = HOURS.toMillis(1);
+
+	/**
+	 * Compaction starts when less than this percentage of the storage is
+	 * used by live data.
+	 */
+	static final int MIN_FILL_RATE = 50;
+
+	/**
+	 * Compaction continues until this percentage of the storage is used by
+	 * live data.
+	 */
+	static final int TARGET_FILL_RATE = 90;
+
+	/**
+	 * The maximum time spent compacting in each step.
+	 */
+	static final long MAX_STEP_DURATION_MS = 200;
+
+	/**
+	 * How long to wait between steps.
+	 */
+	static final long STEP_INTERVAL_MS = 1000;
+
+	/**
+	 * How long the database must be idle before a step can run.
+	 */
+	static final long IDLE_PERIOD_MS = SECONDS.toMillis(10);
+
+	private final Executor dbExecutor;
+	private final DatabaseComponent db;
+	private final TaskScheduler taskScheduler;
+	private final Clock clock;
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	@Nullable
+	private Cancellable scheduledTask = null;
+	@GuardedBy("lock")
+	private boolean stopped = false;
+	/**
+	 * The time at which the latest step was started, as reported by
+	 * {@link DatabaseComponent#getLastWriteTime()}.
+	 */
+	@GuardedBy("lock")
+	private long ownWriteTime = 0;
+
+	DatabaseCompactor(@DatabaseExecutor Executor dbExecutor,
+			DatabaseComponent db, TaskScheduler taskScheduler, Clock clock) {
+		this.dbExecutor = dbExecutor;
+		this.db = db;
+		this.taskScheduler = taskScheduler;
+		this.clock = clock;
+	}
+
+	@Override
+	public void startService() {
+		schedule(this::checkFillRate, FIRST_CHECK_DELAY_MS);
+	}
+
+	@Override
+	public void stopService() {
+		synchronized (lock) {
+			stopped = true;
+			if (scheduledTask != null) scheduledTask.cancel();
+			scheduledTask = null;
+		}
+	}
+
+	@DatabaseExecutor
+	private void checkFillRate() {
+		try {
+			int fillRate = db.transactionWithResult(true,
+					db::getStorageFillRate);
+			if (LOG.isLoggable(INFO)) {
+				LOG.info("Database storage fill rate " + fillRate + "%");
+			}
+			if (fillRate < MIN_FILL_RATE) compactIfIdle();
+			else schedule(this::checkFillRate, CHECK_INTERVAL_MS);
+		} catch (DbException e) {
+			logException(LOG, WARNING, e);
+			schedule(this::checkFillRate, CHECK_INTERVAL_MS);
+		}
+	}
+
+	@DatabaseExecutor
+	private void compactIfIdle() {
+		long lastWrite = db.getLastWriteTime();
+		boolean ownStep;
+		synchronized (lock) {
+			ownStep = lastWrite == ownWriteTime;
+		}
+		if (ownStep) {
+			// The latest read-write transaction was our own step, so the
+			// database has been idle since the step before it
+			compact();
+			return;
+		}
+		long idle = clock.currentTimeMillis() - lastWrite;
+		if (idle < 0) idle = 0; // Clock went backwards
+		if (idle < IDLE_PERIOD_MS) {
+			// Wait until the database may have been idle for long enough
+			schedule(this::compactIfIdle, IDLE_PERIOD_MS - idle);
+		} else {
+			compact();
+		}
+	}
+
+	@DatabaseExecutor
+	private void compact() {
+		try {
+			long start = now();
+			boolean more = db.transactionWithResult(false, txn -> {
+				synchronized (lock) {
+					ownWriteTime = db.getLastWriteTime();
+				}
+				boolean notFinished = db.compactStorage(txn,
+						TARGET_FILL_RATE, MAX_STEP_DURATION_MS);
+				int fillRate = db.getStorageFillRate(txn);
+				txn.attach(new DatabaseCompactionEvent(fillRate,
+						!notFinished));
+				return notFinished;
+			});
+			logDuration(LOG, "Compacting database storage", start);
+			if (more) schedule(this::compactIfIdle, STEP_INTERVAL_MS);
+			else schedule(this::checkFillRate, CHECK_INTERVAL_MS);
+		} catch (DbException e) {
+			logException(LOG, WARNING, e);
+			schedule(this::checkFillRate, CHECK_INTERVAL_MS);
+		}
+	}
+
+	private void schedule(Runnable task, long delay) {
+		synchronized (lock) {
+			if (stopped) return;
+			scheduledTask = taskScheduler.schedule(task, dbExecutor, delay,
+					MILLISECONDS);
+		}
+	}
+}
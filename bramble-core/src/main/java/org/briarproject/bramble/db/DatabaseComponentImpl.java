@@ -18,10 +18,12 @@ import org.briarproject.bramble.api.db.CommitAction;
 import org.briarproject.bramble.api.db.CommitAction.Visitor;
 import org.briarproject.bramble.api.db.ContactExistsException;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.db.DbCallable;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.DbRunnable;
 import org.briarproject.bramble.api.db.EventAction;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.MigrationListener;
 import org.briarproject.bramble.api.db.NoSuchContactException;
@@ -68,16 +70,20 @@ import org.briarproject.bramble.api.sync.event.MessagesAckedEvent;
 import org.briarproject.bramble.api.sync.event.MessagesSentEvent;
 import org.briarproject.bramble.api.sync.event.SyncVersionsUpdatedEvent;
 import org.briarproject.bramble.api.sync.validation.MessageState;
+import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
@@ -110,20 +116,55 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	private final EventBus eventBus;
 	private final Executor eventExecutor;
 	private final ShutdownManager shutdownManager;
+	private final Clock clock;
 	private final AtomicBoolean closed = new AtomicBoolean(false);
 	private final ReentrantReadWriteLock lock =
 			new ReentrantReadWriteLock(true);
 	private final Visitor visitor = new CommitActionVisitor();
 
+	/**
+	 * Permits for read-only transactions that run concurrently with the
+	 * read-write transaction, or null if read-only transactions share the
+	 * read lock and are therefore excluded by the read-write transaction.
+	 */
+	@Nullable
+	private final Semaphore concurrentReadPermits;
+	/**
+	 * Whether the current thread holds one of the
+	 * {@link #concurrentReadPermits}.
+	 */
+	private final ThreadLocal<Boolean> holdsReadPermit = new ThreadLocal<>();
+	/**
+	 * Whether the database may delay writing committed read-write
+	 * transactions to disk, in which case their commit actions are run when
+	 * they have been written to disk.
+	 */
+	private final boolean groupCommit;
+	/**
+	 * The time at which the latest read-write transaction was started.
+	 */
+	private volatile long lastWriteTime = 0;
+
 	@Inject
 	DatabaseComponentImpl(Database<T> db, Class<T> txnClass, EventBus eventBus,
 			@EventExecutor Executor eventExecutor,
-			ShutdownManager shutdownManager) {
+			ShutdownManager shutdownManager, Clock clock,
+			DatabaseConfig config) {
+		int maxConcurrentReads = config.getMaxConcurrentReadTransactions();
+		if (maxConcurrentReads < 0) throw new IllegalArgumentException();
+		if (maxConcurrentReads > 0 && !db.supportsConcurrentReads()) {
+			LOG.warning("Database does not support concurrent reads");
+			maxConcurrentReads = 0;
+		}
 		this.db = db;
 		this.txnClass = txnClass;
 		this.eventBus = eventBus;
 		this.eventExecutor = eventExecutor;
 		this.shutdownManager = shutdownManager;
+		this.clock = clock;
+		groupCommit = config.getGroupCommitDelay() > 0;
+		if (maxConcurrentReads == 0) concurrentReadPermits = null;
+		else concurrentReadPermits = new Semaphore(maxConcurrentReads, true);
 	}
 
 	@Override
@@ -146,34 +187,68 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		db.close();
 	}
 
+	@Override
+	public void registerIndexedMetadataKeys(Collection<String> keys) {
+		db.registerIndexedMetadataKeys(keys);
+	}
+
 	@Override
 	public Transaction startTransaction(boolean readOnly) throws DbException {
 		// Don't allow reentrant locking
 		if (lock.getReadHoldCount() > 0) throw new IllegalStateException();
 		if (lock.getWriteHoldCount() > 0) throw new IllegalStateException();
+		if (holdsReadPermit.get() != null) throw new IllegalStateException();
 		long start = now();
 		if (readOnly) {
-			lock.readLock().lock();
-			logDuration(LOG, "Waiting for read lock", start);
+			if (concurrentReadPermits == null) {
+				lock.readLock().lock();
+				logDuration(LOG, "Waiting for read lock", start);
+			} else {
+				concurrentReadPermits.acquireUninterruptibly();
+				holdsReadPermit.set(true);
+				logDuration(LOG, "Waiting for read permit", start);
+			}
 		} else {
 			lock.writeLock().lock();
 			logDuration(LOG, "Waiting for write lock", start);
+			lastWriteTime = clock.currentTimeMillis();
 		}
 		try {
 			return new Transaction(db.startTransaction(), readOnly);
 		} catch (DbException | RuntimeException e) {
-			if (readOnly) lock.readLock().unlock();
-			else lock.writeLock().unlock();
+			unlock(readOnly);
 			throw e;
 		}
 	}
 
+	private void runCommitActions(Transaction transaction) {
+		for (CommitAction a : transaction.getActions()) a.accept(visitor);
+	}
+
+	private void unlock(boolean readOnly) {
+		if (!readOnly) {
+			lock.writeLock().unlock();
+		} else if (concurrentReadPermits == null) {
+			lock.readLock().unlock();
+		} else {
+			holdsReadPermit.remove();
+			concurrentReadPermits.release();
+		}
+	}
+
 	@Override
 	public void commitTransaction(Transaction transaction) throws DbException {
 		T txn = txnClass.cast(transaction.unbox());
 		if (transaction.isCommitted()) throw new IllegalStateException();
 		transaction.setCommitted();
-		db.commitTransaction(txn);
+		if (groupCommit && !transaction.isReadOnly()) {
+			// The write lock is held, so transactions are committed and
+			// their actions run in order
+			db.commitTransaction(txn, transaction.isSynchronousCommit(),
+					() -> runCommitActions(transaction));
+		} else {
+			db.commitTransaction(txn);
+		}
 	}
 
 	@Override
@@ -181,14 +256,15 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		try {
 			T txn = txnClass.cast(transaction.unbox());
 			if (transaction.isCommitted()) {
-				for (CommitAction a : transaction.getActions())
-					a.accept(visitor);
+				// With group commit, the actions of read-write transactions
+				// are run when the transactions are written to disk
+				if (!groupCommit || transaction.isReadOnly())
+					runCommitActions(transaction);
 			} else {
 				db.abortTransaction(txn);
 			}
 		} finally {
-			if (transaction.isReadOnly()) lock.readLock().unlock();
-			else lock.writeLock().unlock();
+			unlock(transaction.isReadOnly());
 		}
 	}
 
@@ -346,6 +422,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.addTransportKeys(txn, p, k);
 	}
 
+	@Override
+	public boolean compactStorage(Transaction transaction, int targetFillRate,
+			long maxMillis) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		// Read-only transactions must be excluded while compacting
+		if (concurrentReadPermits != null) return false;
+		T txn = unbox(transaction);
+		return db.compactStorage(txn, targetFillRate, maxMillis);
+	}
+
 	@Override
 	public boolean containsAcksToSend(Transaction transaction, ContactId c)
 			throws DbException {
@@ -459,6 +545,63 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return messages;
 	}
 
+	@Nullable
+	@Override
+	public Collection<Message> generateBatch(Transaction transaction,
+			MessageCursor cursor, long capacity, boolean markAsSent)
+			throws DbException {
+		if (markAsSent && transaction.isReadOnly()) {
+			throw new IllegalArgumentException();
+		}
+		if (!(cursor instanceof MessageCursorImpl))
+			throw new IllegalArgumentException();
+		MessageCursorImpl position = (MessageCursorImpl) cursor;
+		ContactId c = position.getContactId();
+		long maxLatency = position.getMaxLatency();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		List<Message> messages = new ArrayList<>();
+		if (position.isEager()) {
+			// Skip any messages that have been deleted or are no longer
+			// visible since the cursor was created
+			while (messages.isEmpty()) {
+				List<MessageId> ids = position.takeUnacked(capacity);
+				if (ids.isEmpty()) return null;
+				Map<MessageId, Message> found = db.getMessages(txn,
+						db.getVisibleMessages(txn, c, ids));
+				for (MessageId m : ids) {
+					Message message = found.get(m);
+					if (message != null) messages.add(message);
+				}
+			}
+		} else {
+			List<MessageId> ids = db.getMessagesToSend(txn, c, capacity,
+					maxLatency, position.getTimestamp(),
+					position.getMessageId());
+			if (ids.isEmpty()) return null;
+			Map<MessageId, Message> found = db.getMessages(txn, ids);
+			for (MessageId m : ids) {
+				Message message = found.get(m);
+				if (message == null) throw new DbException();
+				messages.add(message);
+			}
+			position.moveTo(messages.get(messages.size() - 1));
+		}
+		if (markAsSent) {
+			List<MessageId> sent = new ArrayList<>(messages.size());
+			long totalLength = 0;
+			for (Message m : messages) {
+				sent.add(m.getId());
+				totalLength += m.getRawLength();
+			}
+			db.updateRetransmissionData(txn, c, sent, maxLatency);
+			db.lowerRequestedFlag(txn, c, sent);
+			transaction.attach(new MessagesSentEvent(c, sent, totalLength));
+		}
+		return messages;
+	}
+
 	@Nullable
 	@Override
 	public Offer generateOffer(Transaction transaction, ContactId c,
@@ -605,6 +748,11 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getIdentities(txn);
 	}
 
+	@Override
+	public long getLastWriteTime() {
+		return lastWriteTime;
+	}
+
 	@Override
 	public Message getMessage(Transaction transaction, MessageId m)
 			throws DbException {
@@ -614,6 +762,26 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessage(txn, m);
 	}
 
+	@Override
+	public InputStream getMessageBody(Transaction transaction, MessageId m,
+			int offset) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsMessage(txn, m))
+			throw new NoSuchMessageException();
+		return db.getMessageBody(txn, m, offset);
+	}
+
+	@Override
+	public MessageCursor getMessageCursor(Transaction transaction,
+			ContactId c, long maxLatency, boolean eager) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		if (!eager) return new MessageCursorImpl(c, maxLatency);
+		return new MessageCursorImpl(c, maxLatency,
+				db.getUnackedMessageLengthsToSend(txn, c));
+	}
+
 	@Override
 	public Collection<MessageId> getMessageIds(Transaction transaction,
 			GroupId g) throws DbException {
@@ -632,6 +800,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageIds(txn, g, query);
 	}
 
+	@Override
+	public Map<MessageId, Long> getMessageIds(Transaction transaction,
+			GroupId g, long beforeTimestamp, int limit) throws DbException {
+		if (limit < 1) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageIds(txn, g, beforeTimestamp, limit);
+	}
+
 	@Override
 	public Collection<MessageId> getMessagesToAck(Transaction transaction,
 			ContactId c) throws DbException {
@@ -687,6 +865,14 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageMetadata(txn, g);
 	}
 
+	@Override
+	public Map<GroupId, Map<MessageId, Metadata>> getMessageMetadataByGroup(
+			Transaction transaction, Collection<GroupId> groupIds)
+			throws DbException {
+		T txn = unbox(transaction);
+		return db.getMessageMetadataByGroup(txn, groupIds);
+	}
+
 	@Override
 	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
 			GroupId g, Metadata query) throws DbException {
@@ -696,6 +882,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageMetadata(txn, g, query);
 	}
 
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
+			GroupId g, Metadata query, Collection<String> keys)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageMetadata(txn, g, query, keys);
+	}
+
 	@Override
 	public Metadata getMessageMetadata(Transaction transaction, MessageId m)
 			throws DbException {
@@ -705,6 +901,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageMetadata(txn, m);
 	}
 
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
+			Collection<MessageId> ids) throws DbException {
+		T txn = unbox(transaction);
+		return db.getMessageMetadata(txn, ids);
+	}
+
 	@Override
 	public Metadata getMessageMetadataForValidator(Transaction transaction,
 			MessageId m)
@@ -755,6 +958,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return status;
 	}
 
+	@Override
+	public Map<MessageId, MessageStatus> getMessageStatus(
+			Transaction transaction, ContactId c, Collection<MessageId> ids)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		return db.getMessageStatus(txn, c, ids);
+	}
+
 	@Nullable
 	@Override
 	public Message getMessageToSend(Transaction transaction, ContactId c,
@@ -859,6 +1072,12 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getSettings(txn, namespace);
 	}
 
+	@Override
+	public int getStorageFillRate(Transaction transaction) throws DbException {
+		T txn = unbox(transaction);
+		return db.getStorageFillRate(txn);
+	}
+
 	@Override
 	public List<Byte> getSyncVersions(Transaction transaction, ContactId c)
 			throws DbException {
@@ -936,35 +1155,52 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
+		Collection<MessageId> ids = a.getMessageIds();
+		Collection<MessageId> visible = db.getVisibleMessages(txn, c, ids);
+		if (visible.isEmpty()) return;
+		db.raiseSeenFlags(txn, c, visible);
+		// Start the cleanup timers (a no-op unless a cleanup deadline has
+		// been set for the message)
+		Map<MessageId, Long> deadlines =
+				new HashMap<>(db.startCleanupTimers(txn, visible));
+		// Attach the events in the order the messages were acked, with one
+		// event per timer even if a message was acked more than once
 		Collection<MessageId> acked = new ArrayList<>();
-		for (MessageId m : a.getMessageIds()) {
-			if (db.containsVisibleMessage(txn, c, m)) {
-				if (db.raiseSeenFlag(txn, c, m)) {
-					// This is the first time the message has been acked by
-					// this contact. Start the cleanup timer (a no-op unless
-					// a cleanup deadline has been set for this message)
-					long deadline = db.startCleanupTimer(txn, m);
-					if (deadline != TIMER_NOT_STARTED) {
-						transaction.attach(new CleanupTimerStartedEvent(m,
-								deadline));
-					}
-					acked.add(m);
-				}
+		for (MessageId m : ids) {
+			if (!visible.contains(m)) continue;
+			Long deadline = deadlines.remove(m);
+			if (deadline != null) {
+				transaction.attach(new CleanupTimerStartedEvent(m, deadline));
 			}
+			acked.add(m);
 		}
-		if (acked.size() > 0) {
-			transaction.attach(new MessagesAckedEvent(c, acked));
-		}
+		transaction.attach(new MessagesAckedEvent(c, acked));
 	}
 
 	@Override
 	public void receiveMessage(Transaction transaction, ContactId c, Message m)
 			throws DbException {
+		receiveMessages(transaction, c, singletonList(m));
+	}
+
+	@Override
+	public void receiveMessages(Transaction transaction, ContactId c,
+			Collection<Message> messages) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		if (db.getGroupVisibility(txn, c, m.getGroupId()) != INVISIBLE) {
+		// Batches usually contain many messages from the same few groups
+		Map<GroupId, Visibility> visibilities = new HashMap<>();
+		boolean ack = false;
+		for (Message m : messages) {
+			GroupId g = m.getGroupId();
+			Visibility v = visibilities.get(g);
+			if (v == null) {
+				v = db.getGroupVisibility(txn, c, g);
+				visibilities.put(g, v);
+			}
+			if (v == INVISIBLE) continue;
 			if (db.containsMessage(txn, m.getId())) {
 				db.raiseSeenFlag(txn, c, m.getId());
 				db.raiseAckFlag(txn, c, m.getId());
@@ -972,8 +1208,9 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 				db.addMessage(txn, m, UNKNOWN, false, false, c);
 				transaction.attach(new MessageAddedEvent(m, c));
 			}
-			transaction.attach(new MessageToAckEvent(c));
+			ack = true;
 		}
+		if (ack) transaction.attach(new MessageToAckEvent(c));
 	}
 
 	@Override
@@ -983,21 +1220,26 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		boolean ack = false, request = false;
 		int count = db.countOfferedMessages(txn, c);
-		for (MessageId m : o.getMessageIds()) {
-			if (db.containsVisibleMessage(txn, c, m)) {
-				db.raiseSeenFlag(txn, c, m);
-				db.raiseAckFlag(txn, c, m);
-				ack = true;
-			} else if (count < MAX_OFFERED_MESSAGES) {
-				db.addOfferedMessage(txn, c, m);
-				request = true;
+		Collection<MessageId> ids = o.getMessageIds();
+		Collection<MessageId> visible = db.getVisibleMessages(txn, c, ids);
+		if (!visible.isEmpty()) {
+			db.raiseSeenFlags(txn, c, visible);
+			db.raiseAckFlags(txn, c, visible);
+		}
+		// Store as many of the other messages as there's room for
+		List<MessageId> offered = new ArrayList<>();
+		for (MessageId m : ids) {
+			if (count >= MAX_OFFERED_MESSAGES) break;
+			if (!visible.contains(m)) {
+				offered.add(m);
 				count++;
 			}
 		}
-		if (ack) transaction.attach(new MessageToAckEvent(c));
-		if (request) transaction.attach(new MessageToRequestEvent(c));
+		if (!offered.isEmpty()) db.addOfferedMessages(txn, c, offered);
+		if (!visible.isEmpty()) transaction.attach(new MessageToAckEvent(c));
+		if (!offered.isEmpty())
+			transaction.attach(new MessageToRequestEvent(c));
 	}
 
 	@Override
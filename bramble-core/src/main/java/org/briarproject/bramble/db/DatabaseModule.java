@@ -1,17 +1,24 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.TransactionManager;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventExecutor;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.lifecycle.ShutdownManager;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.crypto.AuthenticatedCipher;
 
 import java.sql.Connection;
 import java.util.concurrent.Executor;
 
+import javax.inject.Inject;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import dagger.Module;
@@ -20,24 +27,44 @@ import dagger.Provides;
 @Module
 public class DatabaseModule {
 
+	public static class EagerSingletons {
+		@Inject
+		DatabaseCompactor databaseCompactor;
+	}
+
 	@Provides
 	@Singleton
 	Database<Connection> provideDatabase(DatabaseConfig config,
-			MessageFactory messageFactory, Clock clock) {
-		return new H2Database(config, messageFactory, clock);
+			MessageFactory messageFactory, Clock clock, CryptoComponent crypto,
+			Provider<AuthenticatedCipher> cipherProvider) {
+		return new H2Database(config, messageFactory, clock, crypto,
+				cipherProvider);
 	}
 
 	@Provides
 	@Singleton
 	DatabaseComponent provideDatabaseComponent(Database<Connection> db,
-			EventBus eventBus, @EventExecutor Executor eventExecutor,
-			ShutdownManager shutdownManager) {
+			DatabaseConfig config, EventBus eventBus,
+			@EventExecutor Executor eventExecutor,
+			ShutdownManager shutdownManager, Clock clock) {
 		return new DatabaseComponentImpl<>(db, Connection.class, eventBus,
-				eventExecutor, shutdownManager);
+				eventExecutor, shutdownManager, clock, config);
 	}
 
 	@Provides
 	TransactionManager provideTransactionManager(DatabaseComponent db) {
 		return db;
 	}
+
+	@Provides
+	@Singleton
+	DatabaseCompactor provideDatabaseCompactor(
+			LifecycleManager lifecycleManager,
+			@DatabaseExecutor Executor dbExecutor, DatabaseComponent db,
+			TaskScheduler taskScheduler, Clock clock) {
+		DatabaseCompactor databaseCompactor = new DatabaseCompactor(dbExecutor,
+				db, taskScheduler, clock);
+		lifecycleManager.registerService(databaseCompactor);
+		return databaseCompactor;
+	}
 }
@@ -0,0 +1,338 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.crypto.AuthenticatedCipher;
+import org.briarproject.bramble.util.ByteUtils;
+import org.briarproject.bramble.util.IoUtils;
+import org.briarproject.bramble.util.StringUtils;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Provider;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
+import static org.briarproject.bramble.util.IoUtils.tryToClose;
+
+/**
+ * A {@link BlobStore} that keeps each blob in its own encrypted file.
+ * <p/>
+ * A blob file starts with a random nonce prefix, followed by a series of
+ * frames, each of which holds up to {@link #FRAME_LENGTH} bytes of the blob
+ * encrypted and authenticated with XSalsa20/Poly1305. The nonce of each frame
+ * is the prefix followed by the frame's index, with the high bit set for the
+ * final frame, so frames can't be reordered, and truncation is detected.
+ * Because frames are authenticated independently, a reader can start at any
+ * frame without reading the ones before it.
+ * <p/>
+ * The key for each file is derived from the database key and the message ID,
+ * so a blob can't be substituted for another message's blob.
+ */
+@ThreadSafe
+@NotNullByDefault
+class FileBlobStore implements BlobStore {
+
+	private static final Logger LOG = getLogger(FileBlobStore.class.getName());
+
+	private static final String BLOB_KEY_LABEL =
+			"org.briarproject.bramble.db/BLOB_KEY";
+	private static final String FILE_KEY_LABEL =
+			"org.briarproject.bramble.db/BLOB_FILE_KEY";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * The maximum number of plaintext bytes in each frame.
+	 */
+	// Package access for testing
+	static final int FRAME_LENGTH = 4096;
+
+	private static final int NONCE_LENGTH = 24;
+	private static final int NONCE_PREFIX_LENGTH =
+			NONCE_LENGTH - INT_64_BYTES;
+	private static final int ENCRYPTED_FRAME_LENGTH =
+			FRAME_LENGTH + MAC_LENGTH;
+
+	private final File dir;
+	private final CryptoComponent crypto;
+	private final Provider<AuthenticatedCipher> cipherProvider;
+	private final SecretKey blobKey;
+
+	FileBlobStore(File dir, SecretKey key, CryptoComponent crypto,
+			Provider<AuthenticatedCipher> cipherProvider) {
+		this.dir = dir;
+		this.crypto = crypto;
+		this.cipherProvider = cipherProvider;
+		blobKey = new SecretKey(crypto.mac(BLOB_KEY_LABEL, key));
+	}
+
+	@Override
+	public void write(MessageId m, byte[] src, int off, int len)
+			throws IOException {
+		if (len < 0 || off < 0 || off + len > src.length)
+			throw new IllegalArgumentException();
+		File file = getFile(m);
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Could not create " + parent);
+		File temp = new File(parent, file.getName() + TEMP_SUFFIX);
+		SecretKey key = getFileKey(m);
+		AuthenticatedCipher cipher = cipherProvider.get();
+		byte[] nonce = new byte[NONCE_LENGTH];
+		crypto.getSecureRandom().nextBytes(nonce);
+		byte[] frame = new byte[ENCRYPTED_FRAME_LENGTH];
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(nonce, 0, NONCE_PREFIX_LENGTH);
+			long frames =
+					Math.max(1, (len + FRAME_LENGTH - 1L) / FRAME_LENGTH);
+			for (long i = 0; i < frames; i++) {
+				int frameOff = (int) (i * FRAME_LENGTH);
+				int frameLen = Math.min(FRAME_LENGTH, len - frameOff);
+				setFrameIndex(nonce, i, i == frames - 1);
+				encrypt(cipher, key, nonce, src, off + frameOff, frameLen,
+						frame);
+				out.write(frame, 0, MAC_LENGTH + frameLen);
+			}
+			out.flush();
+			out.getFD().sync();
+			out.close();
+		} catch (IOException e) {
+			tryToClose(out, LOG, WARNING);
+			IoUtils.delete(temp);
+			throw e;
+		}
+		// Replace any existing blob, which has the same contents unless it
+		// was left behind by an aborted transaction
+		if (!temp.renameTo(file)) {
+			IoUtils.delete(file);
+			if (!temp.renameTo(file)) {
+				IoUtils.delete(temp);
+				throw new IOException("Could not rename " + temp);
+			}
+		}
+	}
+
+	@Override
+	public InputStream read(MessageId m, int offset) throws IOException {
+		if (offset < 0) throw new IllegalArgumentException();
+		File file = getFile(m);
+		long payload = file.length() - NONCE_PREFIX_LENGTH;
+		if (payload < MAC_LENGTH) throw new IOException("Invalid blob");
+		long frames = (payload + ENCRYPTED_FRAME_LENGTH - 1)
+				/ ENCRYPTED_FRAME_LENGTH;
+		long length = payload - frames * MAC_LENGTH;
+		if (offset > length) throw new IllegalArgumentException();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			byte[] nonce = new byte[NONCE_LENGTH];
+			readFully(in, nonce, NONCE_PREFIX_LENGTH);
+			long frame = offset / FRAME_LENGTH;
+			// The last frame is full if the length is a multiple of the
+			// frame length, so an offset at the end may be past it
+			if (frame == frames) frame--;
+			in.getChannel().position(NONCE_PREFIX_LENGTH
+					+ frame * ENCRYPTED_FRAME_LENGTH);
+			BlobInputStream blob = new BlobInputStream(in,
+					cipherProvider.get(), getFileKey(m), nonce, frame, frames,
+					length);
+			blob.skipWithinFrame(offset - (int) (frame * FRAME_LENGTH));
+			return blob;
+		} catch (IOException e) {
+			tryToClose(in, LOG, WARNING);
+			throw e;
+		}
+	}
+
+	@Override
+	public void delete(MessageId m) {
+		File file = getFile(m);
+		if (file.exists()) IoUtils.delete(file);
+	}
+
+	@Override
+	public List<MessageId> recover() {
+		List<MessageId> ids = new ArrayList<>();
+		File[] subdirs = dir.listFiles();
+		if (subdirs == null) return ids;
+		for (File subdir : subdirs) {
+			File[] files = subdir.listFiles();
+			if (files == null) continue;
+			for (File f : files) {
+				String name = f.getName();
+				if (name.endsWith(TEMP_SUFFIX)) {
+					LOG.info("Deleting partially written blob");
+					IoUtils.delete(f);
+					continue;
+				}
+				try {
+					byte[] id = StringUtils.fromHexString(name);
+					if (id.length == MessageId.LENGTH) {
+						ids.add(new MessageId(id));
+						continue;
+					}
+				} catch (FormatException ignored) {
+					// Fall through
+				}
+				if (LOG.isLoggable(WARNING))
+					LOG.warning("Unexpected file in blob store: " + name);
+			}
+		}
+		return ids;
+	}
+
+	// Package access for testing
+	File getFile(MessageId m) {
+		String hex = StringUtils.toHexString(m.getBytes());
+		return new File(new File(dir, hex.substring(0, 2)), hex);
+	}
+
+	private SecretKey getFileKey(MessageId m) {
+		return new SecretKey(crypto.mac(FILE_KEY_LABEL, blobKey,
+				m.getBytes()));
+	}
+
+	private static void setFrameIndex(byte[] nonce, long index,
+			boolean last) {
+		ByteUtils.writeUint64(index, nonce, NONCE_PREFIX_LENGTH);
+		if (last) nonce[NONCE_PREFIX_LENGTH] |= (byte) 0x80;
+	}
+
+	private static void readFully(InputStream in, byte[] b, int len)
+			throws IOException {
+		int offset = 0;
+		while (offset < len) {
+			int read = in.read(b, offset, len - offset);
+			if (read == -1) throw new EOFException();
+			offset += read;
+		}
+	}
+
+	/**
+	 * Encrypts a frame, writing the MAC followed by the ciphertext to the
+	 * start of the given buffer.
+	 */
+	private static void encrypt(AuthenticatedCipher cipher, SecretKey key,
+			byte[] nonce, byte[] src, int off, int len, byte[] dest)
+			throws IOException {
+		try {
+			cipher.init(true, key, nonce);
+			cipher.process(src, off, len, dest, 0);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Decrypts a frame in place, leaving the plaintext at the start of the
+	 * buffer, and returns the length of the plaintext.
+	 */
+	private static int decrypt(AuthenticatedCipher cipher, SecretKey key,
+			byte[] nonce, byte[] frame, int len) throws IOException {
+		try {
+			cipher.init(false, key, nonce);
+			return cipher.process(frame, 0, len, frame, 0);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Invalid blob", e);
+		}
+	}
+
+	/**
+	 * Decrypts and verifies one frame at a time as the blob is read.
+	 */
+	@NotThreadSafe
+	@NotNullByDefault
+	private static class BlobInputStream extends InputStream {
+
+		private final InputStream in;
+		private final AuthenticatedCipher cipher;
+		private final SecretKey key;
+		private final byte[] nonce;
+		private final byte[] frame = new byte[ENCRYPTED_FRAME_LENGTH];
+		private final long frames, length;
+
+		private long nextFrame;
+		private int frameOffset = 0, frameLength = 0;
+
+		private BlobInputStream(InputStream in, AuthenticatedCipher cipher,
+				SecretKey key, byte[] nonce, long firstFrame, long frames,
+				long length) {
+			this.in = in;
+			this.cipher = cipher;
+			this.key = key;
+			this.nonce = nonce;
+			this.frames = frames;
+			this.length = length;
+			nextFrame = firstFrame;
+		}
+
+		private void skipWithinFrame(int n) throws IOException {
+			if (n == 0) return;
+			if (!readFrame() || n > frameLength) throw new EOFException();
+			frameOffset = n;
+		}
+
+		@Override
+		public int available() {
+			return frameLength - frameOffset;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (frameOffset == frameLength && !readFrame()) return -1;
+			return frame[frameOffset++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			if (frameOffset == frameLength && !readFrame()) return -1;
+			int n = Math.min(len, frameLength - frameOffset);
+			System.arraycopy(frame, frameOffset, b, off, n);
+			frameOffset += n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		/**
+		 * Reads and decrypts the next non-empty frame, or returns false if
+		 * the end of the blob has been reached.
+		 */
+		private boolean readFrame() throws IOException {
+			while (nextFrame < frames) {
+				long index = nextFrame++;
+				boolean last = index == frames - 1;
+				int len = last ?
+						(int) (length - index * FRAME_LENGTH) + MAC_LENGTH :
+						ENCRYPTED_FRAME_LENGTH;
+				readFully(in, frame, len);
+				setFrameIndex(nonce, index, last);
+				frameOffset = 0;
+				frameLength = decrypt(cipher, key, nonce, frame, len);
+				if (frameLength > 0) return true;
+			}
+			return false;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.db.DbClosedException;
@@ -7,8 +8,16 @@ import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.MigrationListener;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.crypto.AuthenticatedCipher;
 import org.briarproject.bramble.util.StringUtils;
 import org.briarproject.nullsafety.NotNullByDefault;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.engine.SessionInterface;
+import org.h2.jdbc.JdbcConnection;
+import org.h2.mvstore.FileStore;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.db.MVTableEngine;
 
 import java.io.File;
 import java.sql.Connection;
@@ -20,13 +29,16 @@ import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Provider;
 
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
 import static org.briarproject.bramble.util.IoUtils.isNonEmptyDirectory;
+import static org.briarproject.bramble.util.LogUtils.logException;
 import static org.briarproject.bramble.util.LogUtils.logFileOrDir;
+import static org.briarproject.bramble.util.LogUtils.now;
 
 /**
  * Contains all the H2-specific code for the database.
@@ -44,21 +56,44 @@ class H2Database extends JdbcDatabase {
 	private static final DatabaseTypes dbTypes = new DatabaseTypes(HASH_TYPE,
 			SECRET_TYPE, BINARY_TYPE, COUNTER_TYPE, STRING_TYPE);
 
+	/**
+	 * The maximum number of bytes to rewrite in each round of compaction.
+	 */
+	private static final int COMPACTION_WRITE_BYTES = 1024 * 1024;
+
 	private final DatabaseConfig config;
+	@Nullable
+	private final CryptoComponent crypto;
+	@Nullable
+	private final Provider<AuthenticatedCipher> cipherProvider;
 	private final String url;
 
 	@Nullable
 	private volatile SecretKey key = null;
 
-	@Inject
+	/**
+	 * Creates a database that keeps the bodies of large messages in the
+	 * database rather than in a blob store.
+	 */
 	H2Database(DatabaseConfig config, MessageFactory messageFactory,
 			Clock clock) {
-		super(dbTypes, messageFactory, clock);
+		this(config, messageFactory, clock, null, null);
+	}
+
+	@Inject
+	H2Database(DatabaseConfig config, MessageFactory messageFactory,
+			Clock clock, @Nullable CryptoComponent crypto,
+			@Nullable Provider<AuthenticatedCipher> cipherProvider) {
+		// Read-only transactions don't run concurrently with the writer, so
+		// one idle connection is enough
+		super(dbTypes, messageFactory, clock, 1);
 		this.config = config;
+		this.crypto = crypto;
+		this.cipherProvider = cipherProvider;
 		File dir = config.getDatabaseDirectory();
 		String path = new File(dir, "db").getAbsolutePath();
 		url = "jdbc:h2:split:" + path + ";CIPHER=AES;MULTI_THREADED=1"
-				+ ";WRITE_DELAY=0";
+				+ ";WRITE_DELAY=" + config.getGroupCommitDelay();
 	}
 
 	@Override
@@ -81,9 +116,47 @@ class H2Database extends JdbcDatabase {
 		return reopen;
 	}
 
+	@Override
+	@Nullable
+	protected BlobStore createBlobStore(SecretKey key) {
+		if (crypto == null || cipherProvider == null) return null;
+		File dir = new File(config.getDatabaseDirectory(), "blobs");
+		return new FileBlobStore(dir, key, crypto, cipherProvider);
+	}
+
+	@Override
+	protected long getGroupCommitDelay() {
+		return config.getGroupCommitDelay();
+	}
+
+	@Override
+	protected void syncToDisk(Connection txn) throws SQLException {
+		Statement s = null;
+		try {
+			s = txn.createStatement();
+			s.execute("CHECKPOINT SYNC");
+			s.close();
+		} catch (SQLException e) {
+			tryToClose(s, LOG, WARNING);
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean supportsConcurrentReads() {
+		// This version of H2 only offers read committed isolation, so a
+		// read-only transaction running alongside the writer could see the
+		// writer's changes between one statement and the next
+		return false;
+	}
+
 	@Override
 	public void close() throws DbException {
-		// H2 will close the database when the last connection closes
+		stopGroupCommit();
+		// H2 will close the database when the last connection closes. The
+		// database is compacted and the file shrunk in the background, so
+		// it's not compacted here, apart from the time-limited compaction H2
+		// does on shutdown
 		Connection c = null;
 		Statement s = null;
 		try {
@@ -91,7 +164,7 @@ class H2Database extends JdbcDatabase {
 			closeAllConnections();
 			setDirty(c, false);
 			s = c.createStatement();
-			s.execute("SHUTDOWN COMPACT");
+			s.execute("SHUTDOWN");
 			s.close();
 			c.close();
 		} catch (SQLException e) {
@@ -118,20 +191,70 @@ class H2Database extends JdbcDatabase {
 	}
 
 	@Override
-	protected void compactAndClose() throws DbException {
-		Connection c = null;
-		Statement s = null;
+	public int getStorageFillRate(Connection txn) throws DbException {
+		MVStore store = getStore(txn);
+		if (store == null) return 100;
 		try {
-			c = createConnection();
-			closeAllConnections();
-			s = c.createStatement();
-			s.execute("SHUTDOWN COMPACT");
-			s.close();
-			c.close();
-		} catch (SQLException e) {
-			tryToClose(s, LOG, WARNING);
-			tryToClose(c, LOG, WARNING);
+			return store.getFileStore().getFillRate();
+		} catch (IllegalStateException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public boolean compactStorage(Connection txn, int targetFillRate,
+			long maxMillis) throws DbException {
+		MVStore store = getStore(txn);
+		if (store == null) return false;
+		long end = now() + maxMillis;
+		try {
+			// Rewrite the live pages of sparsely used chunks into new chunks,
+			// so the old chunks can be freed and their space reused
+			while (store.compact(targetFillRate, COMPACTION_WRITE_BYTES)) {
+				store.sync();
+				if (now() >= end) return true;
+			}
+			// Move chunks into the freed space so the file can be shrunk.
+			// This blocks all access to the store while each round runs,
+			// which is safe as no other transaction can be open. The rounds
+			// stop when the file's fill rate reaches the target or the file
+			// stops shrinking
+			FileStore fileStore = store.getFileStore();
+			long size = fileStore.size();
+			while (store.compactMoveChunks(targetFillRate,
+					COMPACTION_WRITE_BYTES)) {
+				long newSize = fileStore.size();
+				if (newSize >= size) return false;
+				size = newSize;
+				if (now() >= end) return true;
+			}
+			return false;
+		} catch (IllegalStateException e) {
 			throw new DbException(e);
 		}
 	}
+
+	/**
+	 * Returns the MVStore used by the given connection, or null if the
+	 * store can't be reached, in which case the storage isn't compacted.
+	 * <p>
+	 * The store is reached through H2's internal classes, which aren't part
+	 * of its public API and may change between versions, so every step is
+	 * checked and any failure is treated as the store being unavailable.
+	 */
+	@Nullable
+	private MVStore getStore(Connection txn) {
+		try {
+			if (!(txn instanceof JdbcConnection)) return null;
+			SessionInterface session = ((JdbcConnection) txn).getSession();
+			if (!(session instanceof Session)) return null;
+			Database database = ((Session) session).getDatabase();
+			if (database == null) return null;
+			MVTableEngine.Store store = database.getMvStore();
+			return store == null ? null : store.getStore();
+		} catch (RuntimeException | LinkageError e) {
+			logException(LOG, WARNING, e);
+			return null;
+		}
+	}
 }
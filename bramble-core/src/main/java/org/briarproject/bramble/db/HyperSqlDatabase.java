@@ -20,6 +20,7 @@ import java.util.logging.Logger;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
+import static java.sql.Connection.TRANSACTION_REPEATABLE_READ;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
@@ -46,6 +47,7 @@ class HyperSqlDatabase extends JdbcDatabase {
 
 	private final DatabaseConfig config;
 	private final String url;
+	private final boolean mvcc;
 
 	@Nullable
 	private volatile SecretKey key = null;
@@ -53,13 +55,23 @@ class HyperSqlDatabase extends JdbcDatabase {
 	@Inject
 	HyperSqlDatabase(DatabaseConfig config, MessageFactory messageFactory,
 			Clock clock) {
-		super(dbTypes, messageFactory, clock);
+		// Keep a connection for the writer and one for each concurrent reader
+		super(dbTypes, messageFactory, clock,
+				config.getMaxConcurrentReadTransactions() + 1);
 		this.config = config;
 		File dir = config.getDatabaseDirectory();
 		String path = new File(dir, "db").getAbsolutePath();
+		// Readers can only run alongside the writer if the database uses MVCC
+		mvcc = config.getMaxConcurrentReadTransactions() > 0;
+		String txControl = mvcc ? ";hsqldb.tx=mvcc" : "";
 		url = "jdbc:hsqldb:file:" + path
 				+ ";sql.enforce_size=false;allow_empty_batch=true"
-				+ ";encrypt_lobs=true;crypt_type=AES";
+				+ ";encrypt_lobs=true;crypt_type=AES" + txControl;
+	}
+
+	@Override
+	public boolean supportsConcurrentReads() {
+		return mvcc;
 	}
 
 	@Override
@@ -83,6 +95,8 @@ class HyperSqlDatabase extends JdbcDatabase {
 			c = createConnection();
 			setDirty(c, false);
 			s = c.createStatement();
+			// HyperSQL doesn't support incremental compaction, so the
+			// database is compacted on shutdown instead
 			s.executeQuery("SHUTDOWN COMPACT");
 			s.close();
 			c.close();
@@ -98,24 +112,12 @@ class HyperSqlDatabase extends JdbcDatabase {
 		SecretKey key = this.key;
 		if (key == null) throw new DbClosedException();
 		String hex = StringUtils.toHexString(key.getBytes());
-		return DriverManager.getConnection(url + ";crypt_key=" + hex);
-	}
-
-	@Override
-	protected void compactAndClose() throws DbException {
-		Connection c = null;
-		Statement s = null;
-		try {
-			closeAllConnections();
-			c = createConnection();
-			s = c.createStatement();
-			s.executeQuery("SHUTDOWN COMPACT");
-			s.close();
-			c.close();
-		} catch (SQLException e) {
-			tryToClose(s, LOG, WARNING);
-			tryToClose(c, LOG, WARNING);
-			throw new DbException(e);
-		}
+		Connection c = DriverManager.getConnection(url + ";crypt_key=" + hex);
+		// With MVCC, repeatable read gives each transaction a snapshot of
+		// the database as of the start of the transaction. Read-write
+		// transactions exclude each other, so the writer's snapshot is never
+		// stale and its updates never conflict
+		if (mvcc) c.setTransactionIsolation(TRANSACTION_REPEATABLE_READ);
+		return c;
 	}
 }
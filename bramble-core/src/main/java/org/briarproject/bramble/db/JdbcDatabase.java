@@ -1,5 +1,6 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContact;
@@ -39,8 +40,12 @@ import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.OutgoingKeys;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
+import org.briarproject.bramble.util.IoUtils;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -51,11 +56,18 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -69,6 +81,12 @@ import static java.sql.Types.BOOLEAN;
 import static java.sql.Types.INTEGER;
 import static java.sql.Types.VARCHAR;
 import static java.util.Arrays.asList;
+import static java.util.Arrays.copyOf;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableSet;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
@@ -89,9 +107,7 @@ import static org.briarproject.bramble.db.DatabaseConstants.DIRTY_KEY;
 import static org.briarproject.bramble.db.DatabaseConstants.SCHEMA_VERSION_KEY;
 import static org.briarproject.bramble.db.ExponentialBackoff.calculateExpiry;
 import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
-import static org.briarproject.bramble.util.LogUtils.logDuration;
 import static org.briarproject.bramble.util.LogUtils.logException;
-import static org.briarproject.bramble.util.LogUtils.now;
 
 /**
  * A generic database implementation that can be used with any JDBC-compatible
@@ -101,12 +117,37 @@ import static org.briarproject.bramble.util.LogUtils.now;
 abstract class JdbcDatabase implements Database<Connection> {
 
 	// Package access for testing
-	static final int CODE_SCHEMA_VERSION = 50;
+	static final int CODE_SCHEMA_VERSION = 54;
 
 	/**
-	 * The maximum number of idle connections to keep open.
+	 * The maximum number of prepared statements to cache for each open
+	 * connection.
+	 */
+	private static final int MAX_CACHED_STATEMENTS_PER_CONNECTION = 64;
+
+	/**
+	 * How long the thread that writes committed transactions to disk is kept
+	 * when there are no transactions to write.
+	 */
+	private static final long SYNC_THREAD_KEEP_ALIVE_MS = SECONDS.toMillis(60);
+
+	/**
+	 * The number of parameters in the ID lists of statements that operate on
+	 * sets of messages. Shorter lists are padded by repeating the last ID,
+	 * so each statement has a single form that can be cached.
 	 */
-	private static final int MAX_CONNECTION_POOL_SIZE = 1;
+	// Package access for testing
+	static final int MAX_IDS_PER_STATEMENT = 128;
+
+	private static final String ID_LIST = getParameterList(
+			MAX_IDS_PER_STATEMENT);
+
+	/**
+	 * Message bodies longer than this are kept in the blob store, if the
+	 * database has one.
+	 */
+	// Package access for testing
+	static final int MAX_INLINE_BODY_LENGTH = 8 * 1024;
 
 	// Time period offsets for incoming transport keys
 	private static final int OFFSET_PREV = -1;
@@ -172,6 +213,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " (contactId INT NOT NULL,"
 					+ " groupId _HASH NOT NULL,"
 					+ " shared BOOLEAN NOT NULL,"
+					// The contact has seen every message in the group that
+					// can be sent and has an earlier timestamp than this,
+					// unless a status row says otherwise
+					+ " seenBefore BIGINT NOT NULL,"
 					+ " PRIMARY KEY (contactId, groupId),"
 					+ " FOREIGN KEY (contactId)"
 					+ " REFERENCES contacts (contactId)"
@@ -194,7 +239,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 					// hasn't started
 					+ " cleanupDeadline BIGINT,"
 					+ " length INT NOT NULL,"
-					+ " raw BLOB," // Null if message has been deleted
+					// Null if message has been deleted, header only if
+					// the body is in the blob store
+					+ " raw BLOB,"
+					+ " blobStored BOOLEAN DEFAULT FALSE NOT NULL,"
 					+ " PRIMARY KEY (messageId),"
 					+ " FOREIGN KEY (groupId)"
 					+ " REFERENCES groups (groupId)"
@@ -215,6 +263,31 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " REFERENCES groups (groupId)"
 					+ " ON DELETE CASCADE)";
 
+	private static final String CREATE_INDEXED_METADATA_KEYS =
+			"CREATE TABLE indexedMetadataKeys"
+					+ " (metaKey _STRING NOT NULL,"
+					+ " PRIMARY KEY (metaKey))";
+
+	/**
+	 * A copy of the rows of the messageMetadata table whose keys have been
+	 * declared as indexed, so the index on this table only covers keys that
+	 * are used in queries.
+	 */
+	private static final String CREATE_INDEXED_MESSAGE_METADATA =
+			"CREATE TABLE indexedMessageMetadata"
+					+ " (messageId _HASH NOT NULL,"
+					+ " groupId _HASH NOT NULL," // Denormalised
+					+ " state INT NOT NULL," // Denormalised
+					+ " metaKey _STRING NOT NULL,"
+					+ " value _BINARY NOT NULL,"
+					+ " PRIMARY KEY (messageId, metaKey),"
+					+ " FOREIGN KEY (messageId)"
+					+ " REFERENCES messages (messageId)"
+					+ " ON DELETE CASCADE,"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)";
+
 	private static final String CREATE_MESSAGE_DEPENDENCIES =
 			"CREATE TABLE messageDependencies"
 					+ " (groupId _HASH NOT NULL,"
@@ -240,6 +313,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " REFERENCES contacts (contactId)"
 					+ " ON DELETE CASCADE)";
 
+	// A status row is only created when the contact's status for the message
+	// differs from the default status. For messages that can be sent and are
+	// older than the contact's seenBefore watermark for the group, the
+	// default is seen. For other messages in a group that's visible to the
+	// contact, the default is not acked, seen, requested or sent
 	private static final String CREATE_STATUSES =
 			"CREATE TABLE statuses"
 					+ " (messageId _HASH NOT NULL,"
@@ -337,6 +415,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS messageMetadataByGroupIdState"
 					+ " ON messageMetadata (groupId, state)";
 
+	private static final String
+			INDEX_INDEXED_MESSAGE_METADATA_BY_GROUP_ID_KEY_VALUE =
+			"CREATE INDEX IF NOT EXISTS"
+					+ " indexedMessageMetadataByGroupIdKeyValue"
+					+ " ON indexedMessageMetadata (groupId, metaKey, value)";
+
 	private static final String INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID =
 			"CREATE INDEX IF NOT EXISTS messageDependenciesByDependencyId"
 					+ " ON messageDependencies (dependencyId)";
@@ -358,12 +442,72 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS messagesByCleanupDeadline"
 					+ " ON messages (cleanupDeadline)";
 
+	private static final String INDEX_MESSAGES_BY_GROUP_ID_TIMESTAMP =
+			"CREATE INDEX IF NOT EXISTS messagesByGroupIdTimestamp"
+					+ " ON messages (groupId, timestamp)";
+
+	private static final String INDEX_MESSAGES_BY_STATE_TIMESTAMP =
+			"CREATE INDEX IF NOT EXISTS messagesByStateTimestamp"
+					+ " ON messages (state, timestamp)";
+
+	/**
+	 * The initial seenBefore watermark of a group that has just been made
+	 * visible to a contact, which means that no messages have been seen.
+	 */
+	private static final long NOTHING_SEEN = Long.MIN_VALUE;
+
+	/**
+	 * Whether a contact has seen a message without a status row, given the
+	 * message, m, and the contact's visibility of the message's group, v.
+	 * Messages that can be sent and are older than the watermark have been
+	 * seen.
+	 */
+	private static final String SEEN_BY_DEFAULT =
+			"(m.timestamp < v.seenBefore"
+					+ " AND m.state = " + DELIVERED.getValue()
+					+ " AND m.shared = TRUE AND m.raw IS NOT NULL)";
+
+	/**
+	 * Selects the messages in a given state that are shared with a given
+	 * contact and haven't been deleted or seen by the contact. Messages
+	 * without status rows have the default status, and only messages from
+	 * the contact's seenBefore watermark onwards are selected, as the
+	 * contact has seen the older ones. The contact ID and the state are the
+	 * first and second parameters. Messages in a given state can be read in
+	 * timestamp order from the messagesByStateTimestamp index, so queries
+	 * ordered by timestamp don't need to be sorted.
+	 */
+	private static final String FROM_UNSEEN_MESSAGES =
+			" FROM messages AS m"
+					+ " JOIN groupVisibilities AS v"
+					+ " ON m.groupId = v.groupId"
+					+ " LEFT OUTER JOIN statuses AS s"
+					+ " ON s.messageId = m.messageId"
+					+ " AND s.contactId = v.contactId"
+					+ " WHERE v.contactId = ? AND m.state = ?"
+					+ " AND v.shared = TRUE AND m.shared = TRUE"
+					+ " AND m.raw IS NOT NULL"
+					+ " AND m.timestamp >= v.seenBefore"
+					+ " AND (s.messageId IS NULL OR s.seen = FALSE)";
+
+	/**
+	 * Restricts {@link #FROM_UNSEEN_MESSAGES} to messages that are due to be
+	 * sent, given the current time and the latency of the transport.
+	 */
+	private static final String AND_DUE_TO_SEND =
+			" AND (s.messageId IS NULL OR s.expiry <= ?"
+					+ " OR s.maxLatency IS NULL OR ? < s.maxLatency)";
+
 	private static final Logger LOG =
 			getLogger(JdbcDatabase.class.getName());
 
 	private final MessageFactory messageFactory;
 	private final Clock clock;
 	private final DatabaseTypes dbTypes;
+	/**
+	 * The maximum number of idle connections to keep open.
+	 */
+	private final int maxConnectionPoolSize;
 
 	private final Lock connectionsLock = new ReentrantLock();
 	private final Condition connectionsChanged = connectionsLock.newCondition();
@@ -376,24 +520,89 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@GuardedBy("connectionsLock")
 	private boolean closed = false;
 
+	// Each connection is only used by one thread at a time, but the map is
+	// shared between threads
+	private final Map<Connection, StatementCache> statementCaches =
+			new ConcurrentHashMap<>();
+
+	// Blobs written by each open transaction, which are deleted if the
+	// transaction aborts, and blobs of messages deleted by each open
+	// transaction, which are deleted when the transaction commits
+	private final Map<Connection, List<MessageId>> blobsWritten =
+			new ConcurrentHashMap<>();
+	private final Map<Connection, List<MessageId>> blobsToDelete =
+			new ConcurrentHashMap<>();
+
+	@Nullable
+	private volatile BlobStore blobStore = null;
+
 	private volatile boolean wasDirtyOnInitialisation = false;
 
+	// Message metadata keys declared as indexed by clients, and the keys
+	// that were indexed when the database was opened. Keys can't be
+	// declared once the database has been opened, as they wouldn't be
+	// indexed until the next time it was opened
+	private final Lock declaredIndexedKeysLock = new ReentrantLock();
+	@GuardedBy("declaredIndexedKeysLock")
+	private final Set<String> declaredIndexedKeys = new HashSet<>();
+	@GuardedBy("declaredIndexedKeysLock")
+	private boolean declaredIndexedKeysUsed = false;
+	private volatile Set<String> indexedKeys = emptySet();
+
+	// Tasks to run when the transactions that have been committed but not
+	// yet written to disk are written to disk, in commit order
+	private final Lock durabilityLock = new ReentrantLock();
+	@GuardedBy("durabilityLock")
+	private final List<Runnable> notDurable = new ArrayList<>();
+	@GuardedBy("durabilityLock")
+	private boolean syncScheduled = false;
+
+	// Held while writing committed transactions to disk, so that the tasks
+	// of successive syncs run in commit order
+	private final Lock syncLock = new ReentrantLock();
+
+	@Nullable
+	private volatile ScheduledExecutorService syncExecutor = null;
+
 	protected abstract Connection createConnection()
 			throws DbException, SQLException;
 
-	// Used exclusively during open to compact the database after schema
-	// migrations or if the database was not shut down cleanly
-	protected abstract void compactAndClose() throws DbException;
+	/**
+	 * Returns a store for the bodies of large messages, or null if all
+	 * bodies should be kept in the database. Called when the database is
+	 * opened.
+	 */
+	@Nullable
+	protected BlobStore createBlobStore(SecretKey key) {
+		return null;
+	}
+
+	/**
+	 * Returns the maximum time in milliseconds for which the database may
+	 * delay writing committed transactions to disk, or zero if each
+	 * transaction is written to disk when it commits.
+	 */
+	protected long getGroupCommitDelay() {
+		return 0;
+	}
+
+	/**
+	 * Writes all committed transactions to disk. Only called if
+	 * {@link #getGroupCommitDelay()} returns a non-zero value.
+	 */
+	protected void syncToDisk(Connection txn) throws SQLException {
+	}
 
 	JdbcDatabase(DatabaseTypes databaseTypes, MessageFactory messageFactory,
-			Clock clock) {
+			Clock clock, int maxConnectionPoolSize) {
+		if (maxConnectionPoolSize < 1) throw new IllegalArgumentException();
 		this.dbTypes = databaseTypes;
 		this.messageFactory = messageFactory;
 		this.clock = clock;
+		this.maxConnectionPoolSize = maxConnectionPoolSize;
 	}
 
-	protected void open(String driverClass, boolean reopen,
-			@SuppressWarnings("unused") SecretKey key,
+	protected void open(String driverClass, boolean reopen, SecretKey key,
 			@Nullable MigrationListener listener) throws DbException {
 		// Load the JDBC driver
 		try {
@@ -401,69 +610,105 @@ abstract class JdbcDatabase implements Database<Connection> {
 		} catch (ClassNotFoundException e) {
 			throw new DbException(e);
 		}
-		// Open the database and create the tables and indexes if necessary
-		boolean compact;
+		blobStore = createBlobStore(key);
+		// Open the database and create the tables and indexes if necessary.
+		// The database isn't compacted here, even after schema migrations or
+		// an unclean shutdown, as it's compacted in the background instead
 		Connection txn = startTransaction();
 		try {
 			if (reopen) {
 				Settings s = getSettings(txn, DB_SETTINGS_NAMESPACE);
 				wasDirtyOnInitialisation = isDirty(s);
-				boolean migrated = migrateSchema(txn, s, listener);
-				compact = wasDirtyOnInitialisation || migrated;
+				migrateSchema(txn, s, listener);
 			} else {
 				wasDirtyOnInitialisation = false;
 				createTables(txn);
 				initialiseSettings(txn);
-				compact = false;
 			}
 			if (LOG.isLoggable(INFO)) {
 				LOG.info("db dirty? " + wasDirtyOnInitialisation);
 			}
 			createIndexes(txn);
+			updateIndexedMetadataKeys(txn);
+			if (reopen) removeOrphanedBlobs(txn);
 			setDirty(txn, true);
 			commitTransaction(txn);
 		} catch (DbException e) {
 			abortTransaction(txn);
 			throw e;
 		}
-		// Compact the database if necessary
-		if (compact) {
-			if (listener != null) listener.onDatabaseCompaction();
-			long start = now();
-			compactAndClose();
-			logDuration(LOG, "Compacting database", start);
-			// Allow the next transaction to reopen the DB
-			connectionsLock.lock();
-			try {
-				closed = false;
-			} finally {
-				connectionsLock.unlock();
-			}
+		if (getGroupCommitDelay() > 0) {
+			// Use a daemon thread that exits when idle, so the thread doesn't
+			// outlive the database if the database isn't closed
+			ScheduledThreadPoolExecutor executor =
+					new ScheduledThreadPoolExecutor(1, r -> {
+						Thread t = new Thread(r, "DatabaseGroupCommit");
+						t.setDaemon(true);
+						return t;
+					});
+			executor.setKeepAliveTime(SYNC_THREAD_KEEP_ALIVE_MS,
+					MILLISECONDS);
+			executor.allowCoreThreadTimeOut(true);
+			// Pending commits are written to disk by stopGroupCommit()
+			executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+			syncExecutor = executor;
 		}
 	}
 
+	/**
+	 * Writes any committed transactions to disk and stops writing them in
+	 * the background. Should be called before the database is closed. The
+	 * background thread is stopped even if the transactions can't be
+	 * written to disk.
+	 */
+	void stopGroupCommit() throws DbException {
+		ScheduledExecutorService executor = syncExecutor;
+		if (executor == null) return;
+		syncExecutor = null;
+		executor.shutdown();
+		syncCommittedTransactions();
+	}
+
+	/**
+	 * Returns the maximum number of prepared statements to cache for each
+	 * open connection, or zero if statements should not be cached.
+	 */
+	// Package access for testing
+	int getMaxCachedStatementsPerConnection() {
+		return MAX_CACHED_STATEMENTS_PER_CONNECTION;
+	}
+
 	@Override
 	public boolean wasDirtyOnInitialisation() {
 		return wasDirtyOnInitialisation;
 	}
 
+	@Override
+	public void registerIndexedMetadataKeys(Collection<String> keys) {
+		declaredIndexedKeysLock.lock();
+		try {
+			if (declaredIndexedKeysUsed) throw new IllegalStateException();
+			declaredIndexedKeys.addAll(keys);
+		} finally {
+			declaredIndexedKeysLock.unlock();
+		}
+	}
+
 	/**
 	 * Compares the schema version stored in the database with the schema
 	 * version used by the current code and applies any suitable migrations to
 	 * the data if necessary.
 	 *
-	 * @return true if any migrations were applied, false if the schema was
-	 * already current
 	 * @throws DataTooNewException if the data uses a newer schema than the
 	 * current code
 	 * @throws DataTooOldException if the data uses an older schema than the
 	 * current code and cannot be migrated
 	 */
-	private boolean migrateSchema(Connection txn, Settings s,
+	private void migrateSchema(Connection txn, Settings s,
 			@Nullable MigrationListener listener) throws DbException {
 		int dataSchemaVersion = s.getInt(SCHEMA_VERSION_KEY, -1);
 		if (dataSchemaVersion == -1) throw new DbException();
-		if (dataSchemaVersion == CODE_SCHEMA_VERSION) return false;
+		if (dataSchemaVersion == CODE_SCHEMA_VERSION) return;
 		if (CODE_SCHEMA_VERSION < dataSchemaVersion)
 			throw new DataTooNewException();
 		// Apply any suitable migrations in order
@@ -482,7 +727,6 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 		if (dataSchemaVersion != CODE_SCHEMA_VERSION)
 			throw new DataTooOldException();
-		return true;
 	}
 
 	// Package access for testing
@@ -499,7 +743,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 				new Migration46_47(dbTypes),
 				new Migration47_48(),
 				new Migration48_49(),
-				new Migration49_50()
+				new Migration49_50(),
+				new Migration50_51(),
+				new Migration51_52(),
+				new Migration52_53(dbTypes),
+				new Migration53_54()
 		);
 	}
 
@@ -538,6 +786,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_GROUP_VISIBILITIES));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_MESSAGES));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_MESSAGE_METADATA));
+			s.executeUpdate(dbTypes.replaceTypes(CREATE_INDEXED_METADATA_KEYS));
+			s.executeUpdate(
+					dbTypes.replaceTypes(CREATE_INDEXED_MESSAGE_METADATA));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_MESSAGE_DEPENDENCIES));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_OFFERS));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_STATUSES));
@@ -559,11 +810,15 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s.executeUpdate(INDEX_CONTACTS_BY_AUTHOR_ID);
 			s.executeUpdate(INDEX_GROUPS_BY_CLIENT_ID_MAJOR_VERSION);
 			s.executeUpdate(INDEX_MESSAGE_METADATA_BY_GROUP_ID_STATE);
+			s.executeUpdate(
+					INDEX_INDEXED_MESSAGE_METADATA_BY_GROUP_ID_KEY_VALUE);
 			s.executeUpdate(INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_GROUP_ID);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_TIMESTAMP);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_TX_COUNT_TIMESTAMP);
 			s.executeUpdate(INDEX_MESSAGES_BY_CLEANUP_DEADLINE);
+			s.executeUpdate(INDEX_MESSAGES_BY_GROUP_ID_TIMESTAMP);
+			s.executeUpdate(INDEX_MESSAGES_BY_STATE_TIMESTAMP);
 			s.close();
 		} catch (SQLException e) {
 			tryToClose(s, LOG, WARNING);
@@ -587,10 +842,16 @@ abstract class JdbcDatabase implements Database<Connection> {
 				// Open a new connection
 				txn = createConnection();
 				txn.setAutoCommit(false);
+				int maxCachedStatements = getMaxCachedStatementsPerConnection();
+				if (maxCachedStatements > 0) {
+					statementCaches.put(txn,
+							new StatementCache(txn, maxCachedStatements));
+				}
 				connectionsLock.lock();
 				try {
 					// The DB may have been closed since the check above
 					if (closed) {
+						discardStatementCache(txn);
 						tryToClose(txn, LOG, WARNING);
 						throw new DbClosedException();
 					}
@@ -624,10 +885,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		} catch (SQLException e) {
 			logException(LOG, WARNING, e);
 		}
+		discardBlobChanges(txn);
 		closeConnection(txn);
 	}
 
 	private void closeConnection(Connection txn) {
+		discardStatementCache(txn);
 		tryToClose(txn, LOG, WARNING);
 		connectionsLock.lock();
 		try {
@@ -641,23 +904,347 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public void commitTransaction(Connection txn) throws DbException {
+		// The deleted messages' blobs are no longer referenced
+		deleteBlobs(commit(txn));
+	}
+
+	@Override
+	public void commitTransaction(Connection txn, boolean sync,
+			Runnable onDurable) throws DbException {
+		if (getGroupCommitDelay() == 0) {
+			commitTransaction(txn);
+			onDurable.run();
+			return;
+		}
+		// The deleted messages' blobs are referenced by the copy of the
+		// database on disk until the transaction has been written to disk
+		List<MessageId> deleted = commit(txn);
+		boolean schedule;
+		durabilityLock.lock();
+		try {
+			notDurable.add(() -> {
+				deleteBlobs(deleted);
+				onDurable.run();
+			});
+			schedule = !sync && !syncScheduled;
+			if (schedule) syncScheduled = true;
+		} finally {
+			durabilityLock.unlock();
+		}
+		if (sync) {
+			try {
+				syncCommittedTransactions();
+			} catch (DbException e) {
+				// The transaction has been committed, so its task will be
+				// run when it's written to disk by a later attempt
+				scheduleRetry();
+				throw e;
+			}
+		} else if (schedule) {
+			scheduleSync();
+		}
+	}
+
+	/**
+	 * Commits the given transaction and returns the IDs of any messages
+	 * whose blobs were deleted by the transaction, or null.
+	 */
+	@Nullable
+	private List<MessageId> commit(Connection txn) throws DbException {
 		// If the transaction commits successfully then return the connection
 		// to the pool, otherwise close it
 		try {
 			txn.commit();
-			returnConnectionToPool(txn);
 		} catch (SQLException e) {
 			logException(LOG, WARNING, e);
+			discardBlobChanges(txn);
 			closeConnection(txn);
 			throw new DbException(e);
 		}
+		blobsWritten.remove(txn);
+		List<MessageId> deleted = blobsToDelete.remove(txn);
+		returnConnectionToPool(txn);
+		return deleted;
+	}
+
+	private void deleteBlobs(@Nullable List<MessageId> ids) {
+		BlobStore blobStore = this.blobStore;
+		if (ids != null && blobStore != null) {
+			for (MessageId m : ids) blobStore.delete(m);
+		}
+	}
+
+	private void scheduleSync() throws DbException {
+		ScheduledExecutorService executor = syncExecutor;
+		if (executor != null) {
+			try {
+				executor.schedule(this::syncInBackground,
+						getGroupCommitDelay(), MILLISECONDS);
+				return;
+			} catch (RejectedExecutionException e) {
+				// The database is being closed
+			}
+		}
+		syncCommittedTransactions();
+	}
+
+	private void syncInBackground() {
+		try {
+			syncCommittedTransactions();
+		} catch (DbClosedException e) {
+			LOG.info("Database closed before committed transactions synced");
+		} catch (DbException e) {
+			logException(LOG, WARNING, e);
+			scheduleRetry();
+		}
+	}
+
+	/**
+	 * Tries again to write committed transactions to disk after the delay,
+	 * unless a sync has already been scheduled.
+	 */
+	private void scheduleRetry() {
+		ScheduledExecutorService executor = syncExecutor;
+		if (executor == null) return;
+		durabilityLock.lock();
+		try {
+			if (syncScheduled) return;
+			syncScheduled = true;
+		} finally {
+			durabilityLock.unlock();
+		}
+		try {
+			executor.schedule(this::syncInBackground, getGroupCommitDelay(),
+					MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// The database is being closed
+		}
+	}
+
+	/**
+	 * Writes all committed transactions to disk and then runs their tasks in
+	 * commit order. If the transactions can't be written to disk, their
+	 * tasks are kept for the next attempt.
+	 */
+	private void syncCommittedTransactions() throws DbException {
+		syncLock.lock();
+		try {
+			List<Runnable> tasks;
+			durabilityLock.lock();
+			try {
+				tasks = new ArrayList<>(notDurable);
+				notDurable.clear();
+				syncScheduled = false;
+			} finally {
+				durabilityLock.unlock();
+			}
+			if (tasks.isEmpty()) return;
+			try {
+				Connection txn = startTransaction();
+				try {
+					syncToDisk(txn);
+				} catch (SQLException e) {
+					abortTransaction(txn);
+					throw new DbException(e);
+				}
+				commitTransaction(txn);
+			} catch (DbException e) {
+				durabilityLock.lock();
+				try {
+					notDurable.addAll(0, tasks);
+				} finally {
+					durabilityLock.unlock();
+				}
+				throw e;
+			}
+			for (Runnable r : tasks) r.run();
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+	/**
+	 * Deletes any blobs written by the given transaction, which is being
+	 * rolled back, and forgets any blobs it would have deleted.
+	 */
+	private void discardBlobChanges(Connection txn) {
+		blobsToDelete.remove(txn);
+		List<MessageId> written = blobsWritten.remove(txn);
+		BlobStore blobStore = this.blobStore;
+		if (written != null && blobStore != null) {
+			for (MessageId m : written) blobStore.delete(m);
+		}
+	}
+
+	/**
+	 * Arranges for the blob of the given message to be deleted if the given
+	 * transaction commits.
+	 */
+	private void deleteBlobOnCommit(Connection txn, MessageId m) {
+		List<MessageId> ids = blobsToDelete.get(txn);
+		if (ids == null) {
+			ids = new ArrayList<>();
+			blobsToDelete.put(txn, ids);
+		}
+		ids.add(m);
+	}
+
+	/**
+	 * Arranges for the blobs of any messages matching the given query, which
+	 * should select message IDs and take no parameters other than the given
+	 * ID, to be deleted if the given transaction commits.
+	 */
+	private void deleteBlobsOnCommit(Connection txn, String sql,
+			@Nullable byte[] id) throws SQLException {
+		if (blobStore == null) return;
+		PreparedStatement ps = txn.prepareStatement(sql);
+		ResultSet rs = null;
+		try {
+			if (id != null) ps.setBytes(1, id);
+			rs = ps.executeQuery();
+			while (rs.next())
+				deleteBlobOnCommit(txn, new MessageId(rs.getBytes(1)));
+			rs.close();
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw e;
+		}
+	}
+
+	/**
+	 * Brings the indexedMessageMetadata table into line with the keys that
+	 * have been declared as indexed, copying the metadata for any newly
+	 * declared keys from the messageMetadata table and removing the metadata
+	 * for any keys that are no longer declared.
+	 */
+	private void updateIndexedMetadataKeys(Connection txn)
+			throws DbException {
+		Set<String> declared;
+		declaredIndexedKeysLock.lock();
+		try {
+			declaredIndexedKeysUsed = true;
+			declared = new HashSet<>(declaredIndexedKeys);
+		} finally {
+			declaredIndexedKeysLock.unlock();
+		}
+		Statement s = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			Set<String> existing = new HashSet<>();
+			String sql = "SELECT metaKey FROM indexedMetadataKeys";
+			s = txn.createStatement();
+			rs = s.executeQuery(sql);
+			while (rs.next()) existing.add(rs.getString(1));
+			rs.close();
+			s.close();
+			for (String key : existing) {
+				if (declared.contains(key)) continue;
+				sql = "DELETE FROM indexedMessageMetadata WHERE metaKey = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setString(1, key);
+				if (ps.executeUpdate() < 0) throw new DbStateException();
+				ps.close();
+				sql = "DELETE FROM indexedMetadataKeys WHERE metaKey = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setString(1, key);
+				if (ps.executeUpdate() != 1) throw new DbStateException();
+				ps.close();
+				if (LOG.isLoggable(INFO))
+					LOG.info("Removed index for metadata key " + key);
+			}
+			for (String key : declared) {
+				if (existing.contains(key)) continue;
+				sql = "INSERT INTO indexedMessageMetadata"
+						+ " (messageId, groupId, state, metaKey, value)"
+						+ " SELECT messageId, groupId, state, metaKey, value"
+						+ " FROM messageMetadata WHERE metaKey = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setString(1, key);
+				int copied = ps.executeUpdate();
+				if (copied < 0) throw new DbStateException();
+				ps.close();
+				sql = "INSERT INTO indexedMetadataKeys (metaKey) VALUES (?)";
+				ps = txn.prepareStatement(sql);
+				ps.setString(1, key);
+				if (ps.executeUpdate() != 1) throw new DbStateException();
+				ps.close();
+				if (LOG.isLoggable(INFO)) {
+					LOG.info("Indexed " + copied + " values for metadata key "
+							+ key);
+				}
+			}
+			indexedKeys = unmodifiableSet(declared);
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(s, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Deletes any blobs that aren't referenced by the database, which may be
+	 * left behind if the process was killed between writing or deleting a
+	 * blob and committing the transaction.
+	 */
+	private void removeOrphanedBlobs(Connection txn) throws DbException {
+		BlobStore blobStore = this.blobStore;
+		if (blobStore == null) return;
+		Statement s = null;
+		ResultSet rs = null;
+		try {
+			Set<MessageId> referenced = new HashSet<>();
+			String sql = "SELECT messageId FROM messages"
+					+ " WHERE blobStored = TRUE AND raw IS NOT NULL";
+			s = txn.createStatement();
+			rs = s.executeQuery(sql);
+			while (rs.next()) referenced.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			s.close();
+			int removed = 0;
+			for (MessageId m : blobStore.recover()) {
+				if (!referenced.contains(m)) {
+					blobStore.delete(m);
+					removed++;
+				}
+			}
+			if (LOG.isLoggable(INFO))
+				LOG.info("Removed " + removed + " orphaned blobs");
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(s, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Reads the body of the given message from the blob store.
+	 */
+	private byte[] readBlob(MessageId m, int length) throws DbException {
+		BlobStore blobStore = this.blobStore;
+		if (blobStore == null) throw new DbException();
+		InputStream in = null;
+		try {
+			in = blobStore.read(m, 0);
+			byte[] body = new byte[length];
+			IoUtils.read(in, body);
+			if (in.read() != -1) throw new IOException();
+			in.close();
+			return body;
+		} catch (IOException e) {
+			IoUtils.tryToClose(in, LOG, WARNING);
+			throw new DbException(e);
+		}
 	}
 
 	private void returnConnectionToPool(Connection txn) {
 		boolean shouldClose;
 		connectionsLock.lock();
 		try {
-			shouldClose = connectionPool.size() >= MAX_CONNECTION_POOL_SIZE;
+			shouldClose = connectionPool.size() >= maxConnectionPoolSize;
 			if (shouldClose) openConnections--;
 			else connectionPool.add(txn);
 			logConnectionCounts();
@@ -665,7 +1252,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 		} finally {
 			connectionsLock.unlock();
 		}
-		if (shouldClose) tryToClose(txn, LOG, WARNING);
+		if (shouldClose) {
+			discardStatementCache(txn);
+			tryToClose(txn, LOG, WARNING);
+		}
 	}
 
 	void closeAllConnections() {
@@ -673,7 +1263,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 		connectionsLock.lock();
 		try {
 			closed = true;
-			for (Connection c : connectionPool) tryToClose(c, LOG, WARNING);
+			for (Connection c : connectionPool) {
+				discardStatementCache(c);
+				tryToClose(c, LOG, WARNING);
+			}
 			openConnections -= connectionPool.size();
 			connectionPool.clear();
 			while (openConnections > 0) {
@@ -687,7 +1280,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 					LOG.warning("Interrupted while closing connections");
 					interrupted = true;
 				}
-				for (Connection c : connectionPool) tryToClose(c, LOG, WARNING);
+				for (Connection c : connectionPool) {
+					discardStatementCache(c);
+					tryToClose(c, LOG, WARNING);
+				}
 				openConnections -= connectionPool.size();
 				connectionPool.clear();
 			}
@@ -699,6 +1295,77 @@ abstract class JdbcDatabase implements Database<Connection> {
 		if (interrupted) Thread.currentThread().interrupt();
 	}
 
+	/**
+	 * Returns a prepared statement for the given SQL, reusing a statement
+	 * from the connection's cache if possible. If the statement is used
+	 * successfully it should be passed to
+	 * {@link #releaseStatement(Connection, String, PreparedStatement)},
+	 * otherwise it should be closed.
+	 */
+	private PreparedStatement prepareCachedStatement(Connection txn,
+			String sql) throws SQLException {
+		StatementCache cache = statementCaches.get(txn);
+		if (cache == null) return txn.prepareStatement(sql);
+		return cache.prepareStatement(sql);
+	}
+
+	/**
+	 * Returns a statement obtained from
+	 * {@link #prepareCachedStatement(Connection, String)} to the connection's
+	 * cache, or closes it if the connection has no cache. The caller must
+	 * not close the statement afterwards, as it may be in use again.
+	 */
+	private void releaseStatement(Connection txn, String sql,
+			PreparedStatement ps) throws SQLException {
+		StatementCache cache = statementCaches.get(txn);
+		if (cache == null) ps.close();
+		else cache.releaseStatement(sql, ps);
+	}
+
+	private void discardStatementCache(Connection txn) {
+		StatementCache cache = statementCaches.remove(txn);
+		if (cache != null) {
+			if (LOG.isLoggable(FINE)) {
+				LOG.fine("Discarding statement cache: " + cache.getHits()
+						+ " hits, " + cache.getMisses() + " misses");
+			}
+			cache.close();
+		}
+	}
+
+	private static String getParameterList(int size) {
+		StringBuilder sb = new StringBuilder("(?");
+		for (int i = 1; i < size; i++) sb.append(", ?");
+		return sb.append(')').toString();
+	}
+
+	/**
+	 * Splits the given IDs into chunks that fit in an {@link #ID_LIST}.
+	 */
+	private static <I extends UniqueId> List<List<I>> getChunks(
+			Collection<I> ids) {
+		List<I> list = new ArrayList<>(ids);
+		List<List<I>> chunks = new ArrayList<>();
+		for (int i = 0; i < list.size(); i += MAX_IDS_PER_STATEMENT) {
+			int end = Math.min(i + MAX_IDS_PER_STATEMENT, list.size());
+			chunks.add(list.subList(i, end));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Sets the parameters of an {@link #ID_LIST}, starting at the given
+	 * index, to the given IDs, repeating the last ID to fill the list.
+	 */
+	private static void setIdList(PreparedStatement ps, int index,
+			List<? extends UniqueId> chunk) throws SQLException {
+		byte[] last = chunk.get(chunk.size() - 1).getBytes();
+		for (int i = 0; i < MAX_IDS_PER_STATEMENT; i++) {
+			byte[] id = i < chunk.size() ? chunk.get(i).getBytes() : last;
+			ps.setBytes(index + i, id);
+		}
+	}
+
 	@Override
 	public ContactId addContact(Connection txn, Author remote, AuthorId local,
 			@Nullable PublicKey handshake, boolean verified)
@@ -768,50 +1435,65 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "INSERT INTO groupVisibilities"
-					+ " (contactId, groupId, shared)"
-					+ " VALUES (?, ?, ?)";
+					+ " (contactId, groupId, shared, seenBefore)"
+					+ " VALUES (?, ?, ?, ?)";
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, g.getBytes());
 			ps.setBoolean(3, groupShared);
+			ps.setLong(4, NOTHING_SEEN);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
-			// Create a status row for each message in the group
-			addStatus(txn, c, g, groupShared);
+			// The contact has the default status for every message in the
+			// group, apart from any messages it has offered to us
+			addOfferedStatuses(txn, c, g);
+			advanceSeenWatermark(txn, c, g);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
 	}
 
-	private void addStatus(Connection txn, ContactId c, GroupId g,
-			boolean groupShared) throws DbException {
+	/**
+	 * Creates status rows for any messages in the given group that the given
+	 * contact has offered to us, marking them as seen and acked, and removes
+	 * the offers.
+	 */
+	private void addOfferedStatuses(Connection txn, ContactId c, GroupId g)
+			throws DbException {
 		PreparedStatement ps = null;
-		ResultSet rs = null;
 		try {
-			String sql = "SELECT messageId, timestamp, state, shared,"
-					+ " length, raw IS NULL"
-					+ " FROM messages"
-					+ " WHERE groupId = ?";
+			String sql = "INSERT INTO statuses (messageId, contactId, groupId,"
+					+ " timestamp, length, state, groupShared, messageShared,"
+					+ " deleted, ack, seen, requested, expiry, txCount)"
+					+ " SELECT m.messageId, v.contactId, m.groupId,"
+					+ " m.timestamp, m.length, m.state, v.shared, m.shared,"
+					+ " m.raw IS NULL, TRUE, TRUE, FALSE, 0, 0"
+					+ " FROM messages AS m"
+					+ " JOIN groupVisibilities AS v"
+					+ " ON m.groupId = v.groupId"
+					+ " JOIN offers AS o"
+					+ " ON o.messageId = m.messageId"
+					+ " AND o.contactId = v.contactId"
+					+ " WHERE m.groupId = ? AND v.contactId = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, g.getBytes());
-			rs = ps.executeQuery();
-			while (rs.next()) {
-				MessageId id = new MessageId(rs.getBytes(1));
-				long timestamp = rs.getLong(2);
-				MessageState state = MessageState.fromValue(rs.getInt(3));
-				boolean messageShared = rs.getBoolean(4);
-				int length = rs.getInt(5);
-				boolean deleted = rs.getBoolean(6);
-				boolean seen = removeOfferedMessage(txn, c, id);
-				addStatus(txn, id, c, g, timestamp, length, state, groupShared,
-						messageShared, deleted, seen);
-			}
-			rs.close();
+			ps.setInt(2, c.getInt());
+			int affected = ps.executeUpdate();
+			if (affected < 0) throw new DbStateException();
+			ps.close();
+			if (affected == 0) return;
+			sql = "DELETE FROM offers"
+					+ " WHERE contactId = ? AND messageId IN"
+					+ " (SELECT messageId FROM messages WHERE groupId = ?)";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			ps.setBytes(2, g.getBytes());
+			int removed = ps.executeUpdate();
+			if (removed != affected) throw new DbStateException();
 			ps.close();
 		} catch (SQLException e) {
-			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
@@ -852,9 +1534,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			throws DbException {
 		PreparedStatement ps = null;
 		try {
+			byte[] raw = messageFactory.getRawMessage(m);
+			// Write a large body to the blob store before the message row
+			// refers to it. If the transaction doesn't commit, the blob is
+			// deleted when the transaction aborts or the database reopens
+			boolean blobStored = writeBlobIfLarge(txn, m.getId(), raw);
 			String sql = "INSERT INTO messages (messageId, groupId, timestamp,"
-					+ " state, shared, temporary, length, raw)"
-					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+					+ " state, shared, temporary, length, raw, blobStored)"
+					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getId().getBytes());
 			ps.setBytes(2, m.getGroupId().getBytes());
@@ -862,22 +1549,34 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setInt(4, state.getValue());
 			ps.setBoolean(5, shared);
 			ps.setBoolean(6, temporary);
-			byte[] raw = messageFactory.getRawMessage(m);
 			ps.setInt(7, raw.length);
-			ps.setBytes(8, raw);
+			if (blobStored) ps.setBytes(8, copyOf(raw, MESSAGE_HEADER_LENGTH));
+			else ps.setBytes(8, raw);
+			ps.setBoolean(9, blobStored);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
-			// Create a status row for each contact that can see the group
-			Map<ContactId, Boolean> visibility =
-					getGroupVisibility(txn, m.getGroupId());
-			for (Entry<ContactId, Boolean> e : visibility.entrySet()) {
-				ContactId c = e.getKey();
-				boolean offered = removeOfferedMessage(txn, c, m.getId());
-				boolean seen = offered || c.equals(sender);
-				addStatus(txn, m.getId(), c, m.getGroupId(), m.getTimestamp(),
-						raw.length, state, e.getValue(), shared, false, seen);
+			// Contacts that can see the group have the default status for
+			// the message, so only create status rows for contacts that have
+			// sent or offered us the message
+			Set<ContactId> seenBy = getOfferingContacts(txn, m.getId());
+			if (sender != null) seenBy.add(sender);
+			if (!seenBy.isEmpty()) {
+				Map<ContactId, Boolean> visibility =
+						getGroupVisibility(txn, m.getGroupId());
+				for (ContactId c : seenBy) {
+					Boolean groupShared = visibility.get(c);
+					if (groupShared == null) continue;
+					removeOfferedMessage(txn, c, m.getId());
+					addStatus(txn, m.getId(), c, m.getGroupId(),
+							m.getTimestamp(), raw.length, state, groupShared,
+							shared, false, true);
+				}
 			}
+			// Contacts that haven't seen the message mustn't have watermarks
+			// above it once it can be sent
+			if (state == DELIVERED && shared)
+				lowerSeenWatermarks(txn, m.getId());
 			// Update denormalised column in messageDependencies if dependency
 			// is in same group as dependent
 			sql = "UPDATE messageDependencies SET dependencyState = ?"
@@ -895,6 +1594,32 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	/**
+	 * Writes the body of the given raw message to the blob store if it's
+	 * too long to keep in the database.
+	 *
+	 * @return true if the body was written to the blob store
+	 */
+	private boolean writeBlobIfLarge(Connection txn, MessageId m, byte[] raw)
+			throws DbException {
+		BlobStore blobStore = this.blobStore;
+		int bodyLength = raw.length - MESSAGE_HEADER_LENGTH;
+		if (blobStore == null || bodyLength <= MAX_INLINE_BODY_LENGTH)
+			return false;
+		try {
+			blobStore.write(m, raw, MESSAGE_HEADER_LENGTH, bodyLength);
+		} catch (IOException e) {
+			throw new DbException(e);
+		}
+		List<MessageId> ids = blobsWritten.get(txn);
+		if (ids == null) {
+			ids = new ArrayList<>();
+			blobsWritten.put(txn, ids);
+		}
+		ids.add(m);
+		return true;
+	}
+
 	@Override
 	public void addOfferedMessage(Connection txn, ContactId c, MessageId m)
 			throws DbException {
@@ -903,22 +1628,286 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT NULL FROM offers"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
+			ps = null;
 			if (found) return;
 			sql = "INSERT INTO offers (messageId, contactId) VALUES (?, ?)";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setBytes(1, m.getBytes());
+			ps.setInt(2, c.getInt());
+			int affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			releaseStatement(txn, sql, ps);
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public void addOfferedMessages(Connection txn, ContactId c,
+			Collection<MessageId> ids) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Remove any duplicates and messages that have already been offered
+			Set<MessageId> added = new LinkedHashSet<>(ids);
+			String sql = "SELECT messageId FROM offers"
+					+ " WHERE contactId = ? AND messageId IN " + ID_LIST;
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			for (List<MessageId> chunk : getChunks(ids)) {
+				setIdList(ps, 2, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) added.remove(new MessageId(rs.getBytes(1)));
+				rs.close();
+			}
+			releaseStatement(txn, sql, ps);
+			ps = null;
+			if (added.isEmpty()) return;
+			sql = "INSERT INTO offers (messageId, contactId) VALUES (?, ?)";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(2, c.getInt());
+			for (MessageId m : added) {
+				ps.setBytes(1, m.getBytes());
+				ps.addBatch();
+			}
+			int[] batchAffected = ps.executeBatch();
+			if (batchAffected.length != added.size())
+				throw new DbStateException();
+			for (int rows : batchAffected) {
+				if (rows != 1) throw new DbStateException();
+			}
+			releaseStatement(txn, sql, ps);
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	private void addStatus(Connection txn, MessageId m, ContactId c, GroupId g,
+			long timestamp, int length, MessageState state, boolean groupShared,
+			boolean messageShared, boolean deleted, boolean seen)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "INSERT INTO statuses (messageId, contactId, groupId,"
+					+ " timestamp, length, state, groupShared, messageShared,"
+					+ " deleted, ack, seen, requested, expiry, txCount,"
+					+ " maxLatency)"
+					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, FALSE, 0, 0,"
+					+ " NULL)";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
+			ps.setBytes(3, g.getBytes());
+			ps.setLong(4, timestamp);
+			ps.setInt(5, length);
+			ps.setInt(6, state.getValue());
+			ps.setBoolean(7, groupShared);
+			ps.setBoolean(8, messageShared);
+			ps.setBoolean(9, deleted);
+			ps.setBoolean(10, seen);
+			ps.setBoolean(11, seen);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Creates status rows with the default status for any of the given
+	 * messages that are visible to the given contact and don't already have
+	 * status rows, so the rows can be updated. Messages below the contact's
+	 * watermark may be seen by default.
+	 */
+	private void materialiseStatuses(Connection txn, ContactId c,
+			Collection<MessageId> ids) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "INSERT INTO statuses (messageId, contactId, groupId,"
+					+ " timestamp, length, state, groupShared, messageShared,"
+					+ " deleted, ack, seen, requested, expiry, txCount)"
+					+ " SELECT m.messageId, v.contactId, m.groupId,"
+					+ " m.timestamp, m.length, m.state, v.shared, m.shared,"
+					+ " m.raw IS NULL, FALSE, " + SEEN_BY_DEFAULT + ", FALSE,"
+					+ " 0, 0"
+					+ " FROM messages AS m"
+					+ " JOIN groupVisibilities AS v"
+					+ " ON m.groupId = v.groupId"
+					+ " WHERE v.contactId = ? AND m.messageId IN " + ID_LIST
+					+ " AND NOT EXISTS (SELECT NULL FROM statuses AS s"
+					+ " WHERE s.messageId = m.messageId"
+					+ " AND s.contactId = v.contactId)";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			for (List<MessageId> chunk : getChunks(ids)) {
+				setIdList(ps, 2, chunk);
+				int affected = ps.executeUpdate();
+				if (affected < 0 || affected > chunk.size())
+					throw new DbStateException();
+			}
+			releaseStatement(txn, sql, ps);
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Deletes any status rows for the given contact that have returned to
+	 * the default status. Only unseen rows are deleted, and the messages
+	 * they belong to either can't be sent or aren't below the contact's
+	 * seenBefore watermark, so their default status is unseen.
+	 */
+	private void removeDefaultStatuses(Connection txn, ContactId c)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "DELETE FROM statuses"
+					+ " WHERE contactId = ? AND ack = FALSE AND seen = FALSE"
+					+ " AND requested = FALSE AND expiry = 0 AND txCount = 0";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			int affected = ps.executeUpdate();
+			if (affected < 0) throw new DbStateException();
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Moves the given contact's seenBefore watermarks forward in any groups
+	 * where the given messages, which the contact has seen, are not below
+	 * the watermark.
+	 */
+	private void advanceSeenWatermarks(Connection txn, ContactId c,
+			Collection<MessageId> ids) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT DISTINCT m.groupId FROM messages AS m"
+					+ " JOIN groupVisibilities AS v"
+					+ " ON m.groupId = v.groupId"
+					+ " WHERE v.contactId = ? AND m.timestamp >= v.seenBefore"
+					+ " AND m.messageId IN " + ID_LIST;
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			Set<GroupId> groups = new HashSet<>();
+			for (List<MessageId> chunk : getChunks(ids)) {
+				setIdList(ps, 2, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) groups.add(new GroupId(rs.getBytes(1)));
+				rs.close();
+			}
+			releaseStatement(txn, sql, ps);
+			for (GroupId g : groups) advanceSeenWatermark(txn, c, g);
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Moves the given contact's seenBefore watermark for the given group
+	 * forward to the oldest message that can be sent and hasn't been seen
+	 * by the contact, or to the newest message that can be sent if the
+	 * contact has seen them all, and deletes any status rows below the
+	 * watermark that now have the default status.
+	 */
+	private void advanceSeenWatermark(Connection txn, ContactId c, GroupId g)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT seenBefore FROM groupVisibilities"
+					+ " WHERE contactId = ? AND groupId = ?";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			ps.setBytes(2, g.getBytes());
+			rs = ps.executeQuery();
+			if (!rs.next()) throw new DbStateException();
+			long seenBefore = rs.getLong(1);
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			releaseStatement(txn, sql, ps);
+			// Scan forward from the watermark to the first unseen message
+			sql = "SELECT m.timestamp FROM messages AS m"
+					+ " WHERE m.groupId = ? AND m.timestamp >= ?"
+					+ " AND m.state = ? AND m.shared = TRUE"
+					+ " AND m.raw IS NOT NULL"
+					+ " AND NOT EXISTS (SELECT NULL FROM statuses AS s"
+					+ " WHERE s.messageId = m.messageId AND s.contactId = ?"
+					+ " AND s.seen = TRUE)"
+					+ " ORDER BY m.timestamp LIMIT 1";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setLong(2, seenBefore);
+			ps.setInt(3, DELIVERED.getValue());
+			ps.setInt(4, c.getInt());
+			rs = ps.executeQuery();
+			boolean found = rs.next();
+			long newSeenBefore = found ? rs.getLong(1) : seenBefore;
+			rs.close();
+			releaseStatement(txn, sql, ps);
+			if (!found) {
+				// The contact has seen every message that can be sent
+				sql = "SELECT MAX(timestamp) FROM messages"
+						+ " WHERE groupId = ? AND timestamp >= ?"
+						+ " AND state = ? AND shared = TRUE"
+						+ " AND raw IS NOT NULL";
+				ps = prepareCachedStatement(txn, sql);
+				ps.setBytes(1, g.getBytes());
+				ps.setLong(2, seenBefore);
+				ps.setInt(3, DELIVERED.getValue());
+				rs = ps.executeQuery();
+				if (!rs.next()) throw new DbStateException();
+				long max = rs.getLong(1);
+				if (!rs.wasNull()) newSeenBefore = max;
+				rs.close();
+				releaseStatement(txn, sql, ps);
+			}
+			ps = null;
+			if (newSeenBefore == seenBefore) return;
+			sql = "UPDATE groupVisibilities SET seenBefore = ?"
+					+ " WHERE contactId = ? AND groupId = ?";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setLong(1, newSeenBefore);
+			ps.setInt(2, c.getInt());
+			ps.setBytes(3, g.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			releaseStatement(txn, sql, ps);
+			// Delete status rows that are seen by default below the new
+			// watermark, unless they're waiting to be acked or requested
+			sql = "DELETE FROM statuses"
+					+ " WHERE contactId = ? AND groupId = ? AND timestamp < ?"
+					+ " AND state = ? AND messageShared = TRUE"
+					+ " AND deleted = FALSE AND seen = TRUE AND ack = FALSE"
+					+ " AND requested = FALSE";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			ps.setBytes(2, g.getBytes());
+			ps.setLong(3, newSeenBefore);
+			ps.setInt(4, DELIVERED.getValue());
+			affected = ps.executeUpdate();
+			if (affected < 0) throw new DbStateException();
+			releaseStatement(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -926,34 +1915,81 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
-	private void addStatus(Connection txn, MessageId m, ContactId c, GroupId g,
-			long timestamp, int length, MessageState state, boolean groupShared,
-			boolean messageShared, boolean deleted, boolean seen)
+	/**
+	 * If the given message can be sent, moves the seenBefore watermarks of
+	 * any contacts that haven't seen it back to the message's timestamp, so
+	 * the message will be sent to them. The messages between the old and
+	 * new watermarks that were seen by default get status rows marking them
+	 * as seen.
+	 */
+	private void lowerSeenWatermarks(Connection txn, MessageId m)
 			throws DbException {
 		PreparedStatement ps = null;
+		ResultSet rs = null;
 		try {
-			String sql = "INSERT INTO statuses (messageId, contactId, groupId,"
-					+ " timestamp, length, state, groupShared, messageShared,"
-					+ " deleted, ack, seen, requested, expiry, txCount,"
-					+ " maxLatency)"
-					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, FALSE, 0, 0,"
-					+ " NULL)";
-			ps = txn.prepareStatement(sql);
+			String sql = "SELECT groupId, timestamp FROM messages"
+					+ " WHERE messageId = ? AND state = ? AND shared = TRUE"
+					+ " AND raw IS NOT NULL";
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
-			ps.setInt(2, c.getInt());
-			ps.setBytes(3, g.getBytes());
-			ps.setLong(4, timestamp);
-			ps.setInt(5, length);
-			ps.setInt(6, state.getValue());
-			ps.setBoolean(7, groupShared);
-			ps.setBoolean(8, messageShared);
-			ps.setBoolean(9, deleted);
-			ps.setBoolean(10, seen);
-			ps.setBoolean(11, seen);
+			ps.setInt(2, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			if (!rs.next()) {
+				// The message can't be sent
+				rs.close();
+				releaseStatement(txn, sql, ps);
+				return;
+			}
+			byte[] groupId = rs.getBytes(1);
+			long timestamp = rs.getLong(2);
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			releaseStatement(txn, sql, ps);
+			sql = "INSERT INTO statuses (messageId, contactId, groupId,"
+					+ " timestamp, length, state, groupShared, messageShared,"
+					+ " deleted, ack, seen, requested, expiry, txCount)"
+					+ " SELECT m.messageId, v.contactId, m.groupId,"
+					+ " m.timestamp, m.length, m.state, v.shared, m.shared,"
+					+ " FALSE, FALSE, TRUE, FALSE, 0, 0"
+					+ " FROM groupVisibilities AS v"
+					+ " JOIN messages AS m"
+					+ " ON m.groupId = v.groupId"
+					+ " WHERE v.groupId = ? AND v.seenBefore > ?"
+					+ " AND m.timestamp >= ? AND m.timestamp < v.seenBefore"
+					+ " AND m.messageId <> ? AND m.state = ?"
+					+ " AND m.shared = TRUE AND m.raw IS NOT NULL"
+					+ " AND NOT EXISTS (SELECT NULL FROM statuses AS s"
+					+ " WHERE s.messageId = m.messageId"
+					+ " AND s.contactId = v.contactId)"
+					+ " AND NOT EXISTS (SELECT NULL FROM statuses AS s"
+					+ " WHERE s.messageId = ? AND s.contactId = v.contactId"
+					+ " AND s.seen = TRUE)";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setBytes(1, groupId);
+			ps.setLong(2, timestamp);
+			ps.setLong(3, timestamp);
+			ps.setBytes(4, m.getBytes());
+			ps.setInt(5, DELIVERED.getValue());
+			ps.setBytes(6, m.getBytes());
 			int affected = ps.executeUpdate();
-			if (affected != 1) throw new DbStateException();
-			ps.close();
+			if (affected < 0) throw new DbStateException();
+			releaseStatement(txn, sql, ps);
+			sql = "UPDATE groupVisibilities SET seenBefore = ?"
+					+ " WHERE groupId = ? AND seenBefore > ?"
+					+ " AND NOT EXISTS (SELECT NULL FROM statuses AS s"
+					+ " WHERE s.messageId = ?"
+					+ " AND s.contactId = groupVisibilities.contactId"
+					+ " AND s.seen = TRUE)";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setLong(1, timestamp);
+			ps.setBytes(2, groupId);
+			ps.setLong(3, timestamp);
+			ps.setBytes(4, m.getBytes());
+			affected = ps.executeUpdate();
+			if (affected < 0) throw new DbStateException();
+			releaseStatement(txn, sql, ps);
 		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
@@ -1146,6 +2182,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public boolean compactStorage(Connection txn, int targetFillRate,
+			long maxMillis) throws DbException {
+		// Incremental compaction isn't supported by default
+		return false;
+	}
+
 	@Override
 	public boolean containsAcksToSend(Connection txn, ContactId c)
 			throws DbException {
@@ -1154,12 +2197,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT NULL FROM statuses"
 					+ " WHERE contactId = ? AND ack = TRUE";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			rs = ps.executeQuery();
 			boolean acksToSend = rs.next();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return acksToSend;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1199,13 +2242,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM contacts WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1221,13 +2264,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM groups WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1265,13 +2308,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM messages WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1286,23 +2329,16 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
+			String sql;
 			if (eager) {
-				String sql = "SELECT NULL from statuses"
-						+ " WHERE contactId = ? AND state = ?"
-						+ " AND groupShared = TRUE AND messageShared = TRUE"
-						+ " AND deleted = FALSE AND seen = FALSE";
-				ps = txn.prepareStatement(sql);
+				sql = "SELECT NULL" + FROM_UNSEEN_MESSAGES;
+				ps = prepareCachedStatement(txn, sql);
 				ps.setInt(1, c.getInt());
 				ps.setInt(2, DELIVERED.getValue());
 			} else {
 				long now = clock.currentTimeMillis();
-				String sql = "SELECT NULL FROM statuses"
-						+ " WHERE contactId = ? AND state = ?"
-						+ " AND groupShared = TRUE AND messageShared = TRUE"
-						+ " AND deleted = FALSE AND seen = FALSE"
-						+ " AND (expiry <= ? OR maxLatency IS NULL"
-						+ " OR ? < maxLatency)";
-				ps = txn.prepareStatement(sql);
+				sql = "SELECT NULL" + FROM_UNSEEN_MESSAGES + AND_DUE_TO_SEND;
+				ps = prepareCachedStatement(txn, sql);
 				ps.setInt(1, c.getInt());
 				ps.setInt(2, DELIVERED.getValue());
 				ps.setLong(3, now);
@@ -1311,7 +2347,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			rs = ps.executeQuery();
 			boolean messagesToSend = rs.next();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return messagesToSend;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1394,17 +2430,19 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT NULL FROM statuses"
-					+ " WHERE messageId = ? AND contactId = ?"
-					+ " AND messageShared = TRUE";
-			ps = txn.prepareStatement(sql);
+			String sql = "SELECT NULL FROM messages AS m"
+					+ " JOIN groupVisibilities AS v"
+					+ " ON m.groupId = v.groupId"
+					+ " WHERE m.messageId = ? AND v.contactId = ?"
+					+ " AND m.shared = TRUE";
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1413,6 +2451,35 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Collection<MessageId> getVisibleMessages(Connection txn,
+			ContactId c, Collection<MessageId> ids) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT m.messageId FROM messages AS m"
+					+ " JOIN groupVisibilities AS v"
+					+ " ON m.groupId = v.groupId"
+					+ " WHERE v.contactId = ? AND m.shared = TRUE"
+					+ " AND m.messageId IN " + ID_LIST;
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			Set<MessageId> visible = new HashSet<>();
+			for (List<MessageId> chunk : getChunks(ids)) {
+				setIdList(ps, 2, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) visible.add(new MessageId(rs.getBytes(1)));
+				rs.close();
+			}
+			releaseStatement(txn, sql, ps);
+			return visible;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public int countOfferedMessages(Connection txn, ContactId c)
 			throws DbException {
@@ -1421,14 +2488,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT COUNT (messageId) FROM offers "
 					+ " WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbException();
 			int count = rs.getInt(1);
 			if (rs.next()) throw new DbException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return count;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1450,6 +2517,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (affected < 0) throw new DbStateException();
 			if (affected > 1) throw new DbStateException();
 			ps.close();
+			if (blobStore != null) deleteBlobOnCommit(txn, m);
 			// Update denormalised column in statuses
 			sql = "UPDATE statuses SET deleted = TRUE WHERE messageId = ?";
 			ps = txn.prepareStatement(sql);
@@ -1474,6 +2542,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
 			ps.close();
+			sql = "DELETE FROM indexedMessageMetadata WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			affected = ps.executeUpdate();
+			if (affected < 0) throw new DbStateException();
+			ps.close();
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -1666,7 +2740,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT clientId, majorVersion, descriptor"
 					+ " FROM groups WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
@@ -1674,7 +2748,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int majorVersion = rs.getInt(2);
 			byte[] descriptor = rs.getBytes(3);
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return new Group(g, clientId, majorVersion, descriptor);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1689,13 +2763,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT groupId FROM messages WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			GroupId g = new GroupId(rs.getBytes(1));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return g;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1740,7 +2814,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT shared FROM groupVisibilities"
 					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, g.getBytes());
 			rs = ps.executeQuery();
@@ -1749,7 +2823,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			else v = INVISIBLE;
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return v;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1866,22 +2940,32 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT groupId, timestamp, raw FROM messages"
+			String sql = "SELECT groupId, timestamp, length, raw, blobStored"
+					+ " FROM messages"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			GroupId g = new GroupId(rs.getBytes(1));
 			long timestamp = rs.getLong(2);
-			byte[] raw = rs.getBytes(3);
+			int length = rs.getInt(3);
+			byte[] raw = rs.getBytes(4);
+			boolean blobStored = rs.getBoolean(5);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
+			ps = null;
 			if (raw == null) throw new MessageDeletedException();
-			if (raw.length <= MESSAGE_HEADER_LENGTH) throw new AssertionError();
-			byte[] body = new byte[raw.length - MESSAGE_HEADER_LENGTH];
-			System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0, body.length);
+			if (length <= MESSAGE_HEADER_LENGTH) throw new AssertionError();
+			byte[] body;
+			if (blobStored) {
+				body = readBlob(m, length - MESSAGE_HEADER_LENGTH);
+			} else {
+				body = new byte[length - MESSAGE_HEADER_LENGTH];
+				System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0,
+						body.length);
+			}
 			return new Message(m, g, timestamp, body);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -1890,6 +2974,91 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public InputStream getMessageBody(Connection txn, MessageId m, int offset)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT length, raw, blobStored FROM messages"
+					+ " WHERE messageId = ?";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setBytes(1, m.getBytes());
+			rs = ps.executeQuery();
+			if (!rs.next()) throw new DbStateException();
+			int length = rs.getInt(1);
+			byte[] raw = rs.getBytes(2);
+			boolean blobStored = rs.getBoolean(3);
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			releaseStatement(txn, sql, ps);
+			ps = null;
+			if (raw == null) throw new MessageDeletedException();
+			int bodyLength = length - MESSAGE_HEADER_LENGTH;
+			if (offset < 0 || offset > bodyLength)
+				throw new IllegalArgumentException();
+			if (!blobStored) {
+				// Wrap the body without copying it
+				return new ByteArrayInputStream(raw,
+						MESSAGE_HEADER_LENGTH + offset, bodyLength - offset);
+			}
+			BlobStore blobStore = this.blobStore;
+			if (blobStore == null) throw new DbStateException();
+			return blobStore.read(m, offset);
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		} catch (IOException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, Message> getMessages(Connection txn,
+			Collection<MessageId> ids) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId, groupId, timestamp, length, raw,"
+					+ " blobStored"
+					+ " FROM messages"
+					+ " WHERE raw IS NOT NULL AND messageId IN " + ID_LIST;
+			ps = prepareCachedStatement(txn, sql);
+			Map<MessageId, Message> messages = new HashMap<>();
+			for (List<MessageId> chunk : getChunks(ids)) {
+				setIdList(ps, 1, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					MessageId m = new MessageId(rs.getBytes(1));
+					GroupId g = new GroupId(rs.getBytes(2));
+					long timestamp = rs.getLong(3);
+					int length = rs.getInt(4);
+					byte[] raw = rs.getBytes(5);
+					boolean blobStored = rs.getBoolean(6);
+					if (length <= MESSAGE_HEADER_LENGTH)
+						throw new AssertionError();
+					byte[] body;
+					if (blobStored) {
+						body = readBlob(m, length - MESSAGE_HEADER_LENGTH);
+					} else {
+						body = new byte[length - MESSAGE_HEADER_LENGTH];
+						System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0,
+								body.length);
+					}
+					messages.put(m, new Message(m, g, timestamp, body));
+				}
+				rs.close();
+			}
+			releaseStatement(txn, sql, ps);
+			return messages;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Collection<MessageId> getMessageIds(Connection txn, GroupId g)
 			throws DbException {
@@ -1919,31 +3088,120 @@ abstract class JdbcDatabase implements Database<Connection> {
 			Metadata query) throws DbException {
 		// If there are no query terms, return all delivered messages
 		if (query.isEmpty()) return getMessageIds(txn, g);
+		List<Entry<String, byte[]>> terms = getQueryTerms(query);
+		StringBuilder sql = new StringBuilder("SELECT q0.messageId");
+		appendQueryTerms(sql, terms);
+		sql.append(" WHERE q0.groupId = ? AND q0.state = ?")
+				.append(" AND q0.metaKey = ? AND q0.value = ?");
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			// Retrieve the message IDs for each query term and intersect
-			Set<MessageId> intersection = null;
-			String sql = "SELECT messageId FROM messageMetadata"
-					+ " WHERE groupId = ? AND state = ?"
-					+ " AND metaKey = ? AND value = ?";
-			for (Entry<String, byte[]> e : query.entrySet()) {
-				ps = txn.prepareStatement(sql);
-				ps.setBytes(1, g.getBytes());
-				ps.setInt(2, DELIVERED.getValue());
-				ps.setString(3, e.getKey());
-				ps.setBytes(4, e.getValue());
-				rs = ps.executeQuery();
-				Set<MessageId> ids = new HashSet<>();
-				while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
-				rs.close();
-				ps.close();
-				if (intersection == null) intersection = ids;
-				else intersection.retainAll(ids);
-				// Return early if there are no matches
-				if (intersection.isEmpty()) return Collections.emptySet();
+			ps = txn.prepareStatement(sql.toString());
+			int index = 1;
+			for (int i = 1; i < terms.size(); i++) {
+				ps.setString(index++, terms.get(i).getKey());
+				ps.setBytes(index++, terms.get(i).getValue());
+			}
+			ps.setBytes(index++, g.getBytes());
+			ps.setInt(index++, DELIVERED.getValue());
+			ps.setString(index++, terms.get(0).getKey());
+			ps.setBytes(index, terms.get(0).getValue());
+			rs = ps.executeQuery();
+			Set<MessageId> ids = new HashSet<>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			ps.close();
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns the terms of the given query, with any terms whose keys are
+	 * indexed first, so the first term can be looked up in the index.
+	 */
+	private List<Entry<String, byte[]>> getQueryTerms(Metadata query) {
+		Set<String> indexedKeys = this.indexedKeys;
+		List<Entry<String, byte[]>> terms = new ArrayList<>(query.size());
+		for (Entry<String, byte[]> e : query.entrySet()) {
+			if (indexedKeys.contains(e.getKey())) terms.add(0, e);
+			else terms.add(e);
+		}
+		return terms;
+	}
+
+	/**
+	 * Appends a FROM clause that selects the metadata matching the first of
+	 * the given query terms as q0, and a join against the metadata of the
+	 * same message for each further term. Terms with indexed keys are
+	 * matched against the indexedMessageMetadata table. The key and value
+	 * of each term after the first must be bound to the statement in order,
+	 * and the caller must restrict q0 to the first term.
+	 */
+	private void appendQueryTerms(StringBuilder sql,
+			List<Entry<String, byte[]>> terms) {
+		Set<String> indexedKeys = this.indexedKeys;
+		for (int i = 0; i < terms.size(); i++) {
+			String table = indexedKeys.contains(terms.get(i).getKey())
+					? "indexedMessageMetadata" : "messageMetadata";
+			String q = "q" + i;
+			if (i == 0) {
+				sql.append(" FROM ").append(table).append(" AS q0");
+			} else {
+				sql.append(" JOIN ").append(table).append(" AS ").append(q)
+						.append(" ON ").append(q).append(".messageId")
+						.append(" = q0.messageId")
+						.append(" AND ").append(q).append(".metaKey = ?")
+						.append(" AND ").append(q).append(".value = ?");
+			}
+		}
+	}
+
+	@Override
+	public Map<MessageId, Long> getMessageIds(Connection txn, GroupId g,
+			long beforeTimestamp, int limit) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId, timestamp FROM messages"
+					+ " WHERE groupId = ? AND state = ? AND timestamp < ?"
+					+ " ORDER BY timestamp DESC, messageId LIMIT ?";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, beforeTimestamp);
+			ps.setInt(4, limit);
+			rs = ps.executeQuery();
+			Map<MessageId, Long> ids = new LinkedHashMap<>();
+			long last = 0;
+			while (rs.next()) {
+				last = rs.getLong(2);
+				ids.put(new MessageId(rs.getBytes(1)), last);
 			}
-			return intersection;
+			rs.close();
+			releaseStatement(txn, sql, ps);
+			ps = null;
+			if (ids.size() < limit) return ids;
+			// The limit may have fallen among messages with equal
+			// timestamps, so replace the messages with the last timestamp
+			// with all the messages that have that timestamp
+			Iterator<Long> it = ids.values().iterator();
+			while (it.hasNext()) if (it.next() == last) it.remove();
+			sql = "SELECT messageId FROM messages"
+					+ " WHERE groupId = ? AND state = ? AND timestamp = ?"
+					+ " ORDER BY messageId";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, last);
+			rs = ps.executeQuery();
+			while (rs.next()) ids.put(new MessageId(rs.getBytes(1)), last);
+			rs.close();
+			releaseStatement(txn, sql, ps);
+			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -1959,7 +3217,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT length from messages"
 					+ " WHERE messageId = ? AND state = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, DELIVERED.getValue());
 			rs = ps.executeQuery();
@@ -1967,7 +3225,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int length = rs.getInt(1);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return length;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2009,16 +3267,135 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<GroupId, Map<MessageId, Metadata>> getMessageMetadataByGroup(
+			Connection txn, Collection<GroupId> groupIds) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT groupId, messageId, metaKey, value"
+					+ " FROM messageMetadata"
+					+ " WHERE state = ? AND groupId IN " + ID_LIST;
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, DELIVERED.getValue());
+			Map<GroupId, Map<MessageId, Metadata>> all = new HashMap<>();
+			for (List<GroupId> chunk : getChunks(groupIds)) {
+				setIdList(ps, 2, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					GroupId groupId = new GroupId(rs.getBytes(1));
+					Map<MessageId, Metadata> group = all.get(groupId);
+					if (group == null) {
+						group = new HashMap<>();
+						all.put(groupId, group);
+					}
+					MessageId messageId = new MessageId(rs.getBytes(2));
+					Metadata metadata = group.get(messageId);
+					if (metadata == null) {
+						metadata = new Metadata();
+						group.put(messageId, metadata);
+					}
+					metadata.put(rs.getString(3), rs.getBytes(4));
+				}
+				rs.close();
+			}
+			releaseStatement(txn, sql, ps);
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
 			GroupId g, Metadata query) throws DbException {
-		// Retrieve the matching message IDs
-		Collection<MessageId> matches = getMessageIds(txn, g, query);
-		if (matches.isEmpty()) return Collections.emptyMap();
-		// Retrieve the metadata for each match
-		Map<MessageId, Metadata> all = new HashMap<>(matches.size());
-		for (MessageId m : matches) all.put(m, getMessageMetadata(txn, m));
-		return all;
+		return getMatchingMessageMetadata(txn, g, query, null);
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			GroupId g, Metadata query, Collection<String> keys)
+			throws DbException {
+		if (keys.isEmpty()) {
+			// Return empty metadata for each matching message
+			Collection<MessageId> matches = getMessageIds(txn, g, query);
+			Map<MessageId, Metadata> all = new HashMap<>(matches.size());
+			for (MessageId m : matches) all.put(m, new Metadata());
+			return all;
+		}
+		return getMatchingMessageMetadata(txn, g, query, keys);
+	}
+
+	/**
+	 * Retrieves the metadata for the matching messages with a single query,
+	 * rather than querying for the matching message IDs and then for the
+	 * metadata of each match. Each query term after the first is a join
+	 * against the metadata table, and the metadata to return is an outer
+	 * join, so matching messages without any of the requested keys are
+	 * still returned. If the given keys are null, all keys are returned.
+	 */
+	private Map<MessageId, Metadata> getMatchingMessageMetadata(
+			Connection txn, GroupId g, Metadata query,
+			@Nullable Collection<String> keys)
+			throws DbException {
+		List<Entry<String, byte[]>> terms = getQueryTerms(query);
+		StringBuilder sql = new StringBuilder();
+		sql.append("SELECT q0.messageId, md.metaKey, md.value");
+		// If there are no query terms, return all delivered messages
+		if (terms.isEmpty()) sql.append(" FROM messages AS q0");
+		else appendQueryTerms(sql, terms);
+		sql.append(" LEFT OUTER JOIN messageMetadata AS md")
+				.append(" ON md.messageId = q0.messageId");
+		if (keys != null) {
+			sql.append(" AND md.metaKey IN (?");
+			for (int i = 1; i < keys.size(); i++) sql.append(", ?");
+			sql.append(")");
+		}
+		sql.append(" WHERE q0.groupId = ? AND q0.state = ?");
+		if (!terms.isEmpty())
+			sql.append(" AND q0.metaKey = ? AND q0.value = ?");
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			ps = txn.prepareStatement(sql.toString());
+			int index = 1;
+			for (int i = 1; i < terms.size(); i++) {
+				ps.setString(index++, terms.get(i).getKey());
+				ps.setBytes(index++, terms.get(i).getValue());
+			}
+			if (keys != null) {
+				for (String key : keys) ps.setString(index++, key);
+			}
+			ps.setBytes(index++, g.getBytes());
+			ps.setInt(index++, DELIVERED.getValue());
+			if (!terms.isEmpty()) {
+				ps.setString(index++, terms.get(0).getKey());
+				ps.setBytes(index, terms.get(0).getValue());
+			}
+			rs = ps.executeQuery();
+			Map<MessageId, Metadata> all = new HashMap<>();
+			while (rs.next()) {
+				MessageId messageId = new MessageId(rs.getBytes(1));
+				Metadata metadata = all.get(messageId);
+				if (metadata == null) {
+					metadata = new Metadata();
+					all.put(messageId, metadata);
+				}
+				// The key and value are null if the message has no metadata
+				// with the requested keys
+				String key = rs.getString(2);
+				if (key != null) metadata.put(key, rs.getBytes(3));
+			}
+			rs.close();
+			ps.close();
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -2050,17 +3427,52 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT metaKey, value FROM messageMetadata"
-					+ " WHERE state = ? AND messageId = ?";
-			ps = txn.prepareStatement(sql);
+			String sql = "SELECT metaKey, value FROM messageMetadata"
+					+ " WHERE state = ? AND messageId = ?";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, DELIVERED.getValue());
+			ps.setBytes(2, m.getBytes());
+			rs = ps.executeQuery();
+			Metadata metadata = new Metadata();
+			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
+			rs.close();
+			releaseStatement(txn, sql, ps);
+			return metadata;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			Collection<MessageId> ids) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId, metaKey, value"
+					+ " FROM messageMetadata"
+					+ " WHERE state = ? AND messageId IN " + ID_LIST;
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, DELIVERED.getValue());
-			ps.setBytes(2, m.getBytes());
-			rs = ps.executeQuery();
-			Metadata metadata = new Metadata();
-			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
-			rs.close();
-			ps.close();
-			return metadata;
+			Map<MessageId, Metadata> all = new HashMap<>();
+			for (List<MessageId> chunk : getChunks(ids)) {
+				setIdList(ps, 2, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					MessageId messageId = new MessageId(rs.getBytes(1));
+					Metadata metadata = all.get(messageId);
+					if (metadata == null) {
+						metadata = new Metadata();
+						all.put(messageId, metadata);
+					}
+					metadata.put(rs.getString(2), rs.getBytes(3));
+				}
+				rs.close();
+			}
+			releaseStatement(txn, sql, ps);
+			return all;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -2077,7 +3489,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT metaKey, value FROM messageMetadata"
 					+ " WHERE (state = ? OR state = ?)"
 					+ " AND messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, DELIVERED.getValue());
 			ps.setInt(2, PENDING.getValue());
 			ps.setBytes(3, m.getBytes());
@@ -2085,7 +3497,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			Metadata metadata = new Metadata();
 			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return metadata;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2100,8 +3512,18 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT messageId, txCount > 0, seen FROM statuses"
-					+ " WHERE groupId = ? AND contactId = ? AND state = ?";
+			// Messages without status rows haven't been sent, and have only
+			// been seen if they're below the contact's watermark
+			String sql = "SELECT m.messageId, s.txCount,"
+					+ " COALESCE(s.seen, " + SEEN_BY_DEFAULT + ")"
+					+ " FROM messages AS m"
+					+ " JOIN groupVisibilities AS v"
+					+ " ON m.groupId = v.groupId"
+					+ " LEFT OUTER JOIN statuses AS s"
+					+ " ON s.messageId = m.messageId"
+					+ " AND s.contactId = v.contactId"
+					+ " WHERE m.groupId = ? AND v.contactId = ?"
+					+ " AND m.state = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, g.getBytes());
 			ps.setInt(2, c.getInt());
@@ -2110,7 +3532,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			List<MessageStatus> statuses = new ArrayList<>();
 			while (rs.next()) {
 				MessageId messageId = new MessageId(rs.getBytes(1));
-				boolean sent = rs.getBoolean(2);
+				// Null values are read as zero and false
+				boolean sent = rs.getInt(2) > 0;
 				boolean seen = rs.getBoolean(3);
 				statuses.add(new MessageStatus(messageId, c, sent, seen));
 			}
@@ -2131,8 +3554,18 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT txCount > 0, seen FROM statuses"
-					+ " WHERE messageId = ? AND contactId = ? AND state = ?";
+			// A message without a status row hasn't been sent, and has only
+			// been seen if it's below the contact's watermark
+			String sql = "SELECT s.txCount,"
+					+ " COALESCE(s.seen, " + SEEN_BY_DEFAULT + ")"
+					+ " FROM messages AS m"
+					+ " JOIN groupVisibilities AS v"
+					+ " ON m.groupId = v.groupId"
+					+ " LEFT OUTER JOIN statuses AS s"
+					+ " ON s.messageId = m.messageId"
+					+ " AND s.contactId = v.contactId"
+					+ " WHERE m.messageId = ? AND v.contactId = ?"
+					+ " AND m.state = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
@@ -2140,7 +3573,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			rs = ps.executeQuery();
 			MessageStatus status = null;
 			if (rs.next()) {
-				boolean sent = rs.getBoolean(1);
+				// Null values are read as zero and false
+				boolean sent = rs.getInt(1) > 0;
 				boolean seen = rs.getBoolean(2);
 				status = new MessageStatus(m, c, sent, seen);
 			}
@@ -2155,6 +3589,50 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, MessageStatus> getMessageStatus(Connection txn,
+			ContactId c, Collection<MessageId> ids) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Messages without status rows haven't been sent, and have only
+			// been seen if they're below the contact's watermark for a group
+			// that's visible to the contact
+			String sql = "SELECT m.messageId, s.txCount,"
+					+ " COALESCE(s.seen, " + SEEN_BY_DEFAULT + ")"
+					+ " FROM messages AS m"
+					+ " LEFT OUTER JOIN groupVisibilities AS v"
+					+ " ON v.groupId = m.groupId AND v.contactId = ?"
+					+ " LEFT OUTER JOIN statuses AS s"
+					+ " ON s.messageId = m.messageId AND s.contactId = ?"
+					+ " WHERE m.state = ? AND m.messageId IN " + ID_LIST;
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			ps.setInt(2, c.getInt());
+			ps.setInt(3, DELIVERED.getValue());
+			Map<MessageId, MessageStatus> statuses = new HashMap<>();
+			for (List<MessageId> chunk : getChunks(ids)) {
+				setIdList(ps, 4, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					MessageId messageId = new MessageId(rs.getBytes(1));
+					// Null values are read as zero and false
+					boolean sent = rs.getInt(2) > 0;
+					boolean seen = rs.getBoolean(3);
+					statuses.put(messageId,
+							new MessageStatus(messageId, c, sent, seen));
+				}
+				rs.close();
+			}
+			releaseStatement(txn, sql, ps);
+			return statuses;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Map<MessageId, MessageState> getMessageDependencies(Connection txn,
 			MessageId m) throws DbException {
@@ -2223,14 +3701,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT state FROM messages WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			MessageState state = MessageState.fromValue(rs.getInt(1));
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return state;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2248,14 +3726,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT messageId FROM statuses"
 					+ " WHERE contactId = ? AND ack = TRUE"
 					+ " LIMIT ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, maxMessages);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2271,15 +3749,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE AND requested = FALSE"
-					+ " AND (expiry <= ? OR maxLatency IS NULL"
-					+ " OR ? < maxLatency)"
-					+ " ORDER BY timestamp LIMIT ?";
-			ps = txn.prepareStatement(sql);
+			String sql = "SELECT m.messageId" + FROM_UNSEEN_MESSAGES
+					+ " AND (s.messageId IS NULL OR s.requested = FALSE)"
+					+ AND_DUE_TO_SEND
+					+ " ORDER BY m.timestamp LIMIT ?";
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			ps.setLong(3, now);
@@ -2289,7 +3763,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2307,14 +3781,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT messageId FROM offers"
 					+ " WHERE contactId = ?"
 					+ " LIMIT ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, maxMessages);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2330,15 +3804,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT length, messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE"
-					+ " AND (expiry <= ? OR maxLatency IS NULL"
-					+ " OR ? < maxLatency)"
-					+ " ORDER BY timestamp";
-			ps = txn.prepareStatement(sql);
+			String sql = "SELECT m.length, m.messageId" + FROM_UNSEEN_MESSAGES
+					+ AND_DUE_TO_SEND
+					+ " ORDER BY m.timestamp";
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			ps.setLong(3, now);
@@ -2352,7 +3821,58 @@ abstract class JdbcDatabase implements Database<Connection> {
 				capacity -= RECORD_HEADER_BYTES + length;
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public List<MessageId> getMessagesToSend(Connection txn, ContactId c,
+			long capacity, long maxLatency, long afterTimestamp,
+			@Nullable MessageId afterId) throws DbException {
+		long now = clock.currentTimeMillis();
+		// Every message takes up at least this much capacity, so we can
+		// limit the number of rows without changing the result
+		long minLength = RECORD_HEADER_BYTES + MESSAGE_HEADER_LENGTH + 1;
+		int limit = (int) Math.min(capacity / minLength, Integer.MAX_VALUE);
+		List<MessageId> ids = new ArrayList<>();
+		if (limit == 0) return ids;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT m.length, m.messageId" + FROM_UNSEEN_MESSAGES
+					+ AND_DUE_TO_SEND;
+			// Continue the scan from the given position
+			if (afterId != null) {
+				sql += " AND (m.timestamp > ?"
+						+ " OR (m.timestamp = ? AND m.messageId > ?))";
+			}
+			sql += " ORDER BY m.timestamp, m.messageId LIMIT ?";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, now);
+			ps.setLong(4, maxLatency);
+			int index = 5;
+			if (afterId != null) {
+				ps.setLong(index++, afterTimestamp);
+				ps.setLong(index++, afterTimestamp);
+				ps.setBytes(index++, afterId.getBytes());
+			}
+			ps.setInt(index, limit);
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				int length = rs.getInt(1);
+				if (capacity < RECORD_HEADER_BYTES + length) break;
+				ids.add(new MessageId(rs.getBytes(2)));
+				capacity -= RECORD_HEADER_BYTES + length;
+			}
+			rs.close();
+			releaseStatement(txn, sql, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2367,11 +3887,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE AND seen = FALSE"
-					+ " ORDER BY txCount, timestamp";
+			String sql = "SELECT m.messageId" + FROM_UNSEEN_MESSAGES
+					+ " ORDER BY COALESCE(s.txCount, 0), m.timestamp";
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
@@ -2388,16 +3905,38 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, Integer> getUnackedMessageLengthsToSend(
+			Connection txn, ContactId c) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT m.messageId, m.length" + FROM_UNSEEN_MESSAGES
+					+ " ORDER BY COALESCE(s.txCount, 0), m.timestamp";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			ps.setInt(2, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			Map<MessageId, Integer> lengths = new LinkedHashMap<>();
+			while (rs.next())
+				lengths.put(new MessageId(rs.getBytes(1)), rs.getInt(2));
+			rs.close();
+			ps.close();
+			return lengths;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public long getUnackedMessageBytesToSend(Connection txn, ContactId c)
 			throws DbException {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT SUM(length) FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE AND seen = FALSE";
+			String sql = "SELECT SUM(m.length)" + FROM_UNSEEN_MESSAGES;
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
@@ -2517,11 +4056,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			// Are any messages sendable immediately?
-			String sql = "SELECT NULL FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE AND seen = FALSE"
-					+ " AND (maxLatency IS NULL OR ? < maxLatency)";
+			String sql = "SELECT NULL" + FROM_UNSEEN_MESSAGES
+					+ " AND (s.messageId IS NULL OR s.maxLatency IS NULL"
+					+ " OR ? < s.maxLatency)";
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
@@ -2531,7 +4068,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 			rs.close();
 			ps.close();
 			if (found) return 0;
-			// When is the earliest expiry time (could be in the past)?
+			// When is the earliest expiry time (could be in the past)? All
+			// the remaining messages have been sent, so they have status
+			// rows
 			sql = "SELECT expiry FROM statuses"
 					+ " WHERE contactId = ? AND state = ?"
 					+ " AND groupShared = TRUE AND messageShared = TRUE"
@@ -2649,7 +4188,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " AND (expiry <= ? OR maxLatency IS NULL"
 					+ " OR ? < maxLatency)"
 					+ " ORDER BY timestamp";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			ps.setLong(3, now);
@@ -2663,7 +4202,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				capacity -= RECORD_HEADER_BYTES + length;
 			}
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -2695,6 +4234,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public int getStorageFillRate(Connection txn) throws DbException {
+		// Incremental compaction isn't supported by default
+		return 100;
+	}
+
 	@Override
 	public List<Byte> getSyncVersions(Connection txn, ContactId c)
 			throws DbException {
@@ -2858,7 +4403,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET ack = FALSE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(2, c.getInt());
 			for (MessageId m : acked) {
 				ps.setBytes(1, m.getBytes());
@@ -2871,7 +4416,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rows < 0) throw new DbStateException();
 				if (rows > 1) throw new DbStateException();
 			}
-			ps.close();
+			releaseStatement(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2885,7 +4430,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET requested = FALSE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(2, c.getInt());
 			for (MessageId m : requested) {
 				ps.setBytes(1, m.getBytes());
@@ -2898,7 +4443,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rows < 0) throw new DbStateException();
 				if (rows > 1) throw new DbStateException();
 			}
-			ps.close();
+			releaseStatement(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -2943,23 +4488,52 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			Map<String, byte[]> added = removeOrUpdateMetadata(txn,
 					m.getBytes(), meta, "messageMetadata", "messageId");
-			if (added.isEmpty()) return;
+			// Apply the same changes to the indexed keys, if any
+			Metadata indexed = new Metadata();
+			Set<String> indexedKeys = this.indexedKeys;
+			for (Entry<String, byte[]> e : meta.entrySet()) {
+				if (indexedKeys.contains(e.getKey()))
+					indexed.put(e.getKey(), e.getValue());
+			}
+			Map<String, byte[]> addedToIndex = Collections.emptyMap();
+			if (!indexed.isEmpty()) {
+				addedToIndex = removeOrUpdateMetadata(txn, m.getBytes(),
+						indexed, "indexedMessageMetadata", "messageId");
+			}
+			if (added.isEmpty() && addedToIndex.isEmpty()) return;
 			// Get the group ID and message state for the denormalised columns
 			String sql = "SELECT groupId, state FROM messages"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			GroupId g = new GroupId(rs.getBytes(1));
 			MessageState state = MessageState.fromValue(rs.getInt(2));
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
+			ps = null;
 			// Insert any keys that don't already exist
-			sql = "INSERT INTO messageMetadata"
+			insertMessageMetadata(txn, m, g, state, added, "messageMetadata");
+			insertMessageMetadata(txn, m, g, state, addedToIndex,
+					"indexedMessageMetadata");
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	private void insertMessageMetadata(Connection txn, MessageId m,
+			GroupId g, MessageState state, Map<String, byte[]> added,
+			String tableName) throws DbException {
+		if (added.isEmpty()) return;
+		PreparedStatement ps = null;
+		try {
+			String sql = "INSERT INTO " + tableName
 					+ " (messageId, groupId, state, metaKey, value)"
 					+ " VALUES (?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setBytes(2, g.getBytes());
 			ps.setInt(3, state.getValue());
@@ -2973,9 +4547,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 				throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 		} catch (SQLException e) {
-			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
@@ -2999,7 +4572,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (!removed.isEmpty()) {
 				String sql = "DELETE FROM " + tableName
 						+ " WHERE " + columnName + " = ? AND metaKey = ?";
-				ps = txn.prepareStatement(sql);
+				ps = prepareCachedStatement(txn, sql);
 				ps.setBytes(1, id);
 				for (String key : removed) {
 					ps.setString(2, key);
@@ -3012,13 +4585,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 					if (rows < 0) throw new DbStateException();
 					if (rows > 1) throw new DbStateException();
 				}
-				ps.close();
+				releaseStatement(txn, sql, ps);
+				ps = null;
 			}
 			if (notRemoved.isEmpty()) return Collections.emptyMap();
 			// Update any keys that already exist
 			String sql = "UPDATE " + tableName + " SET value = ?"
 					+ " WHERE " + columnName + " = ? AND metaKey = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(2, id);
 			for (Entry<String, byte[]> e : notRemoved.entrySet()) {
 				ps.setBytes(1, e.getValue());
@@ -3032,7 +4606,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rows < 0) throw new DbStateException();
 				if (rows > 1) throw new DbStateException();
 			}
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			// Are there any keys that don't already exist?
 			Map<String, byte[]> added = new HashMap<>();
 			int updateIndex = 0;
@@ -3097,35 +4671,43 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public void raiseAckFlag(Connection txn, ContactId c, MessageId m)
 			throws DbException {
+		materialiseStatuses(txn, c, singletonList(m));
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE statuses SET ack = TRUE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
 	}
 
+	@Override
+	public void raiseAckFlags(Connection txn, ContactId c,
+			Collection<MessageId> ids) throws DbException {
+		raiseStatusFlag(txn, c, ids, "ack");
+	}
+
 	@Override
 	public void raiseRequestedFlag(Connection txn, ContactId c, MessageId m)
 			throws DbException {
+		materialiseStatuses(txn, c, singletonList(m));
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE statuses SET requested = TRUE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3135,16 +4717,19 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public boolean raiseSeenFlag(Connection txn, ContactId c, MessageId m)
 			throws DbException {
+		materialiseStatuses(txn, c, singletonList(m));
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE statuses SET seen = TRUE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, sql, ps);
+			if (affected == 1)
+				advanceSeenWatermarks(txn, c, singletonList(m));
 			return affected == 1;
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
@@ -3152,6 +4737,35 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public void raiseSeenFlags(Connection txn, ContactId c,
+			Collection<MessageId> ids) throws DbException {
+		raiseStatusFlag(txn, c, ids, "seen");
+		advanceSeenWatermarks(txn, c, ids);
+	}
+
+	private void raiseStatusFlag(Connection txn, ContactId c,
+			Collection<MessageId> ids, String column) throws DbException {
+		materialiseStatuses(txn, c, ids);
+		PreparedStatement ps = null;
+		try {
+			String sql = "UPDATE statuses SET " + column + " = TRUE"
+					+ " WHERE contactId = ? AND messageId IN " + ID_LIST;
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			for (List<MessageId> chunk : getChunks(ids)) {
+				setIdList(ps, 2, chunk);
+				int affected = ps.executeUpdate();
+				if (affected < 0 || affected > chunk.size())
+					throw new DbStateException();
+			}
+			releaseStatement(txn, sql, ps);
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void removeContact(Connection txn, ContactId c)
 			throws DbException {
@@ -3173,6 +4787,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 	public void removeGroup(Connection txn, GroupId g) throws DbException {
 		PreparedStatement ps = null;
 		try {
+			// The group's messages will be deleted by cascade
+			deleteBlobsOnCommit(txn, "SELECT messageId FROM messages"
+					+ " WHERE groupId = ? AND blobStored = TRUE", g.getBytes());
 			String sql = "DELETE FROM groups WHERE groupId = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, g.getBytes());
@@ -3239,7 +4856,29 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			if (blobStore != null) deleteBlobOnCommit(txn, m);
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	private Set<ContactId> getOfferingContacts(Connection txn, MessageId m)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT contactId FROM offers WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			rs = ps.executeQuery();
+			Set<ContactId> contacts = new HashSet<>();
+			while (rs.next()) contacts.add(new ContactId(rs.getInt(1)));
+			rs.close();
+			ps.close();
+			return contacts;
 		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
@@ -3271,7 +4910,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "DELETE FROM offers"
 					+ " WHERE contactId = ? AND messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setInt(1, c.getInt());
 			for (MessageId m : requested) {
 				ps.setBytes(2, m.getBytes());
@@ -3282,7 +4921,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3311,6 +4950,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 	public void removeTemporaryMessages(Connection txn) throws DbException {
 		Statement s = null;
 		try {
+			deleteBlobsOnCommit(txn, "SELECT messageId FROM messages"
+					+ " WHERE temporary = TRUE AND blobStored = TRUE", null);
 			String sql = "DELETE FROM messages WHERE temporary = TRUE";
 			s = txn.createStatement();
 			int affected = s.executeUpdate(sql);
@@ -3401,6 +5042,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
+		removeDefaultStatuses(txn, c);
 	}
 
 	@Override
@@ -3554,6 +5196,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
+		if (shared) lowerSeenWatermarks(txn, m);
 	}
 
 	@Override
@@ -3576,6 +5219,15 @@ abstract class JdbcDatabase implements Database<Connection> {
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
 			ps.close();
+			// Update denormalised column in indexedMessageMetadata
+			sql = "UPDATE indexedMessageMetadata SET state = ?"
+					+ " WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, state.getValue());
+			ps.setBytes(2, m.getBytes());
+			affected = ps.executeUpdate();
+			if (affected < 0) throw new DbStateException();
+			ps.close();
 			// Update denormalised column in statuses
 			sql = "UPDATE statuses SET state = ? WHERE messageId = ?";
 			ps = txn.prepareStatement(sql);
@@ -3607,6 +5259,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
+		if (state == DELIVERED) lowerSeenWatermarks(txn, m);
 	}
 
 	@Override
@@ -3687,22 +5340,23 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " WHERE messageId = ?"
 					+ " AND cleanupTimerDuration IS NOT NULL"
 					+ " AND cleanupDeadline IS NULL";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setLong(1, now);
 			ps.setBytes(2, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, sql, ps);
+			ps = null;
 			if (affected == 0) return TIMER_NOT_STARTED;
 			sql = "SELECT cleanupDeadline FROM messages WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			long deadline = rs.getLong(1);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
 			return deadline;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -3711,6 +5365,56 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, Long> startCleanupTimers(Connection txn,
+			Collection<MessageId> ids) throws DbException {
+		long now = clock.currentTimeMillis();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Find the messages with timers that can be started. Most
+			// messages don't have a timer duration, so usually there are none
+			String sql = "SELECT messageId, cleanupTimerDuration FROM messages"
+					+ " WHERE cleanupTimerDuration IS NOT NULL"
+					+ " AND cleanupDeadline IS NULL"
+					+ " AND messageId IN " + ID_LIST;
+			ps = prepareCachedStatement(txn, sql);
+			Map<MessageId, Long> deadlines = new HashMap<>();
+			for (List<MessageId> chunk : getChunks(ids)) {
+				setIdList(ps, 1, chunk);
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					MessageId m = new MessageId(rs.getBytes(1));
+					deadlines.put(m, now + rs.getLong(2));
+				}
+				rs.close();
+			}
+			releaseStatement(txn, sql, ps);
+			ps = null;
+			if (deadlines.isEmpty()) return deadlines;
+			// Start the timers
+			sql = "UPDATE messages"
+					+ " SET cleanupDeadline = ? + cleanupTimerDuration"
+					+ " WHERE cleanupTimerDuration IS NOT NULL"
+					+ " AND cleanupDeadline IS NULL"
+					+ " AND messageId IN " + ID_LIST;
+			ps = prepareCachedStatement(txn, sql);
+			ps.setLong(1, now);
+			int affected = 0;
+			for (List<MessageId> chunk : getChunks(deadlines.keySet())) {
+				setIdList(ps, 2, chunk);
+				affected += ps.executeUpdate();
+			}
+			if (affected != deadlines.size()) throw new DbStateException();
+			releaseStatement(txn, sql, ps);
+			return deadlines;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void stopCleanupTimer(Connection txn, MessageId m)
 			throws DbException {
@@ -3732,12 +5436,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public void updateRetransmissionData(Connection txn, ContactId c,
 			MessageId m, long maxLatency) throws DbException {
+		materialiseStatuses(txn, c, singletonList(m));
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT txCount FROM statuses"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			rs = ps.executeQuery();
@@ -3745,11 +5450,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int txCount = rs.getInt(1);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			releaseStatement(txn, sql, ps);
+			ps = null;
 			sql = "UPDATE statuses"
 					+ " SET expiry = ?, txCount = txCount + 1, maxLatency = ?"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepareCachedStatement(txn, sql);
 			long now = clock.currentTimeMillis();
 			ps.setLong(1, calculateExpiry(now, maxLatency, txCount));
 			ps.setLong(2, maxLatency);
@@ -3757,7 +5463,59 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setInt(4, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			releaseStatement(txn, sql, ps);
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public void updateRetransmissionData(Connection txn, ContactId c,
+			Collection<MessageId> ids, long maxLatency) throws DbException {
+		if (ids.isEmpty()) return;
+		materialiseStatuses(txn, c, ids);
+		long now = clock.currentTimeMillis();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// The expiry time of each message depends on its txCount
+			String sql = "SELECT messageId, txCount FROM statuses"
+					+ " WHERE contactId = ? AND messageId IN " + ID_LIST;
+			ps = prepareCachedStatement(txn, sql);
+			ps.setInt(1, c.getInt());
+			Map<MessageId, Integer> txCounts = new HashMap<>();
+			for (List<MessageId> chunk : getChunks(ids)) {
+				setIdList(ps, 2, chunk);
+				rs = ps.executeQuery();
+				while (rs.next())
+					txCounts.put(new MessageId(rs.getBytes(1)), rs.getInt(2));
+				rs.close();
+			}
+			releaseStatement(txn, sql, ps);
+			ps = null;
+			for (MessageId m : ids) {
+				if (!txCounts.containsKey(m)) throw new DbStateException();
+			}
+			sql = "UPDATE statuses"
+					+ " SET expiry = ?, txCount = txCount + 1, maxLatency = ?"
+					+ " WHERE messageId = ? AND contactId = ?";
+			ps = prepareCachedStatement(txn, sql);
+			ps.setLong(2, maxLatency);
+			ps.setInt(4, c.getInt());
+			for (Entry<MessageId, Integer> e : txCounts.entrySet()) {
+				ps.setLong(1, calculateExpiry(now, maxLatency, e.getValue()));
+				ps.setBytes(3, e.getKey().getBytes());
+				ps.addBatch();
+			}
+			int[] batchAffected = ps.executeBatch();
+			if (batchAffected.length != txCounts.size())
+				throw new DbStateException();
+			for (int rows : batchAffected) {
+				if (rows != 1) throw new DbStateException();
+			}
+			releaseStatement(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
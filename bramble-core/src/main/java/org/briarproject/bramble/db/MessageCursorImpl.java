@@ -0,0 +1,105 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.MessageCursor;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
+
+@NotThreadSafe
+@NotNullByDefault
+class MessageCursorImpl implements MessageCursor {
+
+	private final ContactId contactId;
+	private final long maxLatency;
+
+	/**
+	 * The IDs and lengths of the unacked messages to send, in order, if the
+	 * cursor is eager. An eager cursor can't use a keyset position because
+	 * the messages are ordered by transmission count, which changes as the
+	 * messages are sent.
+	 */
+	@Nullable
+	private final List<Entry<MessageId, Integer>> unacked;
+
+	private int position = 0;
+
+	// The timestamp and ID of the last message returned by a non-eager cursor
+	private long timestamp = 0;
+	@Nullable
+	private MessageId messageId = null;
+
+	MessageCursorImpl(ContactId contactId, long maxLatency) {
+		this.contactId = contactId;
+		this.maxLatency = maxLatency;
+		unacked = null;
+	}
+
+	MessageCursorImpl(ContactId contactId, long maxLatency,
+			Map<MessageId, Integer> unacked) {
+		this.contactId = contactId;
+		this.maxLatency = maxLatency;
+		this.unacked = new ArrayList<>(unacked.entrySet());
+	}
+
+	@Override
+	public ContactId getContactId() {
+		return contactId;
+	}
+
+	@Override
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	@Override
+	public boolean isEager() {
+		return unacked != null;
+	}
+
+	long getTimestamp() {
+		return timestamp;
+	}
+
+	@Nullable
+	MessageId getMessageId() {
+		return messageId;
+	}
+
+	/**
+	 * Moves a non-eager cursor past the given message.
+	 */
+	void moveTo(Message m) {
+		if (unacked != null) throw new IllegalStateException();
+		timestamp = m.getTimestamp();
+		messageId = m.getId();
+	}
+
+	/**
+	 * Returns the IDs of the next unacked messages that fit in the given
+	 * capacity, including record headers, and moves an eager cursor past
+	 * them.
+	 */
+	List<MessageId> takeUnacked(long capacity) {
+		if (unacked == null) throw new IllegalStateException();
+		List<MessageId> ids = new ArrayList<>();
+		while (position < unacked.size()) {
+			Entry<MessageId, Integer> e = unacked.get(position);
+			if (capacity < RECORD_HEADER_BYTES + e.getValue()) break;
+			ids.add(e.getKey());
+			capacity -= RECORD_HEADER_BYTES + e.getValue();
+			position++;
+		}
+		return ids;
+	}
+}
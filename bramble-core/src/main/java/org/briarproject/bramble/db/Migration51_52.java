@@ -0,0 +1,46 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+
+class Migration51_52 implements Migration<Connection> {
+
+	private static final Logger LOG = getLogger(Migration51_52.class.getName());
+
+	@Override
+	public int getStartVersion() {
+		return 51;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 52;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		try {
+			s = txn.createStatement();
+			// Status rows are now only kept if they differ from the default
+			int removed = s.executeUpdate("DELETE FROM statuses"
+					+ " WHERE ack = FALSE AND seen = FALSE"
+					+ " AND requested = FALSE AND expiry = 0 AND txCount = 0");
+			s.close();
+			if (LOG.isLoggable(INFO))
+				LOG.info("Removed " + removed + " default status rows");
+		} catch (SQLException e) {
+			tryToClose(s, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+
+class Migration53_54 implements Migration<Connection> {
+
+	private static final Logger LOG = getLogger(Migration53_54.class.getName());
+
+	@Override
+	public int getStartVersion() {
+		return 53;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 54;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		PreparedStatement ps = null;
+		try {
+			s = txn.createStatement();
+			s.execute("ALTER TABLE groupVisibilities"
+					+ " ADD COLUMN seenBefore BIGINT DEFAULT 0 NOT NULL");
+			s.close();
+			// Move each watermark to the oldest message that can be sent and
+			// hasn't been seen by the contact, or to the newest message that
+			// can be sent if the contact has seen them all
+			ps = txn.prepareStatement("UPDATE groupVisibilities"
+					+ " SET seenBefore = COALESCE("
+					+ " (SELECT MIN(m.timestamp) FROM messages AS m"
+					+ " WHERE m.groupId = groupVisibilities.groupId"
+					+ " AND m.state = ? AND m.shared = TRUE"
+					+ " AND m.raw IS NOT NULL"
+					+ " AND NOT EXISTS (SELECT NULL FROM statuses AS s"
+					+ " WHERE s.messageId = m.messageId"
+					+ " AND s.contactId = groupVisibilities.contactId"
+					+ " AND s.seen = TRUE)),"
+					+ " (SELECT MAX(m.timestamp) FROM messages AS m"
+					+ " WHERE m.groupId = groupVisibilities.groupId"
+					+ " AND m.state = ? AND m.shared = TRUE"
+					+ " AND m.raw IS NOT NULL),"
+					+ " ?)");
+			ps.setInt(1, DELIVERED.getValue());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, Long.MIN_VALUE);
+			ps.executeUpdate();
+			ps.close();
+			// Messages below the watermarks are seen by default, so their
+			// status rows are only kept if they're waiting to be acked or
+			// requested
+			ps = txn.prepareStatement("DELETE FROM statuses"
+					+ " WHERE state = ? AND messageShared = TRUE"
+					+ " AND deleted = FALSE AND seen = TRUE AND ack = FALSE"
+					+ " AND requested = FALSE"
+					+ " AND timestamp < (SELECT v.seenBefore"
+					+ " FROM groupVisibilities AS v"
+					+ " WHERE v.contactId = statuses.contactId"
+					+ " AND v.groupId = statuses.groupId)");
+			ps.setInt(1, DELIVERED.getValue());
+			int removed = ps.executeUpdate();
+			ps.close();
+			if (LOG.isLoggable(INFO))
+				LOG.info("Removed " + removed + " seen status rows");
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			tryToClose(s, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+
+/**
+ * A bounded, least recently used cache of prepared statements belonging to
+ * a single connection, keyed by SQL string.
+ * <p>
+ * A statement is removed from the cache while it's in use, so a statement
+ * that's prepared again before the first use has finished (for example by
+ * a nested call within the same transaction) gets its own instance. If a
+ * statement fails it should be closed rather than released, so it doesn't
+ * return to the cache.
+ * <p>
+ * Like the connection it belongs to, the cache must only be used by one
+ * thread at a time.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class StatementCache {
+
+	private static final Logger LOG = getLogger(StatementCache.class.getName());
+
+	private final Connection connection;
+	private final int maxSize;
+	// Iteration order is least recently used first
+	private final LinkedHashMap<String, PreparedStatement> statements =
+			new LinkedHashMap<>(16, 0.75f, true);
+
+	private long hits = 0, misses = 0;
+
+	StatementCache(Connection connection, int maxSize) {
+		if (maxSize < 1) throw new IllegalArgumentException();
+		this.connection = connection;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns a prepared statement for the given SQL, reusing a cached
+	 * statement if one is available.
+	 */
+	PreparedStatement prepareStatement(String sql) throws SQLException {
+		PreparedStatement ps = statements.remove(sql);
+		if (ps != null && !ps.isClosed()) {
+			hits++;
+			return ps;
+		}
+		misses++;
+		return connection.prepareStatement(sql);
+	}
+
+	/**
+	 * Returns a statement that was obtained from
+	 * {@link #prepareStatement(String)} and used successfully to the cache.
+	 * If the cache is full, the least recently used statement is closed.
+	 */
+	void releaseStatement(String sql, PreparedStatement ps)
+			throws SQLException {
+		// Don't keep references to large parameter values
+		ps.clearParameters();
+		PreparedStatement old = statements.put(sql, ps);
+		if (old != null) tryToClose(old, LOG, WARNING);
+		if (statements.size() > maxSize) {
+			Iterator<PreparedStatement> it = statements.values().iterator();
+			PreparedStatement eldest = it.next();
+			it.remove();
+			tryToClose(eldest, LOG, WARNING);
+		}
+	}
+
+	/**
+	 * Closes all cached statements. This doesn't close the connection.
+	 */
+	void close() {
+		for (PreparedStatement ps : statements.values())
+			tryToClose(ps, LOG, WARNING);
+		statements.clear();
+	}
+
+	long getHits() {
+		return hits;
+	}
+
+	long getMisses() {
+		return misses;
+	}
+}
@@ -4,21 +4,44 @@ import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventExecutor;
 import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.event.KeyedEvent;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.Collections.addAll;
+import static java.util.Collections.singletonList;
+
 @ThreadSafe
 @NotNullByDefault
 class EventBusImpl implements EventBus {
 
+	private final Object lock = new Object();
+
+	// Listeners for all events
 	private final Collection<EventListener> listeners =
 			new CopyOnWriteArrayList<>();
+	// Listeners for particular event types, with or without keys. The lock
+	// is held while adding or removing listeners, so that empty collections
+	// can be removed from the map, but not while dispatching events
+	private final Map<Registration, Collection<EventListener>> registered =
+			new ConcurrentHashMap<>();
+	// The types under which each event type is dispatched, ie the event
+	// class, its superclasses and the interfaces they implement
+	private final Map<Class<?>, List<Class<?>>> supertypes =
+			new ConcurrentHashMap<>();
 	private final Executor eventExecutor;
 
 	@Inject
@@ -31,15 +54,104 @@ class EventBusImpl implements EventBus {
 		listeners.add(l);
 	}
 
+	@Override
+	public void addListener(Class<? extends Event> type, EventListener l) {
+		register(new Registration(type, null), l);
+	}
+
+	@Override
+	public void addListener(Class<? extends KeyedEvent> type, Object key,
+			EventListener l) {
+		register(new Registration(type, key), l);
+	}
+
+	private void register(Registration r, EventListener l) {
+		synchronized (lock) {
+			Collection<EventListener> c = registered.get(r);
+			if (c == null) {
+				c = new CopyOnWriteArrayList<>();
+				registered.put(r, c);
+			}
+			c.add(l);
+		}
+	}
+
 	@Override
 	public void removeListener(EventListener l) {
 		listeners.remove(l);
+		synchronized (lock) {
+			Iterator<Collection<EventListener>> it =
+					registered.values().iterator();
+			while (it.hasNext()) {
+				Collection<EventListener> c = it.next();
+				// Remove all registrations of the listener for this key
+				c.removeAll(singletonList(l));
+				if (c.isEmpty()) it.remove();
+			}
+		}
 	}
 
 	@Override
 	public void broadcast(Event e) {
-		eventExecutor.execute(() -> {
-			for (EventListener l : listeners) l.eventOccurred(e);
-		});
+		eventExecutor.execute(() -> dispatch(e));
+	}
+
+	@EventExecutor
+	private void dispatch(Event e) {
+		for (EventListener l : listeners) l.eventOccurred(e);
+		if (registered.isEmpty()) return;
+		for (Class<?> type : getSupertypes(e.getClass())) {
+			notify(new Registration(type, null), e);
+			if (e instanceof KeyedEvent) {
+				for (Object key : ((KeyedEvent) e).getKeys())
+					notify(new Registration(type, key), e);
+			}
+		}
+	}
+
+	private void notify(Registration r, Event e) {
+		Collection<EventListener> c = registered.get(r);
+		if (c != null) for (EventListener l : c) l.eventOccurred(e);
+	}
+
+	private List<Class<?>> getSupertypes(Class<?> type) {
+		List<Class<?>> types = supertypes.get(type);
+		if (types == null) {
+			types = new ArrayList<>();
+			for (Class<?> t = type; t != null; t = t.getSuperclass()) {
+				types.add(t);
+				addAll(types, t.getInterfaces());
+				if (t == Event.class) break;
+			}
+			supertypes.put(type, types);
+		}
+		return types;
+	}
+
+	@Immutable
+	@NotNullByDefault
+	private static class Registration {
+
+		private final Class<?> type;
+		@Nullable
+		private final Object key;
+
+		private Registration(Class<?> type, @Nullable Object key) {
+			this.type = type;
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Registration)) return false;
+			Registration r = (Registration) o;
+			if (!type.equals(r.type)) return false;
+			return key == null ? r.key == null : key.equals(r.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return type.hashCode() * 31 + (key == null ? 0 : key.hashCode());
+		}
 	}
 }
@@ -28,7 +28,6 @@ import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
-import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.COMPACTING_DATABASE;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.CREATED;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.MIGRATING_DATABASE;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.RUNNING;
@@ -174,12 +173,6 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 		eventBus.broadcast(new LifecycleEvent(MIGRATING_DATABASE));
 	}
 
-	@Override
-	public void onDatabaseCompaction() {
-		state.set(COMPACTING_DATABASE);
-		eventBus.broadcast(new LifecycleEvent(COMPACTING_DATABASE));
-	}
-
 	@Override
 	public void stopServices() {
 		if (!state.compareAndSet(RUNNING, STOPPING)) {
@@ -0,0 +1,40 @@
+package org.briarproject.bramble.plugin;
+
+import org.briarproject.bramble.api.lifecycle.IoExecutor;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
+import org.briarproject.bramble.api.plugin.ConnectionSchedulerFactory;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.api.system.WakefulIoExecutor;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.Executor;
+
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+
+@Immutable
+@NotNullByDefault
+class ConnectionSchedulerFactoryImpl implements ConnectionSchedulerFactory {
+
+	private final Executor ioExecutor, wakefulIoExecutor;
+	private final TaskScheduler scheduler;
+	private final Clock clock;
+
+	@Inject
+	ConnectionSchedulerFactoryImpl(@IoExecutor Executor ioExecutor,
+			@WakefulIoExecutor Executor wakefulIoExecutor,
+			TaskScheduler scheduler, Clock clock) {
+		this.ioExecutor = ioExecutor;
+		this.wakefulIoExecutor = wakefulIoExecutor;
+		this.scheduler = scheduler;
+		this.clock = clock;
+	}
+
+	@Override
+	public ConnectionScheduler createConnectionScheduler(
+			int maxConcurrentAttempts) {
+		return new ConnectionSchedulerImpl(ioExecutor, wakefulIoExecutor,
+				scheduler, clock, maxConcurrentAttempts);
+	}
+}
@@ -0,0 +1,307 @@
+package org.briarproject.bramble.plugin;
+
+import org.briarproject.bramble.api.Cancellable;
+import org.briarproject.bramble.api.Pair;
+import org.briarproject.bramble.api.plugin.ConnectionHandler;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
+import org.briarproject.bramble.api.plugin.duplex.DuplexTransportConnection;
+import org.briarproject.bramble.api.properties.TransportProperties;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.api.system.Wakeful;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.lang.Math.min;
+import static java.util.Collections.sort;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Logger.getLogger;
+
+@ThreadSafe
+@NotNullByDefault
+class ConnectionSchedulerImpl implements ConnectionScheduler {
+
+	private static final Logger LOG =
+			getLogger(ConnectionSchedulerImpl.class.getName());
+
+	/**
+	 * After this many consecutive failures, attempts to connect to a contact
+	 * are skipped until the retry delay has elapsed.
+	 */
+	static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+	static final long MIN_RETRY_DELAY = 5 * 60 * 1000; // 5 minutes
+	static final long MAX_RETRY_DELAY = 60 * 60 * 1000; // 1 hour
+
+	/**
+	 * The history of a contact that hasn't been scheduled for this long is
+	 * discarded.
+	 */
+	static final long HISTORY_EXPIRY = 24 * 60 * 60 * 1000; // 1 day
+
+	private final Executor ioExecutor, wakefulIoExecutor;
+	private final TaskScheduler scheduler;
+	private final Clock clock;
+	private final int maxConcurrentAttempts;
+
+	private final Lock lock = new ReentrantLock();
+
+	// The following are locking: lock
+	@GuardedBy("lock")
+	private final Map<TransportProperties, History> histories =
+			new HashMap<>();
+	@GuardedBy("lock")
+	private final Deque<Attempt> queue = new ArrayDeque<>();
+	@GuardedBy("lock")
+	private int activeAttempts = 0, unspacedAttempts = 0;
+	@GuardedBy("lock")
+	private long spacing = 0, nextStartTime = 0;
+	@GuardedBy("lock")
+	private long attemptCount = 0, successCount = 0;
+	@GuardedBy("lock")
+	@Nullable
+	private Cancellable wakeup = null;
+
+	ConnectionSchedulerImpl(Executor ioExecutor, Executor wakefulIoExecutor,
+			TaskScheduler scheduler, Clock clock, int maxConcurrentAttempts) {
+		if (maxConcurrentAttempts < 1) throw new IllegalArgumentException();
+		this.ioExecutor = ioExecutor;
+		this.wakefulIoExecutor = wakefulIoExecutor;
+		this.scheduler = scheduler;
+		this.clock = clock;
+		this.maxConcurrentAttempts = maxConcurrentAttempts;
+	}
+
+	@Override
+	public void schedule(Collection<Pair<TransportProperties,
+			ConnectionHandler>> properties, int window, Connector connector) {
+		long now = clock.currentTimeMillis();
+		List<Attempt> attempts = new ArrayList<>(properties.size());
+		lock.lock();
+		try {
+			removeExpiredHistories(now);
+			int skipped = 0;
+			for (Pair<TransportProperties, ConnectionHandler> p : properties) {
+				TransportProperties key = p.getFirst();
+				History h = histories.get(key);
+				if (h == null) {
+					h = new History();
+					histories.put(key, h);
+				}
+				h.lastScheduled = now;
+				if (h.shouldSkip(now)) skipped++;
+				else attempts.add(new Attempt(key, p.getSecond(), h,
+						connector));
+			}
+			sort(attempts, (a, b) -> a.history.compareTo(b.history));
+			// Replace any attempts that haven't started yet
+			queue.clear();
+			queue.addAll(attempts);
+			if (wakeup != null) {
+				wakeup.cancel();
+				wakeup = null;
+			}
+			// Attempts up to the concurrency limit start at once. Any further
+			// attempts are spread across the window
+			int excess = attempts.size() - maxConcurrentAttempts;
+			unspacedAttempts = min(attempts.size(), maxConcurrentAttempts);
+			spacing = excess > 0 ? window / excess : 0;
+			nextStartTime = now;
+			if (LOG.isLoggable(INFO)) {
+				LOG.info("Scheduling " + attempts.size()
+						+ " connection attempts, skipping " + skipped
+						+ ", " + activeAttempts + " active, "
+						+ attemptCount + " started, "
+						+ successCount + " succeeded");
+			}
+			startAttempts();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void cancel() {
+		lock.lock();
+		try {
+			if (LOG.isLoggable(INFO)) {
+				LOG.info("Cancelling " + queue.size()
+						+ " connection attempts");
+			}
+			queue.clear();
+			unspacedAttempts = 0;
+			if (wakeup != null) {
+				wakeup.cancel();
+				wakeup = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getAttemptCount() {
+		lock.lock();
+		try {
+			return attemptCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getSuccessCount() {
+		lock.lock();
+		try {
+			return successCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getQueueDepth() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@GuardedBy("lock")
+	private void removeExpiredHistories(long now) {
+		Iterator<History> it = histories.values().iterator();
+		while (it.hasNext()) {
+			if (now - it.next().lastScheduled > HISTORY_EXPIRY) it.remove();
+		}
+	}
+
+	@GuardedBy("lock")
+	private void startAttempts() {
+		long now = clock.currentTimeMillis();
+		while (activeAttempts < maxConcurrentAttempts && !queue.isEmpty()) {
+			if (unspacedAttempts > 0) {
+				unspacedAttempts--;
+			} else if (now < nextStartTime) {
+				scheduleWakeup(nextStartTime - now);
+				return;
+			}
+			Attempt a = queue.poll();
+			activeAttempts++;
+			attemptCount++;
+			a.history.lastAttempt = now;
+			nextStartTime = now + spacing;
+			wakefulIoExecutor.execute(() -> attempt(a));
+		}
+	}
+
+	@GuardedBy("lock")
+	private void scheduleWakeup(long delay) {
+		if (wakeup != null) return;
+		wakeup = scheduler.schedule(this::wakeup, ioExecutor, delay,
+				MILLISECONDS);
+	}
+
+	private void wakeup() {
+		lock.lock();
+		try {
+			wakeup = null;
+			startAttempts();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Wakeful
+	private void attempt(Attempt a) {
+		DuplexTransportConnection d = null;
+		try {
+			d = a.connector.connect(a.properties);
+		} finally {
+			lock.lock();
+			try {
+				activeAttempts--;
+				if (d == null) {
+					a.history.consecutiveFailures++;
+				} else {
+					successCount++;
+					a.history.consecutiveFailures = 0;
+					a.history.lastSuccess = a.history.lastAttempt;
+				}
+				startAttempts();
+			} finally {
+				lock.unlock();
+			}
+		}
+		if (d != null) a.handler.handleConnection(d);
+	}
+
+	@NotNullByDefault
+	private static class History implements Comparable<History> {
+
+		// The following are locking: lock
+		private long lastScheduled = 0, lastAttempt = 0, lastSuccess = 0;
+		private int consecutiveFailures = 0;
+
+		private boolean shouldSkip(long now) {
+			if (consecutiveFailures < MAX_CONSECUTIVE_FAILURES) return false;
+			// Double the retry delay for each further failure
+			int doublings = min(consecutiveFailures - MAX_CONSECUTIVE_FAILURES,
+					30);
+			long delay = min(MIN_RETRY_DELAY << doublings, MAX_RETRY_DELAY);
+			return now - lastAttempt < delay;
+		}
+
+		/**
+		 * Orders contacts that were connected most recently first, then
+		 * contacts with the fewest consecutive failures, then contacts that
+		 * were tried least recently.
+		 */
+		@Override
+		public int compareTo(History h) {
+			if (lastSuccess != h.lastSuccess)
+				return lastSuccess > h.lastSuccess ? -1 : 1;
+			if (consecutiveFailures != h.consecutiveFailures)
+				return consecutiveFailures < h.consecutiveFailures ? -1 : 1;
+			if (lastAttempt != h.lastAttempt)
+				return lastAttempt < h.lastAttempt ? -1 : 1;
+			return 0;
+		}
+	}
+
+	@NotNullByDefault
+	private static class Attempt {
+
+		private final TransportProperties properties;
+		private final ConnectionHandler handler;
+		private final History history;
+		private final Connector connector;
+
+		private Attempt(TransportProperties properties,
+				ConnectionHandler handler, History history,
+				Connector connector) {
+			this.properties = properties;
+			this.handler = handler;
+			this.history = history;
+			this.connector = connector;
+		}
+	}
+}
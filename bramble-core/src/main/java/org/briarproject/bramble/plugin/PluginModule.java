@@ -3,6 +3,7 @@ package org.briarproject.bramble.plugin;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.plugin.BackoffFactory;
+import org.briarproject.bramble.api.plugin.ConnectionSchedulerFactory;
 import org.briarproject.bramble.api.plugin.PluginConfig;
 import org.briarproject.bramble.api.plugin.PluginManager;
 
@@ -27,6 +28,12 @@ public class PluginModule {
 		return new BackoffFactoryImpl();
 	}
 
+	@Provides
+	ConnectionSchedulerFactory provideConnectionSchedulerFactory(
+			ConnectionSchedulerFactoryImpl connectionSchedulerFactory) {
+		return connectionSchedulerFactory;
+	}
+
 	@Provides
 	@Singleton
 	PluginManager providePluginManager(LifecycleManager lifecycleManager,
@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.keyagreement.KeyAgreementConnection;
 import org.briarproject.bramble.api.keyagreement.KeyAgreementListener;
 import org.briarproject.bramble.api.plugin.Backoff;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.plugin.duplex.DuplexTransportConnection;
@@ -89,13 +90,13 @@ class LanTcpPlugin extends TcpPlugin {
 	}
 
 	LanTcpPlugin(Executor ioExecutor,
-			Executor wakefulIoExecutor,
+			ConnectionScheduler connectionScheduler,
 			Backoff backoff,
 			PluginCallback callback,
 			long maxLatency,
 			int maxIdleTime,
 			int connectionTimeout) {
-		super(ioExecutor, wakefulIoExecutor, backoff, callback, maxLatency,
+		super(ioExecutor, connectionScheduler, backoff, callback, maxLatency,
 				maxIdleTime, connectionTimeout);
 	}
 
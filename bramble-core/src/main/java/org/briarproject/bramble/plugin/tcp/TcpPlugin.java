@@ -9,6 +9,7 @@ import org.briarproject.bramble.api.keyagreement.KeyAgreementListener;
 import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.plugin.Backoff;
 import org.briarproject.bramble.api.plugin.ConnectionHandler;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.plugin.duplex.DuplexPlugin;
 import org.briarproject.bramble.api.plugin.duplex.DuplexTransportConnection;
@@ -64,7 +65,8 @@ abstract class TcpPlugin implements DuplexPlugin, EventListener {
 	private static final Pattern DOTTED_QUAD =
 			Pattern.compile("^\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}$");
 
-	protected final Executor ioExecutor, wakefulIoExecutor, bindExecutor;
+	protected final Executor ioExecutor, bindExecutor;
+	protected final ConnectionScheduler connectionScheduler;
 	protected final Backoff backoff;
 	protected final PluginCallback callback;
 	protected final long maxLatency;
@@ -105,14 +107,14 @@ abstract class TcpPlugin implements DuplexPlugin, EventListener {
 	protected abstract boolean isEnabledByDefault();
 
 	TcpPlugin(Executor ioExecutor,
-			Executor wakefulIoExecutor,
+			ConnectionScheduler connectionScheduler,
 			Backoff backoff,
 			PluginCallback callback,
 			long maxLatency,
 			int maxIdleTime,
 			int connectionTimeout) {
 		this.ioExecutor = ioExecutor;
-		this.wakefulIoExecutor = wakefulIoExecutor;
+		this.connectionScheduler = connectionScheduler;
 		this.backoff = backoff;
 		this.callback = callback;
 		this.maxLatency = maxLatency;
@@ -221,6 +223,7 @@ abstract class TcpPlugin implements DuplexPlugin, EventListener {
 	@Override
 	public void stop() {
 		for (ServerSocket ss : state.setStopped()) tryToClose(ss, LOG, WARNING);
+		connectionScheduler.cancel();
 	}
 
 	@Override
@@ -248,19 +251,15 @@ abstract class TcpPlugin implements DuplexPlugin, EventListener {
 			properties) {
 		if (getState() != ACTIVE) return;
 		backoff.increment();
-		for (Pair<TransportProperties, ConnectionHandler> p : properties) {
-			connect(p.getFirst(), p.getSecond());
-		}
+		connectionScheduler.schedule(properties, getPollingInterval(),
+				this::connect);
 	}
 
-	private void connect(TransportProperties p, ConnectionHandler h) {
-		wakefulIoExecutor.execute(() -> {
-			DuplexTransportConnection d = createConnection(p);
-			if (d != null) {
-				backoff.reset();
-				h.handleConnection(d);
-			}
-		});
+	@Nullable
+	private DuplexTransportConnection connect(TransportProperties p) {
+		DuplexTransportConnection d = createConnection(p);
+		if (d != null) backoff.reset();
+		return d;
 	}
 
 	@Override
@@ -1,6 +1,7 @@
 package org.briarproject.bramble.plugin.tcp;
 
 import org.briarproject.bramble.api.plugin.Backoff;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.properties.TransportProperties;
@@ -31,14 +32,14 @@ class WanTcpPlugin extends TcpPlugin {
 	private volatile MappingResult mappingResult;
 
 	WanTcpPlugin(Executor ioExecutor,
-			Executor wakefulIoExecutor,
+			ConnectionScheduler connectionScheduler,
 			Backoff backoff,
 			PortMapper portMapper,
 			PluginCallback callback,
 			long maxLatency,
 			int maxIdleTime,
 			int connectionTimeout) {
-		super(ioExecutor, wakefulIoExecutor, backoff, callback, maxLatency,
+		super(ioExecutor, connectionScheduler, backoff, callback, maxLatency,
 				maxIdleTime, connectionTimeout);
 		this.portMapper = portMapper;
 	}
@@ -13,6 +13,7 @@ import org.briarproject.bramble.api.network.NetworkStatus;
 import org.briarproject.bramble.api.network.event.NetworkStatusEvent;
 import org.briarproject.bramble.api.plugin.Backoff;
 import org.briarproject.bramble.api.plugin.ConnectionHandler;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.plugin.PluginException;
 import org.briarproject.bramble.api.plugin.TorConstants;
@@ -92,7 +93,7 @@ class TorPlugin implements DuplexPlugin, EventListener {
 	private static final Pattern ONION_V3 = Pattern.compile("[a-z2-7]{56}");
 
 	protected final Executor ioExecutor;
-	private final Executor wakefulIoExecutor;
+	private final ConnectionScheduler connectionScheduler;
 	private final Executor connectionStatusExecutor;
 	private final NetworkManager networkManager;
 	private final LocationUtils locationUtils;
@@ -113,7 +114,7 @@ class TorPlugin implements DuplexPlugin, EventListener {
 	private volatile Settings settings = null;
 
 	TorPlugin(Executor ioExecutor,
-			Executor wakefulIoExecutor,
+			ConnectionScheduler connectionScheduler,
 			NetworkManager networkManager,
 			LocationUtils locationUtils,
 			SocketFactory torSocketFactory,
@@ -126,7 +127,7 @@ class TorPlugin implements DuplexPlugin, EventListener {
 			long maxLatency,
 			int maxIdleTime) {
 		this.ioExecutor = ioExecutor;
-		this.wakefulIoExecutor = wakefulIoExecutor;
+		this.connectionScheduler = connectionScheduler;
 		this.networkManager = networkManager;
 		this.locationUtils = locationUtils;
 		this.torSocketFactory = torSocketFactory;
@@ -303,6 +304,7 @@ class TorPlugin implements DuplexPlugin, EventListener {
 	public void stop() {
 		ServerSocket ss = state.setStopped();
 		tryToClose(ss, LOG, WARNING);
+		connectionScheduler.cancel();
 		try {
 			tor.stop();
 		} catch (IOException e) {
@@ -338,19 +340,15 @@ class TorPlugin implements DuplexPlugin, EventListener {
 			properties) {
 		if (getState() != ACTIVE) return;
 		backoff.increment();
-		for (Pair<TransportProperties, ConnectionHandler> p : properties) {
-			connect(p.getFirst(), p.getSecond());
-		}
+		connectionScheduler.schedule(properties, getPollingInterval(),
+				this::connect);
 	}
 
-	private void connect(TransportProperties p, ConnectionHandler h) {
-		wakefulIoExecutor.execute(() -> {
-			DuplexTransportConnection d = createConnection(p);
-			if (d != null) {
-				backoff.reset();
-				h.handleConnection(d);
-			}
-		});
+	@Nullable
+	private DuplexTransportConnection connect(TransportProperties p) {
+		DuplexTransportConnection d = createConnection(p);
+		if (d != null) backoff.reset();
+		return d;
 	}
 
 	@Override
@@ -8,6 +8,8 @@ import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.network.NetworkManager;
 import org.briarproject.bramble.api.plugin.Backoff;
 import org.briarproject.bramble.api.plugin.BackoffFactory;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
+import org.briarproject.bramble.api.plugin.ConnectionSchedulerFactory;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.plugin.TorConstants;
 import org.briarproject.bramble.api.plugin.TorControlPort;
@@ -17,7 +19,6 @@ import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.plugin.duplex.DuplexPlugin;
 import org.briarproject.bramble.api.plugin.duplex.DuplexPluginFactory;
 import org.briarproject.bramble.api.system.Clock;
-import org.briarproject.bramble.api.system.WakefulIoExecutor;
 import org.briarproject.nullsafety.NotNullByDefault;
 import org.briarproject.onionwrapper.CircumventionProvider;
 import org.briarproject.onionwrapper.LocationUtils;
@@ -45,13 +46,15 @@ abstract class TorPluginFactory implements DuplexPluginFactory {
 	private static final int MIN_POLLING_INTERVAL = 60 * 1000; // 1 minute
 	private static final int MAX_POLLING_INTERVAL = 10 * 60 * 1000; // 10 mins
 	private static final double BACKOFF_BASE = 1.2;
+	private static final int MAX_CONCURRENT_CONNECTION_ATTEMPTS = 8;
 
-	protected final Executor ioExecutor, eventExecutor, wakefulIoExecutor;
+	protected final Executor ioExecutor, eventExecutor;
 	protected final NetworkManager networkManager;
 	protected final LocationUtils locationUtils;
 	protected final EventBus eventBus;
 	protected final SocketFactory torSocketFactory;
 	protected final BackoffFactory backoffFactory;
+	protected final ConnectionSchedulerFactory connectionSchedulerFactory;
 	protected final CircumventionProvider circumventionProvider;
 	protected final BatteryManager batteryManager;
 	protected final Clock clock;
@@ -62,12 +65,12 @@ abstract class TorPluginFactory implements DuplexPluginFactory {
 
 	TorPluginFactory(@IoExecutor Executor ioExecutor,
 			@EventExecutor Executor eventExecutor,
-			@WakefulIoExecutor Executor wakefulIoExecutor,
 			NetworkManager networkManager,
 			LocationUtils locationUtils,
 			EventBus eventBus,
 			SocketFactory torSocketFactory,
 			BackoffFactory backoffFactory,
+			ConnectionSchedulerFactory connectionSchedulerFactory,
 			CircumventionProvider circumventionProvider,
 			BatteryManager batteryManager,
 			Clock clock,
@@ -77,12 +80,12 @@ abstract class TorPluginFactory implements DuplexPluginFactory {
 			@TorControlPort int torControlPort) {
 		this.ioExecutor = ioExecutor;
 		this.eventExecutor = eventExecutor;
-		this.wakefulIoExecutor = wakefulIoExecutor;
 		this.networkManager = networkManager;
 		this.locationUtils = locationUtils;
 		this.eventBus = eventBus;
 		this.torSocketFactory = torSocketFactory;
 		this.backoffFactory = backoffFactory;
+		this.connectionSchedulerFactory = connectionSchedulerFactory;
 		this.circumventionProvider = circumventionProvider;
 		this.batteryManager = batteryManager;
 		this.clock = clock;
@@ -96,6 +99,7 @@ abstract class TorPluginFactory implements DuplexPluginFactory {
 	abstract String getArchitectureForTorBinary();
 
 	abstract TorPlugin createPluginInstance(Backoff backoff,
+			ConnectionScheduler connectionScheduler,
 			TorRendezvousCrypto torRendezvousCrypto, PluginCallback callback,
 			String architecture);
 
@@ -124,10 +128,12 @@ abstract class TorPluginFactory implements DuplexPluginFactory {
 
 		Backoff backoff = backoffFactory.createBackoff(MIN_POLLING_INTERVAL,
 				MAX_POLLING_INTERVAL, BACKOFF_BASE);
+		ConnectionScheduler connectionScheduler = connectionSchedulerFactory
+				.createConnectionScheduler(MAX_CONCURRENT_CONNECTION_ATTEMPTS);
 		TorRendezvousCrypto torRendezvousCrypto =
 				new TorRendezvousCryptoImpl(crypto);
-		TorPlugin plugin = createPluginInstance(backoff, torRendezvousCrypto,
-				callback, architecture);
+		TorPlugin plugin = createPluginInstance(backoff, connectionScheduler,
+				torRendezvousCrypto, callback, architecture);
 		eventBus.addListener(plugin);
 		return plugin;
 	}
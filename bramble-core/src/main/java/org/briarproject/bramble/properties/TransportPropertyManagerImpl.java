@@ -30,15 +30,19 @@ import org.briarproject.bramble.api.versioning.ClientVersioningManager;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager.ClientVersioningHook;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.Collections.emptyMap;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.GROUP_KEY_DISCOVERED;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.MSG_KEY_LOCAL;
 import static org.briarproject.bramble.api.properties.TransportPropertyConstants.MSG_KEY_TRANSPORT_ID;
@@ -47,7 +51,7 @@ import static org.briarproject.bramble.api.properties.TransportPropertyConstants
 import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.DeliveryAction.ACCEPT_DO_NOT_SHARE;
 import static org.briarproject.bramble.util.StringUtils.isNullOrEmpty;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
 class TransportPropertyManagerImpl implements TransportPropertyManager,
 		OpenDatabaseHook, ContactHook, ClientVersioningHook,
@@ -61,6 +65,24 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 	private final Clock clock;
 	private final Group localGroup;
 
+	/*
+	 * The caches below hold the parsed local properties and each contact's
+	 * remote properties. They're loaded when the database is opened and
+	 * updated by tasks attached to the transactions that change the
+	 * underlying data. The tasks run on the event executor in the order the
+	 * transactions were committed, and before any events attached later to
+	 * the same transactions are broadcast. Until the caches are loaded, or if
+	 * a contact isn't found in the cache, properties are read from the
+	 * database.
+	 */
+	private final Map<TransportId, TransportProperties> localCache =
+			new ConcurrentHashMap<>();
+	private final Map<ContactId, CachedProperties> remoteCache =
+			new ConcurrentHashMap<>();
+	private final Map<GroupId, ContactId> contactGroups =
+			new ConcurrentHashMap<>();
+	private volatile boolean cacheLoaded = false;
+
 	@Inject
 	TransportPropertyManagerImpl(DatabaseComponent db,
 			ClientHelper clientHelper,
@@ -79,10 +101,62 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 
 	@Override
 	public void onDatabaseOpened(Transaction txn) throws DbException {
-		if (db.containsGroup(txn, localGroup.getId())) return;
-		db.addGroup(txn, localGroup);
-		// Set things up for any pre-existing contacts
-		for (Contact c : db.getContacts(txn)) addingContact(txn, c);
+		Collection<Contact> contacts = db.getContacts(txn);
+		if (!db.containsGroup(txn, localGroup.getId())) {
+			db.addGroup(txn, localGroup);
+			// Set things up for any pre-existing contacts
+			for (Contact c : contacts) addingContact(txn, c);
+		}
+		loadCache(txn, contacts);
+	}
+
+	private void loadCache(Transaction txn, Collection<Contact> contacts)
+			throws DbException {
+		localCache.putAll(getLocalProperties(txn));
+		for (Contact c : contacts) {
+			Group g = getContactGroup(c);
+			remoteCache.put(c.getId(), loadRemoteProperties(txn, g.getId()));
+			contactGroups.put(g.getId(), c.getId());
+		}
+		cacheLoaded = true;
+	}
+
+	private CachedProperties loadRemoteProperties(Transaction txn, GroupId g)
+			throws DbException {
+		try {
+			// Find the latest remote update for each transport, in case an
+			// older update hasn't been deleted yet
+			Map<TransportId, LatestUpdate> latestUpdates = new HashMap<>();
+			Map<MessageId, BdfDictionary> metadata =
+					clientHelper.getMessageMetadataAsDictionary(txn, g);
+			for (Entry<MessageId, BdfDictionary> e : metadata.entrySet()) {
+				BdfDictionary meta = e.getValue();
+				if (meta.getBoolean(MSG_KEY_LOCAL)) continue;
+				TransportId t =
+						new TransportId(meta.getString(MSG_KEY_TRANSPORT_ID));
+				long version = meta.getLong(MSG_KEY_VERSION);
+				LatestUpdate latest = latestUpdates.get(t);
+				if (latest == null || version > latest.version) {
+					latestUpdates.put(t, new LatestUpdate(e.getKey(), version));
+				}
+			}
+			Map<TransportId, TransportProperties> received = new HashMap<>();
+			for (Entry<TransportId, LatestUpdate> e :
+					latestUpdates.entrySet()) {
+				BdfList message = clientHelper.getMessageAsList(txn,
+						e.getValue().messageId, false);
+				received.put(e.getKey(), parseProperties(message));
+			}
+			BdfDictionary meta =
+					clientHelper.getGroupMetadataAsDictionary(txn, g);
+			BdfDictionary d = meta.getOptionalDictionary(GROUP_KEY_DISCOVERED);
+			TransportProperties discovered = d == null ?
+					new TransportProperties() :
+					clientHelper.parseAndValidateTransportProperties(d);
+			return new CachedProperties(received, discovered);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -100,11 +174,25 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 			storeMessage(txn, g.getId(), e.getKey(), e.getValue(), 1,
 					true, true);
 		}
+		if (cacheLoaded) {
+			txn.attach(() -> {
+				remoteCache.put(c.getId(), new CachedProperties(emptyMap(),
+						new TransportProperties()));
+				contactGroups.put(g.getId(), c.getId());
+			});
+		}
 	}
 
 	@Override
 	public void removingContact(Transaction txn, Contact c) throws DbException {
-		db.removeGroup(txn, getContactGroup(c));
+		Group g = getContactGroup(c);
+		db.removeGroup(txn, g);
+		if (cacheLoaded) {
+			txn.attach(() -> {
+				remoteCache.remove(c.getId());
+				contactGroups.remove(g.getId());
+			});
+		}
 	}
 
 	@Override
@@ -135,6 +223,13 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 					return ACCEPT_DO_NOT_SHARE;
 				}
 			}
+			// Update the cache if we know which contact sent the update
+			ContactId c =
+					cacheLoaded ? contactGroups.get(m.getGroupId()) : null;
+			if (c != null) {
+				TransportProperties p = parseProperties(clientHelper.toList(m));
+				txn.attach(() -> updateReceived(c, t, p));
+			}
 			txn.attach(new RemoteTransportPropertiesUpdatedEvent(t));
 		} catch (FormatException e) {
 			throw new InvalidMessageException(e);
@@ -149,9 +244,20 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 		for (Entry<TransportId, TransportProperties> e : props.entrySet()) {
 			storeMessage(txn, g.getId(), e.getKey(), e.getValue(), 0,
 					false, false);
+			if (cacheLoaded) {
+				TransportId t = e.getKey();
+				TransportProperties p = new TransportProperties(e.getValue());
+				txn.attach(() -> updateReceived(c, t, p));
+			}
 		}
 	}
 
+	private void updateReceived(ContactId c, TransportId t,
+			TransportProperties p) {
+		CachedProperties cached = remoteCache.get(c);
+		if (cached != null) remoteCache.put(c, cached.withReceived(t, p));
+	}
+
 	@Override
 	public void addRemotePropertiesFromConnection(ContactId c, TransportId t,
 			TransportProperties props) throws DbException {
@@ -178,6 +284,15 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 					meta.put(GROUP_KEY_DISCOVERED, merged);
 					clientHelper.mergeGroupMetadata(txn, g.getId(), meta);
 					updateLocalProperties(txn, contact, t);
+					if (cacheLoaded) {
+						TransportProperties p = new TransportProperties(props);
+						txn.attach(() -> {
+							CachedProperties cached = remoteCache.get(c);
+							if (cached != null) {
+								remoteCache.put(c, cached.withDiscovered(p));
+							}
+						});
+					}
 				}
 			});
 		} catch (FormatException e) {
@@ -188,6 +303,14 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 	@Override
 	public Map<TransportId, TransportProperties> getLocalProperties()
 			throws DbException {
+		if (cacheLoaded) {
+			Map<TransportId, TransportProperties> local = new HashMap<>();
+			for (Entry<TransportId, TransportProperties> e :
+					localCache.entrySet()) {
+				local.put(e.getKey(), new TransportProperties(e.getValue()));
+			}
+			return local;
+		}
 		return db.transactionWithResult(true, this::getLocalProperties);
 	}
 
@@ -213,6 +336,11 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 	@Override
 	public TransportProperties getLocalProperties(TransportId t)
 			throws DbException {
+		if (cacheLoaded) {
+			TransportProperties p = localCache.get(t);
+			return p == null ? new TransportProperties() :
+					new TransportProperties(p);
+		}
 		try {
 			return db.transactionWithResult(true, txn -> {
 				TransportProperties p = null;
@@ -235,6 +363,14 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 	@Override
 	public Map<ContactId, TransportProperties> getRemoteProperties(
 			TransportId t) throws DbException {
+		if (cacheLoaded) {
+			Map<ContactId, TransportProperties> remote = new HashMap<>();
+			for (Entry<ContactId, CachedProperties> e :
+					remoteCache.entrySet()) {
+				remote.put(e.getKey(), e.getValue().get(t));
+			}
+			return remote;
+		}
 		return db.transactionWithResult(true, txn -> {
 			Map<ContactId, TransportProperties> remote = new HashMap<>();
 			for (Contact c : db.getContacts(txn))
@@ -294,6 +430,8 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 	@Override
 	public TransportProperties getRemoteProperties(ContactId c, TransportId t)
 			throws DbException {
+		CachedProperties cached = cacheLoaded ? remoteCache.get(c) : null;
+		if (cached != null) return cached.get(t);
 		return db.transactionWithResult(true, txn ->
 				getRemoteProperties(txn, db.getContact(txn, c), t));
 	}
@@ -339,6 +477,9 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 					for (Contact c : db.getContacts(txn)) {
 						storeLocalProperties(txn, c, t, merged);
 					}
+					if (cacheLoaded) {
+						txn.attach(() -> localCache.put(t, merged));
+					}
 				}
 			});
 		} catch (FormatException e) {
@@ -439,6 +580,46 @@ class TransportPropertyManagerImpl implements TransportPropertyManager,
 		return clientHelper.parseAndValidateTransportProperties(dictionary);
 	}
 
+	/**
+	 * The remote properties received from a contact for each transport,
+	 * along with any properties discovered by connecting to the contact.
+	 */
+	@Immutable
+	private static class CachedProperties {
+
+		private final Map<TransportId, TransportProperties> received;
+		private final TransportProperties discovered;
+
+		private CachedProperties(
+				Map<TransportId, TransportProperties> received,
+				TransportProperties discovered) {
+			this.received = received;
+			this.discovered = discovered;
+		}
+
+		private TransportProperties get(TransportId t) {
+			TransportProperties merged = new TransportProperties(discovered);
+			// Received properties override discovered properties
+			TransportProperties p = received.get(t);
+			if (p != null) merged.putAll(p);
+			return merged;
+		}
+
+		private CachedProperties withReceived(TransportId t,
+				TransportProperties p) {
+			Map<TransportId, TransportProperties> copy =
+					new HashMap<>(received);
+			copy.put(t, p);
+			return new CachedProperties(copy, discovered);
+		}
+
+		private CachedProperties withDiscovered(TransportProperties p) {
+			TransportProperties merged = new TransportProperties(discovered);
+			merged.putAll(p);
+			return new CachedProperties(received, merged);
+		}
+	}
+
 	private static class LatestUpdate {
 
 		private final MessageId messageId;
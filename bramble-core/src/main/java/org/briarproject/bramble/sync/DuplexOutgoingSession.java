@@ -130,7 +130,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	@IoExecutor
 	@Override
 	public void run() throws IOException {
-		eventBus.addListener(this);
+		addListeners();
 		try {
 			// Send our supported protocol versions
 			recordWriter.writeVersions(new Versions(SUPPORTED_VERSIONS));
@@ -197,6 +197,20 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		}
 	}
 
+	private void addListeners() {
+		eventBus.addListener(ContactRemovedEvent.class, contactId, this);
+		eventBus.addListener(MessageSharedEvent.class, contactId, this);
+		eventBus.addListener(GroupVisibilityUpdatedEvent.class, contactId,
+				this);
+		eventBus.addListener(MessageRequestedEvent.class, contactId, this);
+		eventBus.addListener(MessageToAckEvent.class, contactId, this);
+		eventBus.addListener(MessageToRequestEvent.class, contactId, this);
+		eventBus.addListener(LifecycleEvent.class, this);
+		eventBus.addListener(CloseSyncConnectionsEvent.class, transportId,
+				this);
+		eventBus.addListener(TransportInactiveEvent.class, transportId, this);
+	}
+
 	private void generateAck() {
 		if (generateAckQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateAck());
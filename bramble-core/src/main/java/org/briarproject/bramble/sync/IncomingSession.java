@@ -23,10 +23,14 @@ import org.briarproject.bramble.api.sync.Versions;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static java.util.logging.Level.WARNING;
@@ -44,12 +48,29 @@ class IncomingSession implements SyncSession, EventListener {
 	private static final Logger LOG =
 			getLogger(IncomingSession.class.getName());
 
+	/**
+	 * The maximum number of messages to store in a single transaction.
+	 */
+	// Package access for testing
+	static final int MAX_MESSAGES_PER_TRANSACTION = 64;
+
+	/**
+	 * The maximum total length in bytes of the messages to store in a single
+	 * transaction. A single message may exceed this limit.
+	 */
+	// Package access for testing
+	static final int MAX_BYTES_PER_TRANSACTION = 1024 * 1024;
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
 	private final EventBus eventBus;
 	private final ContactId contactId;
 	private final SyncRecordReader recordReader;
 	private final PriorityHandler priorityHandler;
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	private final Queue<Message> pendingMessages = new LinkedList<>();
 
 	private volatile boolean interrupted = false;
 
@@ -67,7 +88,7 @@ class IncomingSession implements SyncSession, EventListener {
 	@IoExecutor
 	@Override
 	public void run() throws IOException {
-		eventBus.addListener(this);
+		addListeners();
 		try {
 			// Read records until interrupted or EOF
 			while (!interrupted) {
@@ -80,7 +101,13 @@ class IncomingSession implements SyncSession, EventListener {
 					dbExecutor.execute(new ReceiveAck(a));
 				} else if (recordReader.hasMessage()) {
 					Message m = recordReader.readMessage();
-					dbExecutor.execute(new ReceiveMessage(m));
+					synchronized (lock) {
+						pendingMessages.add(m);
+					}
+					// The task may find that the message has already been
+					// stored by an earlier task, but the message won't be
+					// stored after any records that follow it
+					dbExecutor.execute(new ReceiveMessages());
 				} else if (recordReader.hasOffer()) {
 					Offer o = recordReader.readOffer();
 					dbExecutor.execute(new ReceiveOffer(o));
@@ -103,6 +130,11 @@ class IncomingSession implements SyncSession, EventListener {
 		}
 	}
 
+	private void addListeners() {
+		eventBus.addListener(ContactRemovedEvent.class, contactId, this);
+		eventBus.addListener(LifecycleEvent.class, this);
+	}
+
 	@Override
 	public void interrupt() {
 		// FIXME: This won't interrupt a blocking read
@@ -120,6 +152,23 @@ class IncomingSession implements SyncSession, EventListener {
 		}
 	}
 
+	private List<Message> takePendingMessages() {
+		List<Message> batch = new ArrayList<>();
+		int bytes = 0;
+		synchronized (lock) {
+			while (batch.size() < MAX_MESSAGES_PER_TRANSACTION) {
+				Message m = pendingMessages.peek();
+				if (m == null) break;
+				int length = m.getRawLength();
+				boolean full = bytes + length > MAX_BYTES_PER_TRANSACTION;
+				if (full && !batch.isEmpty()) break;
+				batch.add(pendingMessages.remove());
+				bytes += length;
+			}
+		}
+		return batch;
+	}
+
 	private class ReceiveAck implements Runnable {
 
 		private final Ack ack;
@@ -141,20 +190,19 @@ class IncomingSession implements SyncSession, EventListener {
 		}
 	}
 
-	private class ReceiveMessage implements Runnable {
-
-		private final Message message;
-
-		private ReceiveMessage(Message message) {
-			this.message = message;
-		}
+	/**
+	 * Stores a batch of pending messages in a single transaction.
+	 */
+	private class ReceiveMessages implements Runnable {
 
 		@DatabaseExecutor
 		@Override
 		public void run() {
+			List<Message> batch = takePendingMessages();
+			if (batch.isEmpty()) return;
 			try {
 				db.transaction(false, txn ->
-						db.receiveMessage(txn, contactId, message));
+						db.receiveMessages(txn, contactId, batch));
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -3,6 +3,7 @@ package org.briarproject.bramble.sync;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.sync.Ack;
@@ -22,7 +23,6 @@ import java.util.logging.Logger;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static java.lang.Math.min;
-import static java.util.Collections.emptyList;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
@@ -97,29 +97,28 @@ class MailboxOutgoingSession extends SimplexOutgoingSession {
 
 	@Override
 	void sendMessages() throws DbException, IOException {
-		for (MessageId m : loadMessageIdsToSend()) {
-			if (isInterrupted()) break;
-			// Defer marking the message as sent
-			Message message = db.transactionWithNullableResult(true, txn ->
-					db.getMessageToSend(txn, contactId, m, maxLatency, false));
-			if (message == null) continue; // No longer shared
-			recordWriter.writeMessage(message);
-			sessionRecord.onMessageSent(m);
-			LOG.info("Sent message");
-		}
-	}
-
-	private Collection<MessageId> loadMessageIdsToSend() throws DbException {
 		long capacity = getRemainingCapacity();
 		if (capacity < RECORD_HEADER_BYTES + MESSAGE_HEADER_LENGTH) {
-			return emptyList(); // Out of capacity
+			return; // Out of capacity
 		}
-		Collection<MessageId> ids = db.transactionWithResult(true, txn ->
-				db.getMessagesToSend(txn, contactId, capacity, maxLatency));
-		if (LOG.isLoggable(INFO)) {
-			LOG.info(ids.size() + " messages to send");
+		MessageCursor cursor = getMessageCursor();
+		while (!isInterrupted()) {
+			long batchCapacity = min(BATCH_CAPACITY, capacity);
+			// Defer marking the messages as sent
+			Collection<Message> b = db.transactionWithNullableResult(true,
+					txn -> db.generateBatch(txn, cursor, batchCapacity, false));
+			if (LOG.isLoggable(INFO))
+				LOG.info("Generated batch: " + (b != null));
+			if (b == null) break; // No more messages that fit
+			for (Message m : b) {
+				recordWriter.writeMessage(m);
+				sessionRecord.onMessageSent(m.getId());
+			}
+			LOG.info("Sent batch");
+			capacity = getRemainingCapacity();
+			if (capacity < RECORD_HEADER_BYTES + MESSAGE_HEADER_LENGTH) {
+				break; // Out of capacity
+			}
 		}
-		return ids;
 	}
-
 }
@@ -4,6 +4,7 @@ import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
@@ -89,7 +90,7 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	@IoExecutor
 	@Override
 	public void run() throws IOException {
-		eventBus.addListener(this);
+		addListeners();
 		try {
 			// Send our supported protocol versions
 			recordWriter.writeVersions(new Versions(SUPPORTED_VERSIONS));
@@ -105,6 +106,14 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 		}
 	}
 
+	private void addListeners() {
+		eventBus.addListener(ContactRemovedEvent.class, contactId, this);
+		eventBus.addListener(LifecycleEvent.class, this);
+		eventBus.addListener(CloseSyncConnectionsEvent.class, transportId,
+				this);
+		eventBus.addListener(TransportInactiveEvent.class, transportId, this);
+	}
+
 	@Override
 	public void interrupt() {
 		interrupted = true;
@@ -147,12 +156,19 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	}
 
 	void sendMessages() throws DbException, IOException {
-		while (!isInterrupted()) if (!generateAndSendBatch()) break;
+		MessageCursor cursor = getMessageCursor();
+		while (!isInterrupted()) if (!generateAndSendBatch(cursor)) break;
+	}
+
+	MessageCursor getMessageCursor() throws DbException {
+		return db.transactionWithResult(true, txn ->
+				db.getMessageCursor(txn, contactId, maxLatency, false));
 	}
 
-	private boolean generateAndSendBatch() throws DbException, IOException {
+	private boolean generateAndSendBatch(MessageCursor cursor)
+			throws DbException, IOException {
 		Collection<Message> b = db.transactionWithNullableResult(false, txn ->
-				db.generateBatch(txn, contactId, BATCH_CAPACITY, maxLatency));
+				db.generateBatch(txn, cursor, BATCH_CAPACITY, true));
 		if (LOG.isLoggable(INFO))
 			LOG.info("Generated batch: " + (b != null));
 		if (b == null) return false; // No more messages to send
@@ -26,19 +26,25 @@ import org.briarproject.bramble.api.sync.validation.ValidationManager;
 import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.Collections.singletonList;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.DeliveryAction.ACCEPT_DO_NOT_SHARE;
@@ -58,11 +64,24 @@ class ValidationManagerImpl implements ValidationManager, Service,
 	private static final Logger LOG =
 			Logger.getLogger(ValidationManagerImpl.class.getName());
 
+	/**
+	 * The maximum number of messages to load, store or deliver in a single
+	 * transaction.
+	 */
+	static final int MAX_BATCH_SIZE = 100;
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor, validationExecutor;
 	private final Map<ClientMajorVersion, MessageValidator> validators;
 	private final Map<ClientMajorVersion, IncomingMessageHook> hooks;
 	private final AtomicBoolean used = new AtomicBoolean(false);
+	/**
+	 * Messages that have been validated and are waiting for their contexts
+	 * to be stored.
+	 */
+	private final Queue<ValidatedMessage> validated =
+			new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean storeScheduled = new AtomicBoolean(false);
 
 	@Inject
 	ValidationManagerImpl(DatabaseComponent db,
@@ -108,37 +127,74 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		try {
 			Queue<MessageId> unvalidated = new LinkedList<>(
 					db.transactionWithResult(true, db::getMessagesToValidate));
-			validateNextMessageAsync(unvalidated);
+			validateNextBatchAsync(unvalidated);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
-	private void validateNextMessageAsync(Queue<MessageId> unvalidated) {
+	private void validateNextBatchAsync(Queue<MessageId> unvalidated) {
 		if (unvalidated.isEmpty()) return;
-		dbExecutor.execute(() -> validateNextMessage(unvalidated));
+		dbExecutor.execute(() -> validateNextBatch(unvalidated));
 	}
 
+	/**
+	 * Loads the next batch of unvalidated messages and their groups in a
+	 * single transaction and validates them in parallel. The following batch
+	 * is loaded when all the messages in this batch have been validated.
+	 */
 	@DatabaseExecutor
-	private void validateNextMessage(Queue<MessageId> unvalidated) {
+	private void validateNextBatch(Queue<MessageId> unvalidated) {
 		try {
-			Pair<Message, Group> mg = db.transactionWithResult(true, txn -> {
-				MessageId id = unvalidated.poll();
-				if (id == null) throw new AssertionError();
-				Message m = db.getMessage(txn, id);
-				Group g = db.getGroup(txn, m.getGroupId());
-				return new Pair<>(m, g);
-			});
-			validateMessageAsync(mg.getFirst(), mg.getSecond());
-			validateNextMessageAsync(unvalidated);
+			List<Pair<Message, Group>> batch = db.transactionWithResult(true,
+					txn -> loadNextBatch(txn, unvalidated));
+			if (batch.isEmpty()) {
+				validateNextBatchAsync(unvalidated);
+				return;
+			}
+			AtomicInteger remaining = new AtomicInteger(batch.size());
+			for (Pair<Message, Group> mg : batch) {
+				validationExecutor.execute(() -> {
+					try {
+						validateMessage(mg.getFirst(), mg.getSecond());
+					} finally {
+						if (remaining.decrementAndGet() == 0)
+							validateNextBatchAsync(unvalidated);
+					}
+				});
+			}
+		} catch (DbException e) {
+			logException(LOG, WARNING, e);
+		}
+	}
+
+	@DatabaseExecutor
+	private List<Pair<Message, Group>> loadNextBatch(Transaction txn,
+			Queue<MessageId> unvalidated) throws DbException {
+		List<Pair<Message, Group>> loaded = new ArrayList<>();
+		while (loaded.size() < MAX_BATCH_SIZE) {
+			MessageId id = unvalidated.poll();
+			if (id == null) break;
+			Pair<Message, Group> mg = loadMessageAndGroup(txn, id);
+			if (mg != null) loaded.add(mg);
+		}
+		return loaded;
+	}
+
+	@Nullable
+	@DatabaseExecutor
+	private Pair<Message, Group> loadMessageAndGroup(Transaction txn,
+			MessageId id) throws DbException {
+		try {
+			Message m = db.getMessage(txn, id);
+			Group g = db.getGroup(txn, m.getGroupId());
+			return new Pair<>(m, g);
 		} catch (NoSuchMessageException e) {
 			LOG.info("Message removed before validation");
-			validateNextMessageAsync(unvalidated);
+			return null;
 		} catch (NoSuchGroupException e) {
 			LOG.info("Group removed before validation");
-			validateNextMessageAsync(unvalidated);
-		} catch (DbException e) {
-			logException(LOG, WARNING, e);
+			return null;
 		}
 	}
 
@@ -162,62 +218,107 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		dbExecutor.execute(() -> deliverNextPendingMessage(pending));
 	}
 
+	/**
+	 * Delivers the next batch of pending messages in a single transaction.
+	 * Dependents that become deliverable are added to the queue for a later
+	 * batch.
+	 */
 	@DatabaseExecutor
 	private void deliverNextPendingMessage(Queue<MessageId> pending) {
+		List<MessageId> batch = new ArrayList<>();
+		while (batch.size() < MAX_BATCH_SIZE) {
+			MessageId id = pending.poll();
+			if (id == null) break;
+			batch.add(id);
+		}
+		if (deliverPendingMessages(batch, pending))
+			deliverNextPendingMessageAsync(pending);
+	}
+
+	/**
+	 * Delivers the given pending messages in a single transaction. If the
+	 * transaction fails, each message is retried in its own transaction.
+	 *
+	 * @return False if delivery should not continue
+	 */
+	@DatabaseExecutor
+	private boolean deliverPendingMessages(List<MessageId> batch,
+			Queue<MessageId> pending) {
 		try {
+			Queue<MessageId> ready = new LinkedList<>();
 			Queue<MessageId> toShare = new LinkedList<>();
 			Queue<MessageId> invalidate = new LinkedList<>();
 			db.transaction(false, txn -> {
-				boolean anyInvalid = false, allDelivered = true;
-				MessageId id = pending.poll();
-				if (id == null) throw new AssertionError();
-				// Check if message is still pending
-				if (db.getMessageState(txn, id) == PENDING) {
-					// Check if dependencies are valid and delivered
-					Map<MessageId, MessageState> states =
-							db.getMessageDependencies(txn, id);
-					for (Entry<MessageId, MessageState> e : states.entrySet()) {
-						if (e.getValue() == INVALID) anyInvalid = true;
-						if (e.getValue() != DELIVERED) allDelivered = false;
-					}
-					if (anyInvalid) {
-						invalidateMessage(txn, id);
-						addDependentsToInvalidate(txn, id, invalidate);
-					} else if (allDelivered) {
-						Message m = db.getMessage(txn, id);
-						Group g = db.getGroup(txn, m.getGroupId());
-						ClientId c = g.getClientId();
-						int majorVersion = g.getMajorVersion();
-						Metadata meta =
-								db.getMessageMetadataForValidator(txn, id);
-						DeliveryAction action =
-								deliverMessage(txn, m, c, majorVersion, meta);
-						if (action == REJECT) {
-							invalidateMessage(txn, id);
-							addDependentsToInvalidate(txn, id, invalidate);
-						} else if (action == ACCEPT_SHARE) {
-							db.setMessageState(txn, m.getId(), DELIVERED);
-							addPendingDependents(txn, id, pending);
-							db.setMessageShared(txn, id);
-							toShare.addAll(states.keySet());
-						} else if (action == ACCEPT_DO_NOT_SHARE) {
-							db.setMessageState(txn, m.getId(), DELIVERED);
-							addPendingDependents(txn, id, pending);
-						}
-					}
+				for (MessageId id : batch) {
+					deliverPendingMessage(txn, id, ready, invalidate,
+							toShare);
 				}
 			});
+			pending.addAll(ready);
 			if (!invalidate.isEmpty()) invalidateNextMessageAsync(invalidate);
 			if (!toShare.isEmpty()) shareNextMessageAsync(toShare);
-			deliverNextPendingMessageAsync(pending);
-		} catch (NoSuchMessageException e) {
-			LOG.info("Message removed before delivery");
-			deliverNextPendingMessageAsync(pending);
-		} catch (NoSuchGroupException e) {
-			LOG.info("Group removed before delivery");
-			deliverNextPendingMessageAsync(pending);
+			return true;
 		} catch (DbException e) {
+			if (batch.size() > 1) return deliverIndividually(batch, pending);
+			if (e instanceof NoSuchMessageException) {
+				LOG.info("Message removed before delivery");
+				return true;
+			} else if (e instanceof NoSuchGroupException) {
+				LOG.info("Group removed before delivery");
+				return true;
+			}
 			logException(LOG, WARNING, e);
+			return false;
+		}
+	}
+
+	@DatabaseExecutor
+	private boolean deliverIndividually(List<MessageId> batch,
+			Queue<MessageId> pending) {
+		for (MessageId id : batch) {
+			if (!deliverPendingMessages(singletonList(id), pending))
+				return false;
+		}
+		return true;
+	}
+
+	@DatabaseExecutor
+	private void deliverPendingMessage(Transaction txn, MessageId id,
+			Queue<MessageId> pending, Queue<MessageId> invalidate,
+			Queue<MessageId> toShare) throws DbException {
+		boolean anyInvalid = false, allDelivered = true;
+		// Check if message is still pending
+		if (db.getMessageState(txn, id) != PENDING) return;
+		// Check if dependencies are valid and delivered
+		Map<MessageId, MessageState> states =
+				db.getMessageDependencies(txn, id);
+		for (Entry<MessageId, MessageState> e : states.entrySet()) {
+			if (e.getValue() == INVALID) anyInvalid = true;
+			if (e.getValue() != DELIVERED) allDelivered = false;
+		}
+		if (anyInvalid) {
+			invalidateMessage(txn, id);
+			addDependentsToInvalidate(txn, id, invalidate);
+		} else if (allDelivered) {
+			Message m = db.getMessage(txn, id);
+			Group g = db.getGroup(txn, m.getGroupId());
+			ClientId c = g.getClientId();
+			int majorVersion = g.getMajorVersion();
+			Metadata meta = db.getMessageMetadataForValidator(txn, id);
+			DeliveryAction action =
+					deliverMessage(txn, m, c, majorVersion, meta);
+			if (action == REJECT) {
+				invalidateMessage(txn, id);
+				addDependentsToInvalidate(txn, id, invalidate);
+			} else if (action == ACCEPT_SHARE) {
+				db.setMessageState(txn, m.getId(), DELIVERED);
+				addPendingDependents(txn, id, pending);
+				db.setMessageShared(txn, id);
+				toShare.addAll(states.keySet());
+			} else if (action == ACCEPT_DO_NOT_SHARE) {
+				db.setMessageState(txn, m.getId(), DELIVERED);
+				addPendingDependents(txn, id, pending);
+			}
 		}
 	}
 
@@ -250,72 +351,111 @@ class ValidationManagerImpl implements ValidationManager, Service,
 	}
 
 	private void storeMessageContextAsync(Message m, ClientId c,
-			int majorVersion, MessageContext result) {
-		dbExecutor.execute(() ->
-				storeMessageContext(m, c, majorVersion, result));
+			int majorVersion, MessageContext context) {
+		validated.add(new ValidatedMessage(m, c, majorVersion, context));
+		if (!storeScheduled.getAndSet(true))
+			dbExecutor.execute(this::storeNextBatch);
 	}
 
+	/**
+	 * Stores the contexts of the next batch of validated messages in a single
+	 * transaction. Messages that are validated while the database executor
+	 * is busy are grouped into the same batch.
+	 */
 	@DatabaseExecutor
-	private void storeMessageContext(Message m, ClientId c, int majorVersion,
-			MessageContext context) {
+	private void storeNextBatch() {
+		storeScheduled.set(false);
+		List<ValidatedMessage> batch = new ArrayList<>();
+		while (batch.size() < MAX_BATCH_SIZE) {
+			ValidatedMessage v = validated.poll();
+			if (v == null) break;
+			batch.add(v);
+		}
+		if (!batch.isEmpty()) storeMessageContexts(batch);
+		if (!validated.isEmpty() && !storeScheduled.getAndSet(true))
+			dbExecutor.execute(this::storeNextBatch);
+	}
+
+	/**
+	 * Stores the contexts of the given messages in a single transaction. If
+	 * the transaction fails, each message is retried in its own transaction.
+	 */
+	@DatabaseExecutor
+	private void storeMessageContexts(List<ValidatedMessage> batch) {
 		try {
-			MessageId id = m.getId();
 			Queue<MessageId> invalidate = new LinkedList<>();
 			Queue<MessageId> pending = new LinkedList<>();
 			Queue<MessageId> toShare = new LinkedList<>();
 			db.transaction(false, txn -> {
-				boolean anyInvalid = false, allDelivered = true;
-				// Check if message has any dependencies
-				Collection<MessageId> dependencies = context.getDependencies();
-				if (!dependencies.isEmpty()) {
-					db.addMessageDependencies(txn, m, dependencies);
-					// Check if dependencies are valid and delivered
-					Map<MessageId, MessageState> states =
-							db.getMessageDependencies(txn, id);
-					for (Entry<MessageId, MessageState> e : states.entrySet()) {
-						if (e.getValue() == INVALID) anyInvalid = true;
-						if (e.getValue() != DELIVERED) allDelivered = false;
-					}
-				}
-				if (anyInvalid) {
-					if (db.getMessageState(txn, id) != INVALID) {
-						invalidateMessage(txn, id);
-						addDependentsToInvalidate(txn, id, invalidate);
-					}
-				} else {
-					Metadata meta = context.getMetadata();
-					db.mergeMessageMetadata(txn, id, meta);
-					if (allDelivered) {
-						DeliveryAction action =
-								deliverMessage(txn, m, c, majorVersion, meta);
-						if (action == REJECT) {
-							invalidateMessage(txn, id);
-							addDependentsToInvalidate(txn, id, invalidate);
-						} else if (action == DEFER) {
-							db.setMessageState(txn, id, PENDING);
-						} else if (action == ACCEPT_SHARE) {
-							db.setMessageState(txn, id, DELIVERED);
-							addPendingDependents(txn, id, pending);
-							db.setMessageShared(txn, id);
-							toShare.addAll(dependencies);
-						} else if (action == ACCEPT_DO_NOT_SHARE) {
-							db.setMessageState(txn, id, DELIVERED);
-							addPendingDependents(txn, id, pending);
-						}
-					} else {
-						db.setMessageState(txn, id, PENDING);
-					}
+				for (ValidatedMessage v : batch) {
+					storeMessageContext(txn, v, invalidate, pending, toShare);
 				}
 			});
 			if (!invalidate.isEmpty()) invalidateNextMessageAsync(invalidate);
 			if (!pending.isEmpty()) deliverNextPendingMessageAsync(pending);
 			if (!toShare.isEmpty()) shareNextMessageAsync(toShare);
-		} catch (NoSuchMessageException e) {
-			LOG.info("Message removed during validation");
-		} catch (NoSuchGroupException e) {
-			LOG.info("Group removed during validation");
 		} catch (DbException e) {
-			logException(LOG, WARNING, e);
+			if (batch.size() > 1) {
+				for (ValidatedMessage v : batch)
+					storeMessageContexts(singletonList(v));
+			} else if (e instanceof NoSuchMessageException) {
+				LOG.info("Message removed during validation");
+			} else if (e instanceof NoSuchGroupException) {
+				LOG.info("Group removed during validation");
+			} else {
+				logException(LOG, WARNING, e);
+			}
+		}
+	}
+
+	@DatabaseExecutor
+	private void storeMessageContext(Transaction txn, ValidatedMessage v,
+			Queue<MessageId> invalidate, Queue<MessageId> pending,
+			Queue<MessageId> toShare) throws DbException {
+		Message m = v.message;
+		MessageId id = m.getId();
+		MessageContext context = v.context;
+		boolean anyInvalid = false, allDelivered = true;
+		// Check if message has any dependencies
+		Collection<MessageId> dependencies = context.getDependencies();
+		if (!dependencies.isEmpty()) {
+			db.addMessageDependencies(txn, m, dependencies);
+			// Check if dependencies are valid and delivered
+			Map<MessageId, MessageState> states =
+					db.getMessageDependencies(txn, id);
+			for (Entry<MessageId, MessageState> e : states.entrySet()) {
+				if (e.getValue() == INVALID) anyInvalid = true;
+				if (e.getValue() != DELIVERED) allDelivered = false;
+			}
+		}
+		if (anyInvalid) {
+			if (db.getMessageState(txn, id) != INVALID) {
+				invalidateMessage(txn, id);
+				addDependentsToInvalidate(txn, id, invalidate);
+			}
+		} else {
+			Metadata meta = context.getMetadata();
+			db.mergeMessageMetadata(txn, id, meta);
+			if (allDelivered) {
+				DeliveryAction action = deliverMessage(txn, m, v.clientId,
+						v.majorVersion, meta);
+				if (action == REJECT) {
+					invalidateMessage(txn, id);
+					addDependentsToInvalidate(txn, id, invalidate);
+				} else if (action == DEFER) {
+					db.setMessageState(txn, id, PENDING);
+				} else if (action == ACCEPT_SHARE) {
+					db.setMessageState(txn, id, DELIVERED);
+					addPendingDependents(txn, id, pending);
+					db.setMessageShared(txn, id);
+					toShare.addAll(dependencies);
+				} else if (action == ACCEPT_DO_NOT_SHARE) {
+					db.setMessageState(txn, id, DELIVERED);
+					addPendingDependents(txn, id, pending);
+				}
+			} else {
+				db.setMessageState(txn, id, PENDING);
+			}
 		}
 	}
 
@@ -464,4 +604,20 @@ class ValidationManagerImpl implements ValidationManager, Service,
 			logException(LOG, WARNING, e);
 		}
 	}
+
+	private static class ValidatedMessage {
+
+		private final Message message;
+		private final ClientId clientId;
+		private final int majorVersion;
+		private final MessageContext context;
+
+		private ValidatedMessage(Message message, ClientId clientId,
+				int majorVersion, MessageContext context) {
+			this.message = message;
+			this.clientId = clientId;
+			this.majorVersion = majorVersion;
+			this.context = context;
+		}
+	}
 }
@@ -2,12 +2,18 @@ package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.transport.IncomingKeys;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Arrays;
+import java.util.List;
+
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
+import static java.util.Arrays.asList;
+
 @NotThreadSafe
 @NotNullByDefault
 class MutableTransportKeys {
@@ -34,6 +40,38 @@ class MutableTransportKeys {
 		}
 	}
 
+	/**
+	 * Creates mutable state for the given keys, reusing the mutable state of
+	 * any incoming keys from the given mutable keys that have the same time
+	 * period and tag key, so that their reordering windows and the tags
+	 * derived from them remain valid.
+	 */
+	MutableTransportKeys(TransportKeys k, MutableTransportKeys old) {
+		transportId = k.getTransportId();
+		inPrev = reuseOrCreate(k.getPreviousIncomingKeys(), old);
+		inCurr = reuseOrCreate(k.getCurrentIncomingKeys(), old);
+		inNext = reuseOrCreate(k.getNextIncomingKeys(), old);
+		outCurr = new MutableOutgoingKeys(k.getCurrentOutgoingKeys());
+		if (k.isHandshakeMode()) {
+			rootKey = k.getRootKey();
+			alice = k.isAlice();
+		} else {
+			rootKey = null;
+			alice = false;
+		}
+	}
+
+	private static MutableIncomingKeys reuseOrCreate(IncomingKeys in,
+			MutableTransportKeys old) {
+		for (MutableIncomingKeys m : old.getIncomingKeys()) {
+			if (m.getTimePeriod() == in.getTimePeriod() && Arrays.equals(
+					m.getTagKey().getBytes(), in.getTagKey().getBytes())) {
+				return m;
+			}
+		}
+		return new MutableIncomingKeys(in);
+	}
+
 	TransportKeys snapshot() {
 		if (rootKey == null) {
 			return new TransportKeys(transportId, inPrev.snapshot(),
@@ -61,6 +99,13 @@ class MutableTransportKeys {
 		return inNext;
 	}
 
+	/**
+	 * Returns the previous, current and next incoming keys.
+	 */
+	List<MutableIncomingKeys> getIncomingKeys() {
+		return asList(inPrev, inCurr, inNext);
+	}
+
 	MutableOutgoingKeys getCurrentOutgoingKeys() {
 		return outCurr;
 	}
@@ -28,6 +28,13 @@ class StreamReaderFactoryImpl implements StreamReaderFactory {
 				.createStreamDecrypter(in, ctx));
 	}
 
+	@Override
+	public InputStream createReadAheadStreamReader(InputStream in,
+			StreamContext ctx) {
+		return new StreamReaderImpl(streamDecrypterFactory
+				.createReadAheadStreamDecrypter(in, ctx));
+	}
+
 	@Override
 	public InputStream createContactExchangeStreamReader(InputStream in,
 			SecretKey headerKey) {
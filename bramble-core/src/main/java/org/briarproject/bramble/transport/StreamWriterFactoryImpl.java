@@ -30,6 +30,13 @@ class StreamWriterFactoryImpl implements StreamWriterFactory {
 				.createStreamEncrypter(out, ctx));
 	}
 
+	@Override
+	public StreamWriter createPipelinedStreamWriter(OutputStream out,
+			StreamContext ctx) {
+		return new StreamWriterImpl(streamEncrypterFactory
+				.createPipelinedStreamEncrypter(out, ctx));
+	}
+
 	@Override
 	public StreamWriter createContactExchangeStreamWriter(OutputStream out,
 			SecretKey headerKey) {
@@ -0,0 +1,196 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
+import static org.briarproject.bramble.util.ByteUtils.readUint64;
+
+/**
+ * An open addressing hash table that maps tags to stream numbers and
+ * context objects, which are usually shared by many tags.
+ * <p>
+ * The tags and stream numbers are stored in flat primitive arrays, so each
+ * entry costs a few tens of bytes rather than the several hundred bytes
+ * used by a {@link java.util.HashMap} with a key object for each tag, and
+ * looking up a tag doesn't allocate any objects.
+ * <p>
+ * Entries are addressed by slot numbers, which remain valid until the table
+ * is next modified.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class TagTable<V> {
+
+	private static final int MIN_CAPACITY = 16;
+
+	// Marks a slot from which an entry has been removed
+	private static final Object REMOVED = new Object();
+
+	// The tags, as pairs of longs
+	private long[] tags;
+	// The stream numbers, as unsigned 32-bit integers
+	private int[] streamNumbers;
+	// The context objects, or null for empty slots
+	private Object[] values;
+	// The number of entries, and the number of non-empty slots, including
+	// slots from which entries have been removed
+	private int size = 0, used = 0;
+
+	TagTable() {
+		allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		tags = new long[capacity * 2];
+		streamNumbers = new int[capacity];
+		values = new Object[capacity];
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of slots in the table, which is an upper bound for
+	 * slot numbers.
+	 */
+	int getCapacity() {
+		return values.length;
+	}
+
+	/**
+	 * Returns the slot containing the given tag, or -1 if the tag is not in
+	 * the table.
+	 */
+	int find(byte[] tag) {
+		long hi = readUint64(tag, 0), lo = readUint64(tag, 8);
+		int mask = values.length - 1;
+		// There's always at least one empty slot, so the loop terminates
+		for (int i = hash(lo) & mask; ; i = (i + 1) & mask) {
+			Object v = values[i];
+			if (v == null) return -1;
+			if (v != REMOVED && tags[i * 2] == hi && tags[i * 2 + 1] == lo)
+				return i;
+		}
+	}
+
+	/**
+	 * Returns the context object in the given slot, or null if the slot is
+	 * empty.
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	V getValue(int slot) {
+		Object v = values[slot];
+		return v == REMOVED ? null : (V) v;
+	}
+
+	/**
+	 * Returns the stream number in the given slot, which must not be empty.
+	 */
+	long getStreamNumber(int slot) {
+		return streamNumbers[slot] & MAX_32_BIT_UNSIGNED;
+	}
+
+	/**
+	 * Adds the given tag to the table, replacing any existing entry for the
+	 * tag.
+	 */
+	void put(byte[] tag, V value, long streamNumber) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		put(readUint64(tag, 0), readUint64(tag, 8), value, streamNumber);
+	}
+
+	private void put(long hi, long lo, Object value, long streamNumber) {
+		if (streamNumber < 0 || streamNumber > MAX_32_BIT_UNSIGNED)
+			throw new IllegalArgumentException();
+		int mask = values.length - 1;
+		int free = -1;
+		for (int i = hash(lo) & mask; ; i = (i + 1) & mask) {
+			Object v = values[i];
+			if (v == null) {
+				if (free == -1) {
+					free = i;
+					used++;
+				}
+				break;
+			}
+			if (v == REMOVED) {
+				if (free == -1) free = i;
+			} else if (tags[i * 2] == hi && tags[i * 2 + 1] == lo) {
+				// Replace the existing entry
+				streamNumbers[i] = (int) streamNumber;
+				values[i] = value;
+				return;
+			}
+		}
+		tags[free * 2] = hi;
+		tags[free * 2 + 1] = lo;
+		streamNumbers[free] = (int) streamNumber;
+		values[free] = value;
+		size++;
+		// Keep the load factor at or below 1/2
+		if (used * 2 > values.length) rehash();
+	}
+
+	/**
+	 * Adds all the entries in the given table to this table.
+	 */
+	void putAll(TagTable<V> other) {
+		for (int i = 0; i < other.values.length; i++) {
+			Object v = other.values[i];
+			if (v == null || v == REMOVED) continue;
+			put(other.tags[i * 2], other.tags[i * 2 + 1], v,
+					other.getStreamNumber(i));
+		}
+	}
+
+	/**
+	 * Removes the given tag from the table, if it's present.
+	 */
+	void remove(byte[] tag) {
+		int slot = find(tag);
+		if (slot != -1) removeAt(slot);
+	}
+
+	/**
+	 * Removes the entry in the given slot. Other slot numbers remain valid.
+	 */
+	void removeAt(int slot) {
+		Object v = values[slot];
+		if (v == null || v == REMOVED) throw new IllegalArgumentException();
+		values[slot] = REMOVED;
+		size--;
+	}
+
+	void clear() {
+		allocate(MIN_CAPACITY);
+		size = used = 0;
+	}
+
+	private void rehash() {
+		long[] oldTags = tags;
+		int[] oldStreamNumbers = streamNumbers;
+		Object[] oldValues = values;
+		// Grow the table unless most of the used slots are removed entries
+		int capacity = MIN_CAPACITY;
+		while (capacity < size * 4) capacity *= 2;
+		allocate(capacity);
+		size = used = 0;
+		for (int i = 0; i < oldValues.length; i++) {
+			Object v = oldValues[i];
+			if (v == null || v == REMOVED) continue;
+			put(oldTags[i * 2], oldTags[i * 2 + 1], v,
+					oldStreamNumbers[i] & MAX_32_BIT_UNSIGNED);
+		}
+	}
+
+	private static int hash(long lo) {
+		// Tags are pseudo-random, so their bits are well distributed
+		return (int) (lo ^ (lo >>> 32));
+	}
+}
@@ -1,6 +1,5 @@
 package org.briarproject.bramble.transport;
 
-import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
@@ -21,10 +20,15 @@ import org.briarproject.bramble.transport.ReorderingWindow.Change;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
@@ -43,6 +47,7 @@ import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENG
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
 import static org.briarproject.bramble.util.LogUtils.logException;
 import static org.briarproject.nullsafety.NullSafety.requireExactlyOneNull;
+import static org.briarproject.nullsafety.NullSafety.requireNonNull;
 
 @ThreadSafe
 @NotNullByDefault
@@ -51,9 +56,15 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	private static final Logger LOG =
 			getLogger(TransportKeyManagerImpl.class.getName());
 
+	/**
+	 * The number of key sets for which tags are precomputed by each task
+	 * submitted to the crypto executor.
+	 */
+	private static final int PRECOMPUTATION_BATCH_SIZE = 64;
+
 	private final DatabaseComponent db;
 	private final TransportCrypto transportCrypto;
-	private final Executor dbExecutor;
+	private final Executor dbExecutor, cryptoExecutor;
 	private final TaskScheduler scheduler;
 	private final Clock clock;
 	private final TransportId transportId;
@@ -64,17 +75,22 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	@GuardedBy("lock")
 	private final Map<KeySetId, MutableTransportKeySet> keys = new HashMap<>();
 	@GuardedBy("lock")
-	private final Map<Bytes, TagContext> inContexts = new HashMap<>();
+	private final TagTable<TagContext> inContexts = new TagTable<>();
 	@GuardedBy("lock")
 	private final Map<ContactId, MutableTransportKeySet>
 			contactOutContexts = new HashMap<>();
 	@GuardedBy("lock")
 	private final Map<PendingContactId, MutableTransportKeySet>
 			pendingContactOutContexts = new HashMap<>();
+	// Tags for the incoming keys that will be added at the next key update,
+	// derived in advance on the crypto executor
+	private final Map<KeySetId, PrecomputedTags> precomputedTags =
+			new ConcurrentHashMap<>();
 
 	TransportKeyManagerImpl(DatabaseComponent db,
 			TransportCrypto transportCrypto,
 			Executor dbExecutor,
+			Executor cryptoExecutor,
 			TaskScheduler scheduler,
 			Clock clock,
 			TransportId transportId,
@@ -82,6 +98,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		this.db = db;
 		this.transportCrypto = transportCrypto;
 		this.dbExecutor = dbExecutor;
+		this.cryptoExecutor = cryptoExecutor;
 		this.scheduler = scheduler;
 		this.clock = clock;
 		this.transportId = transportId;
@@ -92,13 +109,14 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	public void start(Transaction txn) throws DbException {
 		if (used.getAndSet(true)) throw new IllegalStateException();
 		long now = clock.currentTimeMillis();
+		UpdateResult updateResult;
 		lock.lock();
 		try {
 			// Load the transport keys from the DB
 			Collection<TransportKeySet> loaded =
 					db.getTransportKeys(txn, transportId);
 			// Update the keys to the current time period
-			UpdateResult updateResult = updateKeys(loaded, now);
+			updateResult = updateKeys(loaded, now);
 			// Initialise mutable state for all contacts
 			addKeys(updateResult.current);
 			// Write any updated keys back to the DB
@@ -109,6 +127,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		}
 		// Schedule the next key update
 		scheduleKeyUpdate(now);
+		precomputeTags(updateResult.current, now);
 	}
 
 	private UpdateResult updateKeys(Collection<TransportKeySet> keys,
@@ -148,27 +167,35 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		MutableTransportKeySet ks = new MutableTransportKeySet(keySetId,
 				contactId, pendingContactId, keys);
 		this.keys.put(keySetId, ks);
-		boolean handshakeMode = keys.isHandshakeMode();
-		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getPreviousIncomingKeys(), handshakeMode);
-		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getCurrentIncomingKeys(), handshakeMode);
-		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getNextIncomingKeys(), handshakeMode);
+		for (MutableIncomingKeys inKeys : keys.getIncomingKeys())
+			encodeTags(ks, inKeys, inContexts);
 		considerReplacingOutgoingKeys(ks);
 	}
 
-	@GuardedBy("lock")
-	private void encodeTags(KeySetId keySetId, @Nullable ContactId contactId,
-			@Nullable PendingContactId pendingContactId,
-			MutableIncomingKeys inKeys, boolean handshakeMode) {
-		for (long streamNumber : inKeys.getWindow().getUnseen()) {
-			TagContext tagCtx = new TagContext(keySetId, contactId,
-					pendingContactId, inKeys, streamNumber, handshakeMode);
-			byte[] tag = new byte[TAG_LENGTH];
+	/**
+	 * Adds tags for the unseen stream numbers of the given incoming keys to
+	 * the given map, using precomputed tags if they're available.
+	 */
+	private void encodeTags(MutableTransportKeySet ks,
+			MutableIncomingKeys inKeys, TagTable<TagContext> tags) {
+		KeySetId keySetId = ks.getKeySetId();
+		// All the tags for the incoming keys share a context
+		TagContext tagCtx = new TagContext(keySetId, ks.getContactId(),
+				ks.getPendingContactId(), inKeys,
+				ks.getKeys().isHandshakeMode());
+		List<Long> unseen = inKeys.getWindow().getUnseen();
+		PrecomputedTags p = precomputedTags.get(keySetId);
+		if (p != null && p.matches(inKeys, unseen)) {
+			precomputedTags.remove(keySetId);
+			for (int i = 0; i < unseen.size(); i++)
+				tags.put(p.tags.get(i), tagCtx, unseen.get(i));
+			return;
+		}
+		byte[] tag = new byte[TAG_LENGTH];
+		for (long streamNumber : unseen) {
 			transportCrypto.encodeTag(tag, inKeys.getTagKey(), PROTOCOL_VERSION,
 					streamNumber);
-			inContexts.put(new Bytes(tag), tagCtx);
+			tags.put(tag, tagCtx, streamNumber);
 		}
 	}
 
@@ -203,6 +230,50 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		scheduler.schedule(this::updateKeys, dbExecutor, delay, MILLISECONDS);
 	}
 
+	/**
+	 * Derives in advance, on the crypto executor, the tags for the incoming
+	 * keys that will be added to the given key sets at the start of the next
+	 * time period.
+	 */
+	private void precomputeTags(Collection<TransportKeySet> current,
+			long now) {
+		precomputedTags.clear();
+		long timePeriod = now / timePeriodLength + 1;
+		List<TransportKeySet> batch = new ArrayList<>();
+		for (TransportKeySet ks : current) {
+			batch.add(ks);
+			if (batch.size() == PRECOMPUTATION_BATCH_SIZE) {
+				precomputeTags(batch, timePeriod);
+				batch = new ArrayList<>();
+			}
+		}
+		if (!batch.isEmpty()) precomputeTags(batch, timePeriod);
+	}
+
+	private void precomputeTags(List<TransportKeySet> batch,
+			long timePeriod) {
+		cryptoExecutor.execute(() -> {
+			for (TransportKeySet ks : batch) {
+				TransportKeys k = ks.getKeys();
+				TransportKeys k1 = transportCrypto.updateTransportKeys(k,
+						timePeriod);
+				if (k1.getTimePeriod() <= k.getTimePeriod()) continue;
+				MutableIncomingKeys inNext =
+						new MutableIncomingKeys(k1.getNextIncomingKeys());
+				List<Long> unseen = inNext.getWindow().getUnseen();
+				List<byte[]> tags = new ArrayList<>(unseen.size());
+				for (long streamNumber : unseen) {
+					byte[] tag = new byte[TAG_LENGTH];
+					transportCrypto.encodeTag(tag, inNext.getTagKey(),
+							PROTOCOL_VERSION, streamNumber);
+					tags.add(tag);
+				}
+				precomputedTags.put(ks.getKeySetId(),
+						new PrecomputedTags(inNext, unseen, tags));
+			}
+		});
+	}
+
 	@DatabaseExecutor
 	@Wakeful
 	private void updateKeys() {
@@ -228,6 +299,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			timePeriod = clock.currentTimeMillis() / timePeriodLength;
 			k = transportCrypto.updateTransportKeys(k, timePeriod);
 			// Write the keys back to the DB
+			txn.setSynchronousCommit();
 			KeySetId keySetId = db.addTransportKeys(txn, c, k);
 			// Initialise mutable state for the keys
 			addKeys(keySetId, c, null, new MutableTransportKeys(k));
@@ -248,6 +320,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			TransportKeys k = transportCrypto.deriveHandshakeKeys(transportId,
 					rootKey, timePeriod, alice);
 			// Write the keys back to the DB
+			txn.setSynchronousCommit();
 			KeySetId keySetId = db.addTransportKeys(txn, c, k);
 			// Initialise mutable state for the keys
 			addKeys(keySetId, c, null, new MutableTransportKeys(k));
@@ -268,6 +341,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			TransportKeys k = transportCrypto.deriveHandshakeKeys(transportId,
 					rootKey, timePeriod, alice);
 			// Write the keys back to the DB
+			txn.setSynchronousCommit();
 			KeySetId keySetId = db.addTransportKeys(txn, p, k);
 			// Initialise mutable state for the keys
 			addKeys(keySetId, null, p, new MutableTransportKeys(k));
@@ -286,6 +360,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			MutableTransportKeys m = ks.getKeys();
 			m.getCurrentOutgoingKeys().activate();
 			considerReplacingOutgoingKeys(ks);
+			txn.setSynchronousCommit();
 			db.setTransportKeysActive(txn, m.getTransportId(), k);
 		} finally {
 			lock.unlock();
@@ -297,13 +372,15 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (c.equals(it.next().contactId)) it.remove();
+			for (int i = 0; i < inContexts.getCapacity(); i++) {
+				TagContext tagCtx = inContexts.getValue(i);
+				if (tagCtx != null && c.equals(tagCtx.contactId))
+					inContexts.removeAt(i);
+			}
 			contactOutContexts.remove(c);
-			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
-			while (it1.hasNext())
-				if (c.equals(it1.next().getContactId())) it1.remove();
+			Iterator<MutableTransportKeySet> it = keys.values().iterator();
+			while (it.hasNext())
+				if (c.equals(it.next().getContactId())) it.remove();
 		} finally {
 			lock.unlock();
 		}
@@ -314,13 +391,15 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the pending contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (p.equals(it.next().pendingContactId)) it.remove();
+			for (int i = 0; i < inContexts.getCapacity(); i++) {
+				TagContext tagCtx = inContexts.getValue(i);
+				if (tagCtx != null && p.equals(tagCtx.pendingContactId))
+					inContexts.removeAt(i);
+			}
 			pendingContactOutContexts.remove(p);
-			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
-			while (it1.hasNext())
-				if (p.equals(it1.next().getPendingContactId())) it1.remove();
+			Iterator<MutableTransportKeySet> it = keys.values().iterator();
+			while (it.hasNext())
+				if (p.equals(it.next().getPendingContactId())) it.remove();
 		} finally {
 			lock.unlock();
 		}
@@ -379,8 +458,11 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			StreamContext ctx = new StreamContext(c, p, transportId,
 					outKeys.getTagKey(), outKeys.getHeaderKey(),
 					outKeys.getStreamCounter(), keys.isHandshakeMode());
-			// Increment the stream counter and write it back to the DB
+			// Increment the stream counter and write it back to the DB. The
+			// counter must reach the disk before the stream is used, so the
+			// stream number can't be reused if the device crashes
 			outKeys.incrementStreamCounter();
+			txn.setSynchronousCommit();
 			db.incrementStreamCounter(txn, transportId, ks.getKeySetId());
 			return ctx;
 		} finally {
@@ -416,44 +498,45 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	@Nullable
 	private StreamContext streamContextFromTag(byte[] tag) {
 		// Look up the incoming keys for the tag
-		TagContext tagCtx = inContexts.get(new Bytes(tag));
-		if (tagCtx == null) return null;
+		int slot = inContexts.find(tag);
+		if (slot == -1) return null;
+		TagContext tagCtx = requireNonNull(inContexts.getValue(slot));
 		MutableIncomingKeys inKeys = tagCtx.inKeys;
 		// Create a stream context
 		return new StreamContext(tagCtx.contactId,
 				tagCtx.pendingContactId, transportId,
 				inKeys.getTagKey(), inKeys.getHeaderKey(),
-				tagCtx.streamNumber, tagCtx.handshakeMode);
+				inContexts.getStreamNumber(slot), tagCtx.handshakeMode);
 	}
 
 	@Override
 	public void markTagAsRecognised(Transaction txn, byte[] tag)
 			throws DbException {
-		TagContext tagCtx = inContexts.remove(new Bytes(tag));
-		if (tagCtx == null) return;
+		int slot = inContexts.find(tag);
+		if (slot == -1) return;
+		TagContext tagCtx = requireNonNull(inContexts.getValue(slot));
+		long seen = inContexts.getStreamNumber(slot);
+		inContexts.removeAt(slot);
 		MutableIncomingKeys inKeys = tagCtx.inKeys;
 		// Update the reordering window
 		ReorderingWindow window = inKeys.getWindow();
-		Change change = window.setSeen(tagCtx.streamNumber);
+		Change change = window.setSeen(seen);
 		// Add tags for any stream numbers added to the window
+		byte[] changeTag = new byte[TAG_LENGTH];
 		for (long streamNumber : change.getAdded()) {
-			byte[] addTag = new byte[TAG_LENGTH];
-			transportCrypto.encodeTag(addTag, inKeys.getTagKey(),
+			transportCrypto.encodeTag(changeTag, inKeys.getTagKey(),
 					PROTOCOL_VERSION, streamNumber);
-			TagContext tagCtx1 = new TagContext(tagCtx.keySetId,
-					tagCtx.contactId, tagCtx.pendingContactId, inKeys,
-					streamNumber, tagCtx.handshakeMode);
-			inContexts.put(new Bytes(addTag), tagCtx1);
+			inContexts.put(changeTag, tagCtx, streamNumber);
 		}
 		// Remove tags for any stream numbers removed from the window
 		for (long streamNumber : change.getRemoved()) {
-			if (streamNumber == tagCtx.streamNumber) continue;
-			byte[] removeTag = new byte[TAG_LENGTH];
-			transportCrypto.encodeTag(removeTag, inKeys.getTagKey(),
+			if (streamNumber == seen) continue;
+			transportCrypto.encodeTag(changeTag, inKeys.getTagKey(),
 					PROTOCOL_VERSION, streamNumber);
-			inContexts.remove(new Bytes(removeTag));
+			inContexts.remove(changeTag);
 		}
 		// Write the window back to the DB
+		txn.setSynchronousCommit();
 		db.setReorderingWindow(txn, tagCtx.keySetId, transportId,
 				inKeys.getTimePeriod(), window.getBase(),
 				window.getBitmap());
@@ -465,6 +548,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 			LOG.info("Activating outgoing keys");
 			outKeys.activate();
 			considerReplacingOutgoingKeys(ks);
+			txn.setSynchronousCommit();
 			db.setTransportKeysActive(txn, transportId, tagCtx.keySetId);
 		}
 	}
@@ -473,32 +557,80 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	@Wakeful
 	private void updateKeys(Transaction txn) throws DbException {
 		long now = clock.currentTimeMillis();
+		// Take a snapshot of the keys. Changing the keys or looking up a
+		// tag requires a read-write transaction, so neither can happen
+		// until this transaction finishes
+		Map<KeySetId, MutableTransportKeySet> old;
+		Collection<TransportKeySet> snapshot;
 		lock.lock();
 		try {
-			// Update the keys to the current time period
-			Collection<TransportKeySet> snapshot = new ArrayList<>(keys.size());
+			old = new HashMap<>(keys);
+			snapshot = new ArrayList<>(keys.size());
 			for (MutableTransportKeySet ks : keys.values()) {
 				snapshot.add(new TransportKeySet(ks.getKeySetId(),
 						ks.getContactId(), ks.getPendingContactId(),
 						ks.getKeys().snapshot()));
 			}
-			UpdateResult updateResult = updateKeys(snapshot, now);
-			// Rebuild the mutable state for all contacts
-			inContexts.clear();
+		} finally {
+			lock.unlock();
+		}
+		// Update the keys to the current time period. Incoming keys that are
+		// retained keep their mutable state and tags, so tags only need to
+		// be derived for new incoming keys, and usually have been already
+		UpdateResult updateResult = updateKeys(snapshot, now);
+		List<MutableTransportKeySet> updated =
+				new ArrayList<>(updateResult.updated.size());
+		Set<MutableIncomingKeys> expired = new HashSet<>();
+		TagTable<TagContext> added = new TagTable<>();
+		for (TransportKeySet ks : updateResult.updated) {
+			MutableTransportKeys oldKeys =
+					requireNonNull(old.get(ks.getKeySetId())).getKeys();
+			MutableTransportKeys newKeys =
+					new MutableTransportKeys(ks.getKeys(), oldKeys);
+			MutableTransportKeySet ks1 = new MutableTransportKeySet(
+					ks.getKeySetId(), ks.getContactId(),
+					ks.getPendingContactId(), newKeys);
+			List<MutableIncomingKeys> oldIn = oldKeys.getIncomingKeys();
+			List<MutableIncomingKeys> newIn = newKeys.getIncomingKeys();
+			for (MutableIncomingKeys inKeys : oldIn) {
+				if (!newIn.contains(inKeys)) expired.add(inKeys);
+			}
+			for (MutableIncomingKeys inKeys : newIn) {
+				if (!oldIn.contains(inKeys)) encodeTags(ks1, inKeys, added);
+			}
+			updated.add(ks1);
+		}
+		// Swap in the updated keys and tags
+		lock.lock();
+		try {
+			for (MutableTransportKeySet ks : updated)
+				keys.put(ks.getKeySetId(), ks);
+			if (!expired.isEmpty()) {
+				for (int i = 0; i < inContexts.getCapacity(); i++) {
+					TagContext tagCtx = inContexts.getValue(i);
+					if (tagCtx != null && expired.contains(tagCtx.inKeys))
+						inContexts.removeAt(i);
+				}
+			}
+			inContexts.putAll(added);
 			contactOutContexts.clear();
 			pendingContactOutContexts.clear();
-			keys.clear();
-			addKeys(updateResult.current);
-			// Write any updated keys back to the DB
-			if (!updateResult.updated.isEmpty())
-				db.updateTransportKeys(txn, updateResult.updated);
+			for (MutableTransportKeySet ks : keys.values())
+				considerReplacingOutgoingKeys(ks);
 		} finally {
 			lock.unlock();
 		}
+		// Write any updated keys back to the DB
+		if (!updateResult.updated.isEmpty())
+			db.updateTransportKeys(txn, updateResult.updated);
 		// Schedule the next key update
 		scheduleKeyUpdate(now);
+		precomputeTags(updateResult.current, now);
 	}
 
+	/**
+	 * The context shared by all the tags derived from a set of incoming keys.
+	 */
 	private static class TagContext {
 
 		private final KeySetId keySetId;
@@ -507,23 +639,44 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		@Nullable
 		private final PendingContactId pendingContactId;
 		private final MutableIncomingKeys inKeys;
-		private final long streamNumber;
 		private final boolean handshakeMode;
 
 		private TagContext(KeySetId keySetId, @Nullable ContactId contactId,
 				@Nullable PendingContactId pendingContactId,
-				MutableIncomingKeys inKeys, long streamNumber,
-				boolean handshakeMode) {
+				MutableIncomingKeys inKeys, boolean handshakeMode) {
 			requireExactlyOneNull(contactId, pendingContactId);
 			this.keySetId = keySetId;
 			this.contactId = contactId;
 			this.pendingContactId = pendingContactId;
 			this.inKeys = inKeys;
-			this.streamNumber = streamNumber;
 			this.handshakeMode = handshakeMode;
 		}
 	}
 
+	private static class PrecomputedTags {
+
+		private final long timePeriod;
+		private final SecretKey tagKey;
+		private final List<Long> streamNumbers;
+		private final List<byte[]> tags;
+
+		private PrecomputedTags(MutableIncomingKeys inKeys,
+				List<Long> streamNumbers, List<byte[]> tags) {
+			timePeriod = inKeys.getTimePeriod();
+			tagKey = inKeys.getTagKey();
+			this.streamNumbers = streamNumbers;
+			this.tags = tags;
+		}
+
+		private boolean matches(MutableIncomingKeys inKeys,
+				List<Long> unseen) {
+			return inKeys.getTimePeriod() == timePeriod &&
+					Arrays.equals(inKeys.getTagKey().getBytes(),
+							tagKey.getBytes()) &&
+					streamNumbers.equals(unseen);
+		}
+	}
+
 	private static class UpdateResult {
 
 		private final Collection<TransportKeySet> current = new ArrayList<>();
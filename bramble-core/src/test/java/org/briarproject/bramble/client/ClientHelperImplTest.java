@@ -96,7 +96,8 @@ public class ClientHelperImplTest extends BrambleMockTestCase {
 
 	private final ClientHelper clientHelper = new ClientHelperImpl(db,
 			messageFactory, bdfReaderFactory, bdfWriterFactory, metadataParser,
-			metadataEncoder, cryptoComponent, authorFactory);
+			metadataEncoder, cryptoComponent, authorFactory,
+			new ContactGroupCache(db));
 
 	private final MailboxUpdateWithMailbox validMailboxUpdateWithMailbox;
 	private final BdfList emptyClientSupports;
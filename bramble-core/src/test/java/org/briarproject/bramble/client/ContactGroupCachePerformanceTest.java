@@ -0,0 +1,239 @@
+package org.briarproject.bramble.client;
+
+import org.briarproject.bramble.BrambleCoreIntegrationTestEagerSingletons;
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.identity.Identity;
+import org.briarproject.bramble.api.identity.IdentityManager;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfigModule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.OFF;
+import static org.briarproject.bramble.api.client.ContactGroupConstants.GROUP_KEY_CONTACT_ID;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the mean latency of looking up a contact's group for a client
+ * by deriving it from the group descriptor (before) and from the
+ * {@link ContactGroupCache} (after), and of looking up the contact to which
+ * a contact group belongs by loading the group's metadata (before) and from
+ * the cache (after).
+ */
+@Ignore
+public class ContactGroupCachePerformanceTest extends BrambleTestCase {
+
+	private static final int CONTACTS = 1000;
+	private static final int CLIENTS = 10;
+	private static final int MAJOR_VERSION = 0;
+	private static final int WARMUP_LOOKUPS = 100_000;
+	private static final int GROUP_LOOKUPS = 1_000_000;
+	private static final int CONTACT_LOOKUPS = 100_000;
+
+	private final File testDir = getTestDirectory();
+	private final File resultsFile = new File(getTestName() + ".tsv");
+	private final Random random = new Random();
+	private final List<ClientId> clients = new ArrayList<>();
+	private final List<Contact> contacts = new ArrayList<>();
+	private final List<GroupId> groups = new ArrayList<>();
+
+	private ContactGroupCachePerformanceTestComponent component;
+	private DatabaseComponent db;
+	private ClientHelper clientHelper;
+	private ContactGroupFactory contactGroupFactory;
+
+	public ContactGroupCachePerformanceTest() {
+		// Disable logging
+		Logger.getLogger("").setLevel(OFF);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		assertTrue(testDir.mkdirs());
+		component = DaggerContactGroupCachePerformanceTestComponent.builder()
+				.testDatabaseConfigModule(
+						new TestDatabaseConfigModule(testDir)).build();
+		BrambleCoreIntegrationTestEagerSingletons.Helper
+				.injectEagerSingletons(component);
+		IdentityManager identityManager = component.getIdentityManager();
+		Identity identity = identityManager.createIdentity("Alice");
+		identityManager.registerIdentity(identity);
+		LifecycleManager lifecycleManager = component.getLifecycleManager();
+		lifecycleManager.startServices(getSecretKey());
+		lifecycleManager.waitForStartup();
+		db = component.getDatabaseComponent();
+		clientHelper = component.getClientHelper();
+		contactGroupFactory = component.getContactGroupFactory();
+		for (int i = 0; i < CLIENTS; i++) clients.add(getClientId());
+		// Add the contacts and their groups, attaching the contact ID to
+		// each group in the same way as the clients do
+		db.transaction(false, txn -> {
+			for (int i = 0; i < CONTACTS; i++) {
+				ContactId c = db.addContact(txn, getAuthor(),
+						identity.getId(), null, true);
+				contacts.add(db.getContact(txn, c));
+			}
+		});
+		db.transaction(false, txn -> {
+			for (Contact c : contacts) {
+				for (ClientId clientId : clients) {
+					Group g = contactGroupFactory.createContactGroup(clientId,
+							MAJOR_VERSION, c.getLocalAuthorId(),
+							c.getAuthor().getId());
+					db.addGroup(txn, g);
+					clientHelper.setContactId(txn, g.getId(), c.getId());
+					groups.add(g.getId());
+				}
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		LifecycleManager lifecycleManager = component.getLifecycleManager();
+		lifecycleManager.stopServices();
+		lifecycleManager.waitForShutdown();
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testLookupLatency() throws Exception {
+		long deriveGroup = measureDeriveGroup();
+		long cachedGroup = measureCachedGroup();
+		long loadContact = measureLoadContactId();
+		long cachedContact = measureCachedContactId();
+		String result = String.format(
+				"%,d contacts\t%,d clients\t%,d\t%,d\t%,d\t%,d", CONTACTS,
+				CLIENTS, deriveGroup, cachedGroup, loadContact, cachedContact);
+		writeResult(result);
+	}
+
+	/**
+	 * Returns the mean latency in nanoseconds of deriving a contact group
+	 * without the cache.
+	 */
+	private long measureDeriveGroup() {
+		for (int i = 0; i < WARMUP_LOOKUPS; i++) deriveRandomGroup();
+		long start = System.nanoTime();
+		for (int i = 0; i < GROUP_LOOKUPS; i++) deriveRandomGroup();
+		return (System.nanoTime() - start) / GROUP_LOOKUPS;
+	}
+
+	private void deriveRandomGroup() {
+		Contact c = contacts.get(random.nextInt(CONTACTS));
+		ClientId clientId = clients.get(random.nextInt(CLIENTS));
+		contactGroupFactory.createContactGroup(clientId, MAJOR_VERSION,
+				c.getLocalAuthorId(), c.getAuthor().getId());
+	}
+
+	/**
+	 * Returns the mean latency in nanoseconds of looking up a contact group
+	 * that has already been cached.
+	 */
+	private long measureCachedGroup() {
+		// Fill the cache
+		for (Contact c : contacts) {
+			for (ClientId clientId : clients) {
+				contactGroupFactory.createContactGroup(clientId,
+						MAJOR_VERSION, c);
+			}
+		}
+		for (int i = 0; i < WARMUP_LOOKUPS; i++) getRandomGroup();
+		long start = System.nanoTime();
+		for (int i = 0; i < GROUP_LOOKUPS; i++) getRandomGroup();
+		return (System.nanoTime() - start) / GROUP_LOOKUPS;
+	}
+
+	private void getRandomGroup() {
+		Contact c = contacts.get(random.nextInt(CONTACTS));
+		ClientId clientId = clients.get(random.nextInt(CLIENTS));
+		contactGroupFactory.createContactGroup(clientId, MAJOR_VERSION, c);
+	}
+
+	/**
+	 * Returns the mean latency in nanoseconds of loading the contact ID
+	 * from a contact group's metadata, as happens when the group isn't
+	 * cached.
+	 */
+	private long measureLoadContactId() throws Exception {
+		return db.transactionWithResult(true, txn -> {
+			for (int i = 0; i < WARMUP_LOOKUPS; i++) {
+				GroupId g = groups.get(random.nextInt(groups.size()));
+				clientHelper.getGroupMetadataAsDictionary(txn, g)
+						.getInt(GROUP_KEY_CONTACT_ID);
+			}
+			long start = System.nanoTime();
+			for (int i = 0; i < CONTACT_LOOKUPS; i++) {
+				GroupId g = groups.get(random.nextInt(groups.size()));
+				clientHelper.getGroupMetadataAsDictionary(txn, g)
+						.getInt(GROUP_KEY_CONTACT_ID);
+			}
+			return (System.nanoTime() - start) / CONTACT_LOOKUPS;
+		});
+	}
+
+	/**
+	 * Returns the mean latency in nanoseconds of looking up the contact ID
+	 * of a contact group that has already been cached.
+	 */
+	private long measureCachedContactId() throws Exception {
+		// The cache was filled by measureCachedGroup()
+		return db.transactionWithResult(true, txn -> {
+			for (int i = 0; i < WARMUP_LOOKUPS; i++) {
+				GroupId g = groups.get(random.nextInt(groups.size()));
+				clientHelper.getContactId(txn, g);
+			}
+			long start = System.nanoTime();
+			for (int i = 0; i < CONTACT_LOOKUPS; i++) {
+				GroupId g = groups.get(random.nextInt(groups.size()));
+				clientHelper.getContactId(txn, g);
+			}
+			long duration = System.nanoTime() - start;
+			// Check that the cache returns the same contacts as the metadata
+			for (int i = 0; i < CONTACTS; i++) {
+				GroupId g = groups.get(i * CLIENTS);
+				assertEquals(contacts.get(i).getId(),
+						clientHelper.getContactId(txn, g));
+			}
+			return duration / CONTACT_LOOKUPS;
+		});
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
@@ -0,0 +1,41 @@
+package org.briarproject.bramble.client;
+
+import org.briarproject.bramble.BrambleCoreIntegrationTestEagerSingletons;
+import org.briarproject.bramble.BrambleCoreModule;
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.identity.IdentityManager;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.mailbox.ModularMailboxModule;
+import org.briarproject.bramble.test.BrambleCoreIntegrationTestModule;
+import org.briarproject.bramble.test.TestDnsModule;
+import org.briarproject.bramble.test.TestPluginConfigModule;
+import org.briarproject.bramble.test.TestSocksModule;
+
+import javax.inject.Singleton;
+
+import dagger.Component;
+
+@Singleton
+@Component(modules = {
+		BrambleCoreIntegrationTestModule.class,
+		BrambleCoreModule.class,
+		ModularMailboxModule.class,
+		TestDnsModule.class,
+		TestSocksModule.class,
+		TestPluginConfigModule.class,
+})
+interface ContactGroupCachePerformanceTestComponent extends
+		BrambleCoreIntegrationTestEagerSingletons {
+
+	ClientHelper getClientHelper();
+
+	ContactGroupFactory getContactGroupFactory();
+
+	DatabaseComponent getDatabaseComponent();
+
+	IdentityManager getIdentityManager();
+
+	LifecycleManager getLifecycleManager();
+}
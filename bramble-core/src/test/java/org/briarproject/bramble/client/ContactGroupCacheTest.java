@@ -0,0 +1,116 @@
+package org.briarproject.bramble.client;
+
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.util.Collection;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getContact;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ContactGroupCacheTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+
+	private final ContactGroupCache cache = new ContactGroupCache(db);
+	private final ClientId clientId = getClientId();
+	private final int majorVersion = 123;
+	private final Contact contact = getContact();
+	private final ContactId contactId = contact.getId();
+	private final Contact contact1 = getContact();
+	private final ContactId contactId1 = contact1.getId();
+	private final Group group = getGroup(clientId, majorVersion);
+	private final Group group1 = getGroup(clientId, majorVersion);
+
+	@Test
+	public void testReturnsCachedGroupAndContact() {
+		assertNull(cache.getContactGroup(clientId, majorVersion, contactId));
+		assertNull(cache.getContactId(group.getId()));
+
+		cache.addContactGroup(clientId, majorVersion, contactId, group);
+		assertSame(group,
+				cache.getContactGroup(clientId, majorVersion, contactId));
+		assertEquals(contactId, cache.getContactId(group.getId()));
+
+		// Other clients, versions and contacts should not hit the cache
+		assertNull(cache.getContactGroup(getClientId(), majorVersion,
+				contactId));
+		assertNull(cache.getContactGroup(clientId, majorVersion + 1,
+				contactId));
+		assertNull(cache.getContactGroup(clientId, majorVersion,
+				contactId1));
+	}
+
+	@Test
+	public void testLoadsContactsWhenDatabaseIsOpened() throws Exception {
+		Transaction txn = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			oneOf(db).getContacts(txn);
+			will(returnValue(asList(contact, contact1)));
+		}});
+
+		cache.onDatabaseOpened(txn);
+		Collection<Contact> contacts = cache.getContacts();
+		assertEquals(2, contacts.size());
+		assertTrue(contacts.contains(contact));
+		assertTrue(contacts.contains(contact1));
+
+		// Only the first use of each client should be reported
+		assertTrue(cache.addClient(clientId, majorVersion));
+		assertFalse(cache.addClient(clientId, majorVersion));
+		assertTrue(cache.addClient(clientId, majorVersion + 1));
+	}
+
+	@Test
+	public void testRemovesEntriesWhenContactIsRemoved() throws Exception {
+		Transaction txn = new Transaction(null, false);
+
+		cache.addingContact(txn, contact);
+		cache.addingContact(txn, contact1);
+		cache.addContactGroup(clientId, majorVersion, contactId, group);
+		cache.addContactGroup(clientId, majorVersion, contactId1, group1);
+
+		cache.removingContact(txn, contact);
+
+		// The entries for the removed contact should be gone
+		assertNull(cache.getContactGroup(clientId, majorVersion, contactId));
+		assertNull(cache.getContactId(group.getId()));
+		assertEquals(singletonList(contact1), cache.getContacts());
+		// The entries for the other contact should remain
+		assertSame(group1,
+				cache.getContactGroup(clientId, majorVersion, contactId1));
+		assertEquals(contactId1, cache.getContactId(group1.getId()));
+	}
+
+	@Test
+	public void testDoesNotCacheGroupsForRemovedContact() throws Exception {
+		Transaction txn = new Transaction(null, false);
+
+		cache.addingContact(txn, contact);
+		cache.removingContact(txn, contact);
+
+		// A task racing with the removal should not be able to add entries
+		// for the removed contact, or add the contact back
+		cache.addContactGroup(clientId, majorVersion, contactId, group);
+		cache.addingContact(txn, contact);
+		assertNull(cache.getContactGroup(clientId, majorVersion, contactId));
+		assertNull(cache.getContactId(group.getId()));
+		assertTrue(cache.getContacts().isEmpty());
+	}
+}
@@ -0,0 +1,114 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.briarproject.bramble.crypto.PipelinedOutputStream.BUFFER_LENGTH;
+import static org.briarproject.bramble.crypto.PipelinedOutputStream.RING_SIZE;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelinedOutputStreamTest extends BrambleTestCase {
+
+	private final ExecutorService ioExecutor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		ioExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testDataIsWrittenInOrder() throws Exception {
+		FlushCountingOutputStream out = new FlushCountingOutputStream();
+		PipelinedOutputStream p = new PipelinedOutputStream(out, ioExecutor);
+		// Write enough data to fill the ring several times over, in chunks
+		// that are smaller and larger than the buffers
+		byte[] data = getRandomBytes(RING_SIZE * BUFFER_LENGTH * 4);
+		Random random = new Random();
+		int off = 0;
+		while (off < data.length) {
+			int len = Math.min(data.length - off,
+					random.nextInt(BUFFER_LENGTH * 3));
+			p.write(data, off, len);
+			off += len;
+		}
+		p.flush();
+		// All the data should have been written before the stream was flushed
+		assertEquals(1, out.flushes);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test
+	public void testWriteErrorIsThrownByFlush() throws Exception {
+		OutputStream out = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException();
+			}
+		};
+		PipelinedOutputStream p = new PipelinedOutputStream(out, ioExecutor);
+		p.write(getRandomBytes(BUFFER_LENGTH));
+		try {
+			p.flush();
+			fail();
+		} catch (IOException expected) {
+			// Expected
+		}
+		// Further writes should also fail
+		try {
+			p.write(getRandomBytes(BUFFER_LENGTH));
+			p.flush();
+			fail();
+		} catch (IOException expected) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testRuntimeExceptionIsThrownByFlush() throws Exception {
+		OutputStream out = new OutputStream() {
+			@Override
+			public void write(int b) {
+				throw new IllegalStateException();
+			}
+		};
+		// Run the background task on the calling thread, swallowing the
+		// exception that it rethrows
+		PipelinedOutputStream p = new PipelinedOutputStream(out, r -> {
+			try {
+				r.run();
+			} catch (IllegalStateException expected) {
+				// Expected
+			}
+		});
+		p.write(getRandomBytes(BUFFER_LENGTH));
+		try {
+			p.flush();
+			fail();
+		} catch (IOException expected) {
+			assertTrue(expected.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	private static class FlushCountingOutputStream
+			extends ByteArrayOutputStream {
+
+		private volatile int flushes = 0;
+
+		@Override
+		public void flush() {
+			flushes++;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package org.briarproject.bramble.crypto;
+
+import net.i2p.crypto.eddsa.EdDSAPublicKey;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.api.crypto.SignaturePublicKey;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class PublicKeyCacheTest extends BrambleTestCase {
+
+	private final CryptoComponent crypto =
+			new CryptoComponentImpl(new TestSecureRandomProvider(), null);
+
+	@Test
+	public void testReturnsCachedKeyForSameEncoding() {
+		PublicKeyCache cache = new PublicKeyCache(10);
+		PublicKey k = crypto.generateSignatureKeyPair().getPublic();
+		// A separate copy of the key should hit the cache
+		PublicKey copy = new SignaturePublicKey(k.getEncoded().clone());
+		EdDSAPublicKey parsed = cache.getPublicKey(k);
+		assertSame(parsed, cache.getPublicKey(copy));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedKey() {
+		PublicKeyCache cache = new PublicKeyCache(2);
+		PublicKey a = crypto.generateSignatureKeyPair().getPublic();
+		PublicKey b = crypto.generateSignatureKeyPair().getPublic();
+		PublicKey c = crypto.generateSignatureKeyPair().getPublic();
+		EdDSAPublicKey parsedA = cache.getPublicKey(a);
+		EdDSAPublicKey parsedB = cache.getPublicKey(b);
+		// Use A again, so B is the least recently used key
+		assertSame(parsedA, cache.getPublicKey(a));
+		cache.getPublicKey(c);
+		assertEquals(2, cache.size());
+		// A should still be cached, B should have been evicted
+		assertSame(parsedA, cache.getPublicKey(a));
+		assertNotSame(parsedB, cache.getPublicKey(b));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsAgreementKey() {
+		PublicKeyCache cache = new PublicKeyCache(10);
+		cache.getPublicKey(crypto.generateAgreementKeyPair().getPublic());
+	}
+}
@@ -0,0 +1,132 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.crypto.StreamDecrypter;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.crypto.ReadAheadStreamDecrypter.RING_SIZE;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReadAheadStreamDecrypterTest extends BrambleTestCase {
+
+	private final ExecutorService ioExecutor = Executors.newCachedThreadPool();
+	private final byte[] payload = new byte[MAX_PAYLOAD_LENGTH];
+
+	@After
+	public void tearDown() {
+		ioExecutor.shutdownNow();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsSmallBuffer() throws Exception {
+		ReadAheadStreamDecrypter d = new ReadAheadStreamDecrypter(
+				new ListStreamDecrypter(new ArrayList<>(), false), ioExecutor);
+		d.readFrame(new byte[MAX_PAYLOAD_LENGTH - 1]);
+	}
+
+	@Test
+	public void testFramesAreReadInOrder() throws Exception {
+		// Use enough frames to fill the ring several times over
+		List<byte[]> frames = createFrames(RING_SIZE * 4);
+		ReadAheadStreamDecrypter d = new ReadAheadStreamDecrypter(
+				new ListStreamDecrypter(frames, false), ioExecutor);
+		for (byte[] frame : frames) {
+			assertEquals(frame.length, d.readFrame(payload));
+			byte[] read = new byte[frame.length];
+			System.arraycopy(payload, 0, read, 0, frame.length);
+			assertArrayEquals(frame, read);
+		}
+		assertEquals(-1, d.readFrame(payload));
+		assertEquals(-1, d.readFrame(payload));
+	}
+
+	@Test
+	public void testErrorIsThrownAfterFramesReadBeforeError()
+			throws Exception {
+		List<byte[]> frames = createFrames(RING_SIZE / 2);
+		ReadAheadStreamDecrypter d = new ReadAheadStreamDecrypter(
+				new ListStreamDecrypter(frames, true), ioExecutor);
+		for (byte[] frame : frames)
+			assertEquals(frame.length, d.readFrame(payload));
+		try {
+			d.readFrame(payload);
+			fail();
+		} catch (FormatException expected) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testRuntimeExceptionIsThrownByReadFrame() throws Exception {
+		StreamDecrypter failing = p -> {
+			throw new IllegalStateException();
+		};
+		// Run the background task on the calling thread, swallowing the
+		// exception that it rethrows
+		ReadAheadStreamDecrypter d = new ReadAheadStreamDecrypter(failing,
+				r -> {
+					try {
+						r.run();
+					} catch (IllegalStateException expected) {
+						// Expected
+					}
+				});
+		try {
+			d.readFrame(payload);
+			fail();
+		} catch (IOException expected) {
+			assertTrue(expected.getCause() instanceof IllegalStateException);
+		}
+		// Further reads should also fail
+		try {
+			d.readFrame(payload);
+			fail();
+		} catch (IOException expected) {
+			// Expected
+		}
+	}
+
+	private List<byte[]> createFrames(int count) {
+		List<byte[]> frames = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			frames.add(getRandomBytes(i % MAX_PAYLOAD_LENGTH + 1));
+		return frames;
+	}
+
+	private static class ListStreamDecrypter implements StreamDecrypter {
+
+		private final List<byte[]> frames;
+		private final boolean fail;
+
+		private int index = 0;
+
+		private ListStreamDecrypter(List<byte[]> frames, boolean fail) {
+			this.frames = frames;
+			this.fail = fail;
+		}
+
+		@Override
+		public int readFrame(byte[] payload) throws FormatException {
+			if (index == frames.size()) {
+				if (fail) throw new FormatException();
+				return -1;
+			}
+			byte[] frame = frames.get(index++);
+			System.arraycopy(frame, 0, payload, 0, frame.length);
+			return frame.length;
+		}
+	}
+}
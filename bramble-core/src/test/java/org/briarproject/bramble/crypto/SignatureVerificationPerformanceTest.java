@@ -0,0 +1,125 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.KeyPair;
+import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.api.crypto.SignatureCheck;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput of Ed25519 signature verification on one thread
+ * and in batches spread across all cores, and the cost of parsing public
+ * keys with and without the {@link PublicKeyCache}.
+ */
+@Ignore
+public class SignatureVerificationPerformanceTest extends BrambleTestCase {
+
+	private static final int AUTHORS = 100;
+	private static final int SIGNATURES = 10_000;
+	private static final int BATCH_SIZE = 100;
+	private static final int ITERATIONS = 3;
+
+	private final String resultsFile = getClass().getSimpleName() + ".tsv";
+	private final int cores = Runtime.getRuntime().availableProcessors();
+	private final ExecutorService cryptoExecutor =
+			Executors.newFixedThreadPool(cores);
+	private final CryptoComponent crypto =
+			new CryptoComponentImpl(new TestSecureRandomProvider(), null);
+	private final String label = getRandomString(42);
+
+	@After
+	public void tearDown() {
+		cryptoExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testVerifySignatures() throws Exception {
+		List<SignatureCheck> checks = createChecks();
+		SignatureVerifierImpl verifier =
+				new SignatureVerifierImpl(crypto, cryptoExecutor);
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.nanoTime();
+			for (SignatureCheck c : checks) {
+				assertTrue(crypto.verifySignature(c.getSignature(),
+						c.getLabel(), c.getSigned(), c.getPublicKey()));
+			}
+			writeResult("Verify, one thread", System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (int j = 0; j < SIGNATURES; j += BATCH_SIZE) {
+				List<SignatureCheck> batch = checks.subList(j, j + BATCH_SIZE);
+				for (boolean valid : verifier.verify(batch)) assertTrue(valid);
+			}
+			writeResult("Verify, batches on " + cores + " cores",
+					System.nanoTime() - start);
+		}
+	}
+
+	@Test
+	public void testParsePublicKeys() throws Exception {
+		List<SignatureCheck> checks = createChecks();
+		PublicKeyCache cache = new PublicKeyCache(AUTHORS);
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.nanoTime();
+			for (SignatureCheck c : checks)
+				EdSignature.parsePublicKey(c.getPublicKey());
+			writeResult("Parse every key", System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (SignatureCheck c : checks)
+				cache.getPublicKey(c.getPublicKey());
+			writeResult("Parse with cache", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Returns valid signatures by a fixed number of authors, with each
+	 * author's messages interleaved with the others'.
+	 */
+	private List<SignatureCheck> createChecks() throws Exception {
+		List<KeyPair> authors = new ArrayList<>(AUTHORS);
+		for (int i = 0; i < AUTHORS; i++)
+			authors.add(crypto.generateSignatureKeyPair());
+		List<SignatureCheck> checks = new ArrayList<>(SIGNATURES);
+		for (int i = 0; i < SIGNATURES; i++) {
+			KeyPair author = authors.get(i % AUTHORS);
+			byte[] signed = getRandomBytes(1024);
+			byte[] sig = crypto.sign(label, signed, author.getPrivate());
+			// Use a separate copy of the public key for each message, as
+			// each message is parsed separately
+			PublicKey publicKey = crypto.getSignatureKeyParser()
+					.parsePublicKey(author.getPublic().getEncoded().clone());
+			checks.add(new SignatureCheck(sig, label, signed, publicKey));
+		}
+		return checks;
+	}
+
+	private void writeResult(String name, long durationNanos)
+			throws IOException {
+		long perSecond = SIGNATURES * 1_000_000_000L / durationNanos;
+		String result = String.format("%s\t%,d signatures\t%,d per second",
+				name, SIGNATURES, perSecond);
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
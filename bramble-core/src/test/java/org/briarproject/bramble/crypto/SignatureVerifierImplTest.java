@@ -0,0 +1,108 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.KeyPair;
+import org.briarproject.bramble.api.crypto.SignatureCheck;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SignatureVerifierImplTest extends BrambleTestCase {
+
+	private static final int CHECKS = 20;
+
+	private final CryptoComponent crypto =
+			new CryptoComponentImpl(new TestSecureRandomProvider(), null);
+	private final ExecutorService cryptoExecutor =
+			Executors.newFixedThreadPool(4);
+	private final String label = getRandomString(42);
+
+	@After
+	public void tearDown() {
+		cryptoExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testBatchResultsAreInOrder() throws Exception {
+		SignatureVerifierImpl verifier =
+				new SignatureVerifierImpl(crypto, cryptoExecutor);
+		List<SignatureCheck> checks = createChecks();
+		boolean[] results = verifier.verify(checks);
+		assertEquals(CHECKS, results.length);
+		for (int i = 0; i < CHECKS; i++) assertEquals(i % 2 == 0, results[i]);
+	}
+
+	@Test
+	public void testEmptyBatch() {
+		SignatureVerifierImpl verifier =
+				new SignatureVerifierImpl(crypto, cryptoExecutor);
+		assertEquals(0, verifier.verify(emptyList()).length);
+	}
+
+	@Test
+	public void testBatchIsVerifiedOnCallerIfExecutorDoesNotRunTasks()
+			throws Exception {
+		// The executor discards tasks, as it does during shutdown
+		SignatureVerifierImpl verifier =
+				new SignatureVerifierImpl(crypto, r -> {
+				});
+		List<SignatureCheck> checks = createChecks();
+		boolean[] results = verifier.verify(checks);
+		for (int i = 0; i < CHECKS; i++) assertEquals(i % 2 == 0, results[i]);
+	}
+
+	@Test
+	public void testAsyncVerification() throws Exception {
+		SignatureVerifierImpl verifier =
+				new SignatureVerifierImpl(crypto, cryptoExecutor);
+		List<SignatureCheck> checks = createChecks();
+		Future<Boolean> valid = verifier.verifyAsync(checks.get(0));
+		Future<Boolean> invalid = verifier.verifyAsync(checks.get(1));
+		assertTrue(valid.get(10, SECONDS));
+		assertFalse(invalid.get(10, SECONDS));
+	}
+
+	@Test
+	public void testAsyncVerificationIsPerformedOnCallerIfNotStarted()
+			throws Exception {
+		SignatureVerifierImpl verifier =
+				new SignatureVerifierImpl(crypto, r -> {
+				});
+		List<SignatureCheck> checks = createChecks();
+		assertTrue(verifier.verifyAsync(checks.get(0)).get());
+		assertFalse(verifier.verifyAsync(checks.get(1)).get());
+	}
+
+	/**
+	 * Returns a list of checks in which the even-numbered signatures are
+	 * valid and the odd-numbered signatures are invalid.
+	 */
+	private List<SignatureCheck> createChecks() throws Exception {
+		KeyPair keyPair = crypto.generateSignatureKeyPair();
+		List<SignatureCheck> checks = new ArrayList<>(CHECKS);
+		for (int i = 0; i < CHECKS; i++) {
+			byte[] signed = getRandomBytes(123);
+			byte[] sig = crypto.sign(label, signed, keyPair.getPrivate());
+			// Verify a different message to make the signature invalid
+			if (i % 2 == 1) signed = getRandomBytes(123);
+			checks.add(new SignatureCheck(sig, label, signed,
+					keyPair.getPublic()));
+		}
+		return checks;
+	}
+}
@@ -0,0 +1,126 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Date;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the throughput of stream encryption and decryption with the real
+ * cipher, and the number of bytes allocated per frame. A cheaper check of the
+ * cipher's allocations runs with the other tests in
+ * {@link XSalsa20Poly1305AuthenticatedCipherTest}.
+ */
+@Ignore
+public class StreamCryptoPerformanceTest extends BrambleTestCase {
+
+	private static final int WARMUP_FRAMES = 10_000;
+	private static final int FRAMES = 50_000;
+	private static final int STREAM_FRAMES = 1_000;
+
+	private final String resultsFile = getClass().getSimpleName() + ".tsv";
+	private final SecretKey headerKey = getSecretKey();
+	private final byte[] payload = getRandomBytes(MAX_PAYLOAD_LENGTH);
+
+	@Test
+	public void testEncryption() throws IOException {
+		encrypt(WARMUP_FRAMES, new DiscardingOutputStream());
+		long allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime();
+		encrypt(FRAMES, new DiscardingOutputStream());
+		long duration = System.nanoTime() - start;
+		long allocated = getAllocatedBytes() - allocatedBefore;
+		report("Encryption", duration, allocated);
+	}
+
+	@Test
+	public void testDecryption() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encrypt(STREAM_FRAMES, out);
+		byte[] stream = out.toByteArray();
+		byte[] buf = new byte[MAX_PAYLOAD_LENGTH];
+		for (int i = 0; i < WARMUP_FRAMES / STREAM_FRAMES; i++)
+			decrypt(stream, buf);
+		long allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < FRAMES / STREAM_FRAMES; i++) decrypt(stream, buf);
+		long duration = System.nanoTime() - start;
+		long allocated = getAllocatedBytes() - allocatedBefore;
+		report("Decryption", duration, allocated);
+	}
+
+	private void encrypt(int frames, OutputStream out) throws IOException {
+		StreamEncrypterImpl e = new StreamEncrypterImpl(out,
+				new XSalsa20Poly1305AuthenticatedCipher(), 0,
+				getRandomBytes(TAG_LENGTH),
+				getRandomBytes(STREAM_HEADER_NONCE_LENGTH), headerKey,
+				getSecretKey());
+		for (int i = 0; i < frames; i++)
+			e.writeFrame(payload, MAX_PAYLOAD_LENGTH, 0, i == frames - 1);
+		e.flush();
+	}
+
+	private void decrypt(byte[] stream, byte[] buf) throws IOException {
+		ByteArrayInputStream in = new ByteArrayInputStream(stream);
+		// Skip the tag, which is recognised before the decrypter is created
+		assertEquals(TAG_LENGTH, in.skip(TAG_LENGTH));
+		StreamDecrypterImpl d = new StreamDecrypterImpl(in,
+				new XSalsa20Poly1305AuthenticatedCipher(), 0, headerKey);
+		int frames = 0;
+		while (d.readFrame(buf) != -1) frames++;
+		assertEquals(STREAM_FRAMES, frames);
+	}
+
+	private long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			throw new AssertionError("Allocations can't be measured");
+		return ((com.sun.management.ThreadMXBean) bean)
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private void report(String name, long duration, long allocated)
+			throws IOException {
+		double megabytes = (double) FRAMES * MAX_PAYLOAD_LENGTH / (1024 * 1024);
+		double seconds = duration / 1_000_000_000.0;
+		long allocatedPerFrame = allocated / FRAMES;
+		writeResult(String.format("%s\t%.1f MB/s\t%,d bytes/frame", name,
+				megabytes / seconds, allocatedPerFrame));
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+
+	private static class DiscardingOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.crypto.StreamDecrypter;
+import org.briarproject.bramble.api.crypto.StreamEncrypter;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the throughput of sequential and pipelined stream encryption and
+ * decryption over a loopback socket and a file.
+ */
+@Ignore
+public class StreamPipeliningPerformanceTest extends BrambleTestCase {
+
+	private static final int FRAMES = 100_000;
+	private static final int ITERATIONS = 3;
+
+	private final String resultsFile = getClass().getSimpleName() + ".tsv";
+	private final ExecutorService ioExecutor = Executors.newCachedThreadPool();
+	private final File testDir = getTestDirectory();
+	private final SecretKey headerKey = getSecretKey();
+	private final byte[] payload = getRandomBytes(MAX_PAYLOAD_LENGTH);
+
+	@After
+	public void tearDown() {
+		ioExecutor.shutdownNow();
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testSocket() throws Exception {
+		for (int i = 0; i < ITERATIONS; i++) {
+			writeResult("Socket", false, testSocket(false));
+			writeResult("Socket", true, testSocket(true));
+		}
+	}
+
+	@Test
+	public void testFile() throws Exception {
+		assertTrue(testDir.mkdirs());
+		File file = new File(testDir, "stream");
+		for (int i = 0; i < ITERATIONS; i++) {
+			writeResult("File", false, testFile(file, false));
+			writeResult("File", true, testFile(file, true));
+		}
+	}
+
+	/**
+	 * Returns the time taken to send and receive the stream in nanoseconds.
+	 */
+	private long testSocket(boolean pipelined) throws Exception {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		ServerSocket ss = new ServerSocket(0, 1, loopback);
+		Future<?> receiver = ioExecutor.submit(() -> {
+			Socket s = ss.accept();
+			readStream(s.getInputStream(), pipelined);
+			s.close();
+			return null;
+		});
+		long start = System.nanoTime();
+		Socket s = new Socket(ss.getInetAddress(), ss.getLocalPort());
+		writeStream(s.getOutputStream(), pipelined);
+		receiver.get();
+		long duration = System.nanoTime() - start;
+		s.close();
+		ss.close();
+		return duration;
+	}
+
+	/**
+	 * Returns the time taken to write and read the file in nanoseconds.
+	 */
+	private long testFile(File file, boolean pipelined) throws Exception {
+		long start = System.nanoTime();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		writeStream(out, pipelined);
+		out.close();
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		readStream(in, pipelined);
+		in.close();
+		return System.nanoTime() - start;
+	}
+
+	private void writeStream(OutputStream out, boolean pipelined)
+			throws IOException {
+		if (pipelined) out = new PipelinedOutputStream(out, ioExecutor);
+		StreamEncrypter e = new StreamEncrypterImpl(out,
+				new XSalsa20Poly1305AuthenticatedCipher(), 0,
+				getRandomBytes(TAG_LENGTH),
+				getRandomBytes(STREAM_HEADER_NONCE_LENGTH), headerKey,
+				getSecretKey());
+		for (int i = 0; i < FRAMES; i++)
+			e.writeFrame(payload, MAX_PAYLOAD_LENGTH, 0, i == FRAMES - 1);
+		e.flush();
+	}
+
+	private void readStream(InputStream in, boolean pipelined)
+			throws IOException {
+		// Skip the tag, which is recognised before the decrypter is created
+		int skipped = 0;
+		while (skipped < TAG_LENGTH) {
+			if (in.read() == -1) throw new IOException();
+			skipped++;
+		}
+		StreamDecrypter d = new StreamDecrypterImpl(in,
+				new XSalsa20Poly1305AuthenticatedCipher(), 0, headerKey);
+		if (pipelined) d = new ReadAheadStreamDecrypter(d, ioExecutor);
+		byte[] buf = new byte[MAX_PAYLOAD_LENGTH];
+		int frames = 0;
+		while (d.readFrame(buf) != -1) frames++;
+		assertEquals(FRAMES, frames);
+	}
+
+	private void writeResult(String transport, boolean pipelined,
+			long duration) throws IOException {
+		double megabytes = (double) FRAMES * MAX_PAYLOAD_LENGTH / (1024 * 1024);
+		double seconds = duration / 1_000_000_000.0;
+		String result = String.format("%s\t%s\t%.1f MB/s", transport,
+				pipelined ? "pipelined" : "sequential", megabytes / seconds);
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
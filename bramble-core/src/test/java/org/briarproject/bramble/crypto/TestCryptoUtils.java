@@ -0,0 +1,22 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+import org.briarproject.nullsafety.NotNullByDefault;
+
+import javax.inject.Provider;
+
+/**
+ * Creates crypto objects for tests in other packages.
+ */
+@NotNullByDefault
+public class TestCryptoUtils {
+
+	public static CryptoComponent createCryptoComponent() {
+		return new CryptoComponentImpl(new TestSecureRandomProvider(), null);
+	}
+
+	public static Provider<AuthenticatedCipher> getCipherProvider() {
+		return XSalsa20Poly1305AuthenticatedCipher::new;
+	}
+}
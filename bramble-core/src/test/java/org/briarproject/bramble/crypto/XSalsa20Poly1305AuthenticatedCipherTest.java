@@ -6,14 +6,30 @@ import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.util.StringUtils;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.security.GeneralSecurityException;
 import java.util.Random;
 
+import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 public class XSalsa20Poly1305AuthenticatedCipherTest extends BrambleTestCase {
 
+	private static final int WARMUP_FRAMES = 100;
+	private static final int FRAMES = 1000;
+	/**
+	 * The XSalsa20 key setup allocates a small amount of scratch space each
+	 * time the cipher is initialised, which happens twice per frame.
+	 */
+	private static final long MAX_ALLOCATED_BYTES_PER_FRAME = 256;
+
 	// Test vectors from the NaCl paper
 	// http://cr.yp.to/highspeed/naclcrypto-20090310.pdf
 	private final byte[] TEST_KEY = StringUtils.fromHexString(
@@ -95,4 +111,76 @@ public class XSalsa20Poly1305AuthenticatedCipherTest extends BrambleTestCase {
 		byte[] output = new byte[TEST_PLAINTEXT.length];
 		cipher.process(input, 0, input.length, output, 0);
 	}
+
+	@Test
+	public void testCipherCanBeReinitialised() throws Exception {
+		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		// Use the cipher with a different key and IV first
+		cipher.init(true, getSecretKey(), getRandomBytes(TEST_IV.length));
+		byte[] output = new byte[TEST_CIPHERTEXT.length];
+		cipher.process(TEST_PLAINTEXT, 0, TEST_PLAINTEXT.length, output, 0);
+		// Reinitialise the cipher for encryption with the test vector
+		SecretKey k = new SecretKey(TEST_KEY);
+		cipher.init(true, k, TEST_IV);
+		assertEquals(TEST_CIPHERTEXT.length, cipher.process(TEST_PLAINTEXT, 0,
+				TEST_PLAINTEXT.length, output, 0));
+		assertArrayEquals(TEST_CIPHERTEXT, output);
+		// Reinitialise the cipher for decryption with the test vector
+		cipher.init(false, k, TEST_IV);
+		byte[] plaintext = new byte[TEST_PLAINTEXT.length];
+		assertEquals(TEST_PLAINTEXT.length, cipher.process(TEST_CIPHERTEXT, 0,
+				TEST_CIPHERTEXT.length, plaintext, 0));
+		assertArrayEquals(TEST_PLAINTEXT, plaintext);
+	}
+
+	@Test(expected = GeneralSecurityException.class)
+	public void testInitFailsWithInvalidIv() throws Exception {
+		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		SecretKey k = new SecretKey(TEST_KEY);
+		cipher.init(true, k, new byte[TEST_IV.length - 1]);
+	}
+
+	@Test
+	public void testFramesAreProcessedWithoutAllocatingBuffers()
+			throws Exception {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocations =
+				(com.sun.management.ThreadMXBean) bean;
+		long threadId = Thread.currentThread().getId();
+		AuthenticatedCipher encrypter =
+				new XSalsa20Poly1305AuthenticatedCipher();
+		AuthenticatedCipher decrypter =
+				new XSalsa20Poly1305AuthenticatedCipher();
+		SecretKey k = getSecretKey();
+		byte[] iv = getRandomBytes(TEST_IV.length);
+		byte[] plaintext = getRandomBytes(MAX_FRAME_LENGTH - MAC_LENGTH);
+		byte[] ciphertext = new byte[MAX_FRAME_LENGTH];
+		byte[] decrypted = new byte[plaintext.length];
+		processFrames(WARMUP_FRAMES, encrypter, decrypter, k, iv, plaintext,
+				ciphertext, decrypted);
+		long before = allocations.getThreadAllocatedBytes(threadId);
+		processFrames(FRAMES, encrypter, decrypter, k, iv, plaintext,
+				ciphertext, decrypted);
+		long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+		assertArrayEquals(plaintext, decrypted);
+		// Encrypting or decrypting a frame should not allocate a buffer
+		assertTrue(allocated / FRAMES <= MAX_ALLOCATED_BYTES_PER_FRAME);
+	}
+
+	/**
+	 * Encrypts and decrypts the given number of frames, reinitialising each
+	 * cipher once per frame.
+	 */
+	private void processFrames(int frames, AuthenticatedCipher encrypter,
+			AuthenticatedCipher decrypter, SecretKey k, byte[] iv,
+			byte[] plaintext, byte[] ciphertext, byte[] decrypted)
+			throws GeneralSecurityException {
+		for (int i = 0; i < frames; i++) {
+			encrypter.init(true, k, iv);
+			encrypter.process(plaintext, 0, plaintext.length, ciphertext, 0);
+			decrypter.init(false, k, iv);
+			decrypter.process(ciphertext, 0, ciphertext.length, decrypted, 0);
+		}
+	}
 }
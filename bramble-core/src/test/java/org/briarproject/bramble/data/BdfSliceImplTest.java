@@ -0,0 +1,272 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.data.BdfCursor;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfSlice;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_MAX_BUFFER_SIZE;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_NESTED_LIMIT;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.util.StringUtils.fromHexString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BdfSliceImplTest extends BrambleTestCase {
+
+	private final BdfReaderFactoryImpl factory = new BdfReaderFactoryImpl();
+
+	@Test
+	public void testPrimitives() throws Exception {
+		assertTrue(slice("00").isNull());
+		assertFalse(slice("10").getBoolean());
+		assertTrue(slice("11").getBoolean());
+		assertEquals(-128, slice("21" + "80").getLong());
+		assertEquals(Short.MIN_VALUE, slice("22" + "8000").getLong());
+		assertEquals(Integer.MAX_VALUE, slice("24" + "7FFFFFFF").getInt());
+		assertEquals(Long.MIN_VALUE,
+				slice("28" + "8000000000000000").getLong());
+		assertEquals(Math.PI, slice("38" + "400921FB54442D18").getDouble(),
+				0);
+		assertEquals("foo", slice("41" + "03" + "666F6F").getString());
+		assertArrayEquals(new byte[] {1, 2, 3},
+				slice("51" + "03" + "010203").getRaw());
+	}
+
+	@Test(expected = FormatException.class)
+	public void testIntOverflowIsRejected() throws Exception {
+		slice("28" + "7FFFFFFFFFFFFFFF").getInt();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testWrongTypeIsRejected() throws Exception {
+		slice("41" + "03" + "666F6F").getLong();
+	}
+
+	@Test
+	public void testValueIsNotCopied() throws Exception {
+		byte[] b = fromHexString("51" + "03" + "010203");
+		BdfSlice s = factory.createSlice(b, 0, b.length);
+		assertTrue(s.isRaw());
+		assertEquals(b, s.getBuffer());
+		assertEquals(2, s.getValueOffset());
+		assertEquals(3, s.getValueLength());
+	}
+
+	@Test
+	public void testListElements() throws Exception {
+		// A list containing 1, a nested list containing "foo", and null
+		BdfSlice s = slice("60" + "21" + "01" +
+				"60" + "41" + "03" + "666F6F" + "80" + "00" + "80");
+		assertTrue(s.isList());
+		assertEquals(3, s.size());
+		assertEquals(1, s.get(0).getLong());
+		BdfSlice nested = s.get(1);
+		assertEquals(1, nested.size());
+		assertEquals("foo", nested.get(0).getString());
+		assertTrue(s.get(2).isNull());
+		assertEquals(BdfList.of(1L, BdfList.of("foo"), NULL_VALUE),
+				s.toList());
+	}
+
+	@Test(expected = FormatException.class)
+	public void testListIndexOutOfRangeIsRejected() throws Exception {
+		slice("60" + "21" + "01" + "80").get(1);
+	}
+
+	@Test
+	public void testDictionaryEntries() throws Exception {
+		// A dictionary containing "bar" -> 1 and "foo" -> "baz"
+		BdfSlice s = slice("70" + "41" + "03" + "626172" + "21" + "01" +
+				"41" + "03" + "666F6F" + "41" + "03" + "62617A" + "80");
+		assertTrue(s.isDictionary());
+		assertEquals(2, s.size());
+		assertEquals("bar", s.getKey(0));
+		assertEquals(1, s.getValue(0).getLong());
+		assertEquals("foo", s.getKey(1));
+		BdfSlice foo = s.get("foo");
+		assertNotNull(foo);
+		assertEquals("baz", foo.getString());
+		assertNull(s.get("qux"));
+		BdfDictionary d = new BdfDictionary();
+		d.put("bar", 1L);
+		d.put("foo", "baz");
+		assertEquals(d, s.toDictionary());
+	}
+
+	@Test
+	public void testDictionaryLookupWithNonAsciiKey() throws Exception {
+		BdfDictionary d = new BdfDictionary();
+		d.put("\u00e9t\u00e9", 1L);
+		d.put("z", 2L);
+		BdfSlice s = slice(encode(d));
+		BdfSlice value = s.get("\u00e9t\u00e9");
+		assertNotNull(value);
+		assertEquals(1, value.getLong());
+	}
+
+	@Test
+	public void testCursor() throws Exception {
+		BdfSlice s = slice("60" + "21" + "01" + "60" + "80" + "10" + "80");
+		BdfCursor c = s.getCursor();
+		assertTrue(c.hasNext());
+		assertEquals(1, c.next().getLong());
+		assertTrue(c.hasNext());
+		assertEquals(0, c.next().size());
+		assertTrue(c.hasNext());
+		assertFalse(c.next().getBoolean());
+		assertFalse(c.hasNext());
+		try {
+			c.next();
+			fail();
+		} catch (FormatException expected) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testByteBuffer() throws Exception {
+		byte[] b = fromHexString("FF" + "21" + "01" + "FF");
+		ByteBuffer heap = ByteBuffer.wrap(b, 1, 2);
+		assertEquals(1, factory.createSlice(heap).getLong());
+		assertEquals(1, heap.position());
+		ByteBuffer direct = ByteBuffer.allocateDirect(2);
+		direct.put(b, 1, 2).flip();
+		assertEquals(1, factory.createSlice(direct).getLong());
+		assertEquals(0, direct.position());
+	}
+
+	@Test
+	public void testInvalidInputIsRejected() {
+		// Empty input
+		assertInvalid("");
+		// Trailing data
+		assertInvalid("00" + "00");
+		// Unknown type
+		assertInvalid("FF");
+		// Non-canonical integers
+		assertInvalid("22" + "007F");
+		assertInvalid("24" + "00007FFF");
+		assertInvalid("28" + "000000007FFFFFFF");
+		// Truncated values
+		assertInvalid("24" + "7FFF");
+		assertInvalid("38" + "00");
+		assertInvalid("41" + "03" + "666F");
+		// Negative and non-canonical lengths
+		assertInvalid("41" + "FF" + "00");
+		assertInvalid("51" + "0003" + "010203");
+		// Malformed UTF-8: lone continuation, overlong and surrogate
+		assertInvalid("41" + "01" + "80");
+		assertInvalid("41" + "02" + "C0AF");
+		assertInvalid("41" + "03" + "EDA080");
+		// Unterminated list and dictionary
+		assertInvalid("60" + "00");
+		assertInvalid("70");
+		// Dictionary key that isn't a string
+		assertInvalid("70" + "21" + "01" + "00" + "80");
+		// Dictionary keys that are duplicated or unsorted
+		assertInvalid("70" + "41" + "01" + "61" + "00" +
+				"41" + "01" + "61" + "00" + "80");
+		assertInvalid("70" + "41" + "01" + "62" + "00" +
+				"41" + "01" + "61" + "00" + "80");
+		// Nested too deeply
+		StringBuilder nested = new StringBuilder();
+		for (int i = 0; i <= DEFAULT_NESTED_LIMIT; i++) nested.append("60");
+		for (int i = 0; i <= DEFAULT_NESTED_LIMIT; i++) nested.append("80");
+		assertInvalid(nested.toString());
+	}
+
+	@Test
+	public void testSliceMatchesReaderOnRandomInput() throws Exception {
+		Random random = new Random();
+		for (int i = 0; i < 100_000; i++) {
+			// Start with a list or dictionary so that the input is
+			// more likely to contain nested objects
+			byte[] b = getRandomBytes(1 + random.nextInt(16));
+			b[0] = random.nextBoolean() ? Types.LIST : Types.DICTIONARY;
+			Object read = read(b);
+			try {
+				BdfSlice s = factory.createSlice(b, 0, b.length);
+				if (read == null) fail();
+				if (s.isList()) assertEncodingEquals(read, s.toList());
+				else assertEncodingEquals(read, s.toDictionary());
+			} catch (FormatException e) {
+				if (read != null) fail();
+			}
+		}
+	}
+
+	@Test
+	public void testSliceMatchesReaderOnEncodedObjects() throws Exception {
+		BdfDictionary d = new BdfDictionary();
+		d.put("", "");
+		d.put("a", new byte[0]);
+		d.put("b", BdfList.of(1L, -1L, 128L, 32768L, 2147483648L, 1.5));
+		d.put("\uffff", true);
+		d.put("\ud83d\ude00", NULL_VALUE);
+		BdfList list = BdfList.of(d, "\u00e9", getRandomBytes(300));
+		assertEncodingEquals(list, slice(encode(list)).toList());
+	}
+
+	private BdfSlice slice(String hex) throws FormatException {
+		return slice(fromHexString(hex));
+	}
+
+	private BdfSlice slice(byte[] b) throws FormatException {
+		return factory.createSlice(b, 0, b.length);
+	}
+
+	private void assertInvalid(String hex) {
+		try {
+			slice(hex);
+			fail();
+		} catch (FormatException expected) {
+			// Expected
+		}
+	}
+
+	// Raw values are byte arrays, which don't implement equals(), so compare
+	// the canonical encodings instead
+	private void assertEncodingEquals(Object expected, Object actual)
+			throws Exception {
+		assertArrayEquals(encode(expected), encode(actual));
+	}
+
+	private byte[] encode(Object o) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BdfWriterImpl w = new BdfWriterImpl(out);
+		if (o instanceof BdfList) w.writeList((BdfList) o);
+		else w.writeDictionary((BdfDictionary) o);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads a list or dictionary with the stream-based reader, returning
+	 * null if the input is invalid.
+	 */
+	private Object read(byte[] b) throws Exception {
+		ByteArrayInputStream in = new ByteArrayInputStream(b);
+		BdfReaderImpl r = new BdfReaderImpl(in, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE, true);
+		try {
+			Object o = r.hasList() ? r.readList() : r.readDictionary();
+			return r.eof() ? o : null;
+		} catch (FormatException e) {
+			return null;
+		}
+	}
+}
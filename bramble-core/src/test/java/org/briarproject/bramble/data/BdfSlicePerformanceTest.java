@@ -0,0 +1,134 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfSlice;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Date;
+
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_MAX_BUFFER_SIZE;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_NESTED_LIMIT;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+
+/**
+ * Compares the time and allocations needed to read one field from typical
+ * message bodies by parsing the whole body with a {@link BdfReaderImpl}
+ * (before) and by validating it as a {@link BdfSlice} (after).
+ */
+@Ignore
+public class BdfSlicePerformanceTest extends BrambleTestCase {
+
+	private static final int WARMUP_ITERATIONS = 100_000;
+	private static final int ITERATIONS = 1_000_000;
+
+	private final String resultsFile = getClass().getSimpleName() + ".tsv";
+	private final BdfReaderFactoryImpl readerFactory =
+			new BdfReaderFactoryImpl();
+
+	@Test
+	public void testForumPost() throws Exception {
+		// Parent ID, author, text, signature
+		BdfList author = BdfList.of(0, getRandomString(50),
+				getRandomBytes(32));
+		BdfList post = BdfList.of(getRandomBytes(32), author,
+				getRandomString(1000), getRandomBytes(64));
+		compare("Forum post", encode(post), 2);
+	}
+
+	@Test
+	public void testPrivateMessage() throws Exception {
+		// Message type, text, attachment headers, auto-delete timer
+		BdfList attachments = BdfList.of(
+				BdfList.of(getRandomBytes(32), "image/jpeg"),
+				BdfList.of(getRandomBytes(32), "image/png"));
+		BdfList message = BdfList.of(0, getRandomString(500), attachments,
+				NULL_VALUE);
+		compare("Private message", encode(message), 1);
+	}
+
+	@Test
+	public void testTransportProperties() throws Exception {
+		// Transport ID, version, properties
+		BdfDictionary properties = new BdfDictionary();
+		properties.put("ipPorts", "192.168.1.2:12345,10.0.0.2:23456");
+		properties.put("ipv6", "fe80::1:12345");
+		properties.put("port", "12345");
+		properties.put("u", getRandomString(64));
+		BdfList update = BdfList.of("org.briarproject.bramble.lan", 12,
+				properties);
+		compare("Transport properties", encode(update), 2);
+	}
+
+	private void compare(String name, byte[] body, int index)
+			throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			readWithReader(body, index);
+			readWithSlice(body, index);
+		}
+		long allocated = getAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) readWithReader(body, index);
+		long readerTime = (System.nanoTime() - start) / ITERATIONS;
+		long readerAllocated =
+				(getAllocatedBytes() - allocated) / ITERATIONS;
+		allocated = getAllocatedBytes();
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) readWithSlice(body, index);
+		long sliceTime = (System.nanoTime() - start) / ITERATIONS;
+		long sliceAllocated = (getAllocatedBytes() - allocated) / ITERATIONS;
+		writeResult(String.format(
+				"%s\t%,d bytes\t%,d ns\t%,d B\t%,d ns\t%,d B", name,
+				body.length, readerTime, readerAllocated, sliceTime,
+				sliceAllocated));
+	}
+
+	private Object readWithReader(byte[] body, int index)
+			throws IOException {
+		ByteArrayInputStream in = new ByteArrayInputStream(body);
+		BdfReaderImpl r = new BdfReaderImpl(in, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE, true);
+		BdfList list = r.readList();
+		if (!r.eof()) throw new FormatException();
+		return list.get(index);
+	}
+
+	private BdfSlice readWithSlice(byte[] body, int index)
+			throws FormatException {
+		return readerFactory.createSlice(body, 0, body.length).get(index);
+	}
+
+	private byte[] encode(BdfList list) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new BdfWriterImpl(out).writeList(list);
+		return out.toByteArray();
+	}
+
+	private long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			throw new AssertionError("Allocations can't be measured");
+		return ((com.sun.management.ThreadMXBean) bean)
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
@@ -0,0 +1,258 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.Cancellable;
+import org.briarproject.bramble.api.db.CommitAction;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.EventAction;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.lifecycle.event.DatabaseCompactionEvent;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.SettableClock;
+import org.jmock.Expectations;
+import org.jmock.lib.action.DoAllAction;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.db.DatabaseCompactor.CHECK_INTERVAL_MS;
+import static org.briarproject.bramble.db.DatabaseCompactor.FIRST_CHECK_DELAY_MS;
+import static org.briarproject.bramble.db.DatabaseCompactor.IDLE_PERIOD_MS;
+import static org.briarproject.bramble.db.DatabaseCompactor.MAX_STEP_DURATION_MS;
+import static org.briarproject.bramble.db.DatabaseCompactor.MIN_FILL_RATE;
+import static org.briarproject.bramble.db.DatabaseCompactor.STEP_INTERVAL_MS;
+import static org.briarproject.bramble.db.DatabaseCompactor.TARGET_FILL_RATE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseCompactorTest extends BrambleMockTestCase {
+
+	private final Executor dbExecutor = context.mock(Executor.class);
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final TaskScheduler taskScheduler =
+			context.mock(TaskScheduler.class);
+	private final Cancellable scheduledTask = context.mock(Cancellable.class);
+
+	private final AtomicReference<Runnable> task = new AtomicReference<>();
+	private final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+
+	private final DatabaseCompactor compactor = new DatabaseCompactor(
+			dbExecutor, db, taskScheduler, new SettableClock(time));
+
+	@Test
+	public void testDoesNotCompactIfFillRateIsHighEnough() throws Exception {
+		Transaction txn = new Transaction(null, true);
+
+		expectSchedule(FIRST_CHECK_DELAY_MS);
+		compactor.startService();
+
+		// The fill rate is checked and the next check is scheduled
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getStorageFillRate(txn);
+			will(returnValue(MIN_FILL_RATE));
+		}});
+		expectSchedule(CHECK_INTERVAL_MS);
+		task.get().run();
+
+		// Stopping the service should cancel the next check
+		context.checking(new Expectations() {{
+			oneOf(scheduledTask).cancel();
+		}});
+		compactor.stopService();
+	}
+
+	@Test
+	public void testCompactsInStepsIfFillRateIsLow() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
+		long start = time.get();
+
+		expectSchedule(FIRST_CHECK_DELAY_MS);
+		compactor.startService();
+
+		// The fill rate is too low and the database has been idle since
+		// startup, so the first step of compaction runs and the next step
+		// is scheduled
+		long firstStep = start + FIRST_CHECK_DELAY_MS;
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getStorageFillRate(txn);
+			will(returnValue(MIN_FILL_RATE - 1));
+			oneOf(db).getLastWriteTime();
+			will(returnValue(start));
+			oneOf(db).transactionWithResult(with(false),
+					withDbCallable(txn1));
+			oneOf(db).getLastWriteTime();
+			will(returnValue(firstStep));
+			oneOf(db).compactStorage(txn1, TARGET_FILL_RATE,
+					MAX_STEP_DURATION_MS);
+			will(returnValue(true));
+			oneOf(db).getStorageFillRate(txn1);
+			will(returnValue(MIN_FILL_RATE + 1));
+		}});
+		expectSchedule(STEP_INTERVAL_MS);
+		runScheduledTask(FIRST_CHECK_DELAY_MS);
+
+		DatabaseCompactionEvent e = getCompactionEvent(txn1);
+		assertEquals(MIN_FILL_RATE + 1, e.getFillRate());
+		assertFalse(e.isFinished());
+
+		// The latest read-write transaction was our own step, so the
+		// second step runs without waiting. It finishes compaction, so the
+		// next check is scheduled
+		context.checking(new DbExpectations() {{
+			oneOf(db).getLastWriteTime();
+			will(returnValue(firstStep));
+			oneOf(db).transactionWithResult(with(false),
+					withDbCallable(txn2));
+			oneOf(db).getLastWriteTime();
+			will(returnValue(firstStep + STEP_INTERVAL_MS));
+			oneOf(db).compactStorage(txn2, TARGET_FILL_RATE,
+					MAX_STEP_DURATION_MS);
+			will(returnValue(false));
+			oneOf(db).getStorageFillRate(txn2);
+			will(returnValue(TARGET_FILL_RATE));
+		}});
+		expectSchedule(CHECK_INTERVAL_MS);
+		runScheduledTask(STEP_INTERVAL_MS);
+
+		e = getCompactionEvent(txn2);
+		assertEquals(TARGET_FILL_RATE, e.getFillRate());
+		assertTrue(e.isFinished());
+	}
+
+	@Test
+	public void testWaitsForDatabaseToBeIdleBeforeEachStep()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
+		long start = time.get();
+
+		expectSchedule(FIRST_CHECK_DELAY_MS);
+		compactor.startService();
+
+		// A write shortly before the check should delay the first step
+		// until the database has been idle for long enough
+		long firstWrite = start + FIRST_CHECK_DELAY_MS - 1;
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getStorageFillRate(txn);
+			will(returnValue(MIN_FILL_RATE - 1));
+			oneOf(db).getLastWriteTime();
+			will(returnValue(firstWrite));
+		}});
+		expectSchedule(IDLE_PERIOD_MS - 1);
+		runScheduledTask(FIRST_CHECK_DELAY_MS);
+
+		// Another write while waiting should delay the step again
+		long secondWrite = firstWrite + IDLE_PERIOD_MS - 2;
+		context.checking(new Expectations() {{
+			oneOf(db).getLastWriteTime();
+			will(returnValue(secondWrite));
+		}});
+		expectSchedule(IDLE_PERIOD_MS - 2);
+		runScheduledTask(IDLE_PERIOD_MS - 1);
+
+		// Once the database has been idle for long enough, the step runs
+		long firstStep = secondWrite + IDLE_PERIOD_MS;
+		context.checking(new DbExpectations() {{
+			oneOf(db).getLastWriteTime();
+			will(returnValue(secondWrite));
+			oneOf(db).transactionWithResult(with(false),
+					withDbCallable(txn1));
+			oneOf(db).getLastWriteTime();
+			will(returnValue(firstStep));
+			oneOf(db).compactStorage(txn1, TARGET_FILL_RATE,
+					MAX_STEP_DURATION_MS);
+			will(returnValue(true));
+			oneOf(db).getStorageFillRate(txn1);
+			will(returnValue(MIN_FILL_RATE + 1));
+		}});
+		expectSchedule(STEP_INTERVAL_MS);
+		runScheduledTask(IDLE_PERIOD_MS - 2);
+
+		// A write between steps should delay the next step
+		long thirdWrite = firstStep + 1;
+		context.checking(new Expectations() {{
+			oneOf(db).getLastWriteTime();
+			will(returnValue(thirdWrite));
+		}});
+		expectSchedule(IDLE_PERIOD_MS - STEP_INTERVAL_MS + 1);
+		runScheduledTask(STEP_INTERVAL_MS);
+
+		// Once the database has been idle for long enough, the next step
+		// runs
+		context.checking(new DbExpectations() {{
+			oneOf(db).getLastWriteTime();
+			will(returnValue(thirdWrite));
+			oneOf(db).transactionWithResult(with(false),
+					withDbCallable(txn2));
+			oneOf(db).getLastWriteTime();
+			will(returnValue(thirdWrite + IDLE_PERIOD_MS));
+			oneOf(db).compactStorage(txn2, TARGET_FILL_RATE,
+					MAX_STEP_DURATION_MS);
+			will(returnValue(false));
+			oneOf(db).getStorageFillRate(txn2);
+			will(returnValue(TARGET_FILL_RATE));
+		}});
+		expectSchedule(CHECK_INTERVAL_MS);
+		runScheduledTask(IDLE_PERIOD_MS - STEP_INTERVAL_MS + 1);
+
+		assertTrue(getCompactionEvent(txn2).isFinished());
+	}
+
+	@Test
+	public void testDoesNotScheduleTasksAfterStopping() throws Exception {
+		Transaction txn = new Transaction(null, true);
+
+		expectSchedule(FIRST_CHECK_DELAY_MS);
+		compactor.startService();
+
+		context.checking(new Expectations() {{
+			oneOf(scheduledTask).cancel();
+		}});
+		compactor.stopService();
+
+		// If the check was already running, the next check should not be
+		// scheduled
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getStorageFillRate(txn);
+			will(returnValue(MIN_FILL_RATE));
+		}});
+		task.get().run();
+	}
+
+	private void runScheduledTask(long delay) {
+		time.addAndGet(delay);
+		task.get().run();
+	}
+
+	private void expectSchedule(long delay) {
+		context.checking(new Expectations() {{
+			oneOf(taskScheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(delay), with(MILLISECONDS));
+			will(new DoAllAction(
+					new CaptureArgumentAction<>(task, Runnable.class, 0),
+					returnValue(scheduledTask)
+			));
+		}});
+	}
+
+	private DatabaseCompactionEvent getCompactionEvent(Transaction txn) {
+		List<CommitAction> actions = txn.getActions();
+		assertEquals(1, actions.size());
+		EventAction a = (EventAction) actions.get(0);
+		return (DatabaseCompactionEvent) a.getEvent();
+	}
+}
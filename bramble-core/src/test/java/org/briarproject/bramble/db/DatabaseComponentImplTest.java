@@ -11,6 +11,9 @@ import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.ContactExistsException;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
@@ -56,14 +59,23 @@ import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.SettableClock;
+import org.briarproject.bramble.test.TestDatabaseConfig;
 import org.jmock.Expectations;
 import org.jmock.Sequence;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Arrays.asList;
@@ -72,7 +84,8 @@ import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import static java.util.concurrent.TimeUnit.HOURS;
-import static org.briarproject.bramble.api.db.DatabaseComponent.TIMER_NOT_STARTED;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
@@ -111,6 +124,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			context.mock(ShutdownManager.class);
 	private final EventBus eventBus = context.mock(EventBus.class);
 	private final Executor eventExecutor = context.mock(Executor.class);
+	private final AtomicLong time = new AtomicLong(123);
+	private final SettableClock clock = new SettableClock(time);
 
 	private final SecretKey key = getSecretKey();
 	private final Object txn = new Object();
@@ -161,8 +176,33 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 	private DatabaseComponent createDatabaseComponent(Database<Object> database,
 			EventBus eventBus, Executor eventExecutor,
 			ShutdownManager shutdownManager) {
+		return createDatabaseComponent(database, eventBus, eventExecutor,
+				shutdownManager, 0);
+	}
+
+	private DatabaseComponent createDatabaseComponent(Database<Object> database,
+			EventBus eventBus, Executor eventExecutor,
+			ShutdownManager shutdownManager, int maxConcurrentReads) {
+		return createDatabaseComponent(database, eventBus, eventExecutor,
+				shutdownManager, maxConcurrentReads, false);
+	}
+
+	private DatabaseComponent createDatabaseComponent(Database<Object> database,
+			EventBus eventBus, Executor eventExecutor,
+			ShutdownManager shutdownManager, int maxConcurrentReads,
+			boolean groupCommit) {
+		if (maxConcurrentReads > 0) {
+			context.checking(new Expectations() {{
+				allowing(database).supportsConcurrentReads();
+				will(returnValue(true));
+			}});
+		}
+		// The delay is only used to enable group commit, as the database
+		// is mocked
+		DatabaseConfig config = new TestDatabaseConfig(new File("."),
+				maxConcurrentReads, groupCommit ? 1 : 0);
 		return new DatabaseComponentImpl<>(database, Object.class, eventBus,
-				eventExecutor, shutdownManager);
+				eventExecutor, shutdownManager, clock, config);
 	}
 
 	@Test
@@ -308,11 +348,11 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			throws Exception {
 		context.checking(new Expectations() {{
 			// Check whether the contact is in the DB (which it's not)
-			exactly(27).of(database).startTransaction();
+			exactly(29).of(database).startTransaction();
 			will(returnValue(txn));
-			exactly(27).of(database).containsContact(txn, contactId);
+			exactly(29).of(database).containsContact(txn, contactId);
 			will(returnValue(false));
-			exactly(27).of(database).abortTransaction(txn);
+			exactly(29).of(database).abortTransaction(txn);
 		}});
 		DatabaseComponent db = createDatabaseComponent(database, eventBus,
 				eventExecutor, shutdownManager);
@@ -359,6 +399,15 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			MessageCursor cursor = new MessageCursorImpl(contactId, 456);
+			db.transaction(false, transaction ->
+					db.generateBatch(transaction, cursor, 123, true));
+			fail();
+		} catch (NoSuchContactException expected) {
+			// Expected
+		}
+
 		try {
 			db.transaction(false, transaction ->
 					db.generateOffer(transaction, contactId, 123, 456));
@@ -383,6 +432,14 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(true, transaction ->
+					db.getMessageCursor(transaction, contactId, 123, false));
+			fail();
+		} catch (NoSuchContactException expected) {
+			// Expected
+		}
+
 		try {
 			db.transaction(false, transaction ->
 					db.getMessageToSend(transaction, contactId, messageId, 123,
@@ -599,11 +656,11 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			throws Exception {
 		context.checking(new Expectations() {{
 			// Check whether the group is in the DB (which it's not)
-			exactly(10).of(database).startTransaction();
+			exactly(11).of(database).startTransaction();
 			will(returnValue(txn));
-			exactly(10).of(database).containsGroup(txn, groupId);
+			exactly(11).of(database).containsGroup(txn, groupId);
 			will(returnValue(false));
-			exactly(10).of(database).abortTransaction(txn);
+			exactly(11).of(database).abortTransaction(txn);
 			// Allow other checks to pass
 			allowing(database).containsContact(txn, contactId);
 			will(returnValue(true));
@@ -660,6 +717,15 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(true, transaction ->
+					db.getMessageMetadata(transaction, groupId,
+							new Metadata(), singletonList("foo")));
+			fail();
+		} catch (NoSuchGroupException expected) {
+			// Expected
+		}
+
 		try {
 			db.transaction(true, transaction ->
 					db.getMessageStatus(transaction, contactId, groupId));
@@ -699,11 +765,11 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			throws Exception {
 		context.checking(new Expectations() {{
 			// Check whether the message is in the DB (which it's not)
-			exactly(16).of(database).startTransaction();
+			exactly(17).of(database).startTransaction();
 			will(returnValue(txn));
-			exactly(16).of(database).containsMessage(txn, messageId);
+			exactly(17).of(database).containsMessage(txn, messageId);
 			will(returnValue(false));
-			exactly(16).of(database).abortTransaction(txn);
+			exactly(17).of(database).abortTransaction(txn);
 			// Allow other checks to pass
 			allowing(database).containsContact(txn, contactId);
 			will(returnValue(true));
@@ -743,6 +809,14 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(true, transaction ->
+					db.getMessageBody(transaction, messageId, 0));
+			fail();
+		} catch (NoSuchMessageException expected) {
+			// Expected
+		}
+
 		try {
 			db.transaction(true, transaction ->
 					db.getMessageMetadata(transaction, messageId));
@@ -1028,6 +1102,124 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 						BATCH_CAPACITY, maxLatency)));
 	}
 
+	@Test
+	public void testGenerateBatchFromCursor() throws Exception {
+		List<MessageId> ids = asList(messageId, messageId1);
+		Map<MessageId, Message> found = new HashMap<>();
+		found.put(messageId, message);
+		found.put(messageId1, message1);
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			// Get the cursor
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			// First batch: scan from the start
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getMessagesToSend(txn, contactId, BATCH_CAPACITY,
+					maxLatency, 0, null);
+			will(returnValue(ids));
+			oneOf(database).getMessages(txn, ids);
+			will(returnValue(found));
+			oneOf(database).updateRetransmissionData(txn, contactId, ids,
+					maxLatency);
+			oneOf(database).lowerRequestedFlag(txn, contactId, ids);
+			// Second batch: continue from the last message
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getMessagesToSend(txn, contactId, BATCH_CAPACITY,
+					maxLatency, message1.getTimestamp(), messageId1);
+			will(returnValue(emptyList()));
+			oneOf(database).commitTransaction(txn);
+			oneOf(eventBus).broadcast(with(any(MessagesSentEvent.class)));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction -> {
+			MessageCursor cursor = db.getMessageCursor(transaction, contactId,
+					maxLatency, false);
+			assertFalse(cursor.isEager());
+			assertEquals(asList(message, message1), db.generateBatch(
+					transaction, cursor, BATCH_CAPACITY, true));
+			assertNull(db.generateBatch(transaction, cursor, BATCH_CAPACITY,
+					true));
+		});
+	}
+
+	@Test
+	public void testGenerateBatchFromCursorWithoutMarkingAsSent()
+			throws Exception {
+		List<MessageId> ids = singletonList(messageId);
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getMessagesToSend(txn, contactId, BATCH_CAPACITY,
+					maxLatency, 0, null);
+			will(returnValue(ids));
+			oneOf(database).getMessages(txn, ids);
+			will(returnValue(singletonMap(messageId, message)));
+			oneOf(database).commitTransaction(txn);
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		MessageCursor cursor = new MessageCursorImpl(contactId, maxLatency);
+		db.transaction(true, transaction ->
+				assertEquals(singletonList(message), db.generateBatch(
+						transaction, cursor, BATCH_CAPACITY, false)));
+	}
+
+	@Test
+	public void testGenerateEagerBatchSkipsInvisibleMessages()
+			throws Exception {
+		Map<MessageId, Integer> lengths = new LinkedHashMap<>();
+		lengths.put(messageId, message.getRawLength());
+		lengths.put(messageId1, message1.getRawLength());
+		List<MessageId> ids = asList(messageId, messageId1);
+		Collection<MessageId> visible = singletonList(messageId1);
+		List<MessageId> sent = singletonList(messageId1);
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			// Get the cursor
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getUnackedMessageLengthsToSend(txn, contactId);
+			will(returnValue(lengths));
+			// Generate the batch - the first message is no longer visible
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getVisibleMessages(txn, contactId, ids);
+			will(returnValue(visible));
+			oneOf(database).getMessages(txn, visible);
+			will(returnValue(singletonMap(messageId1, message1)));
+			oneOf(database).updateRetransmissionData(txn, contactId, sent,
+					maxLatency);
+			oneOf(database).lowerRequestedFlag(txn, contactId, sent);
+			// No more messages
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).commitTransaction(txn);
+			oneOf(eventBus).broadcast(with(any(MessagesSentEvent.class)));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction -> {
+			MessageCursor cursor = db.getMessageCursor(transaction, contactId,
+					maxLatency, true);
+			assertTrue(cursor.isEager());
+			assertEquals(singletonList(message1), db.generateBatch(
+					transaction, cursor, BATCH_CAPACITY, true));
+			assertNull(db.generateBatch(transaction, cursor, BATCH_CAPACITY,
+					true));
+		});
+	}
+
 	@Test
 	public void testGenerateOffer() throws Exception {
 		MessageId messageId1 = new MessageId(getRandomId());
@@ -1186,12 +1378,13 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			will(returnValue(txn));
 			oneOf(database).containsContact(txn, contactId);
 			will(returnValue(true));
-			oneOf(database).containsVisibleMessage(txn, contactId, messageId);
-			will(returnValue(true));
-			oneOf(database).raiseSeenFlag(txn, contactId, messageId);
-			will(returnValue(true));
-			oneOf(database).startCleanupTimer(txn, messageId);
-			will(returnValue(TIMER_NOT_STARTED)); // No cleanup duration was set
+			oneOf(database).getVisibleMessages(txn, contactId,
+					singletonList(messageId));
+			will(returnValue(singletonList(messageId)));
+			oneOf(database).raiseSeenFlags(txn, contactId,
+					singletonList(messageId));
+			oneOf(database).startCleanupTimers(txn, singletonList(messageId));
+			will(returnValue(emptyMap())); // No cleanup duration was set
 			oneOf(database).commitTransaction(txn);
 			oneOf(eventBus).broadcast(with(any(MessagesAckedEvent.class)));
 		}});
@@ -1205,16 +1398,15 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 	}
 
 	@Test
-	public void testReceiveDuplicateAck() throws Exception {
+	public void testReceiveAckForInvisibleMessage() throws Exception {
 		context.checking(new Expectations() {{
 			oneOf(database).startTransaction();
 			will(returnValue(txn));
 			oneOf(database).containsContact(txn, contactId);
 			will(returnValue(true));
-			oneOf(database).containsVisibleMessage(txn, contactId, messageId);
-			will(returnValue(true));
-			oneOf(database).raiseSeenFlag(txn, contactId, messageId);
-			will(returnValue(false)); // Already acked
+			oneOf(database).getVisibleMessages(txn, contactId,
+					singletonList(messageId));
+			will(returnValue(emptyList())); // Not visible to the contact
 			oneOf(database).commitTransaction(txn);
 		}});
 		DatabaseComponent db = createDatabaseComponent(database, eventBus,
@@ -1234,12 +1426,13 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			will(returnValue(txn));
 			oneOf(database).containsContact(txn, contactId);
 			will(returnValue(true));
-			oneOf(database).containsVisibleMessage(txn, contactId, messageId);
-			will(returnValue(true));
-			oneOf(database).raiseSeenFlag(txn, contactId, messageId);
-			will(returnValue(true));
-			oneOf(database).startCleanupTimer(txn, messageId);
-			will(returnValue(deadline));
+			oneOf(database).getVisibleMessages(txn, contactId,
+					singletonList(messageId));
+			will(returnValue(singletonList(messageId)));
+			oneOf(database).raiseSeenFlags(txn, contactId,
+					singletonList(messageId));
+			oneOf(database).startCleanupTimers(txn, singletonList(messageId));
+			will(returnValue(singletonMap(messageId, deadline)));
 			oneOf(database).commitTransaction(txn);
 			oneOf(eventBus).broadcast(with(any(
 					CleanupTimerStartedEvent.class)));
@@ -1337,6 +1530,37 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 				db.receiveMessage(transaction, contactId, message));
 	}
 
+	@Test
+	public void testReceiveMessages() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			// The visibility of the group is only looked up once
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(VISIBLE));
+			oneOf(database).containsMessage(txn, messageId);
+			will(returnValue(false));
+			oneOf(database).addMessage(txn, message, UNKNOWN, false, false,
+					contactId);
+			oneOf(database).containsMessage(txn, messageId1);
+			will(returnValue(true));
+			oneOf(database).raiseSeenFlag(txn, contactId, messageId1);
+			oneOf(database).raiseAckFlag(txn, contactId, messageId1);
+			oneOf(database).commitTransaction(txn);
+			// One message was added, and both messages need to be acked
+			oneOf(eventBus).broadcast(with(any(MessageAddedEvent.class)));
+			oneOf(eventBus).broadcast(with(any(MessageToAckEvent.class)));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction ->
+				db.receiveMessages(transaction, contactId,
+						asList(message, message1)));
+	}
+
 	@Test
 	public void testReceiveOffer() throws Exception {
 		MessageId messageId1 = new MessageId(getRandomId());
@@ -1350,22 +1574,18 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// There's room for two more offered messages
 			oneOf(database).countOfferedMessages(txn, contactId);
 			will(returnValue(MAX_OFFERED_MESSAGES - 2));
-			// The first message isn't visible - request it
-			oneOf(database).containsVisibleMessage(txn, contactId, messageId);
-			will(returnValue(false));
-			oneOf(database).addOfferedMessage(txn, contactId, messageId);
-			// The second message is visible - ack it
-			oneOf(database).containsVisibleMessage(txn, contactId, messageId1);
-			will(returnValue(true));
-			oneOf(database).raiseSeenFlag(txn, contactId, messageId1);
-			oneOf(database).raiseAckFlag(txn, contactId, messageId1);
-			// The third message isn't visible - request it
-			oneOf(database).containsVisibleMessage(txn, contactId, messageId2);
-			will(returnValue(false));
-			oneOf(database).addOfferedMessage(txn, contactId, messageId2);
-			// The fourth message isn't visible, but there's no room to store it
-			oneOf(database).containsVisibleMessage(txn, contactId, messageId3);
-			will(returnValue(false));
+			// Only the second message is visible - ack it
+			oneOf(database).getVisibleMessages(txn, contactId, asList(messageId,
+					messageId1, messageId2, messageId3));
+			will(returnValue(singletonList(messageId1)));
+			oneOf(database).raiseSeenFlags(txn, contactId,
+					singletonList(messageId1));
+			oneOf(database).raiseAckFlags(txn, contactId,
+					singletonList(messageId1));
+			// Request the first and third messages. The fourth message isn't
+			// visible, but there's no room to store it
+			oneOf(database).addOfferedMessages(txn, contactId,
+					asList(messageId, messageId2));
 			oneOf(database).commitTransaction(txn);
 			oneOf(eventBus).broadcast(with(any(MessageToAckEvent.class)));
 			oneOf(eventBus).broadcast(with(any(MessageToRequestEvent.class)));
@@ -1954,6 +2174,161 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 		});
 	}
 
+	@Test
+	public void testCommitActionsOccurWhenTransactionIsWrittenToDisk()
+			throws Exception {
+		TestEvent action = new TestEvent();
+		AtomicReference<Runnable> onDurable = new AtomicReference<>();
+
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).commitTransaction(with(txn), with(false),
+					with(any(Runnable.class)));
+			will(new CaptureArgumentAction<>(onDurable, Runnable.class, 2));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager, 0, true);
+
+		db.transaction(false, transaction -> transaction.attach(action));
+		context.assertIsSatisfied();
+
+		// The action should occur when the transaction is written to disk
+		context.checking(new Expectations() {{
+			oneOf(eventBus).broadcast(action);
+		}});
+		onDurable.get().run();
+	}
+
+	@Test
+	public void testSynchronousCommitIsPassedToDatabase() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).commitTransaction(with(txn), with(true),
+					with(any(Runnable.class)));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager, 0, true);
+
+		db.transaction(false, transaction ->
+				transaction.setSynchronousCommit());
+	}
+
+	@Test
+	public void testReadOnlyTransactionCanRunDuringReadWriteTransaction()
+			throws Exception {
+		context.checking(new Expectations() {{
+			exactly(2).of(database).startTransaction();
+			will(returnValue(txn));
+			exactly(2).of(database).commitTransaction(txn);
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager, 1);
+
+		CountDownLatch readFinished = new CountDownLatch(1);
+		db.transaction(false, writeTxn -> {
+			// Start a read-only transaction on another thread while the
+			// read-write transaction is open
+			new Thread(() -> {
+				try {
+					db.transaction(true, readTxn -> readFinished.countDown());
+				} catch (DbException e) {
+					fail();
+				}
+			}).start();
+			assertTrue(readFinished.await(10, SECONDS));
+		});
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testConcurrentReadOnlyTransactionsCannotBeNested()
+			throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).abortTransaction(txn);
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager, 2);
+
+		db.transaction(true, outer -> db.startTransaction(true));
+	}
+
+	@Test
+	public void testReadOnlyTransactionWaitsIfConcurrentReadsUnsupported()
+			throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(database).supportsConcurrentReads();
+			will(returnValue(false));
+			exactly(2).of(database).startTransaction();
+			will(returnValue(txn));
+			exactly(2).of(database).commitTransaction(txn);
+		}});
+		DatabaseConfig config = new TestDatabaseConfig(new File("."), 1);
+		DatabaseComponent db = new DatabaseComponentImpl<>(database,
+				Object.class, eventBus, eventExecutor, shutdownManager, clock,
+				config);
+
+		CountDownLatch readFinished = new CountDownLatch(1);
+		Thread reader = new Thread(() -> {
+			try {
+				db.transaction(true, readTxn -> readFinished.countDown());
+			} catch (DbException e) {
+				fail();
+			}
+		});
+		db.transaction(false, writeTxn -> {
+			// Start a read-only transaction on another thread while the
+			// read-write transaction is open - it should have to wait
+			reader.start();
+			assertFalse(readFinished.await(100, MILLISECONDS));
+		});
+		// Once the read-write transaction has finished, the read-only
+		// transaction can run
+		assertTrue(readFinished.await(10, SECONDS));
+		reader.join();
+	}
+
+	@Test
+	public void testLastWriteTimeIsRecordedForReadWriteTransactions()
+			throws Exception {
+		context.checking(new Expectations() {{
+			exactly(3).of(database).startTransaction();
+			will(returnValue(txn));
+			exactly(3).of(database).commitTransaction(txn);
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		assertEquals(0, db.getLastWriteTime());
+		// A read-write transaction should record the time
+		db.transaction(false, transaction -> {});
+		assertEquals(123, db.getLastWriteTime());
+		// A read-only transaction should not change the time
+		time.set(456);
+		db.transaction(true, transaction -> {});
+		assertEquals(123, db.getLastWriteTime());
+		// Another read-write transaction should update the time
+		db.transaction(false, transaction -> {});
+		assertEquals(456, db.getLastWriteTime());
+	}
+
+	@Test
+	public void testStorageIsNotCompactedIfConcurrentReadsAreAllowed()
+			throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).commitTransaction(txn);
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager, 1);
+
+		assertFalse(db.transactionWithResult(false, transaction ->
+				db.compactStorage(transaction, 90, 1000)));
+	}
+
 	private static class TestEvent extends Event {
 	}
 }
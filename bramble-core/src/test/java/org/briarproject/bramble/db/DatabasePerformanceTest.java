@@ -7,6 +7,7 @@ import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.Identity;
 import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.settings.Settings;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
@@ -25,6 +26,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.sql.Connection;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -32,6 +34,9 @@ import java.util.Map;
 import java.util.Random;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
+import static java.util.Collections.singletonList;
 import static java.util.logging.Level.OFF;
 import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
@@ -85,6 +90,28 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 	private static final int METADATA_VALUE_LENGTH = 100;
 	private static final int OFFERED_MESSAGES_PER_CONTACT = 100;
 
+	/**
+	 * How many messages to simulate in the large group, which is shared with
+	 * the first contact and is only created for benchmarks that need it.
+	 */
+	private static final int LARGE_GROUP_MESSAGES = 10_000;
+	/**
+	 * How many distinct values the large group's message type key has.
+	 */
+	private static final int LARGE_GROUP_MESSAGE_TYPES = 4;
+	private static final String KEY_TYPE = "type";
+	private static final String KEY_TIMESTAMP = "timestamp";
+
+	/**
+	 * How many sessions to simulate in the session group, which is shared
+	 * with the first contact and is only created for benchmarks that need
+	 * it. Each session is stored in the metadata of a message, as the
+	 * introduction, sharing and group invitation clients do.
+	 */
+	private static final int SESSION_GROUP_SESSIONS = 10_000;
+	static final String KEY_SESSION_ID = "sessionId";
+	static final String KEY_IS_SESSION = "isSession";
+
 	/**
 	 * How many benchmark iterations to run in each block.
 	 */
@@ -114,6 +141,14 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 	private Map<GroupId, List<Metadata>> messageMeta;
 	private Map<ContactId, List<Group>> contactGroups;
 	private Map<GroupId, List<MessageId>> groupMessages;
+	private boolean populateLargeGroup = false;
+	@Nullable
+	private Group largeGroup;
+	private List<MessageId> largeGroupMessages;
+	private boolean populateSessionGroup = false;
+	@Nullable
+	private Group sessionGroup;
+	private List<byte[]> sessionIds;
 
 	protected abstract String getTestName();
 
@@ -382,6 +417,120 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		});
 	}
 
+	@Test
+	public void testGetMessageMetadataWithMatchingQuery() throws Exception {
+		String name = "getMessageMetadata(T, GroupId, Metadata) [match]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			GroupId g = pickRandom(groups).getId();
+			db.getMessageMetadata(txn, g, pickRandom(messageMeta.get(g)));
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testGetMessageMetadataWithQueryInLargeGroup()
+			throws Exception {
+		String name = "getMessageMetadata(T, GroupId, Metadata) [10k]";
+		populateLargeGroup = true;
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			db.getMessageMetadata(txn, getLargeGroupId(),
+					getLargeGroupQuery());
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testGetMessageMetadataWithQueryAndKeysInLargeGroup()
+			throws Exception {
+		String name =
+				"getMessageMetadata(T, GroupId, Metadata, Collection) [10k]";
+		populateLargeGroup = true;
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			db.getMessageMetadata(txn, getLargeGroupId(),
+					getLargeGroupQuery(), singletonList(KEY_TIMESTAMP));
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testGetMessageIdsForSession() throws Exception {
+		String name = "getMessageIds(T, GroupId, Metadata) [10k sessions]";
+		populateSessionGroup = true;
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			db.getMessageIds(txn, getSessionGroupId(), getSessionQuery());
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testGetMessageMetadataForSession() throws Exception {
+		String name =
+				"getMessageMetadata(T, GroupId, Metadata) [10k sessions]";
+		populateSessionGroup = true;
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			Metadata query = getSessionQuery();
+			query.put(KEY_IS_SESSION, new byte[] {1});
+			db.getMessageMetadata(txn, getSessionGroupId(), query);
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testReceiveAckStormPerMessage() throws Exception {
+		String name = "receiveAck per message [10k]";
+		populateLargeGroup = true;
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			ContactId c = contacts.get(0).getId();
+			for (MessageId m : largeGroupMessages) {
+				if (db.containsVisibleMessage(txn, c, m)) {
+					if (db.raiseSeenFlag(txn, c, m))
+						db.startCleanupTimer(txn, m);
+				}
+			}
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testReceiveAckStormBulk() throws Exception {
+		String name = "receiveAck bulk [10k]";
+		populateLargeGroup = true;
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			ContactId c = contacts.get(0).getId();
+			// Each ack record contains up to MAX_MESSAGE_IDS IDs
+			for (int i = 0; i < largeGroupMessages.size();
+					i += MAX_MESSAGE_IDS) {
+				int end = Math.min(i + MAX_MESSAGE_IDS,
+						largeGroupMessages.size());
+				Collection<MessageId> visible = db.getVisibleMessages(txn, c,
+						largeGroupMessages.subList(i, end));
+				db.raiseSeenFlags(txn, c, visible);
+				db.startCleanupTimers(txn, visible);
+			}
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testCommitSmallWrite() throws Exception {
+		String name = "commitTransaction(T, boolean, Runnable) [small write]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			Settings s = new Settings();
+			s.putLong("counter", random.nextLong());
+			db.mergeSettings(txn, s, "test");
+			db.commitTransaction(txn, false, () -> {
+			});
+		});
+	}
+
 	@Test
 	public void testGetMessageMetadataByMessageId() throws Exception {
 		String name = "getMessageMetadata(T, MessageId)";
@@ -616,9 +765,66 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 				groupMessages.get(g.getId()).add(m.getId());
 			}
 		}
+		largeGroupMessages = new ArrayList<>();
+		if (populateLargeGroup) {
+			largeGroup = getGroup(clientIds.get(0), 123);
+			db.addGroup(txn, largeGroup);
+			ContactId c = contacts.get(0).getId();
+			db.addGroupVisibility(txn, c, largeGroup.getId(), true);
+			for (int i = 0; i < LARGE_GROUP_MESSAGES; i++) {
+				Message m = getMessage(largeGroup.getId());
+				largeGroupMessages.add(m.getId());
+				db.addMessage(txn, m, DELIVERED, true, false, null);
+				Metadata mm = getMetadata(METADATA_KEYS_PER_MESSAGE);
+				mm.put(KEY_TYPE, new byte[] {
+						(byte) random.nextInt(LARGE_GROUP_MESSAGE_TYPES)});
+				mm.put(KEY_TIMESTAMP, getRandomBytes(8));
+				db.mergeMessageMetadata(txn, m.getId(), mm);
+			}
+		}
+		sessionIds = new ArrayList<>();
+		if (populateSessionGroup) {
+			sessionGroup = getGroup(clientIds.get(0), 123);
+			db.addGroup(txn, sessionGroup);
+			ContactId c = contacts.get(0).getId();
+			db.addGroupVisibility(txn, c, sessionGroup.getId(), true);
+			for (int i = 0; i < SESSION_GROUP_SESSIONS; i++) {
+				Message m = getMessage(sessionGroup.getId());
+				byte[] sessionId = getRandomId();
+				sessionIds.add(sessionId);
+				db.addMessage(txn, m, DELIVERED, false, false, null);
+				Metadata mm = getMetadata(METADATA_KEYS_PER_MESSAGE);
+				mm.put(KEY_SESSION_ID, sessionId);
+				mm.put(KEY_IS_SESSION, new byte[] {1});
+				db.mergeMessageMetadata(txn, m.getId(), mm);
+			}
+		}
 		db.commitTransaction(txn);
 	}
 
+	private GroupId getSessionGroupId() {
+		if (sessionGroup == null) throw new AssertionError();
+		return sessionGroup.getId();
+	}
+
+	private Metadata getSessionQuery() {
+		Metadata query = new Metadata();
+		query.put(KEY_SESSION_ID, pickRandom(sessionIds));
+		return query;
+	}
+
+	private GroupId getLargeGroupId() {
+		if (largeGroup == null) throw new AssertionError();
+		return largeGroup.getId();
+	}
+
+	private Metadata getLargeGroupQuery() {
+		Metadata query = new Metadata();
+		query.put(KEY_TYPE, new byte[] {
+				(byte) random.nextInt(LARGE_GROUP_MESSAGE_TYPES)});
+		return query;
+	}
+
 	private ClientId getClientId() {
 		return new ClientId(getRandomString(CLIENT_ID_LENGTH));
 	}
@@ -0,0 +1,194 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.logging.Logger;
+
+import static java.util.Arrays.copyOfRange;
+import static java.util.Collections.singletonList;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.crypto.TestCryptoUtils.createCryptoComponent;
+import static org.briarproject.bramble.crypto.TestCryptoUtils.getCipherProvider;
+import static org.briarproject.bramble.db.FileBlobStore.FRAME_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.util.IoUtils.copyAndClose;
+import static org.briarproject.bramble.util.IoUtils.tryToClose;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileBlobStoreTest extends BrambleTestCase {
+
+	private static final Logger LOG =
+			getLogger(FileBlobStoreTest.class.getName());
+
+	private final File testDir = TestUtils.getTestDirectory();
+	private final CryptoComponent crypto = createCryptoComponent();
+	private final SecretKey key = getSecretKey();
+	private final MessageId messageId = new MessageId(getRandomId());
+
+	private FileBlobStore blobStore;
+
+	@Before
+	public void setUp() {
+		assertTrue(testDir.mkdirs());
+		blobStore = new FileBlobStore(testDir, key, crypto,
+				getCipherProvider());
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		int[] lengths = {0, 1, FRAME_LENGTH - 1, FRAME_LENGTH,
+				FRAME_LENGTH + 1, FRAME_LENGTH * 3 + 17};
+		for (int length : lengths) {
+			byte[] blob = getRandomBytes(length);
+			blobStore.write(messageId, blob, 0, length);
+			assertArrayEquals(blob, read(blobStore, messageId, 0));
+		}
+	}
+
+	@Test
+	public void testWriteFromOffsetInSourceArray() throws Exception {
+		byte[] src = getRandomBytes(FRAME_LENGTH * 2);
+		blobStore.write(messageId, src, 123, FRAME_LENGTH);
+		assertArrayEquals(copyOfRange(src, 123, 123 + FRAME_LENGTH),
+				read(blobStore, messageId, 0));
+	}
+
+	@Test
+	public void testReadFromOffset() throws Exception {
+		byte[] blob = getRandomBytes(FRAME_LENGTH * 2);
+		blobStore.write(messageId, blob, 0, blob.length);
+		int[] offsets = {1, FRAME_LENGTH - 1, FRAME_LENGTH, FRAME_LENGTH + 1,
+				blob.length - 1, blob.length};
+		for (int offset : offsets) {
+			assertArrayEquals(copyOfRange(blob, offset, blob.length),
+					read(blobStore, messageId, offset));
+		}
+	}
+
+	@Test
+	public void testModifiedBlobIsRejected() throws Exception {
+		byte[] blob = getRandomBytes(FRAME_LENGTH + 1);
+		blobStore.write(messageId, blob, 0, blob.length);
+		File file = blobStore.getFile(messageId);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length() / 2);
+		int b = raf.read();
+		raf.seek(raf.length() / 2);
+		raf.write(b ^ 1);
+		raf.close();
+		assertUnreadable(blobStore, messageId);
+	}
+
+	@Test
+	public void testTruncatedBlobIsRejected() throws Exception {
+		byte[] blob = getRandomBytes(FRAME_LENGTH * 2);
+		blobStore.write(messageId, blob, 0, blob.length);
+		// Remove the final frame, leaving the file ending on a frame boundary
+		File file = blobStore.getFile(messageId);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - FRAME_LENGTH - MAC_LENGTH);
+		raf.close();
+		assertUnreadable(blobStore, messageId);
+	}
+
+	@Test
+	public void testBlobCannotBeReadWithAnotherKey() throws Exception {
+		byte[] blob = getRandomBytes(123);
+		blobStore.write(messageId, blob, 0, blob.length);
+		SecretKey otherKey = getSecretKey();
+		FileBlobStore other = new FileBlobStore(testDir, otherKey, crypto,
+				getCipherProvider());
+		assertUnreadable(other, messageId);
+	}
+
+	@Test
+	public void testBlobCannotBeSubstitutedForAnotherMessage()
+			throws Exception {
+		byte[] blob = getRandomBytes(123);
+		blobStore.write(messageId, blob, 0, blob.length);
+		MessageId otherId = new MessageId(getRandomId());
+		File otherFile = blobStore.getFile(otherId);
+		File parent = otherFile.getParentFile();
+		assertTrue(parent.isDirectory() || parent.mkdirs());
+		assertTrue(blobStore.getFile(messageId).renameTo(otherFile));
+		assertUnreadable(blobStore, otherId);
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		byte[] blob = getRandomBytes(123);
+		blobStore.write(messageId, blob, 0, blob.length);
+		blobStore.delete(messageId);
+		try {
+			blobStore.read(messageId, 0);
+			fail();
+		} catch (IOException expected) {
+			// Expected
+		}
+		// Deleting a missing blob does nothing
+		blobStore.delete(messageId);
+	}
+
+	@Test
+	public void testRecoverDeletesPartiallyWrittenBlobs() throws Exception {
+		byte[] blob = getRandomBytes(123);
+		blobStore.write(messageId, blob, 0, blob.length);
+		File file = blobStore.getFile(messageId);
+		File temp = new File(file.getParentFile(), "abcd.tmp");
+		assertTrue(temp.createNewFile());
+
+		Collection<MessageId> ids = blobStore.recover();
+		assertEquals(singletonList(messageId), ids);
+		assertTrue(file.exists());
+		assertFalse(temp.exists());
+	}
+
+	private byte[] read(BlobStore blobStore, MessageId m, int offset)
+			throws IOException {
+		InputStream in = blobStore.read(m, offset);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		copyAndClose(in, out);
+		return out.toByteArray();
+	}
+
+	private void assertUnreadable(BlobStore blobStore, MessageId m) {
+		InputStream in = null;
+		try {
+			in = blobStore.read(m, 0);
+			byte[] buf = new byte[FRAME_LENGTH];
+			//noinspection StatementWithEmptyBody
+			while (in.read(buf) != -1) ;
+			fail();
+		} catch (IOException expected) {
+			// Expected
+		} finally {
+			tryToClose(in, LOG, WARNING);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		TestUtils.deleteTestDirectory(testDir);
+	}
+}
@@ -0,0 +1,187 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.util.Collections.emptyList;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.db.DatabaseCompactor.MAX_STEP_DURATION_MS;
+import static org.briarproject.bramble.db.DatabaseCompactor.TARGET_FILL_RATE;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that read-only transactions interleaved with the steps of
+ * background compaction always see the committed data, and that compaction
+ * doesn't reduce the fill rate of the storage.
+ * <p>
+ * The readers and the steps share a lock in the same way as transactions
+ * in {@link DatabaseComponentImpl}, which doesn't allow read-only
+ * transactions to run concurrently with read-write transactions for H2.
+ */
+public class H2CompactionTest extends BrambleTestCase {
+
+	private static final int READERS = 4;
+	private static final int MESSAGES = 2000;
+	private static final int BODY_LENGTH = 1024;
+	private static final int MAX_STEPS = 100;
+
+	private final File testDir = getTestDirectory();
+	private final SecretKey key = getSecretKey();
+	private final Group group = getGroup(getClientId(), 123);
+	private final Random random = new Random();
+
+	@Before
+	public void setUp() {
+		assertTrue(testDir.mkdirs());
+	}
+
+	@After
+	public void tearDown() {
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testConcurrentReadsDuringCompaction() throws Exception {
+		JdbcDatabase db = open();
+		List<Message> kept = addAndDeleteMessages(db);
+		int before = getStorageFillRate(db);
+		compactWhileReading(db, kept);
+		assertTrue(getStorageFillRate(db) >= before);
+		db.close();
+
+		// All the remaining messages should survive reopening the database
+		JdbcDatabase reopened = open();
+		Connection txn = reopened.startTransaction();
+		for (Message m : kept) {
+			assertArrayEquals(m.getBody(),
+					reopened.getMessage(txn, m.getId()).getBody());
+		}
+		reopened.commitTransaction(txn);
+		reopened.close();
+	}
+
+	/**
+	 * Adds some messages, then deletes most of them so the storage is
+	 * sparsely used, and returns the messages that remain.
+	 */
+	private List<Message> addAndDeleteMessages(JdbcDatabase db)
+			throws Exception {
+		List<Message> added = new ArrayList<>();
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		for (int i = 0; i < MESSAGES; i++) {
+			Message m = getMessage(group.getId(), BODY_LENGTH);
+			db.addMessage(txn, m, DELIVERED, true, false, null);
+			added.add(m);
+		}
+		db.commitTransaction(txn);
+		List<Message> kept = new ArrayList<>();
+		txn = db.startTransaction();
+		for (int i = 0; i < MESSAGES; i++) {
+			Message m = added.get(i);
+			if (i % 4 == 0) kept.add(m);
+			else db.deleteMessage(txn, m.getId());
+		}
+		db.commitTransaction(txn);
+		return kept;
+	}
+
+	private int getStorageFillRate(JdbcDatabase db) throws Exception {
+		Connection txn = db.startTransaction();
+		int fillRate = db.getStorageFillRate(txn);
+		db.commitTransaction(txn);
+		return fillRate;
+	}
+
+	/**
+	 * Compacts the storage in steps between reads of the given messages by
+	 * other threads, and checks that every read returns the committed data.
+	 */
+	private void compactWhileReading(JdbcDatabase db, List<Message> kept)
+			throws Exception {
+		ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+		AtomicBoolean done = new AtomicBoolean(false);
+		AtomicInteger reads = new AtomicInteger(0);
+		List<Throwable> errors = new CopyOnWriteArrayList<>();
+		List<Thread> readers = new ArrayList<>();
+		for (int i = 0; i < READERS; i++) {
+			Thread reader = new Thread(() -> {
+				try {
+					while (!done.get()) {
+						Message m = kept.get(random.nextInt(kept.size()));
+						Message read;
+						lock.readLock().lock();
+						try {
+							Connection txn = db.startTransaction();
+							read = db.getMessage(txn, m.getId());
+							db.commitTransaction(txn);
+						} finally {
+							lock.readLock().unlock();
+						}
+						assertEquals(m.getId(), read.getId());
+						assertArrayEquals(m.getBody(), read.getBody());
+						reads.incrementAndGet();
+					}
+				} catch (Throwable t) {
+					errors.add(t);
+				}
+			});
+			reader.start();
+			readers.add(reader);
+		}
+		try {
+			// Wait for the readers to get going before compacting
+			while (reads.get() == 0 && errors.isEmpty()) Thread.yield();
+			for (int i = 0; i < MAX_STEPS; i++) {
+				boolean more;
+				lock.writeLock().lock();
+				try {
+					Connection txn = db.startTransaction();
+					more = db.compactStorage(txn, TARGET_FILL_RATE,
+							MAX_STEP_DURATION_MS);
+					db.commitTransaction(txn);
+				} finally {
+					lock.writeLock().unlock();
+				}
+				if (!more) break;
+			}
+		} finally {
+			done.set(true);
+			for (Thread reader : readers) reader.join();
+		}
+		assertEquals(emptyList(), errors);
+	}
+
+	private JdbcDatabase open() throws Exception {
+		JdbcDatabase db = new H2Database(new TestDatabaseConfig(testDir),
+				new TestMessageFactory(), new SystemClock());
+		db.open(key, null);
+		return db;
+	}
+}
@@ -4,11 +4,15 @@ import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.system.Clock;
 
+import static org.briarproject.bramble.crypto.TestCryptoUtils.createCryptoComponent;
+import static org.briarproject.bramble.crypto.TestCryptoUtils.getCipherProvider;
+
 public class H2DatabaseTest extends JdbcDatabaseTest {
 
 	@Override
 	protected JdbcDatabase createDatabase(DatabaseConfig config,
 			MessageFactory messageFactory, Clock clock) {
-		return new H2Database(config, messageFactory, clock);
+		return new H2Database(config, messageFactory, clock,
+				createCryptoComponent(), getCipherProvider());
 	}
 }
@@ -0,0 +1,39 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.junit.Ignore;
+
+import java.io.File;
+import java.sql.Connection;
+
+/**
+ * Compares the performance of the H2 database with group commit enabled
+ * (condition A) and disabled (condition B).
+ */
+@Ignore
+public class H2GroupCommitDatabasePerformanceComparisonTest
+		extends DatabasePerformanceComparisonTest {
+
+	private static final long GROUP_COMMIT_DELAY_MS = 10;
+
+	@Override
+	Database<Connection> createDatabase(boolean conditionA,
+			DatabaseConfig databaseConfig, MessageFactory messageFactory,
+			Clock clock) {
+		if (conditionA) {
+			File testDir = databaseConfig.getDatabaseDirectory()
+					.getParentFile();
+			databaseConfig = new TestDatabaseConfig(testDir, 0,
+					GROUP_COMMIT_DELAY_MS);
+		}
+		return new H2Database(databaseConfig, messageFactory, clock);
+	}
+
+	@Override
+	protected String getTestName() {
+		return getClass().getSimpleName();
+	}
+}
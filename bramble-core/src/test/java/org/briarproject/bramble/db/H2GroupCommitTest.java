@@ -0,0 +1,272 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.settings.Settings;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.briarproject.nullsafety.NotNullByDefault;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.db.JdbcDatabase.MAX_INLINE_BODY_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class H2GroupCommitTest extends BrambleTestCase {
+
+	// Long enough that a background sync never happens during a test
+	private static final long LONG_DELAY_MS = 60_000;
+	private static final long SHORT_DELAY_MS = 10;
+
+	private final File testDir = getTestDirectory();
+	private final SecretKey key = getSecretKey();
+	private final Group group = getGroup(getClientId(), 123);
+	private final List<String> tasksRun = new CopyOnWriteArrayList<>();
+	private final AtomicInteger syncs = new AtomicInteger(0);
+	private final AtomicInteger syncFailures = new AtomicInteger(0);
+	private final List<MessageId> blobsDeleted =
+			new CopyOnWriteArrayList<>();
+
+	@Before
+	public void setUp() {
+		assertTrue(testDir.mkdirs());
+	}
+
+	@After
+	public void tearDown() {
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testTasksDoNotRunUntilSynced() throws Exception {
+		JdbcDatabase db = open(LONG_DELAY_MS);
+		commit(db, "a", false);
+		commit(db, "b", false);
+		// Nothing has been written to disk, so no tasks have run
+		assertEquals(0, syncs.get());
+		assertEquals(emptyList(), tasksRun);
+		db.close();
+	}
+
+	@Test
+	public void testTasksRunAfterDelay() throws Exception {
+		JdbcDatabase db = open(SHORT_DELAY_MS);
+		CountDownLatch latch = new CountDownLatch(1);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.commitTransaction(txn, false, latch::countDown);
+		// The transaction should be written to disk in the background
+		assertTrue(latch.await(10, SECONDS));
+		assertTrue(syncs.get() > 0);
+		db.close();
+	}
+
+	@Test
+	public void testSyncCommitWritesEarlierCommitsInOrder() throws Exception {
+		JdbcDatabase db = open(LONG_DELAY_MS);
+		commit(db, "a", false);
+		commit(db, "b", false);
+		commit(db, "c", false);
+		assertEquals(emptyList(), tasksRun);
+		// A synchronous commit should write all the earlier transactions
+		// to disk with one sync and run their tasks in commit order
+		commit(db, "d", true);
+		assertEquals(1, syncs.get());
+		assertEquals(asList("a", "b", "c", "d"), tasksRun);
+		db.close();
+	}
+
+	@Test
+	public void testPendingTasksRunWhenClosed() throws Exception {
+		JdbcDatabase db = open(LONG_DELAY_MS);
+		commit(db, "a", false);
+		commit(db, "b", false);
+		assertEquals(emptyList(), tasksRun);
+		// Closing the database should write the transactions to disk
+		db.close();
+		assertEquals(1, syncs.get());
+		assertEquals(asList("a", "b"), tasksRun);
+	}
+
+	@Test
+	public void testBlobsAreDeletedWhenDeletionIsSynced() throws Exception {
+		Message message =
+				getMessage(group.getId(), MAX_INLINE_BODY_LENGTH + 1);
+		JdbcDatabase db = open(LONG_DELAY_MS);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.commitTransaction(txn, true, () -> tasksRun.add("add"));
+
+		// Delete the message - the blob is still referenced by the copy of
+		// the database on disk, so it should not be deleted yet
+		txn = db.startTransaction();
+		db.deleteMessage(txn, message.getId());
+		db.commitTransaction(txn, false, () -> tasksRun.add("delete"));
+		assertEquals(emptyList(), blobsDeleted);
+
+		// Once the deletion has been written to disk the blob is deleted
+		commit(db, "sync", true);
+		assertEquals(singletonList(message.getId()), blobsDeleted);
+		assertEquals(asList("add", "delete", "sync"), tasksRun);
+		db.close();
+	}
+
+	@Test
+	public void testTasksAreKeptIfSyncFails() throws Exception {
+		JdbcDatabase db = open(LONG_DELAY_MS);
+		syncFailures.set(1);
+		commit(db, "a", false);
+		try {
+			commit(db, "b", true);
+			fail();
+		} catch (DbException expected) {
+			// Expected
+		}
+		// The sync failed, so no tasks have run
+		assertEquals(emptyList(), tasksRun);
+		// The next sync should run the tasks of all three transactions
+		commit(db, "c", true);
+		assertEquals(2, syncs.get());
+		assertEquals(asList("a", "b", "c"), tasksRun);
+		db.close();
+	}
+
+	@Test
+	public void testFailedSyncCommitIsVisibleAndRetried() throws Exception {
+		JdbcDatabase db = open(SHORT_DELAY_MS);
+		syncFailures.set(1);
+		CountDownLatch latch = new CountDownLatch(1);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		try {
+			db.commitTransaction(txn, true, latch::countDown);
+			fail();
+		} catch (DbException expected) {
+			// Expected
+		}
+		// The transaction was committed before the sync failed
+		txn = db.startTransaction();
+		assertTrue(db.containsGroup(txn, group.getId()));
+		db.commitTransaction(txn);
+		// The sync should be retried in the background and run the task
+		assertTrue(latch.await(10, SECONDS));
+		assertTrue(syncs.get() >= 2);
+		db.close();
+	}
+
+	@Test
+	public void testBackgroundSyncIsRetriedIfItFails() throws Exception {
+		JdbcDatabase db = open(SHORT_DELAY_MS);
+		syncFailures.set(1);
+		CountDownLatch latch = new CountDownLatch(1);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.commitTransaction(txn, false, latch::countDown);
+		// The first sync fails, and the second should run the task
+		assertTrue(latch.await(10, SECONDS));
+		assertTrue(syncs.get() >= 2);
+		db.close();
+	}
+
+	private JdbcDatabase open(long groupCommitDelay) throws Exception {
+		JdbcDatabase db = new TestH2Database(new TestDatabaseConfig(testDir,
+				0, groupCommitDelay));
+		db.open(key, null);
+		return db;
+	}
+
+	/**
+	 * Commits a read-write transaction that records the given name when its
+	 * task is run.
+	 */
+	private void commit(JdbcDatabase db, String name, boolean sync)
+			throws DbException {
+		Connection txn = db.startTransaction();
+		Settings s = new Settings();
+		s.put("name", name);
+		db.mergeSettings(txn, s, "test");
+		db.commitTransaction(txn, sync, () -> tasksRun.add(name));
+	}
+
+	@NotNullByDefault
+	private class TestH2Database extends H2Database {
+
+		private TestH2Database(TestDatabaseConfig config) {
+			super(config, new TestMessageFactory(), new SystemClock());
+		}
+
+		@Override
+		protected void syncToDisk(Connection txn) throws SQLException {
+			syncs.incrementAndGet();
+			if (syncFailures.getAndDecrement() > 0) throw new SQLException();
+			super.syncToDisk(txn);
+		}
+
+		@Override
+		protected BlobStore createBlobStore(SecretKey key) {
+			return new RecordingBlobStore();
+		}
+	}
+
+	/**
+	 * Keeps blobs in memory and records which blobs have been deleted.
+	 */
+	@NotNullByDefault
+	private class RecordingBlobStore implements BlobStore {
+
+		private final List<MessageId> stored = new ArrayList<>();
+
+		@Override
+		public synchronized void write(MessageId m, byte[] src, int off,
+				int len) {
+			stored.add(m);
+		}
+
+		@Override
+		public InputStream read(MessageId m, int offset) throws IOException {
+			throw new IOException();
+		}
+
+		@Override
+		public synchronized void delete(MessageId m) {
+			if (stored.remove(m)) blobsDeleted.add(m);
+		}
+
+		@Override
+		public Collection<MessageId> recover() {
+			return emptyList();
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.system.Clock;
+import org.junit.Ignore;
+
+import java.sql.Connection;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Compares the performance of the H2 database with the session keys declared
+ * as indexed metadata keys (condition A) and without (condition B).
+ */
+@Ignore
+public class H2IndexedMetadataDatabasePerformanceComparisonTest
+		extends DatabasePerformanceComparisonTest {
+
+	@Override
+	Database<Connection> createDatabase(boolean conditionA,
+			DatabaseConfig databaseConfig, MessageFactory messageFactory,
+			Clock clock) {
+		Database<Connection> db =
+				new H2Database(databaseConfig, messageFactory, clock);
+		if (conditionA) {
+			db.registerIndexedMetadataKeys(
+					asList(KEY_SESSION_ID, KEY_IS_SESSION));
+		}
+		return db;
+	}
+
+	@Override
+	protected String getTestName() {
+		return getClass().getSimpleName();
+	}
+}
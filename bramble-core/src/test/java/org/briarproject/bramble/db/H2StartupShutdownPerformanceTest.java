@@ -0,0 +1,203 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.OFF;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.db.DatabaseCompactor.MAX_STEP_DURATION_MS;
+import static org.briarproject.bramble.db.DatabaseCompactor.TARGET_FILL_RATE;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time taken to close and reopen a large, sparsely used
+ * database when the database is compacted on close (before) and when it's
+ * compacted in the background instead (after), and the total time taken by
+ * the steps of background compaction.
+ */
+@Ignore
+public class H2StartupShutdownPerformanceTest extends BrambleTestCase {
+
+	private static final int GROUPS = 50;
+	private static final int MESSAGES_PER_GROUP = 2000;
+	private static final int MESSAGE_BODY_LENGTH = 1024;
+
+	/**
+	 * One in this many messages is kept, the rest are deleted.
+	 */
+	private static final int KEPT_RATIO = 4;
+
+	private final File testDir = getTestDirectory();
+	private final File resultsFile = new File(getTestName() + ".tsv");
+	private final SecretKey databaseKey = getSecretKey();
+
+	public H2StartupShutdownPerformanceTest() {
+		// Disable logging
+		Logger.getLogger("").setLevel(OFF);
+	}
+
+	@Before
+	public void setUp() {
+		assertTrue(testDir.mkdirs());
+	}
+
+	@After
+	public void tearDown() {
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testStartupAndShutdownTime() throws Exception {
+		long[] before = benchmark(true);
+		long[] after = benchmark(false);
+		String result = String.format(
+				"%,d messages\t%,d\t%,d\t%,d\t%,d\t%,d\t%,d\t%,d",
+				GROUPS * MESSAGES_PER_GROUP, before[0], after[0], before[1],
+				after[1], after[2], before[3], after[3]);
+		writeResult(result);
+	}
+
+	/**
+	 * Returns the time in milliseconds taken to close and reopen the
+	 * database, the total time in milliseconds taken by the steps of
+	 * background compaction, and the size of the database in bytes after
+	 * compaction.
+	 */
+	private long[] benchmark(boolean compactOnClose) throws Exception {
+		deleteTestDirectory(testDir);
+		DatabaseConfig config = new TestDatabaseConfig(testDir);
+		JdbcDatabase db = createDatabase(config, compactOnClose);
+		db.open(databaseKey, null);
+		populateDatabase(db);
+		long start = System.nanoTime();
+		db.close();
+		long close = System.nanoTime() - start;
+		db = createDatabase(config, compactOnClose);
+		start = System.nanoTime();
+		db.open(databaseKey, null);
+		long open = System.nanoTime() - start;
+		long compaction = 0;
+		if (!compactOnClose) {
+			boolean more = true;
+			while (more) {
+				Connection txn = db.startTransaction();
+				start = System.nanoTime();
+				more = db.compactStorage(txn, TARGET_FILL_RATE,
+						MAX_STEP_DURATION_MS);
+				compaction += System.nanoTime() - start;
+				db.commitTransaction(txn);
+			}
+		}
+		db.close();
+		return new long[] {close / 1_000_000, open / 1_000_000,
+				compaction / 1_000_000, getSize(testDir)};
+	}
+
+	private JdbcDatabase createDatabase(DatabaseConfig config,
+			boolean compactOnClose) {
+		if (compactOnClose) {
+			return new CompactOnCloseH2Database(config,
+					new TestMessageFactory(), new SystemClock());
+		}
+		return new H2Database(config, new TestMessageFactory(),
+				new SystemClock());
+	}
+
+	/**
+	 * Adds some messages, then deletes most of them so the storage is
+	 * sparsely used.
+	 */
+	private void populateDatabase(Database<Connection> db)
+			throws DbException {
+		for (int i = 0; i < GROUPS; i++) {
+			Connection txn = db.startTransaction();
+			Group g = getGroup(getClientId(), 123);
+			db.addGroup(txn, g);
+			for (int j = 0; j < MESSAGES_PER_GROUP; j++) {
+				Message m = getMessage(g.getId(), MESSAGE_BODY_LENGTH);
+				db.addMessage(txn, m, DELIVERED, true, false, null);
+				if (j % KEPT_RATIO != 0) db.deleteMessage(txn, m.getId());
+			}
+			db.commitTransaction(txn);
+		}
+	}
+
+	private long getSize(File f) {
+		if (f.isFile()) return f.length();
+		long size = 0;
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child : children) size += getSize(child);
+		}
+		return size;
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+
+	/**
+	 * An H2 database that's compacted when it's closed, as it was before
+	 * compaction moved to the background.
+	 */
+	private static class CompactOnCloseH2Database extends H2Database {
+
+		private CompactOnCloseH2Database(DatabaseConfig config,
+				MessageFactory messageFactory, Clock clock) {
+			super(config, messageFactory, clock);
+		}
+
+		@Override
+		public void close() throws DbException {
+			stopGroupCommit();
+			try {
+				Connection c = createConnection();
+				closeAllConnections();
+				setDirty(c, false);
+				Statement s = c.createStatement();
+				s.execute("SHUTDOWN COMPACT");
+				s.close();
+				c.close();
+			} catch (SQLException e) {
+				throw new DbException(e);
+			}
+		}
+	}
+}
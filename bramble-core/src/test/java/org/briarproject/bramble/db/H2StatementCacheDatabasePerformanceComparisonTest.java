@@ -0,0 +1,38 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.system.Clock;
+import org.junit.Ignore;
+
+import java.sql.Connection;
+
+/**
+ * Compares the performance of the H2 database with prepared statement
+ * caching (condition A) and without (condition B).
+ */
+@Ignore
+public class H2StatementCacheDatabasePerformanceComparisonTest
+		extends DatabasePerformanceComparisonTest {
+
+	@Override
+	Database<Connection> createDatabase(boolean conditionA,
+			DatabaseConfig databaseConfig, MessageFactory messageFactory,
+			Clock clock) {
+		if (conditionA) {
+			return new H2Database(databaseConfig, messageFactory, clock);
+		} else {
+			return new H2Database(databaseConfig, messageFactory, clock) {
+				@Override
+				int getMaxCachedStatementsPerConnection() {
+					return 0;
+				}
+			};
+		}
+	}
+
+	@Override
+	protected String getTestName() {
+		return getClass().getSimpleName();
+	}
+}
@@ -0,0 +1,192 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.identity.Identity;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.OFF;
+import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getIdentity;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the mean latency of selecting messages to offer and send to a
+ * contact in a large database, without (before) and with (after) the index
+ * that returns messages in a given state in timestamp order.
+ */
+@Ignore
+public class H2SyncQueryIndexPerformanceTest extends BrambleTestCase {
+
+	private static final int CONTACTS = 10;
+	private static final int GROUPS = 50;
+	private static final int MESSAGES_PER_GROUP = 2000;
+	private static final int MESSAGE_BODY_LENGTH = 100;
+
+	/**
+	 * One in this many messages hasn't been seen by each contact.
+	 */
+	private static final int UNSEEN_RATIO = 10;
+
+	private static final int WARMUP_ITERATIONS = 20;
+	private static final int ITERATIONS = 100;
+	private static final int MAX_LATENCY = 30 * 1000;
+	private static final int BATCH_CAPACITY =
+			(RECORD_HEADER_BYTES + MAX_MESSAGE_LENGTH) * 2;
+
+	private final File testDir = getTestDirectory();
+	private final File resultsFile = new File(getTestName() + ".tsv");
+	private final SecretKey databaseKey = getSecretKey();
+	private final Random random = new Random();
+
+	private List<ContactId> contacts;
+
+	public H2SyncQueryIndexPerformanceTest() {
+		// Disable logging
+		Logger.getLogger("").setLevel(OFF);
+	}
+
+	@Before
+	public void setUp() {
+		assertTrue(testDir.mkdirs());
+	}
+
+	@After
+	public void tearDown() {
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testSyncQueryLatency() throws Exception {
+		long[] before = benchmark(false);
+		long[] after = benchmark(true);
+		String result = String.format(
+				"%,d messages\t%,d contacts\t%,d\t%,d\t%,d\t%,d",
+				GROUPS * MESSAGES_PER_GROUP, CONTACTS, before[0], after[0],
+				before[1], after[1]);
+		writeResult(result);
+	}
+
+	/**
+	 * Returns the mean latencies in nanoseconds of getMessagesToOffer() and
+	 * getMessagesToSend().
+	 */
+	private long[] benchmark(boolean index) throws Exception {
+		deleteTestDirectory(testDir);
+		DatabaseConfig config = new TestDatabaseConfig(testDir);
+		Database<Connection> db = new H2Database(config,
+				new TestMessageFactory(), new SystemClock());
+		db.open(databaseKey, null);
+		if (!index) dropIndex(db);
+		populateDatabase(db);
+		long offer = 0, send = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+			ContactId c = contacts.get(random.nextInt(CONTACTS));
+			Connection txn = db.startTransaction();
+			long start = System.nanoTime();
+			db.getMessagesToOffer(txn, c, MAX_MESSAGE_IDS, MAX_LATENCY);
+			long mid = System.nanoTime();
+			db.getMessagesToSend(txn, c, BATCH_CAPACITY, MAX_LATENCY);
+			long end = System.nanoTime();
+			db.commitTransaction(txn);
+			if (i >= WARMUP_ITERATIONS) {
+				offer += mid - start;
+				send += end - mid;
+			}
+		}
+		db.close();
+		return new long[] {offer / ITERATIONS, send / ITERATIONS};
+	}
+
+	private void dropIndex(Database<Connection> db) throws DbException {
+		Connection txn = db.startTransaction();
+		try {
+			Statement s = txn.createStatement();
+			s.executeUpdate("DROP INDEX IF EXISTS messagesByStateTimestamp");
+			s.close();
+		} catch (SQLException e) {
+			db.abortTransaction(txn);
+			throw new DbException(e);
+		}
+		db.commitTransaction(txn);
+	}
+
+	private void populateDatabase(Database<Connection> db)
+			throws DbException {
+		contacts = new ArrayList<>();
+		Identity identity = getIdentity();
+		Connection txn = db.startTransaction();
+		db.addIdentity(txn, identity);
+		for (int i = 0; i < CONTACTS; i++) {
+			contacts.add(db.addContact(txn, getAuthor(), identity.getId(),
+					null, true));
+		}
+		db.commitTransaction(txn);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < GROUPS; i++) {
+			txn = db.startTransaction();
+			Group g = getGroup(getClientId(), 123);
+			db.addGroup(txn, g);
+			for (ContactId c : contacts)
+				db.addGroupVisibility(txn, c, g.getId(), true);
+			for (int j = 0; j < MESSAGES_PER_GROUP; j++) {
+				long timestamp = now - random.nextInt(Integer.MAX_VALUE);
+				Message m = getMessage(g.getId(), MESSAGE_BODY_LENGTH,
+						timestamp);
+				db.addMessage(txn, m, DELIVERED, true, false, null);
+				// Each contact has seen most of the messages
+				for (ContactId c : contacts) {
+					if (random.nextInt(UNSEEN_RATIO) != 0)
+						db.raiseSeenFlag(txn, c, m.getId());
+				}
+			}
+			db.commitTransaction(txn);
+		}
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
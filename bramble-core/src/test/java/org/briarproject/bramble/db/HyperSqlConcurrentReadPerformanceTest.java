@@ -0,0 +1,229 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.identity.Identity;
+import org.briarproject.bramble.api.lifecycle.ShutdownManager;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.jmock.Expectations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.OFF;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getIdentity;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the latency of read-only transactions while a single writer
+ * repeatedly holds long read-write transactions, with read-only transactions
+ * excluded by the writer (before) and running concurrently with it (after).
+ */
+@Ignore
+public class HyperSqlConcurrentReadPerformanceTest extends
+		BrambleMockTestCase {
+
+	private static final int READERS = 4;
+	private static final int CONTACTS = 20;
+	private static final int GROUPS_PER_CONTACT = 10;
+	private static final int MESSAGES_PER_GROUP = 20;
+	private static final int MESSAGES_PER_WRITE = 10;
+	private static final int METADATA_VALUE_LENGTH = 100;
+
+	/**
+	 * How long each read-write transaction is held open, simulating
+	 * validation, key rotation or cleanup.
+	 */
+	private static final int WRITE_HOLD_MS = 50;
+
+	/**
+	 * How long to measure each condition.
+	 */
+	private static final int DURATION_MS = 20_000;
+
+	private final EventBus eventBus = context.mock(EventBus.class);
+	private final ShutdownManager shutdownManager =
+			context.mock(ShutdownManager.class);
+
+	private final File testDir = getTestDirectory();
+	private final File resultsFile = new File(getTestName() + ".tsv");
+	private final SecretKey databaseKey = getSecretKey();
+	private final Random random = new Random();
+
+	private List<GroupId> groupIds;
+
+	public HyperSqlConcurrentReadPerformanceTest() {
+		// Disable logging
+		Logger.getLogger("").setLevel(OFF);
+	}
+
+	@Before
+	public void setUp() {
+		assertTrue(testDir.mkdirs());
+		context.checking(new Expectations() {{
+			allowing(eventBus).broadcast(with(any(Event.class)));
+		}});
+	}
+
+	@After
+	public void tearDown() {
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testReadLatencyWithOneWriter() throws Exception {
+		List<Long> before = benchmark(0);
+		List<Long> after = benchmark(READERS);
+		String result = String.format(
+				"%d readers\t%,d\t%,d\t%,d\t%d\t%,d\t%,d\t%,d\t%d", READERS,
+				getPercentile(before, 50), getPercentile(before, 99),
+				getPercentile(before, 100), before.size(),
+				getPercentile(after, 50), getPercentile(after, 99),
+				getPercentile(after, 100), after.size());
+		writeResult(result);
+	}
+
+	/**
+	 * Returns the latencies of all read-only transactions in nanoseconds.
+	 */
+	private List<Long> benchmark(int maxConcurrentReads) throws Exception {
+		deleteTestDirectory(testDir);
+		DatabaseConfig config =
+				new TestDatabaseConfig(testDir, maxConcurrentReads);
+		Database<Connection> db = new HyperSqlDatabase(config,
+				new TestMessageFactory(), new SystemClock());
+		db.open(databaseKey, null);
+		populateDatabase(db);
+		DatabaseComponent dbc = new DatabaseComponentImpl<>(db,
+				Connection.class, eventBus, new ImmediateExecutor(),
+				shutdownManager, new SystemClock(), config);
+		long end = System.currentTimeMillis() + DURATION_MS;
+		List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < READERS; i++) {
+			threads.add(new Thread(() -> {
+				try {
+					while (System.currentTimeMillis() < end) {
+						GroupId g = pickRandomGroup();
+						long start = System.nanoTime();
+						dbc.transaction(true, txn -> {
+							dbc.getMessageIds(txn, g);
+							dbc.getMessageMetadata(txn, g);
+						});
+						latencies.add(System.nanoTime() - start);
+					}
+				} catch (DbException e) {
+					throw new AssertionError(e);
+				}
+			}));
+		}
+		threads.add(new Thread(() -> {
+			try {
+				while (System.currentTimeMillis() < end) {
+					GroupId g = pickRandomGroup();
+					dbc.transaction(false, txn -> {
+						for (int i = 0; i < MESSAGES_PER_WRITE; i++) {
+							dbc.addLocalMessage(txn, getMessage(g),
+									getMetadata(), true, false);
+						}
+						Thread.sleep(WRITE_HOLD_MS);
+					});
+				}
+			} catch (DbException | InterruptedException e) {
+				throw new AssertionError(e);
+			}
+		}));
+		for (Thread t : threads) t.start();
+		for (Thread t : threads) t.join();
+		dbc.close();
+		return latencies;
+	}
+
+	private void populateDatabase(Database<Connection> db)
+			throws DbException {
+		groupIds = new ArrayList<>();
+		Identity identity = getIdentity();
+		Connection txn = db.startTransaction();
+		db.addIdentity(txn, identity);
+		for (int i = 0; i < CONTACTS; i++) {
+			ContactId c = db.addContact(txn, getAuthor(),
+					identity.getId(), null, true);
+			for (int j = 0; j < GROUPS_PER_CONTACT; j++) {
+				Group g = getGroup(getClientId(), 123);
+				groupIds.add(g.getId());
+				db.addGroup(txn, g);
+				db.addGroupVisibility(txn, c, g.getId(), true);
+				for (int k = 0; k < MESSAGES_PER_GROUP; k++) {
+					Message m = getMessage(g.getId());
+					db.addMessage(txn, m, DELIVERED, true, false, null);
+					db.mergeMessageMetadata(txn, m.getId(), getMetadata());
+				}
+			}
+		}
+		db.commitTransaction(txn);
+	}
+
+	private GroupId pickRandomGroup() {
+		return groupIds.get(random.nextInt(groupIds.size()));
+	}
+
+	private Metadata getMetadata() {
+		Metadata meta = new Metadata();
+		meta.put("key", getRandomBytes(METADATA_VALUE_LENGTH));
+		return meta;
+	}
+
+	private long getPercentile(List<Long> samples, int percentile) {
+		List<Long> sorted = new ArrayList<>(samples);
+		Collections.sort(sorted);
+		int index = (int) Math.ceil(sorted.size() * percentile / 100.0) - 1;
+		return sorted.get(Math.max(0, index));
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
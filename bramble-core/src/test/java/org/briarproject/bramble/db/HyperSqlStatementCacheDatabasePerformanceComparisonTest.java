@@ -0,0 +1,38 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.system.Clock;
+import org.junit.Ignore;
+
+import java.sql.Connection;
+
+/**
+ * Compares the performance of the HyperSQL database with prepared statement
+ * caching (condition A) and without (condition B).
+ */
+@Ignore
+public class HyperSqlStatementCacheDatabasePerformanceComparisonTest
+		extends DatabasePerformanceComparisonTest {
+
+	@Override
+	Database<Connection> createDatabase(boolean conditionA,
+			DatabaseConfig databaseConfig, MessageFactory messageFactory,
+			Clock clock) {
+		if (conditionA) {
+			return new HyperSqlDatabase(databaseConfig, messageFactory, clock);
+		} else {
+			return new HyperSqlDatabase(databaseConfig, messageFactory, clock) {
+				@Override
+				int getMaxCachedStatementsPerConnection() {
+					return 0;
+				}
+			};
+		}
+	}
+
+	@Override
+	protected String getTestName() {
+		return getClass().getSimpleName();
+	}
+}
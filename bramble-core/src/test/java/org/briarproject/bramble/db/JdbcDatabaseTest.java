@@ -39,7 +39,9 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
@@ -47,16 +49,22 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Arrays.asList;
+import static java.util.Arrays.copyOfRange;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -68,10 +76,13 @@ import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
+import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.INVALID;
 import static org.briarproject.bramble.api.sync.validation.MessageState.PENDING;
 import static org.briarproject.bramble.api.sync.validation.MessageState.UNKNOWN;
+import static org.briarproject.bramble.db.JdbcDatabase.MAX_IDS_PER_STATEMENT;
+import static org.briarproject.bramble.db.JdbcDatabase.MAX_INLINE_BODY_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
 import static org.briarproject.bramble.test.TestUtils.getAgreementPrivateKey;
 import static org.briarproject.bramble.test.TestUtils.getAgreementPublicKey;
@@ -85,6 +96,7 @@ import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
 import static org.briarproject.bramble.test.TestUtils.getTransportId;
+import static org.briarproject.bramble.util.IoUtils.copyAndClose;
 import static org.briarproject.bramble.util.StringUtils.getRandomString;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -94,6 +106,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 public abstract class JdbcDatabaseTest extends BrambleTestCase {
 
@@ -1212,6 +1225,337 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testSharingGroupMakesExistingMessagesSendable()
+			throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, a group and some shared messages
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		List<MessageId> ids = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			Message m = getMessage(groupId);
+			db.addMessage(txn, m, DELIVERED, true, false, null);
+			ids.add(m.getId());
+		}
+
+		// The contact has offered one of the messages
+		MessageId offered = ids.get(0);
+		db.addOfferedMessage(txn, contactId, offered);
+
+		// Share the group with the contact
+		db.addGroupVisibility(txn, contactId, groupId, true);
+
+		// The offered message should be acked and seen, not offered
+		assertEquals(0, db.countOfferedMessages(txn, contactId));
+		assertEquals(singletonList(offered),
+				db.getMessagesToAck(txn, contactId, 100));
+		MessageStatus status = db.getMessageStatus(txn, contactId, offered);
+		assertNotNull(status);
+		assertTrue(status.isSeen());
+		assertFalse(status.isSent());
+
+		// The other messages should be visible and sendable
+		Collection<MessageStatus> statuses =
+				db.getMessageStatus(txn, contactId, groupId);
+		assertEquals(10, statuses.size());
+		for (MessageStatus s : statuses) {
+			assertTrue(db.containsVisibleMessage(txn, contactId,
+					s.getMessageId()));
+			assertEquals(s.getMessageId().equals(offered), s.isSeen());
+			assertFalse(s.isSent());
+		}
+		Collection<MessageId> toSend = db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY);
+		assertEquals(new HashSet<>(ids.subList(1, 10)),
+				new HashSet<>(toSend));
+
+		// Sending a message should be recorded for that message only
+		MessageId sent = ids.get(1);
+		db.updateRetransmissionData(txn, contactId, sent, MAX_LATENCY);
+		assertTrue(db.getMessageStatus(txn, contactId, sent).isSent());
+		assertFalse(db.getMessageStatus(txn, contactId, ids.get(2)).isSent());
+		toSend = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertEquals(new HashSet<>(ids.subList(2, 10)),
+				new HashSet<>(toSend));
+
+		// Resetting the retransmission data should make it sendable again
+		db.resetUnackedMessagesToSend(txn, contactId);
+		assertFalse(db.getMessageStatus(txn, contactId, sent).isSent());
+		toSend = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertEquals(new HashSet<>(ids.subList(1, 10)),
+				new HashSet<>(toSend));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testOfferedMessageIsSeenWhenAdded() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact and a shared group
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+
+		// The contact offers a message that we then receive from elsewhere
+		db.addOfferedMessage(txn, contactId, messageId);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+
+		// The message should be seen by the contact and not sendable
+		assertEquals(0, db.countOfferedMessages(txn, contactId));
+		MessageStatus status = db.getMessageStatus(txn, contactId, messageId);
+		assertNotNull(status);
+		assertTrue(status.isSeen());
+		assertTrue(db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY).isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testSeenMessagesBelowWatermarkAreNotSent() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, a shared group and some messages with increasing
+		// timestamps
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		long timestamp = System.currentTimeMillis();
+		List<MessageId> ids = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			Message m = getMessage(groupId, 100, timestamp + i * 10);
+			db.addMessage(txn, m, DELIVERED, true, false, null);
+			ids.add(m.getId());
+		}
+
+		// The contact sees the oldest messages
+		db.raiseSeenFlags(txn, contactId, ids.subList(0, 5));
+
+		// Only the newer messages should be offered or sent
+		assertEquals(new HashSet<>(ids.subList(5, 10)),
+				new HashSet<>(db.getMessagesToOffer(txn, contactId, 100,
+						MAX_LATENCY)));
+		assertEquals(new HashSet<>(ids.subList(5, 10)),
+				new HashSet<>(db.getMessagesToSend(txn, contactId,
+						ONE_MEGABYTE, MAX_LATENCY)));
+		for (MessageStatus s : db.getMessageStatus(txn, contactId, groupId)) {
+			int index = ids.indexOf(s.getMessageId());
+			assertEquals(index < 5, s.isSeen());
+		}
+		assertTrue(db.getMessageStatus(txn, contactId, ids.get(0)).isSeen());
+		assertFalse(db.getMessageStatus(txn, contactId, ids.get(5)).isSeen());
+
+		// A message that arrives late, below the watermark, should be sent
+		Message late = getMessage(groupId, 100, timestamp + 1);
+		db.addMessage(txn, late, DELIVERED, true, false, null);
+		assertFalse(db.getMessageStatus(txn, contactId, late.getId())
+				.isSeen());
+		Collection<MessageId> toSend = db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY);
+		assertTrue(toSend.contains(late.getId()));
+		// The messages the contact has seen should not be sent again
+		for (MessageId id : ids.subList(0, 5)) {
+			assertFalse(toSend.contains(id));
+			assertTrue(db.getMessageStatus(txn, contactId, id).isSeen());
+		}
+
+		// A message below the watermark that becomes deliverable should
+		// also be sent
+		db.raiseSeenFlag(txn, contactId, late.getId());
+		Message pending = getMessage(groupId, 100, timestamp + 2);
+		db.addMessage(txn, pending, PENDING, true, false, null);
+		assertFalse(db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY).contains(pending.getId()));
+		db.setMessageState(txn, pending.getId(), DELIVERED);
+		toSend = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY);
+		assertTrue(toSend.contains(pending.getId()));
+		assertFalse(toSend.contains(late.getId()));
+
+		// Once the contact has seen everything, nothing should be sent
+		List<MessageId> all = new ArrayList<>(ids);
+		all.add(pending.getId());
+		db.raiseSeenFlags(txn, contactId, all);
+		assertTrue(db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY).isEmpty());
+		assertTrue(db.getMessagesToOffer(txn, contactId, 100,
+				MAX_LATENCY).isEmpty());
+		for (MessageStatus s : db.getMessageStatus(txn, contactId, groupId)) {
+			assertTrue(s.isSeen());
+		}
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testBulkAckAndOfferOperations() throws Exception {
+		long duration = 60_000;
+		long now = System.currentTimeMillis();
+		AtomicLong time = new AtomicLong(now);
+		Database<Connection> db =
+				open(false, new TestMessageFactory(), new SettableClock(time));
+		Connection txn = db.startTransaction();
+
+		// Add a contact and a shared group
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+
+		// Add more messages than fit in a statement, alternating between
+		// shared and unshared messages, plus some unknown message IDs
+		List<MessageId> ids = new ArrayList<>();
+		Set<MessageId> shared = new HashSet<>();
+		for (int i = 0; i < MAX_IDS_PER_STATEMENT + 10; i++) {
+			Message m = getMessage(groupId);
+			db.addMessage(txn, m, DELIVERED, i % 2 == 0, false, null);
+			ids.add(m.getId());
+			if (i % 2 == 0) shared.add(m.getId());
+		}
+		for (int i = 0; i < 10; i++) ids.add(new MessageId(getRandomId()));
+
+		// Only the shared messages should be visible
+		Collection<MessageId> visible =
+				db.getVisibleMessages(txn, contactId, ids);
+		assertEquals(shared, new HashSet<>(visible));
+
+		// Raise the seen flags of the visible messages
+		db.raiseSeenFlags(txn, contactId, visible);
+		for (MessageId m : shared) {
+			assertTrue(db.getMessageStatus(txn, contactId, m).isSeen());
+		}
+
+		// Raise the ack flags of the visible messages
+		assertFalse(db.containsAcksToSend(txn, contactId));
+		db.raiseAckFlags(txn, contactId, visible);
+		assertEquals(shared, new HashSet<>(
+				db.getMessagesToAck(txn, contactId, ids.size())));
+
+		// Set the cleanup timer durations of two messages and start the
+		// timers of all the messages
+		MessageId first = ids.get(0), last = ids.get(ids.size() - 11);
+		db.setCleanupTimerDuration(txn, first, duration);
+		db.setCleanupTimerDuration(txn, last, duration);
+		Map<MessageId, Long> expected = new HashMap<>();
+		expected.put(first, now + duration);
+		expected.put(last, now + duration);
+		assertEquals(expected, db.startCleanupTimers(txn, ids));
+		assertEquals(now + duration, db.getNextCleanupDeadline(txn));
+
+		// The timers can't be started again
+		assertEquals(emptyMap(), db.startCleanupTimers(txn, ids));
+
+		// Add the messages as offered messages, including some duplicates
+		List<MessageId> offered = new ArrayList<>(ids);
+		offered.addAll(ids.subList(0, 10));
+		db.addOfferedMessages(txn, contactId, offered);
+		assertEquals(ids.size(), db.countOfferedMessages(txn, contactId));
+
+		// Messages that have already been offered shouldn't be added again
+		MessageId extra = new MessageId(getRandomId());
+		db.addOfferedMessages(txn, contactId, asList(ids.get(0), extra));
+		assertEquals(ids.size() + 1, db.countOfferedMessages(txn, contactId));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testScanMessagesToSendWithCursor() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact and a shared group
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+
+		// Add more messages than fit in a statement, in pairs that share
+		// a timestamp
+		int count = MAX_IDS_PER_STATEMENT + 10, bodyLength = 100;
+		Map<MessageId, Long> timestamps = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			Message m = getMessage(groupId, bodyLength, 1000 + i / 2);
+			db.addMessage(txn, m, DELIVERED, true, false, null);
+			timestamps.put(m.getId(), m.getTimestamp());
+		}
+
+		// Scan the messages in batches of up to three messages
+		long capacity =
+				(RECORD_HEADER_BYTES + MESSAGE_HEADER_LENGTH + bodyLength) * 3;
+		List<MessageId> scanned = new ArrayList<>();
+		long afterTimestamp = 0;
+		MessageId afterId = null;
+		while (true) {
+			List<MessageId> batch = db.getMessagesToSend(txn, contactId,
+					capacity, MAX_LATENCY, afterTimestamp, afterId);
+			if (batch.isEmpty()) break;
+			assertTrue(batch.size() <= 3);
+			Map<MessageId, Message> found = db.getMessages(txn, batch);
+			assertEquals(batch.size(), found.size());
+			Message last = found.get(batch.get(batch.size() - 1));
+			afterTimestamp = last.getTimestamp();
+			afterId = last.getId();
+			scanned.addAll(batch);
+		}
+
+		// Every message should have been scanned once, in timestamp order
+		assertEquals(count, scanned.size());
+		assertEquals(timestamps.keySet(), new HashSet<>(scanned));
+		for (int i = 0; i < count; i++) {
+			long timestamp = timestamps.get(scanned.get(i));
+			assertEquals(1000 + i / 2, timestamp);
+		}
+
+		// Mark the messages as sent - they shouldn't be sent again until
+		// they're due for retransmission
+		db.updateRetransmissionData(txn, contactId, scanned, MAX_LATENCY);
+		for (MessageId m : scanned) {
+			assertTrue(db.getMessageStatus(txn, contactId, m).isSent());
+		}
+		assertEquals(emptyList(), db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY, 0, null));
+
+		// The messages are still unacked
+		Map<MessageId, Integer> lengths =
+				db.getUnackedMessageLengthsToSend(txn, contactId);
+		assertEquals(new ArrayList<>(
+						db.getUnackedMessagesToSend(txn, contactId)),
+				new ArrayList<>(lengths.keySet()));
+		for (int length : lengths.values()) {
+			assertEquals(MESSAGE_HEADER_LENGTH + bodyLength, length);
+		}
+
+		// Deleted messages should not be returned
+		db.deleteMessage(txn, scanned.get(0));
+		Map<MessageId, Message> found = db.getMessages(txn, scanned);
+		assertEquals(count - 1, found.size());
+		assertFalse(found.containsKey(scanned.get(0)));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testGroupMetadata() throws Exception {
 		Database<Connection> db = open(false);
@@ -1321,6 +1665,162 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testGetMessageIdsBeforeTimestamp() throws Exception {
+		// Two of the messages have the same timestamp
+		Message message1 = getMessage(groupId, 100, 1000);
+		Message message2 = getMessage(groupId, 100, 2000);
+		Message message3 = getMessage(groupId, 100, 2000);
+		Message message4 = getMessage(groupId, 100, 3000);
+		Message pending = getMessage(groupId, 100, 2500);
+		Set<MessageId> tied = new HashSet<>(
+				asList(message2.getId(), message3.getId()));
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and the messages
+		db.addGroup(txn, group);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, message2, DELIVERED, true, false, null);
+		db.addMessage(txn, message3, DELIVERED, true, false, null);
+		db.addMessage(txn, message4, DELIVERED, true, false, null);
+		db.addMessage(txn, pending, PENDING, true, false, null);
+
+		// All the delivered messages should be returned, newest first
+		Map<MessageId, Long> timestamps =
+				db.getMessageIds(txn, groupId, Long.MAX_VALUE, 10);
+		List<MessageId> ids = new ArrayList<>(timestamps.keySet());
+		assertEquals(4, ids.size());
+		assertEquals(message4.getId(), ids.get(0));
+		assertEquals(tied, new HashSet<>(ids.subList(1, 3)));
+		assertEquals(message1.getId(), ids.get(3));
+		assertEquals(asList(3000L, 2000L, 2000L, 1000L),
+				new ArrayList<>(timestamps.values()));
+
+		// The limit should not split the messages with equal timestamps
+		ids = new ArrayList<>(
+				db.getMessageIds(txn, groupId, Long.MAX_VALUE, 2).keySet());
+		assertEquals(3, ids.size());
+		assertEquals(message4.getId(), ids.get(0));
+		assertEquals(tied, new HashSet<>(ids.subList(1, 3)));
+		ids = new ArrayList<>(
+				db.getMessageIds(txn, groupId, Long.MAX_VALUE, 1).keySet());
+		assertEquals(singletonList(message4.getId()), ids);
+
+		// The timestamp of the last message should work as a cursor
+		timestamps = db.getMessageIds(txn, groupId, 3000, 1);
+		assertEquals(tied, timestamps.keySet());
+		timestamps = db.getMessageIds(txn, groupId, 2000, 1);
+		assertEquals(singletonMap(message1.getId(), 1000L), timestamps);
+		assertTrue(db.getMessageIds(txn, groupId, 1000, 1).isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testGetMessageMetadataAndStatusForIds() throws Exception {
+		Message message1 = getMessage(groupId);
+		Message pending = getMessage(groupId);
+		MessageId unknown = new MessageId(getRandomId());
+		Collection<MessageId> ids = asList(messageId, message1.getId(),
+				pending.getId(), unknown);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, a shared group and the messages
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, pending, PENDING, true, false, null);
+
+		// Add metadata to the first message and the pending message
+		Metadata metadata = new Metadata();
+		metadata.put("foo", new byte[] {'b', 'a', 'r'});
+		db.mergeMessageMetadata(txn, messageId, metadata);
+		db.mergeMessageMetadata(txn, pending.getId(), metadata);
+
+		// Only the delivered message with metadata should be returned
+		Map<MessageId, Metadata> all = db.getMessageMetadata(txn, ids);
+		assertEquals(singleton(messageId), all.keySet());
+		Metadata retrieved = all.get(messageId);
+		assertEquals(1, retrieved.size());
+		assertArrayEquals(metadata.get("foo"), retrieved.get("foo"));
+
+		// Pretend the first message was sent to the contact
+		db.updateRetransmissionData(txn, contactId, messageId,
+				Integer.MAX_VALUE);
+
+		// Statuses should be returned for the delivered messages
+		Map<MessageId, MessageStatus> statuses =
+				db.getMessageStatus(txn, contactId, ids);
+		assertEquals(new HashSet<>(asList(messageId, message1.getId())),
+				statuses.keySet());
+		MessageStatus status = statuses.get(messageId);
+		assertEquals(contactId, status.getContactId());
+		assertTrue(status.isSent());
+		assertFalse(status.isSeen());
+		status = statuses.get(message1.getId());
+		assertFalse(status.isSent());
+		assertFalse(status.isSeen());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testGetMessageMetadataByGroup() throws Exception {
+		Group group1 = getGroup(clientId, majorVersion);
+		Message message1 = getMessage(group1.getId());
+		Message pending = getMessage(group1.getId());
+		Group empty = getGroup(clientId, majorVersion);
+		GroupId unknown = new GroupId(getRandomId());
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add three groups and a message in each of the first two groups,
+		// plus a pending message in the second group
+		db.addGroup(txn, group);
+		db.addGroup(txn, group1);
+		db.addGroup(txn, empty);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, pending, PENDING, true, false, null);
+
+		// Attach some metadata to each message
+		Metadata metadata = new Metadata();
+		metadata.put("foo", new byte[] {'b', 'a', 'r'});
+		db.mergeMessageMetadata(txn, messageId, metadata);
+		Metadata metadata1 = new Metadata();
+		metadata1.put("baz", new byte[] {'b', 'a', 'm'});
+		db.mergeMessageMetadata(txn, message1.getId(), metadata1);
+		db.mergeMessageMetadata(txn, pending.getId(), metadata1);
+
+		// Only the groups with delivered messages should be returned
+		Map<GroupId, Map<MessageId, Metadata>> all =
+				db.getMessageMetadataByGroup(txn, asList(groupId,
+						group1.getId(), empty.getId(), unknown));
+		assertEquals(new HashSet<>(asList(groupId, group1.getId())),
+				all.keySet());
+		Map<MessageId, Metadata> map = all.get(groupId);
+		assertEquals(singleton(messageId), map.keySet());
+		assertArrayEquals(metadata.get("foo"), map.get(messageId).get("foo"));
+		map = all.get(group1.getId());
+		assertEquals(singleton(message1.getId()), map.keySet());
+		assertArrayEquals(metadata1.get("baz"),
+				map.get(message1.getId()).get("baz"));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testMessageMetadataOnlyForDeliveredMessages() throws Exception {
 		Database<Connection> db = open(false);
@@ -1547,6 +2047,96 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testMetadataQueriesWithRestrictedKeys() throws Exception {
+		Message message1 = getMessage(groupId);
+		MessageId messageId1 = message1.getId();
+		Message message2 = getMessage(groupId);
+		MessageId messageId2 = message2.getId();
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and three messages
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.addMessage(txn, message2, DELIVERED, true, false, null);
+
+		// Attach some metadata to the first two messages
+		Metadata metadata = new Metadata();
+		metadata.put("foo", new byte[] {'b', 'a', 'r'});
+		metadata.put("baz", new byte[] {'b', 'a', 'm'});
+		metadata.put("qux", new byte[] {'q', 'u', 'x'});
+		db.mergeMessageMetadata(txn, messageId, metadata);
+		Metadata metadata1 = new Metadata();
+		metadata1.put("foo", new byte[] {'b', 'a', 'r'});
+		db.mergeMessageMetadata(txn, messageId1, metadata1);
+
+		// With an empty query, all delivered messages are returned, including
+		// messages without any metadata
+		Metadata query = new Metadata();
+		Map<MessageId, Metadata> all =
+				db.getMessageMetadata(txn, groupId, query, asList("baz"));
+		assertEquals(3, all.size());
+		assertMetadataEquals(singletonMetadata("baz", metadata),
+				all.get(messageId));
+		assertTrue(all.get(messageId1).isEmpty());
+		assertTrue(all.get(messageId2).isEmpty());
+
+		// A single-term query matches the first two messages, which are
+		// returned even if they don't have any of the requested keys
+		query.put("foo", new byte[] {'b', 'a', 'r'});
+		all = db.getMessageMetadata(txn, groupId, query,
+				asList("baz", "qux"));
+		assertEquals(2, all.size());
+		Metadata expected = new Metadata();
+		expected.put("baz", metadata.get("baz"));
+		expected.put("qux", metadata.get("qux"));
+		assertMetadataEquals(expected, all.get(messageId));
+		assertTrue(all.get(messageId1).isEmpty());
+
+		// A multi-term query matches the first message only
+		query.put("qux", new byte[] {'q', 'u', 'x'});
+		all = db.getMessageMetadata(txn, groupId, query, asList("foo"));
+		assertEquals(1, all.size());
+		assertMetadataEquals(singletonMetadata("foo", metadata),
+				all.get(messageId));
+
+		// Requesting no keys returns empty metadata for each match
+		all = db.getMessageMetadata(txn, groupId, query, emptyList());
+		assertEquals(1, all.size());
+		assertTrue(all.get(messageId).isEmpty());
+
+		// A query that doesn't match any messages returns nothing
+		query.put("baz", new byte[] {'q', 'u', 'x'});
+		all = db.getMessageMetadata(txn, groupId, query, asList("foo"));
+		assertTrue(all.isEmpty());
+
+		// Messages that aren't delivered aren't returned
+		db.setMessageState(txn, messageId, PENDING);
+		query = new Metadata();
+		query.put("foo", new byte[] {'b', 'a', 'r'});
+		all = db.getMessageMetadata(txn, groupId, query, asList("foo"));
+		assertEquals(1, all.size());
+		assertMetadataEquals(metadata1, all.get(messageId1));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	private Metadata singletonMetadata(String key, Metadata metadata) {
+		Metadata m = new Metadata();
+		m.put(key, metadata.get(key));
+		return m;
+	}
+
+	private Metadata singletonMetadata(String key, byte[] value) {
+		Metadata metadata = new Metadata();
+		metadata.put(key, value);
+		return metadata;
+	}
+
 	private void assertMetadataEquals(Metadata m1, Metadata m2) {
 		assertEquals(m1.keySet(), m2.keySet());
 		for (Entry<String, byte[]> e : m1.entrySet()) {
@@ -1554,6 +2144,138 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		}
 	}
 
+	@Test
+	public void testIndexedMetadataQueries() throws Exception {
+		Message message1 = getMessage(groupId);
+		MessageId messageId1 = message1.getId();
+		byte[] bar = new byte[] {'b', 'a', 'r'};
+		byte[] bam = new byte[] {'b', 'a', 'm'};
+		byte[] qux = new byte[] {'q', 'u', 'x'};
+
+		// Add a group and two messages with some metadata before the key
+		// is declared as indexed
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		Metadata metadata = new Metadata();
+		metadata.put("foo", bar);
+		metadata.put("baz", bam);
+		db.mergeMessageMetadata(txn, messageId, metadata);
+		Metadata metadata1 = new Metadata();
+		metadata1.put("foo", qux);
+		metadata1.put("baz", bam);
+		db.mergeMessageMetadata(txn, messageId1, metadata1);
+		db.commitTransaction(txn);
+		db.close();
+
+		// Reopen the database with the key declared as indexed - the
+		// existing metadata should be indexed
+		db = openWithIndexedKeys(singletonList("foo"));
+		txn = db.startTransaction();
+		assertEquals(singleton(messageId),
+				db.getMessageIds(txn, groupId, singletonMetadata("foo", bar)));
+		Metadata query = new Metadata();
+		query.put("foo", qux);
+		query.put("baz", bam);
+		assertEquals(singleton(messageId1),
+				db.getMessageIds(txn, groupId, query));
+		Map<MessageId, Metadata> all =
+				db.getMessageMetadata(txn, groupId, query);
+		assertEquals(singleton(messageId1), all.keySet());
+		assertArrayEquals(qux, all.get(messageId1).get("foo"));
+		assertArrayEquals(bam, all.get(messageId1).get("baz"));
+
+		// Updates to the indexed key should be reflected in queries
+		db.mergeMessageMetadata(txn, messageId,
+				singletonMetadata("foo", qux));
+		assertEquals(new HashSet<>(asList(messageId, messageId1)),
+				db.getMessageIds(txn, groupId, query));
+		db.mergeMessageMetadata(txn, messageId1,
+				singletonMetadata("foo", REMOVE));
+		assertEquals(singleton(messageId),
+				db.getMessageIds(txn, groupId, query));
+
+		// Messages that aren't delivered should not match
+		db.setMessageState(txn, messageId, PENDING);
+		assertTrue(db.getMessageIds(txn, groupId, query).isEmpty());
+		db.setMessageState(txn, messageId, DELIVERED);
+		assertEquals(singleton(messageId),
+				db.getMessageIds(txn, groupId, query));
+
+		// Deleted metadata should not match
+		db.deleteMessageMetadata(txn, messageId);
+		assertTrue(db.getMessageIds(txn, groupId, query).isEmpty());
+		db.mergeMessageMetadata(txn, messageId, metadata1);
+		db.commitTransaction(txn);
+		db.close();
+
+		// Reopen the database without declaring the key - queries should
+		// still match, and the key should be indexed again when declared
+		db = open(true);
+		txn = db.startTransaction();
+		assertEquals(singleton(messageId),
+				db.getMessageIds(txn, groupId, query));
+		db.commitTransaction(txn);
+		db.close();
+		db = openWithIndexedKeys(asList("foo", "baz"));
+		txn = db.startTransaction();
+		assertEquals(singleton(messageId),
+				db.getMessageIds(txn, groupId, query));
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testCannotDeclareIndexedKeysAfterOpening() throws Exception {
+		Database<Connection> db = openWithIndexedKeys(singletonList("foo"));
+		try {
+			db.registerIndexedMetadataKeys(singletonList("bar"));
+			fail();
+		} catch (IllegalStateException expected) {
+			// Expected
+		}
+		db.close();
+	}
+
+	@Test
+	public void testConcurrentReadSeesSnapshot() throws Exception {
+		Database<Connection> db = createDatabase(
+				new TestDatabaseConfig(testDir, 1), new TestMessageFactory(),
+				new SystemClock());
+		assumeTrue(db.supportsConcurrentReads());
+		db.open(key, null);
+
+		// Add a group and a message
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.commitTransaction(txn);
+
+		// Start a read-only transaction that sees the message
+		Connection readTxn = db.startTransaction();
+		assertTrue(db.containsMessage(readTxn, messageId));
+
+		// Remove the message in a read-write transaction
+		txn = db.startTransaction();
+		db.removeMessage(txn, messageId);
+		db.commitTransaction(txn);
+
+		// The read-only transaction should still see the message
+		assertTrue(db.containsMessage(readTxn, messageId));
+		assertArrayEquals(message.getBody(),
+				db.getMessage(readTxn, messageId).getBody());
+		db.commitTransaction(readTxn);
+
+		// A new transaction should see that the message has been removed
+		txn = db.startTransaction();
+		assertFalse(db.containsMessage(txn, messageId));
+		db.commitTransaction(txn);
+
+		db.close();
+	}
+
 	@Test
 	public void testMessageDependencies() throws Exception {
 		Message message1 = getMessage(groupId);
@@ -1951,6 +2673,134 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testGetMessageBody() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and a message
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+
+		// The body should be readable from any offset
+		byte[] body = message.getBody();
+		assertArrayEquals(body, read(db.getMessageBody(txn, messageId, 0)));
+		int offset = body.length / 2;
+		assertArrayEquals(copyOfRange(body, offset, body.length),
+				read(db.getMessageBody(txn, messageId, offset)));
+		assertArrayEquals(new byte[0],
+				read(db.getMessageBody(txn, messageId, body.length)));
+
+		// Delete the message
+		db.deleteMessage(txn, messageId);
+
+		// Reading the body should throw an exception
+		try {
+			db.getMessageBody(txn, messageId, 0);
+			fail();
+		} catch (MessageDeletedException expected) {
+			// Expected
+		}
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testLargeMessageBody() throws Exception {
+		Message large = getMessage(groupId, MAX_INLINE_BODY_LENGTH + 1234);
+		MessageId largeId = large.getId();
+		byte[] body = large.getBody();
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and a large message
+		db.addGroup(txn, group);
+		db.addMessage(txn, large, DELIVERED, true, false, null);
+		db.commitTransaction(txn);
+
+		// Reopen the database
+		db.close();
+		db = open(true);
+		txn = db.startTransaction();
+
+		// The message should be available
+		Message m = db.getMessage(txn, largeId);
+		assertEquals(groupId, m.getGroupId());
+		assertEquals(large.getTimestamp(), m.getTimestamp());
+		assertArrayEquals(body, m.getBody());
+		m = db.getMessages(txn, singletonList(largeId)).get(largeId);
+		assertNotNull(m);
+		assertArrayEquals(body, m.getBody());
+
+		// The body should be readable from any offset
+		assertArrayEquals(body, read(db.getMessageBody(txn, largeId, 0)));
+		int offset = MAX_INLINE_BODY_LENGTH;
+		assertArrayEquals(copyOfRange(body, offset, body.length),
+				read(db.getMessageBody(txn, largeId, offset)));
+
+		// Delete the message
+		db.deleteMessage(txn, largeId);
+		try {
+			db.getMessage(txn, largeId);
+			fail();
+		} catch (MessageDeletedException expected) {
+			// Expected
+		}
+		db.commitTransaction(txn);
+
+		// Reopen the database, which should not find the deleted body
+		db.close();
+		db = open(true);
+		txn = db.startTransaction();
+		try {
+			db.getMessageBody(txn, largeId, 0);
+			fail();
+		} catch (MessageDeletedException expected) {
+			// Expected
+		}
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testLargeMessageIsNotStoredIfTransactionAborts()
+			throws Exception {
+		Message large = getMessage(groupId, MAX_INLINE_BODY_LENGTH + 1);
+		MessageId largeId = large.getId();
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.commitTransaction(txn);
+
+		// Add a large message and abort the transaction
+		txn = db.startTransaction();
+		db.addMessage(txn, large, DELIVERED, true, false, null);
+		db.abortTransaction(txn);
+
+		// The message should not have been stored
+		txn = db.startTransaction();
+		assertFalse(db.containsMessage(txn, largeId));
+
+		// The message can be added again, and is removed with its group
+		db.addMessage(txn, large, DELIVERED, true, false, null);
+		assertArrayEquals(large.getBody(),
+				db.getMessage(txn, largeId).getBody());
+		db.removeGroup(txn, group.getId());
+		assertFalse(db.containsMessage(txn, largeId));
+		db.commitTransaction(txn);
+
+		// Reopen the database
+		db.close();
+		db = open(true);
+		txn = db.startTransaction();
+		assertFalse(db.containsMessage(txn, largeId));
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testSetContactAlias() throws Exception {
 		Database<Connection> db = open(false);
@@ -2500,6 +3350,12 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertEquals(NO_CLEANUP_DEADLINE, db.getNextCleanupDeadline(txn));
 	}
 
+	private byte[] read(InputStream in) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		copyAndClose(in, out);
+		return out.toByteArray();
+	}
+
 	private Database<Connection> open(boolean resume) throws Exception {
 		return open(resume, new TestMessageFactory(), new SystemClock());
 	}
@@ -2513,6 +3369,16 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		return db;
 	}
 
+	private Database<Connection> openWithIndexedKeys(Collection<String> keys)
+			throws Exception {
+		Database<Connection> db = createDatabase(
+				new TestDatabaseConfig(testDir), new TestMessageFactory(),
+				new SystemClock());
+		db.registerIndexedMetadataKeys(keys);
+		db.open(key, null);
+		return db;
+	}
+
 	private TransportKeys createTransportKeys(long timePeriod, boolean active) {
 		SecretKey inPrevTagKey = getSecretKey();
 		SecretKey inPrevHeaderKey = getSecretKey();
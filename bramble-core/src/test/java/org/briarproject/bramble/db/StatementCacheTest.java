@@ -0,0 +1,132 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class StatementCacheTest extends BrambleMockTestCase {
+
+	private final Connection connection = context.mock(Connection.class);
+	private final PreparedStatement ps1 =
+			context.mock(PreparedStatement.class, "ps1");
+	private final PreparedStatement ps2 =
+			context.mock(PreparedStatement.class, "ps2");
+	private final PreparedStatement ps3 =
+			context.mock(PreparedStatement.class, "ps3");
+
+	private final String sql1 = "SELECT 1", sql2 = "SELECT 2";
+	private final String sql3 = "SELECT 3";
+
+	@Test
+	public void testReleasedStatementIsReused() throws Exception {
+		StatementCache cache = new StatementCache(connection, 10);
+
+		context.checking(new Expectations() {{
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(ps1));
+			exactly(2).of(ps1).clearParameters();
+			oneOf(ps1).isClosed();
+			will(returnValue(false));
+		}});
+
+		assertSame(ps1, cache.prepareStatement(sql1));
+		cache.releaseStatement(sql1, ps1);
+		assertSame(ps1, cache.prepareStatement(sql1));
+		cache.releaseStatement(sql1, ps1);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testStatementInUseIsNotShared() throws Exception {
+		StatementCache cache = new StatementCache(connection, 10);
+
+		context.checking(new Expectations() {{
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(ps1));
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(ps2));
+			oneOf(ps2).clearParameters();
+			oneOf(ps1).clearParameters();
+			// Only one statement per SQL string is kept
+			oneOf(ps2).close();
+		}});
+
+		PreparedStatement outer = cache.prepareStatement(sql1);
+		PreparedStatement inner = cache.prepareStatement(sql1);
+		assertNotSame(outer, inner);
+		cache.releaseStatement(sql1, inner);
+		cache.releaseStatement(sql1, outer);
+	}
+
+	@Test
+	public void testClosedStatementIsNotReused() throws Exception {
+		StatementCache cache = new StatementCache(connection, 10);
+
+		context.checking(new Expectations() {{
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(ps1));
+			oneOf(ps1).clearParameters();
+			oneOf(ps1).isClosed();
+			will(returnValue(true));
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(ps2));
+		}});
+
+		cache.releaseStatement(sql1, cache.prepareStatement(sql1));
+		assertSame(ps2, cache.prepareStatement(sql1));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedStatementIsEvicted() throws Exception {
+		StatementCache cache = new StatementCache(connection, 2);
+
+		context.checking(new Expectations() {{
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(ps1));
+			oneOf(connection).prepareStatement(sql2);
+			will(returnValue(ps2));
+			oneOf(connection).prepareStatement(sql3);
+			will(returnValue(ps3));
+			exactly(2).of(ps1).clearParameters();
+			oneOf(ps1).isClosed();
+			will(returnValue(false));
+			oneOf(ps2).clearParameters();
+			oneOf(ps3).clearParameters();
+			// The statement for sql2 is the least recently used
+			oneOf(ps2).close();
+		}});
+
+		cache.releaseStatement(sql1, cache.prepareStatement(sql1));
+		cache.releaseStatement(sql2, cache.prepareStatement(sql2));
+		cache.releaseStatement(sql1, cache.prepareStatement(sql1));
+		cache.releaseStatement(sql3, cache.prepareStatement(sql3));
+	}
+
+	@Test
+	public void testCloseClosesCachedStatements() throws Exception {
+		StatementCache cache = new StatementCache(connection, 10);
+
+		context.checking(new Expectations() {{
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(ps1));
+			oneOf(connection).prepareStatement(sql2);
+			will(returnValue(ps2));
+			oneOf(ps1).clearParameters();
+			oneOf(ps2).clearParameters();
+			oneOf(ps1).close();
+			oneOf(ps2).close();
+		}});
+
+		cache.releaseStatement(sql1, cache.prepareStatement(sql1));
+		cache.releaseStatement(sql2, cache.prepareStatement(sql2));
+		cache.close();
+	}
+}
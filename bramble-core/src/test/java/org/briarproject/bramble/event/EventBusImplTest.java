@@ -0,0 +1,97 @@
+package org.briarproject.bramble.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.plugin.event.TransportInactiveEvent;
+import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getTransportId;
+
+public class EventBusImplTest extends BrambleMockTestCase {
+
+	private final EventListener listener = context.mock(EventListener.class);
+
+	private final EventBusImpl eventBus =
+			new EventBusImpl(new ImmediateExecutor());
+	private final ContactId contactId = getContactId();
+	private final ContactId otherContactId = getContactId();
+	private final TransportId transportId = getTransportId();
+
+	@Test
+	public void testListenerForAllEventsIsNotified() {
+		Event removed = new ContactRemovedEvent(contactId);
+		Event inactive = new TransportInactiveEvent(transportId);
+
+		context.checking(new Expectations() {{
+			oneOf(listener).eventOccurred(removed);
+			oneOf(listener).eventOccurred(inactive);
+		}});
+
+		eventBus.addListener(listener);
+		eventBus.broadcast(removed);
+		eventBus.broadcast(inactive);
+	}
+
+	@Test
+	public void testListenerIsOnlyNotifiedOfRegisteredType() {
+		Event removed = new ContactRemovedEvent(contactId);
+		Event inactive = new TransportInactiveEvent(transportId);
+
+		context.checking(new Expectations() {{
+			oneOf(listener).eventOccurred(removed);
+		}});
+
+		eventBus.addListener(ContactRemovedEvent.class, listener);
+		eventBus.broadcast(removed);
+		eventBus.broadcast(inactive);
+	}
+
+	@Test
+	public void testListenerIsNotifiedOfSubtypes() {
+		Event removed = new ContactRemovedEvent(contactId);
+
+		context.checking(new Expectations() {{
+			oneOf(listener).eventOccurred(removed);
+		}});
+
+		eventBus.addListener(Event.class, listener);
+		eventBus.broadcast(removed);
+	}
+
+	@Test
+	public void testListenerIsOnlyNotifiedOfRegisteredKey() {
+		Event removed = new ContactRemovedEvent(contactId);
+		Event otherRemoved = new ContactRemovedEvent(otherContactId);
+		Event toAck = new MessageToAckEvent(contactId);
+
+		context.checking(new Expectations() {{
+			oneOf(listener).eventOccurred(removed);
+		}});
+
+		eventBus.addListener(ContactRemovedEvent.class, contactId, listener);
+		eventBus.broadcast(removed);
+		eventBus.broadcast(otherRemoved);
+		eventBus.broadcast(toAck);
+	}
+
+	@Test
+	public void testRemovedListenerIsNotNotified() {
+		Event removed = new ContactRemovedEvent(contactId);
+		Event inactive = new TransportInactiveEvent(transportId);
+
+		eventBus.addListener(listener);
+		eventBus.addListener(ContactRemovedEvent.class, contactId, listener);
+		eventBus.addListener(TransportInactiveEvent.class, listener);
+		eventBus.removeListener(listener);
+		eventBus.broadcast(removed);
+		eventBus.broadcast(inactive);
+	}
+}
@@ -0,0 +1,119 @@
+package org.briarproject.bramble.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
+import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the cost of dispatching an event that concerns one contact when
+ * there's a listener for each contact, with every listener notified of every
+ * event (before) and with listeners registered for the event type and
+ * contact (after).
+ */
+@Ignore
+public class EventBusPerformanceTest extends BrambleTestCase {
+
+	private static final int[] LISTENER_COUNTS = {1, 10, 100, 1000};
+	private static final int WARMUP_EVENTS = 100_000;
+	private static final int EVENTS = 1_000_000;
+
+	private final String resultsFile = getClass().getSimpleName() + ".tsv";
+
+	@Test
+	public void testDispatchCost() throws IOException {
+		for (int listeners : LISTENER_COUNTS) {
+			long before = benchmark(listeners, false);
+			long after = benchmark(listeners, true);
+			writeResult(String.format("%,d listeners\t%,d\t%,d", listeners,
+					before, after));
+		}
+	}
+
+	/**
+	 * Returns the mean time taken to dispatch an event in nanoseconds.
+	 */
+	private long benchmark(int listenerCount, boolean keyed) {
+		EventBusImpl eventBus = new EventBusImpl(new ImmediateExecutor());
+		List<ContactId> contactIds = new ArrayList<>();
+		List<SessionListener> listeners = new ArrayList<>();
+		for (int i = 0; i < listenerCount; i++) {
+			ContactId c = new ContactId(i);
+			contactIds.add(c);
+			SessionListener l = new SessionListener(c);
+			listeners.add(l);
+			if (keyed) {
+				eventBus.addListener(ContactRemovedEvent.class, c, l);
+				eventBus.addListener(MessageToAckEvent.class, c, l);
+				eventBus.addListener(LifecycleEvent.class, l);
+			} else {
+				eventBus.addListener(l);
+			}
+		}
+		List<Event> events = new ArrayList<>();
+		for (ContactId c : contactIds) events.add(new MessageToAckEvent(c));
+		dispatch(eventBus, events, WARMUP_EVENTS);
+		long start = System.nanoTime();
+		dispatch(eventBus, events, EVENTS);
+		long duration = System.nanoTime() - start;
+		int acks = 0;
+		for (SessionListener l : listeners) acks += l.acks;
+		assertEquals(WARMUP_EVENTS + EVENTS, acks);
+		return duration / EVENTS;
+	}
+
+	private void dispatch(EventBusImpl eventBus, List<Event> events,
+			int count) {
+		for (int i = 0; i < count; i++)
+			eventBus.broadcast(events.get(i % events.size()));
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+
+	/**
+	 * A listener that handles events in the same way as a sync session.
+	 */
+	private static class SessionListener implements EventListener {
+
+		private final ContactId contactId;
+
+		private int acks = 0;
+		private boolean removed = false;
+
+		private SessionListener(ContactId contactId) {
+			this.contactId = contactId;
+		}
+
+		@Override
+		public void eventOccurred(Event e) {
+			if (e instanceof ContactRemovedEvent) {
+				ContactRemovedEvent c = (ContactRemovedEvent) e;
+				if (c.getContactId().equals(contactId)) removed = true;
+			} else if (e instanceof MessageToAckEvent) {
+				if (((MessageToAckEvent) e).getContactId().equals(contactId))
+					acks++;
+			}
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package org.briarproject.bramble.plugin;
+
+import org.briarproject.bramble.api.Cancellable;
+import org.briarproject.bramble.api.Pair;
+import org.briarproject.bramble.api.plugin.ConnectionHandler;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler.Connector;
+import org.briarproject.bramble.api.plugin.duplex.DuplexTransportConnection;
+import org.briarproject.bramble.api.properties.TransportProperties;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.briarproject.bramble.test.SettableClock;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.plugin.ConnectionSchedulerImpl.MAX_CONSECUTIVE_FAILURES;
+import static org.briarproject.bramble.plugin.ConnectionSchedulerImpl.MIN_RETRY_DELAY;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.util.StringUtils.toHexString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionSchedulerImplTest extends BrambleMockTestCase {
+
+	private final TaskScheduler scheduler = context.mock(TaskScheduler.class);
+	private final Cancellable cancellable = context.mock(Cancellable.class);
+	private final ConnectionHandler handler =
+			context.mock(ConnectionHandler.class);
+	private final DuplexTransportConnection connection =
+			context.mock(DuplexTransportConnection.class);
+
+	private final Executor ioExecutor = new ImmediateExecutor();
+	private final List<Runnable> tasks = new ArrayList<>();
+	private final Executor wakefulIoExecutor = tasks::add;
+	private final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+	private final List<TransportProperties> connected = new ArrayList<>();
+
+	@Test
+	public void testLimitsConcurrentAttempts() {
+		ConnectionSchedulerImpl s = createScheduler(2);
+		List<TransportProperties> contacts = getProperties(5);
+		s.schedule(getPairs(contacts), 0, failingConnector());
+
+		// Two attempts should start, the others should be queued
+		assertEquals(2, tasks.size());
+		assertEquals(2, s.getAttemptCount());
+		assertEquals(3, s.getQueueDepth());
+
+		// Each time an attempt finishes, another should start
+		runTask(0);
+		assertEquals(3, tasks.size());
+		assertEquals(2, s.getQueueDepth());
+		runTask(0);
+		runTask(0);
+		runTask(0);
+		runTask(0);
+		assertTrue(tasks.isEmpty());
+		assertEquals(5, s.getAttemptCount());
+		assertEquals(0, s.getSuccessCount());
+		assertEquals(0, s.getQueueDepth());
+		assertEquals(contacts, connected);
+	}
+
+	@Test
+	public void testDoesNotSpreadAttemptsWithinLimit() {
+		ConnectionSchedulerImpl s = createScheduler(10);
+		List<TransportProperties> contacts = getProperties(4);
+
+		// All the attempts should start immediately
+		s.schedule(getPairs(contacts), 4000, failingConnector());
+		assertEquals(4, tasks.size());
+		assertEquals(0, s.getQueueDepth());
+	}
+
+	@Test
+	public void testSpreadsAttemptsBeyondLimitAcrossWindow() {
+		ConnectionSchedulerImpl s = createScheduler(2);
+		List<TransportProperties> contacts = getProperties(4);
+		AtomicReference<Runnable> wakeup = new AtomicReference<>();
+
+		// Two attempts should start immediately
+		s.schedule(getPairs(contacts), 2000, failingConnector());
+		assertEquals(2, tasks.size());
+		assertEquals(2, s.getQueueDepth());
+
+		context.checking(new Expectations() {{
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(ioExecutor), with(1000L), with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(wakeup, Runnable.class, 0));
+		}});
+
+		// When an attempt finishes, the next attempt should wait for its
+		// start time, as the remaining attempts are spread across the window
+		runTask(0);
+		assertEquals(1, tasks.size());
+		assertEquals(2, s.getQueueDepth());
+
+		// The next attempt should start when the scheduler wakes up
+		time.addAndGet(1000);
+		wakeup.get().run();
+		assertEquals(2, tasks.size());
+		assertEquals(1, s.getQueueDepth());
+	}
+
+	@Test
+	public void testCancelRemovesAttemptsThatHaveNotStarted() {
+		ConnectionSchedulerImpl s = createScheduler(1);
+		List<TransportProperties> contacts = getProperties(3);
+
+		s.schedule(getPairs(contacts), 0, failingConnector());
+		assertEquals(1, tasks.size());
+		assertEquals(2, s.getQueueDepth());
+
+		// The queued attempts should be removed, but the attempt that has
+		// started should be allowed to finish
+		s.cancel();
+		assertEquals(0, s.getQueueDepth());
+		runAllTasks();
+		assertEquals(singletonList(contacts.get(0)), connected);
+	}
+
+	@Test
+	public void testReplacesAttemptsThatHaveNotStarted() {
+		ConnectionSchedulerImpl s = createScheduler(1);
+		List<TransportProperties> first = getProperties(3);
+		List<TransportProperties> second = getProperties(2);
+
+		s.schedule(getPairs(first), 0, failingConnector());
+		assertEquals(1, tasks.size());
+		assertEquals(2, s.getQueueDepth());
+
+		// The queued attempts should be replaced
+		s.schedule(getPairs(second), 0, failingConnector());
+		assertEquals(1, tasks.size());
+		assertEquals(2, s.getQueueDepth());
+		runTask(0);
+		runTask(0);
+		runTask(0);
+		assertEquals(asList(first.get(0), second.get(0), second.get(1)),
+				connected);
+	}
+
+	@Test
+	public void testTriesSuccessfulContactsFirst() {
+		ConnectionSchedulerImpl s = createScheduler(1);
+		List<TransportProperties> contacts = getProperties(3);
+		TransportProperties successful = contacts.get(2);
+		Connector connector = p -> {
+			connected.add(p);
+			return p == successful ? connection : null;
+		};
+
+		context.checking(new Expectations() {{
+			exactly(2).of(handler).handleConnection(connection);
+		}});
+
+		s.schedule(getPairs(contacts), 0, connector);
+		runAllTasks();
+		assertEquals(contacts, connected);
+		assertEquals(1, s.getSuccessCount());
+
+		// The contact we connected to should be tried first next time
+		connected.clear();
+		time.addAndGet(1000);
+		s.schedule(getPairs(contacts), 0, connector);
+		runAllTasks();
+		assertEquals(asList(successful, contacts.get(0), contacts.get(1)),
+				connected);
+		assertEquals(2, s.getSuccessCount());
+	}
+
+	@Test
+	public void testSkipsContactsWithRepeatedFailures() {
+		ConnectionSchedulerImpl s = createScheduler(1);
+		List<TransportProperties> contacts = getProperties(1);
+
+		for (int i = 0; i < MAX_CONSECUTIVE_FAILURES; i++) {
+			s.schedule(getPairs(contacts), 0, failingConnector());
+			runAllTasks();
+			time.addAndGet(1000);
+		}
+		assertEquals(MAX_CONSECUTIVE_FAILURES, connected.size());
+
+		// The contact should be skipped until the retry delay has elapsed
+		s.schedule(getPairs(contacts), 0, failingConnector());
+		assertTrue(tasks.isEmpty());
+		time.addAndGet(MIN_RETRY_DELAY);
+		s.schedule(getPairs(contacts), 0, failingConnector());
+		assertEquals(1, tasks.size());
+		runAllTasks();
+		assertEquals(MAX_CONSECUTIVE_FAILURES + 1, connected.size());
+
+		// The retry delay should double after a further failure
+		time.addAndGet(MIN_RETRY_DELAY);
+		s.schedule(getPairs(contacts), 0, failingConnector());
+		assertTrue(tasks.isEmpty());
+		time.addAndGet(MIN_RETRY_DELAY);
+		s.schedule(getPairs(contacts), 0, failingConnector());
+		assertEquals(1, tasks.size());
+	}
+
+	@Test
+	public void testCancelsWakeupWhenRescheduling() {
+		ConnectionSchedulerImpl s = createScheduler(1);
+		List<TransportProperties> contacts = getProperties(3);
+
+		s.schedule(getPairs(contacts), 1000, failingConnector());
+
+		context.checking(new Expectations() {{
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(ioExecutor), with(500L), with(MILLISECONDS));
+			will(returnValue(cancellable));
+		}});
+
+		runTask(0);
+
+		context.checking(new Expectations() {{
+			oneOf(cancellable).cancel();
+		}});
+
+		s.schedule(getPairs(singletonList(contacts.get(1))), 1000,
+				failingConnector());
+	}
+
+	private ConnectionSchedulerImpl createScheduler(int maxConcurrent) {
+		return new ConnectionSchedulerImpl(ioExecutor, wakefulIoExecutor,
+				scheduler, new SettableClock(time), maxConcurrent);
+	}
+
+	private Connector failingConnector() {
+		return p -> {
+			connected.add(p);
+			return null;
+		};
+	}
+
+	private void runTask(int index) {
+		tasks.remove(index).run();
+	}
+
+	private void runAllTasks() {
+		while (!tasks.isEmpty()) runTask(0);
+	}
+
+	private List<TransportProperties> getProperties(int count) {
+		List<TransportProperties> properties = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			TransportProperties p = new TransportProperties();
+			p.put("address", toHexString(getRandomId()));
+			properties.add(p);
+		}
+		return properties;
+	}
+
+	private Collection<Pair<TransportProperties, ConnectionHandler>> getPairs(
+			List<TransportProperties> properties) {
+		List<Pair<TransportProperties, ConnectionHandler>> pairs =
+				new ArrayList<>(properties.size());
+		for (TransportProperties p : properties) {
+			pairs.add(new Pair<>(p, handler));
+		}
+		return pairs;
+	}
+}
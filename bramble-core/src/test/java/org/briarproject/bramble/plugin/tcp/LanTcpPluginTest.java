@@ -1,8 +1,11 @@
 package org.briarproject.bramble.plugin.tcp;
 
+import org.briarproject.bramble.api.Pair;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.keyagreement.KeyAgreementListener;
 import org.briarproject.bramble.api.plugin.Backoff;
+import org.briarproject.bramble.api.plugin.ConnectionHandler;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
 import org.briarproject.bramble.api.plugin.Plugin.State;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.plugin.TransportConnectionReader;
@@ -44,14 +47,16 @@ import static org.junit.Assume.assumeTrue;
 public class LanTcpPluginTest extends BrambleTestCase {
 
 	private final Backoff backoff = new TestBackoff();
+	private final ConnectionScheduler connectionScheduler =
+			new TestConnectionScheduler();
 	private final ExecutorService ioExecutor = newCachedThreadPool();
 	private final Callback callback = new Callback();
 
 	private final LanTcpPlugin plugin;
 
 	public LanTcpPluginTest() {
-		plugin = new LanTcpPlugin(ioExecutor, ioExecutor, backoff, callback,
-				0, 0, 1000) {
+		plugin = new LanTcpPlugin(ioExecutor, connectionScheduler, backoff,
+				callback, 0, 0, 1000) {
 			@Override
 			protected boolean canConnectToOwnAddress() {
 				return true;
@@ -368,4 +373,34 @@ public class LanTcpPluginTest extends BrambleTestCase {
 		public void reset() {
 		}
 	}
+
+	@NotNullByDefault
+	private static class TestConnectionScheduler
+			implements ConnectionScheduler {
+
+		@Override
+		public void schedule(Collection<Pair<TransportProperties,
+				ConnectionHandler>> properties, int window,
+				Connector connector) {
+		}
+
+		@Override
+		public void cancel() {
+		}
+
+		@Override
+		public long getAttemptCount() {
+			return 0;
+		}
+
+		@Override
+		public long getSuccessCount() {
+			return 0;
+		}
+
+		@Override
+		public int getQueueDepth() {
+			return 0;
+		}
+	}
 }
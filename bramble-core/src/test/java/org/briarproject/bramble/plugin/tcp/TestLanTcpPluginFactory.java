@@ -4,11 +4,12 @@ import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.plugin.Backoff;
 import org.briarproject.bramble.api.plugin.BackoffFactory;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
+import org.briarproject.bramble.api.plugin.ConnectionSchedulerFactory;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.plugin.duplex.DuplexPlugin;
 import org.briarproject.bramble.api.plugin.duplex.DuplexPluginFactory;
-import org.briarproject.bramble.api.system.WakefulIoExecutor;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.util.concurrent.Executor;
@@ -29,20 +30,22 @@ public class TestLanTcpPluginFactory implements DuplexPluginFactory {
 	private static final int MIN_POLLING_INTERVAL = 60_000; // 1 minute
 	private static final int MAX_POLLING_INTERVAL = 600_000; // 10 mins
 	private static final double BACKOFF_BASE = 1.2;
+	private static final int MAX_CONCURRENT_CONNECTION_ATTEMPTS = 16;
 
-	private final Executor ioExecutor, wakefulIoExecutor;
+	private final Executor ioExecutor;
 	private final EventBus eventBus;
 	private final BackoffFactory backoffFactory;
+	private final ConnectionSchedulerFactory connectionSchedulerFactory;
 
 	@Inject
 	public TestLanTcpPluginFactory(@IoExecutor Executor ioExecutor,
-			@WakefulIoExecutor Executor wakefulIoExecutor,
 			EventBus eventBus,
-			BackoffFactory backoffFactory) {
+			BackoffFactory backoffFactory,
+			ConnectionSchedulerFactory connectionSchedulerFactory) {
 		this.ioExecutor = ioExecutor;
-		this.wakefulIoExecutor = wakefulIoExecutor;
 		this.eventBus = eventBus;
 		this.backoffFactory = backoffFactory;
+		this.connectionSchedulerFactory = connectionSchedulerFactory;
 	}
 
 	@Override
@@ -59,7 +62,9 @@ public class TestLanTcpPluginFactory implements DuplexPluginFactory {
 	public DuplexPlugin createPlugin(PluginCallback callback) {
 		Backoff backoff = backoffFactory.createBackoff(MIN_POLLING_INTERVAL,
 				MAX_POLLING_INTERVAL, BACKOFF_BASE);
-		LanTcpPlugin plugin = new LanTcpPlugin(ioExecutor, wakefulIoExecutor,
+		ConnectionScheduler connectionScheduler = connectionSchedulerFactory
+				.createConnectionScheduler(MAX_CONCURRENT_CONNECTION_ATTEMPTS);
+		LanTcpPlugin plugin = new LanTcpPlugin(ioExecutor, connectionScheduler,
 				backoff, callback, MAX_LATENCY, MAX_IDLE_TIME,
 				CONNECTION_TIMEOUT) {
 			@Override
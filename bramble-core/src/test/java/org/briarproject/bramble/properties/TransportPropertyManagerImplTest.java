@@ -8,8 +8,11 @@ import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
+import org.briarproject.bramble.api.db.CommitAction;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.EventAction;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.TaskAction;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.properties.TransportProperties;
@@ -30,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
@@ -110,7 +114,7 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).addGroup(txn, localGroup);
 			oneOf(db).getContacts(txn);
 			will(returnValue(singletonList(contact)));
-			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
+			exactly(2).of(contactGroupFactory).createContactGroup(CLIENT_ID,
 					MAJOR_VERSION, contact);
 			will(returnValue(contactGroup));
 			oneOf(db).addGroup(txn, contactGroup);
@@ -126,6 +130,16 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 				1, true, true);
 		expectStoreMessage(txn, contactGroup.getId(), "bar", barPropertiesDict,
 				1, true, true);
+		// Load the cache
+		expectGetLocalProperties(txn);
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(emptyMap()));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(new BdfDictionary()));
+		}});
 
 		TransportPropertyManagerImpl t = createInstance();
 		t.onDatabaseOpened(txn);
@@ -137,14 +151,160 @@ public class TransportPropertyManagerImplTest extends BrambleMockTestCase {
 		Transaction txn = new Transaction(null, false);
 
 		context.checking(new Expectations() {{
+			oneOf(db).getContacts(txn);
+			will(returnValue(emptyList()));
 			oneOf(db).containsGroup(txn, localGroup.getId());
 			will(returnValue(true));
 		}});
+		// Load the cache
+		expectGetLocalProperties(txn);
 
 		TransportPropertyManagerImpl t = createInstance();
 		t.onDatabaseOpened(txn);
 	}
 
+	@Test
+	public void testReturnsCachedPropertiesAfterStartup() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		Contact contact = getContact();
+		Group contactGroup = getGroup(CLIENT_ID, MAJOR_VERSION);
+		Map<MessageId, BdfDictionary> messageMetadata =
+				new LinkedHashMap<>();
+		// A local update for the same transport should be ignored
+		MessageId localUpdateId = new MessageId(getRandomId());
+		messageMetadata.put(localUpdateId, BdfDictionary.of(
+				new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+				new BdfEntry(MSG_KEY_VERSION, 1),
+				new BdfEntry(MSG_KEY_LOCAL, true)
+		));
+		// The latest remote update should be cached
+		MessageId fooUpdateId = new MessageId(getRandomId());
+		messageMetadata.put(fooUpdateId, BdfDictionary.of(
+				new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+				new BdfEntry(MSG_KEY_VERSION, 2),
+				new BdfEntry(MSG_KEY_LOCAL, false)
+		));
+		BdfList fooUpdate = BdfList.of("foo", 2, fooPropertiesDict);
+		// An older remote update that hasn't been deleted should be ignored
+		MessageId oldFooUpdateId = new MessageId(getRandomId());
+		messageMetadata.put(oldFooUpdateId, BdfDictionary.of(
+				new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+				new BdfEntry(MSG_KEY_VERSION, 1),
+				new BdfEntry(MSG_KEY_LOCAL, false)
+		));
+		BdfDictionary groupMeta = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_DISCOVERED, discoveredPropertiesDict)
+		);
+		TransportProperties merged = new TransportProperties(fooProperties);
+		merged.putAll(discoveredProperties);
+
+		context.checking(new Expectations() {{
+			oneOf(db).getContacts(txn);
+			will(returnValue(singletonList(contact)));
+			oneOf(db).containsGroup(txn, localGroup.getId());
+			will(returnValue(true));
+			// Load the contact's remote and discovered properties
+			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
+					MAJOR_VERSION, contact);
+			will(returnValue(contactGroup));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(messageMetadata));
+			oneOf(clientHelper).getMessageAsList(txn, fooUpdateId, false);
+			will(returnValue(fooUpdate));
+			oneOf(clientHelper).parseAndValidateTransportProperties(
+					fooPropertiesDict);
+			will(returnValue(fooProperties));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(groupMeta));
+			oneOf(clientHelper).parseAndValidateTransportProperties(
+					discoveredPropertiesDict);
+			will(returnValue(discoveredProperties));
+		}});
+		expectGetLocalProperties(txn);
+
+		TransportPropertyManagerImpl t = createInstance();
+		t.onDatabaseOpened(txn);
+
+		// The properties should be returned without touching the database
+		TransportId fooId = new TransportId("foo");
+		TransportId barId = new TransportId("bar");
+		assertEquals(merged, t.getRemoteProperties(contact.getId(), fooId));
+		assertEquals(discoveredProperties,
+				t.getRemoteProperties(contact.getId(), barId));
+		Map<ContactId, TransportProperties> remote =
+				t.getRemoteProperties(fooId);
+		assertEquals(singletonMap(contact.getId(), merged), remote);
+		assertEquals(fooProperties, t.getLocalProperties(fooId));
+		assertEquals(barProperties, t.getLocalProperties(barId));
+		Map<TransportId, TransportProperties> local = t.getLocalProperties();
+		assertEquals(2, local.size());
+		assertEquals(fooProperties, local.get(fooId));
+		assertEquals(barProperties, local.get(barId));
+	}
+
+	@Test
+	public void testUpdatesCacheWhenUpdateIsDelivered() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		Contact contact = getContact();
+		Group contactGroup = getGroup(CLIENT_ID, MAJOR_VERSION);
+		Message message = getMessage(contactGroup.getId());
+		Metadata meta = new Metadata();
+		BdfDictionary metaDictionary = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_TRANSPORT_ID, "foo"),
+				new BdfEntry(MSG_KEY_VERSION, 1),
+				new BdfEntry(MSG_KEY_LOCAL, false)
+		);
+		BdfList fooUpdate = BdfList.of("foo", 1, fooPropertiesDict);
+
+		context.checking(new Expectations() {{
+			oneOf(db).getContacts(txn);
+			will(returnValue(singletonList(contact)));
+			oneOf(db).containsGroup(txn, localGroup.getId());
+			will(returnValue(true));
+			// Load the cache - the contact hasn't sent any updates
+			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
+					MAJOR_VERSION, contact);
+			will(returnValue(contactGroup));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(emptyMap()));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(new BdfDictionary()));
+			// Deliver the first update
+			oneOf(metadataParser).parse(meta);
+			will(returnValue(metaDictionary));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(emptyMap()));
+			oneOf(clientHelper).toList(message);
+			will(returnValue(fooUpdate));
+			oneOf(clientHelper).parseAndValidateTransportProperties(
+					fooPropertiesDict);
+			will(returnValue(fooProperties));
+		}});
+		expectGetLocalProperties(txn);
+
+		TransportPropertyManagerImpl t = createInstance();
+		t.onDatabaseOpened(txn);
+
+		TransportId fooId = new TransportId("foo");
+		assertEquals(0, t.getRemoteProperties(contact.getId(), fooId).size());
+		assertEquals(ACCEPT_DO_NOT_SHARE,
+				t.incomingMessage(txn, message, meta));
+
+		// The cache should be updated before the event is broadcast
+		List<CommitAction> actions = txn.getActions();
+		assertEquals(2, actions.size());
+		assertTrue(actions.get(0) instanceof TaskAction);
+		assertTrue(actions.get(1) instanceof EventAction);
+		((TaskAction) actions.get(0)).getTask().run();
+		assertEquals(fooProperties,
+				t.getRemoteProperties(contact.getId(), fooId));
+	}
+
 	@Test
 	public void testCreatesContactGroupWhenAddingContact() throws Exception {
 		Transaction txn = new Transaction(null, false);
@@ -1,26 +1,31 @@
 package org.briarproject.bramble.sync;
 
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.plugin.event.TransportInactiveEvent;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.sync.event.CloseSyncConnectionsEvent;
 import org.briarproject.bramble.api.transport.StreamWriter;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.DbExpectations;
 import org.junit.Test;
 
 import static java.util.Arrays.asList;
-import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.sync.SimplexOutgoingSession.BATCH_CAPACITY;
 import static org.briarproject.bramble.test.TestUtils.getContactId;
 import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
@@ -35,6 +40,7 @@ public class EagerSimplexOutgoingSessionTest extends BrambleMockTestCase {
 	private final StreamWriter streamWriter = context.mock(StreamWriter.class);
 	private final SyncRecordWriter recordWriter =
 			context.mock(SyncRecordWriter.class);
+	private final MessageCursor cursor = context.mock(MessageCursor.class);
 
 	private final ContactId contactId = getContactId();
 	private final TransportId transportId = getTransportId();
@@ -52,11 +58,18 @@ public class EagerSimplexOutgoingSessionTest extends BrambleMockTestCase {
 						transportId, MAX_LATENCY, streamWriter, recordWriter);
 
 		Transaction noAckTxn = new Transaction(null, false);
-		Transaction noIdsTxn = new Transaction(null, true);
+		Transaction cursorTxn = new Transaction(null, true);
+		Transaction noMsgTxn = new Transaction(null, false);
 
 		context.checking(new DbExpectations() {{
-			// Add listener
-			oneOf(eventBus).addListener(session);
+			// Add listeners
+			oneOf(eventBus).addListener(ContactRemovedEvent.class, contactId,
+					session);
+			oneOf(eventBus).addListener(LifecycleEvent.class, session);
+			oneOf(eventBus).addListener(CloseSyncConnectionsEvent.class,
+					transportId, session);
+			oneOf(eventBus).addListener(TransportInactiveEvent.class,
+					transportId, session);
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
 			// No acks to send
@@ -64,14 +77,21 @@ public class EagerSimplexOutgoingSessionTest extends BrambleMockTestCase {
 					withNullableDbCallable(noAckTxn));
 			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
 			will(returnValue(null));
-			// No messages to send
+			// Get a cursor for the unacked messages
 			oneOf(db).transactionWithResult(with(true),
-					withDbCallable(noIdsTxn));
-			oneOf(db).getUnackedMessagesToSend(noIdsTxn, contactId);
-			will(returnValue(emptyList()));
+					withDbCallable(cursorTxn));
+			oneOf(db).getMessageCursor(cursorTxn, contactId, MAX_LATENCY,
+					true);
+			will(returnValue(cursor));
+			// No messages to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noMsgTxn));
+			oneOf(db).generateBatch(noMsgTxn, cursor, BATCH_CAPACITY,
+					true);
+			will(returnValue(null));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
-			// Remove listener
+			// Remove listeners
 			oneOf(eventBus).removeListener(session);
 		}});
 
@@ -86,13 +106,19 @@ public class EagerSimplexOutgoingSessionTest extends BrambleMockTestCase {
 
 		Transaction ackTxn = new Transaction(null, false);
 		Transaction noAckTxn = new Transaction(null, false);
-		Transaction idsTxn = new Transaction(null, true);
+		Transaction cursorTxn = new Transaction(null, true);
 		Transaction msgTxn = new Transaction(null, false);
-		Transaction msgTxn1 = new Transaction(null, false);
+		Transaction noMsgTxn = new Transaction(null, false);
 
 		context.checking(new DbExpectations() {{
-			// Add listener
-			oneOf(eventBus).addListener(session);
+			// Add listeners
+			oneOf(eventBus).addListener(ContactRemovedEvent.class, contactId,
+					session);
+			oneOf(eventBus).addListener(LifecycleEvent.class, session);
+			oneOf(eventBus).addListener(CloseSyncConnectionsEvent.class,
+					transportId, session);
+			oneOf(eventBus).addListener(TransportInactiveEvent.class,
+					transportId, session);
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
 			// One ack to send
@@ -106,26 +132,28 @@ public class EagerSimplexOutgoingSessionTest extends BrambleMockTestCase {
 					withNullableDbCallable(noAckTxn));
 			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
 			will(returnValue(null));
+			// Get a cursor for the unacked messages
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(cursorTxn));
+			oneOf(db).getMessageCursor(cursorTxn, contactId, MAX_LATENCY,
+					true);
+			will(returnValue(cursor));
 			// Two messages to send
-			oneOf(db).transactionWithResult(with(true), withDbCallable(idsTxn));
-			oneOf(db).getUnackedMessagesToSend(idsTxn, contactId);
-			will(returnValue(asList(message.getId(), message1.getId())));
-			// Try to send the first message - it's no longer shared
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(msgTxn));
-			oneOf(db).getMessageToSend(msgTxn, contactId, message.getId(),
-					MAX_LATENCY, true);
-			will(returnValue(null));
-			// Send the second message
-			oneOf(db).transactionWithNullableResult(with(false),
-					withNullableDbCallable(msgTxn1));
-			oneOf(db).getMessageToSend(msgTxn1, contactId, message1.getId(),
-					MAX_LATENCY, true);
-			will(returnValue(message1));
+			oneOf(db).generateBatch(msgTxn, cursor, BATCH_CAPACITY, true);
+			will(returnValue(asList(message, message1)));
+			oneOf(recordWriter).writeMessage(message);
 			oneOf(recordWriter).writeMessage(message1);
+			// No more messages
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noMsgTxn));
+			oneOf(db).generateBatch(noMsgTxn, cursor, BATCH_CAPACITY,
+					true);
+			will(returnValue(null));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
-			// Remove listener
+			// Remove listeners
 			oneOf(eventBus).removeListener(session);
 		}});
 
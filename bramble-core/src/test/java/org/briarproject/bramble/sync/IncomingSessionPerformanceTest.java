@@ -0,0 +1,194 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.BrambleCoreIntegrationTestEagerSingletons;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.identity.Identity;
+import org.briarproject.bramble.api.identity.IdentityManager;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.SyncRecordReader;
+import org.briarproject.bramble.api.sync.SyncRecordWriter;
+import org.briarproject.bramble.api.sync.event.MessageAddedEvent;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfigModule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.logging.Level.OFF;
+import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput of storing a large stream of incoming messages,
+ * with one transaction per message (before) and with messages batched by
+ * the {@link IncomingSession} (after).
+ */
+@Ignore
+public class IncomingSessionPerformanceTest extends BrambleTestCase {
+
+	private static final int MESSAGES = 10_000;
+	private static final int MESSAGE_BODY_LENGTH = 1024;
+
+	private final File testDir = getTestDirectory();
+	private final File resultsFile = new File(getTestName() + ".tsv");
+
+	private IncomingSessionPerformanceTestComponent component;
+	private DatabaseComponent db;
+	private ContactId contactId;
+
+	public IncomingSessionPerformanceTest() {
+		// Disable logging
+		Logger.getLogger("").setLevel(OFF);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		assertTrue(testDir.mkdirs());
+		component = DaggerIncomingSessionPerformanceTestComponent.builder()
+				.testDatabaseConfigModule(
+						new TestDatabaseConfigModule(testDir)).build();
+		BrambleCoreIntegrationTestEagerSingletons.Helper
+				.injectEagerSingletons(component);
+		IdentityManager identityManager = component.getIdentityManager();
+		Identity identity = identityManager.createIdentity("Alice");
+		identityManager.registerIdentity(identity);
+		LifecycleManager lifecycleManager = component.getLifecycleManager();
+		lifecycleManager.startServices(getSecretKey());
+		lifecycleManager.waitForStartup();
+		db = component.getDatabaseComponent();
+		contactId = db.transactionWithResult(false, txn -> db.addContact(txn,
+				getAuthor(), identity.getId(), null, true));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		LifecycleManager lifecycleManager = component.getLifecycleManager();
+		lifecycleManager.stopServices();
+		lifecycleManager.waitForShutdown();
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testReceiveMessages() throws Exception {
+		long before = receiveOneMessagePerTransaction(createStream());
+		long after = receiveWithIncomingSession(createStream());
+		String result = String.format("%,d messages\t%,d\t%,d", MESSAGES,
+				getMessagesPerSecond(before), getMessagesPerSecond(after));
+		writeResult(result);
+	}
+
+	/**
+	 * Returns a stream containing messages in a new group that's shared
+	 * with the contact.
+	 */
+	private byte[] createStream() throws Exception {
+		Group g = getGroup(getClientId(), 123);
+		db.transaction(false, txn -> {
+			db.addGroup(txn, g);
+			db.setGroupVisibility(txn, contactId, g.getId(), SHARED);
+		});
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SyncRecordWriter recordWriter = component.getSyncRecordWriterFactory()
+				.createRecordWriter(out);
+		for (int i = 0; i < MESSAGES; i++) {
+			recordWriter.writeMessage(
+					getMessage(g.getId(), MESSAGE_BODY_LENGTH));
+		}
+		recordWriter.flush();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns the time taken in nanoseconds.
+	 */
+	private long receiveOneMessagePerTransaction(byte[] stream)
+			throws Exception {
+		SyncRecordReader recordReader = component.getSyncRecordReaderFactory()
+				.createRecordReader(new ByteArrayInputStream(stream));
+		long start = System.nanoTime();
+		int received = 0;
+		while (!recordReader.eof()) {
+			Message m = recordReader.readMessage();
+			db.transaction(false, txn ->
+					db.receiveMessage(txn, contactId, m));
+			received++;
+		}
+		long duration = System.nanoTime() - start;
+		assertEquals(MESSAGES, received);
+		return duration;
+	}
+
+	/**
+	 * Returns the time taken in nanoseconds, including the time taken to
+	 * broadcast the events for the added messages.
+	 */
+	private long receiveWithIncomingSession(byte[] stream) throws Exception {
+		EventBus eventBus = component.getEventBus();
+		MessageAddedListener listener = new MessageAddedListener(MESSAGES);
+		eventBus.addListener(listener);
+		long start = System.nanoTime();
+		component.getSyncSessionFactory().createIncomingSession(contactId,
+				new ByteArrayInputStream(stream), p -> {
+				}).run();
+		assertTrue(listener.added.await(1, MINUTES));
+		long duration = System.nanoTime() - start;
+		eventBus.removeListener(listener);
+		return duration;
+	}
+
+	private long getMessagesPerSecond(long durationNanos) {
+		return MESSAGES * 1_000_000_000L / Math.max(1, durationNanos);
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+
+	private static class MessageAddedListener implements EventListener {
+
+		private final CountDownLatch added;
+
+		private MessageAddedListener(int messages) {
+			added = new CountDownLatch(messages);
+		}
+
+		@Override
+		public void eventOccurred(Event e) {
+			if (e instanceof MessageAddedEvent) added.countDown();
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.BrambleCoreIntegrationTestEagerSingletons;
+import org.briarproject.bramble.BrambleCoreModule;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.identity.IdentityManager;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
+import org.briarproject.bramble.api.sync.SyncRecordWriterFactory;
+import org.briarproject.bramble.api.sync.SyncSessionFactory;
+import org.briarproject.bramble.mailbox.ModularMailboxModule;
+import org.briarproject.bramble.test.BrambleCoreIntegrationTestModule;
+import org.briarproject.bramble.test.TestDnsModule;
+import org.briarproject.bramble.test.TestPluginConfigModule;
+import org.briarproject.bramble.test.TestSocksModule;
+
+import javax.inject.Singleton;
+
+import dagger.Component;
+
+@Singleton
+@Component(modules = {
+		BrambleCoreIntegrationTestModule.class,
+		BrambleCoreModule.class,
+		ModularMailboxModule.class,
+		TestDnsModule.class,
+		TestSocksModule.class,
+		TestPluginConfigModule.class,
+})
+interface IncomingSessionPerformanceTestComponent extends
+		BrambleCoreIntegrationTestEagerSingletons {
+
+	DatabaseComponent getDatabaseComponent();
+
+	EventBus getEventBus();
+
+	IdentityManager getIdentityManager();
+
+	LifecycleManager getLifecycleManager();
+
+	SyncRecordReaderFactory getSyncRecordReaderFactory();
+
+	SyncRecordWriterFactory getSyncRecordWriterFactory();
+
+	SyncSessionFactory getSyncSessionFactory();
+}
@@ -1,10 +1,14 @@
 package org.briarproject.bramble.sync;
 
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.plugin.event.TransportInactiveEvent;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
@@ -12,6 +16,7 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.OutgoingSessionRecord;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.sync.event.CloseSyncConnectionsEvent;
 import org.briarproject.bramble.api.transport.StreamWriter;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.CaptureArgumentAction;
@@ -22,12 +27,14 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static java.lang.Math.min;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.briarproject.bramble.api.mailbox.MailboxConstants.MAX_FILE_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.sync.SimplexOutgoingSession.BATCH_CAPACITY;
 import static org.briarproject.bramble.test.TestUtils.getContactId;
 import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
@@ -43,6 +50,7 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 	private final StreamWriter streamWriter = context.mock(StreamWriter.class);
 	private final SyncRecordWriter recordWriter =
 			context.mock(SyncRecordWriter.class);
+	private final MessageCursor cursor = context.mock(MessageCursor.class);
 
 	private final ContactId contactId = getContactId();
 	private final TransportId transportId = getTransportId();
@@ -61,13 +69,21 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 				MAX_FILE_PAYLOAD_BYTES);
 
 		Transaction noAckIdTxn = new Transaction(null, true);
-		Transaction noMsgIdTxn = new Transaction(null, true);
+		Transaction cursorTxn = new Transaction(null, true);
+		Transaction noMsgTxn = new Transaction(null, true);
 
 		long capacityForMessages = MAX_FILE_PAYLOAD_BYTES - versionRecordBytes;
+		long batchCapacity = min(BATCH_CAPACITY, capacityForMessages);
 
 		context.checking(new DbExpectations() {{
-			// Add listener
-			oneOf(eventBus).addListener(session);
+			// Add listeners
+			oneOf(eventBus).addListener(ContactRemovedEvent.class, contactId,
+					session);
+			oneOf(eventBus).addListener(LifecycleEvent.class, session);
+			oneOf(eventBus).addListener(CloseSyncConnectionsEvent.class,
+					transportId, session);
+			oneOf(eventBus).addListener(TransportInactiveEvent.class,
+					transportId, session);
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
 			// No messages to ack
@@ -78,15 +94,20 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 			// Calculate capacity for messages
 			oneOf(recordWriter).getBytesWritten();
 			will(returnValue((long) versionRecordBytes));
-			// No messages to send
+			// Get a cursor for the messages to send
 			oneOf(db).transactionWithResult(with(true),
-					withDbCallable(noMsgIdTxn));
-			oneOf(db).getMessagesToSend(noMsgIdTxn, contactId,
-					capacityForMessages, MAX_LATENCY);
-			will(returnValue(emptyList()));
+					withDbCallable(cursorTxn));
+			oneOf(db).getMessageCursor(cursorTxn, contactId, MAX_LATENCY,
+					false);
+			will(returnValue(cursor));
+			// No messages to send
+			oneOf(db).transactionWithNullableResult(with(true),
+					withNullableDbCallable(noMsgTxn));
+			oneOf(db).generateBatch(noMsgTxn, cursor, batchCapacity, false);
+			will(returnValue(null));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
-			// Remove listener
+			// Remove listeners
 			oneOf(eventBus).removeListener(session);
 		}});
 
@@ -105,18 +126,32 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 				MAX_FILE_PAYLOAD_BYTES);
 
 		Transaction ackIdTxn = new Transaction(null, true);
-		Transaction msgIdTxn = new Transaction(null, true);
+		Transaction cursorTxn = new Transaction(null, true);
 		Transaction msgTxn = new Transaction(null, true);
+		Transaction noMsgTxn = new Transaction(null, true);
 
 		int ackRecordBytes = RECORD_HEADER_BYTES + MessageId.LENGTH;
 		long capacityForMessages =
 				MAX_FILE_PAYLOAD_BYTES - versionRecordBytes - ackRecordBytes;
+		long batchCapacity = min(BATCH_CAPACITY, capacityForMessages);
+		long bytesWrittenAfterMessage = versionRecordBytes + ackRecordBytes
+				+ RECORD_HEADER_BYTES + message1.getRawLength();
+		long capacityAfterMessage =
+				MAX_FILE_PAYLOAD_BYTES - bytesWrittenAfterMessage;
+		long batchCapacityAfterMessage =
+				min(BATCH_CAPACITY, capacityAfterMessage);
 
 		AtomicReference<Ack> ack = new AtomicReference<>();
 
 		context.checking(new DbExpectations() {{
-			// Add listener
-			oneOf(eventBus).addListener(session);
+			// Add listeners
+			oneOf(eventBus).addListener(ContactRemovedEvent.class, contactId,
+					session);
+			oneOf(eventBus).addListener(LifecycleEvent.class, session);
+			oneOf(eventBus).addListener(CloseSyncConnectionsEvent.class,
+					transportId, session);
+			oneOf(eventBus).addListener(TransportInactiveEvent.class,
+					transportId, session);
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
 			// Load the IDs to ack
@@ -133,22 +168,30 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 			// Calculate capacity for messages
 			oneOf(recordWriter).getBytesWritten();
 			will(returnValue((long) versionRecordBytes + ackRecordBytes));
-			// One message to send
+			// Get a cursor for the messages to send
 			oneOf(db).transactionWithResult(with(true),
-					withDbCallable(msgIdTxn));
-			oneOf(db).getMessagesToSend(msgIdTxn, contactId,
-					capacityForMessages, MAX_LATENCY);
-			will(returnValue(singletonList(message1.getId())));
-			// Send the message
+					withDbCallable(cursorTxn));
+			oneOf(db).getMessageCursor(cursorTxn, contactId, MAX_LATENCY,
+					false);
+			will(returnValue(cursor));
+			// One message to send
 			oneOf(db).transactionWithNullableResult(with(true),
 					withNullableDbCallable(msgTxn));
-			oneOf(db).getMessageToSend(msgTxn, contactId, message1.getId(),
-					MAX_LATENCY, false);
-			will(returnValue(message1));
+			oneOf(db).generateBatch(msgTxn, cursor, batchCapacity, false);
+			will(returnValue(singletonList(message1)));
 			oneOf(recordWriter).writeMessage(message1);
+			// Calculate remaining capacity for messages
+			oneOf(recordWriter).getBytesWritten();
+			will(returnValue(bytesWrittenAfterMessage));
+			// No more messages
+			oneOf(db).transactionWithNullableResult(with(true),
+					withNullableDbCallable(noMsgTxn));
+			oneOf(db).generateBatch(noMsgTxn, cursor,
+					batchCapacityAfterMessage, false);
+			will(returnValue(null));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
-			// Remove listener
+			// Remove listeners
 			oneOf(eventBus).removeListener(session);
 		}});
 
@@ -196,8 +239,14 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 		AtomicReference<Ack> secondAck = new AtomicReference<>();
 
 		context.checking(new DbExpectations() {{
-			// Add listener
-			oneOf(eventBus).addListener(session);
+			// Add listeners
+			oneOf(eventBus).addListener(ContactRemovedEvent.class, contactId,
+					session);
+			oneOf(eventBus).addListener(LifecycleEvent.class, session);
+			oneOf(eventBus).addListener(CloseSyncConnectionsEvent.class,
+					transportId, session);
+			oneOf(eventBus).addListener(TransportInactiveEvent.class,
+					transportId, session);
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
 			// Load the IDs to ack
@@ -227,7 +276,7 @@ public class MailboxOutgoingSessionTest extends BrambleMockTestCase {
 					+ secondAckRecordBytes));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
-			// Remove listener
+			// Remove listeners
 			oneOf(eventBus).removeListener(session);
 		}});
 
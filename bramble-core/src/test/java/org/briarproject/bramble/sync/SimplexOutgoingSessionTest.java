@@ -1,16 +1,21 @@
 package org.briarproject.bramble.sync;
 
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.plugin.event.TransportInactiveEvent;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.sync.event.CloseSyncConnectionsEvent;
 import org.briarproject.bramble.api.transport.StreamWriter;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.DbExpectations;
@@ -34,6 +39,7 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	private final StreamWriter streamWriter = context.mock(StreamWriter.class);
 	private final SyncRecordWriter recordWriter =
 			context.mock(SyncRecordWriter.class);
+	private final MessageCursor cursor = context.mock(MessageCursor.class);
 
 	private final ContactId contactId = getContactId();
 	private final TransportId transportId = getTransportId();
@@ -49,11 +55,18 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 				streamWriter, recordWriter);
 
 		Transaction noAckTxn = new Transaction(null, false);
+		Transaction cursorTxn = new Transaction(null, true);
 		Transaction noMsgTxn = new Transaction(null, false);
 
 		context.checking(new DbExpectations() {{
-			// Add listener
-			oneOf(eventBus).addListener(session);
+			// Add listeners
+			oneOf(eventBus).addListener(ContactRemovedEvent.class, contactId,
+					session);
+			oneOf(eventBus).addListener(LifecycleEvent.class, session);
+			oneOf(eventBus).addListener(CloseSyncConnectionsEvent.class,
+					transportId, session);
+			oneOf(eventBus).addListener(TransportInactiveEvent.class,
+					transportId, session);
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
 			// No acks to send
@@ -61,15 +74,21 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 					withNullableDbCallable(noAckTxn));
 			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
 			will(returnValue(null));
+			// Get a cursor for the messages to send
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(cursorTxn));
+			oneOf(db).getMessageCursor(cursorTxn, contactId, MAX_LATENCY,
+					false);
+			will(returnValue(cursor));
 			// No messages to send
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(noMsgTxn));
-			oneOf(db).generateBatch(noMsgTxn, contactId,
-					BATCH_CAPACITY, MAX_LATENCY);
+			oneOf(db).generateBatch(noMsgTxn, cursor, BATCH_CAPACITY,
+					true);
 			will(returnValue(null));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
-			// Remove listener
+			// Remove listeners
 			oneOf(eventBus).removeListener(session);
 		}});
 
@@ -84,12 +103,19 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 
 		Transaction ackTxn = new Transaction(null, false);
 		Transaction noAckTxn = new Transaction(null, false);
+		Transaction cursorTxn = new Transaction(null, true);
 		Transaction msgTxn = new Transaction(null, false);
 		Transaction noMsgTxn = new Transaction(null, false);
 
 		context.checking(new DbExpectations() {{
-			// Add listener
-			oneOf(eventBus).addListener(session);
+			// Add listeners
+			oneOf(eventBus).addListener(ContactRemovedEvent.class, contactId,
+					session);
+			oneOf(eventBus).addListener(LifecycleEvent.class, session);
+			oneOf(eventBus).addListener(CloseSyncConnectionsEvent.class,
+					transportId, session);
+			oneOf(eventBus).addListener(TransportInactiveEvent.class,
+					transportId, session);
 			// Send the protocol versions
 			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
 			// One ack to send
@@ -103,22 +129,27 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 					withNullableDbCallable(noAckTxn));
 			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
 			will(returnValue(null));
+			// Get a cursor for the messages to send
+			oneOf(db).transactionWithResult(with(true),
+					withDbCallable(cursorTxn));
+			oneOf(db).getMessageCursor(cursorTxn, contactId, MAX_LATENCY,
+					false);
+			will(returnValue(cursor));
 			// One message to send
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(msgTxn));
-			oneOf(db).generateBatch(msgTxn, contactId,
-					BATCH_CAPACITY, MAX_LATENCY);
+			oneOf(db).generateBatch(msgTxn, cursor, BATCH_CAPACITY, true);
 			will(returnValue(singletonList(message)));
 			oneOf(recordWriter).writeMessage(message);
 			// No more messages
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(noMsgTxn));
-			oneOf(db).generateBatch(noMsgTxn, contactId,
-					BATCH_CAPACITY, MAX_LATENCY);
+			oneOf(db).generateBatch(noMsgTxn, cursor, BATCH_CAPACITY,
+					true);
 			will(returnValue(null));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
-			// Remove listener
+			// Remove listeners
 			oneOf(eventBus).removeListener(session);
 		}});
 
@@ -2,6 +2,7 @@ package org.briarproject.bramble.sync.validation;
 
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
 import org.briarproject.bramble.api.db.NoSuchMessageException;
@@ -23,7 +24,9 @@ import org.briarproject.bramble.test.ImmediateExecutor;
 import org.junit.Test;
 
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Executor;
 
 import static java.util.Arrays.asList;
@@ -91,17 +94,18 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 	public void testMessagesAreValidatedAtStartup() throws Exception {
 		Transaction txn = new Transaction(null, true);
 		Transaction txn1 = new Transaction(null, false);
-		Transaction txn2 = new Transaction(null, true);
-		Transaction txn3 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
 
 		expectGetMessagesToValidate(messageId, messageId1);
 
 		context.checking(new DbExpectations() {{
-			// Load the first raw message and group
+			// Load both raw messages and their groups in one transaction
 			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
 			oneOf(db).getMessage(txn, messageId);
 			will(returnValue(message));
-			oneOf(db).getGroup(txn, groupId);
+			oneOf(db).getMessage(txn, messageId1);
+			will(returnValue(message1));
+			exactly(2).of(db).getGroup(txn, groupId);
 			will(returnValue(group));
 			// Validate the first message: valid
 			oneOf(validator).validateMessage(message, group);
@@ -116,24 +120,18 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Get any pending dependents
 			oneOf(db).getMessageDependents(txn1, messageId);
 			will(returnValue(emptyMap()));
-			// Load the second raw message and group
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn2));
-			oneOf(db).getMessage(txn2, messageId1);
-			will(returnValue(message1));
-			oneOf(db).getGroup(txn2, groupId);
-			will(returnValue(group));
 			// Validate the second message: invalid
 			oneOf(validator).validateMessage(message1, group);
 			will(throwException(new InvalidMessageException()));
 			// Store the validation result for the second message
-			oneOf(db).transaction(with(false), withDbRunnable(txn3));
-			oneOf(db).getMessageState(txn3, messageId1);
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(db).getMessageState(txn2, messageId1);
 			will(returnValue(UNKNOWN));
-			oneOf(db).setMessageState(txn3, messageId1, INVALID);
-			oneOf(db).deleteMessage(txn3, messageId1);
-			oneOf(db).deleteMessageMetadata(txn3, messageId1);
+			oneOf(db).setMessageState(txn2, messageId1, INVALID);
+			oneOf(db).deleteMessage(txn2, messageId1);
+			oneOf(db).deleteMessageMetadata(txn2, messageId1);
 			// Recursively invalidate any dependents
-			oneOf(db).getMessageDependents(txn3, messageId1);
+			oneOf(db).getMessageDependents(txn2, messageId1);
 			will(returnValue(emptyMap()));
 		}});
 
@@ -268,8 +266,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 	public void testValidationContinuesAfterNoSuchMessageException()
 			throws Exception {
 		Transaction txn = new Transaction(null, true);
-		Transaction txn1 = new Transaction(null, true);
-		Transaction txn2 = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
 
 		expectGetMessagesToValidate(messageId, messageId1);
 
@@ -278,24 +275,23 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
 			oneOf(db).getMessage(txn, messageId);
 			will(throwException(new NoSuchMessageException()));
-			// Load the second raw message and group
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
-			oneOf(db).getMessage(txn1, messageId1);
+			// Load the second raw message and group in the same transaction
+			oneOf(db).getMessage(txn, messageId1);
 			will(returnValue(message1));
-			oneOf(db).getGroup(txn1, groupId);
+			oneOf(db).getGroup(txn, groupId);
 			will(returnValue(group));
 			// Validate the second message: invalid
 			oneOf(validator).validateMessage(message1, group);
 			will(throwException(new InvalidMessageException()));
 			// Invalidate the second message
-			oneOf(db).transaction(with(false), withDbRunnable(txn2));
-			oneOf(db).getMessageState(txn2, messageId1);
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).getMessageState(txn1, messageId1);
 			will(returnValue(UNKNOWN));
-			oneOf(db).setMessageState(txn2, messageId1, INVALID);
-			oneOf(db).deleteMessage(txn2, messageId1);
-			oneOf(db).deleteMessageMetadata(txn2, messageId1);
+			oneOf(db).setMessageState(txn1, messageId1, INVALID);
+			oneOf(db).deleteMessage(txn1, messageId1);
+			oneOf(db).deleteMessageMetadata(txn1, messageId1);
 			// Recursively invalidate dependents
-			oneOf(db).getMessageDependents(txn2, messageId1);
+			oneOf(db).getMessageDependents(txn1, messageId1);
 			will(returnValue(emptyMap()));
 		}});
 
@@ -309,8 +305,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 	public void testValidationContinuesAfterNoSuchGroupException()
 			throws Exception {
 		Transaction txn = new Transaction(null, true);
-		Transaction txn1 = new Transaction(null, true);
-		Transaction txn2 = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
 
 		expectGetMessagesToValidate(messageId, messageId1);
 
@@ -322,24 +317,23 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Load the group - *gasp* it's gone!
 			oneOf(db).getGroup(txn, groupId);
 			will(throwException(new NoSuchGroupException()));
-			// Load the second raw message and group
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
-			oneOf(db).getMessage(txn1, messageId1);
+			// Load the second raw message and group in the same transaction
+			oneOf(db).getMessage(txn, messageId1);
 			will(returnValue(message1));
-			oneOf(db).getGroup(txn1, groupId);
+			oneOf(db).getGroup(txn, groupId);
 			will(returnValue(group));
 			// Validate the second message: invalid
 			oneOf(validator).validateMessage(message1, group);
 			will(throwException(new InvalidMessageException()));
 			// Store the validation result for the second message
-			oneOf(db).transaction(with(false), withDbRunnable(txn2));
-			oneOf(db).getMessageState(txn2, messageId1);
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).getMessageState(txn1, messageId1);
 			will(returnValue(UNKNOWN));
-			oneOf(db).setMessageState(txn2, messageId1, INVALID);
-			oneOf(db).deleteMessage(txn2, messageId1);
-			oneOf(db).deleteMessageMetadata(txn2, messageId1);
+			oneOf(db).setMessageState(txn1, messageId1, INVALID);
+			oneOf(db).deleteMessage(txn1, messageId1);
+			oneOf(db).deleteMessageMetadata(txn1, messageId1);
 			// Recursively invalidate dependents
-			oneOf(db).getMessageDependents(txn2, messageId1);
+			oneOf(db).getMessageDependents(txn1, messageId1);
 			will(returnValue(emptyMap()));
 		}});
 
@@ -377,6 +371,105 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 		vm.eventOccurred(new MessageAddedEvent(message, contactId));
 	}
 
+	@Test
+	public void testMessagesValidatedTogetherAreStoredInOneTransaction()
+			throws Exception {
+		Queue<Runnable> dbTasks = new LinkedList<>();
+		ValidationManagerImpl vm = createWithQueuedDbExecutor(dbTasks);
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Transaction txn2 = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			// Load the group for each message
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
+			oneOf(db).getGroup(txn1, groupId);
+			will(returnValue(group));
+			// Validate the messages: valid
+			oneOf(validator).validateMessage(message, group);
+			will(returnValue(validResult));
+			oneOf(validator).validateMessage(message1, group);
+			will(returnValue(validResult));
+			// Store both validation results in one transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(db).mergeMessageMetadata(txn2, messageId, metadata);
+			oneOf(db).mergeMessageMetadata(txn2, messageId1, metadata);
+			// Deliver both messages
+			oneOf(hook).incomingMessage(txn2, message, metadata);
+			will(returnValue(ACCEPT_DO_NOT_SHARE));
+			oneOf(hook).incomingMessage(txn2, message1, metadata);
+			will(returnValue(ACCEPT_DO_NOT_SHARE));
+			oneOf(db).setMessageState(txn2, messageId, DELIVERED);
+			oneOf(db).setMessageState(txn2, messageId1, DELIVERED);
+			// Get any pending dependents
+			oneOf(db).getMessageDependents(txn2, messageId);
+			will(returnValue(emptyMap()));
+			oneOf(db).getMessageDependents(txn2, messageId1);
+			will(returnValue(emptyMap()));
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+		runTasks(dbTasks);
+	}
+
+	@Test
+	public void testMessagesAreStoredIndividuallyIfBatchFails()
+			throws Exception {
+		Queue<Runnable> dbTasks = new LinkedList<>();
+		ValidationManagerImpl vm = createWithQueuedDbExecutor(dbTasks);
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Transaction txn2 = new Transaction(null, false);
+		Transaction txn3 = new Transaction(null, false);
+		Transaction txn4 = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			// Load the group for each message
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
+			oneOf(db).getGroup(txn1, groupId);
+			will(returnValue(group));
+			// Validate the messages: valid
+			oneOf(validator).validateMessage(message, group);
+			will(returnValue(validResult));
+			oneOf(validator).validateMessage(message1, group);
+			will(returnValue(validResult));
+			// Store both validation results in one transaction - the second
+			// message causes the transaction to fail
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(db).mergeMessageMetadata(txn2, messageId, metadata);
+			oneOf(hook).incomingMessage(txn2, message, metadata);
+			will(returnValue(ACCEPT_DO_NOT_SHARE));
+			oneOf(db).setMessageState(txn2, messageId, DELIVERED);
+			oneOf(db).getMessageDependents(txn2, messageId);
+			will(returnValue(emptyMap()));
+			oneOf(db).mergeMessageMetadata(txn2, messageId1, metadata);
+			will(throwException(new DbException()));
+			// Store the first validation result in its own transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn3));
+			oneOf(db).mergeMessageMetadata(txn3, messageId, metadata);
+			oneOf(hook).incomingMessage(txn3, message, metadata);
+			will(returnValue(ACCEPT_DO_NOT_SHARE));
+			oneOf(db).setMessageState(txn3, messageId, DELIVERED);
+			oneOf(db).getMessageDependents(txn3, messageId);
+			will(returnValue(emptyMap()));
+			// Storing the second validation result fails again
+			oneOf(db).transaction(with(false), withDbRunnable(txn4));
+			oneOf(db).mergeMessageMetadata(txn4, messageId1, metadata);
+			will(throwException(new DbException()));
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+		runTasks(dbTasks);
+	}
+
 	@Test
 	public void testLocalMessagesAreNotValidatedWhenAdded() {
 		vm.eventOccurred(new MessageAddedEvent(message, null));
@@ -586,8 +679,6 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 		Transaction txn2 = new Transaction(null, false);
 		Transaction txn3 = new Transaction(null, false);
 		Transaction txn4 = new Transaction(null, false);
-		Transaction txn5 = new Transaction(null, false);
-		Transaction txn6 = new Transaction(null, false);
 
 		context.checking(new DbExpectations() {{
 			// Load the group
@@ -607,8 +698,9 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// The message has two pending dependents: 1 and 2
 			oneOf(db).getMessageDependents(txn1, messageId);
 			will(returnValue(twoDependents));
-			// Check whether message 1 is ready to be delivered
+			// Deliver messages 1 and 2 in one transaction
 			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			// Check whether message 1 is ready to be delivered
 			oneOf(db).getMessageState(txn2, messageId1);
 			will(returnValue(PENDING));
 			oneOf(db).getMessageDependencies(txn2, messageId1);
@@ -628,68 +720,67 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).getMessageDependents(txn2, messageId1);
 			will(returnValue(singletonMap(messageId3, PENDING)));
 			// Check whether message 2 is ready to be delivered
-			oneOf(db).transaction(with(false), withDbRunnable(txn3));
-			oneOf(db).getMessageState(txn3, messageId2);
+			oneOf(db).getMessageState(txn2, messageId2);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn3, messageId2);
+			oneOf(db).getMessageDependencies(txn2, messageId2);
 			will(returnValue(singletonMap(messageId, DELIVERED)));
 			// Get message 2 and its metadata
-			oneOf(db).getMessage(txn3, messageId2);
+			oneOf(db).getMessage(txn2, messageId2);
 			will(returnValue(message2));
-			oneOf(db).getGroup(txn3, groupId);
+			oneOf(db).getGroup(txn2, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn3, messageId2);
+			oneOf(db).getMessageMetadataForValidator(txn2, messageId2);
 			will(returnValue(metadata));
 			// Deliver message 2
-			oneOf(hook).incomingMessage(txn3, message2, metadata);
+			oneOf(hook).incomingMessage(txn2, message2, metadata);
 			will(returnValue(ACCEPT_DO_NOT_SHARE));
-			oneOf(db).setMessageState(txn3, messageId2, DELIVERED);
+			oneOf(db).setMessageState(txn2, messageId2, DELIVERED);
 			// Message 2 has one pending dependent: 3 (same dependent as 1)
-			oneOf(db).getMessageDependents(txn3, messageId2);
+			oneOf(db).getMessageDependents(txn2, messageId2);
 			will(returnValue(singletonMap(messageId3, PENDING)));
+			// Deliver message 3 (listed twice) in one transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn3));
 			// Check whether message 3 is ready to be delivered (via 1)
-			oneOf(db).transaction(with(false), withDbRunnable(txn4));
-			oneOf(db).getMessageState(txn4, messageId3);
+			oneOf(db).getMessageState(txn3, messageId3);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn4, messageId3);
+			oneOf(db).getMessageDependencies(txn3, messageId3);
 			will(returnValue(twoDependencies));
 			// Get message 3 and its metadata
-			oneOf(db).getMessage(txn4, messageId3);
+			oneOf(db).getMessage(txn3, messageId3);
 			will(returnValue(message3));
-			oneOf(db).getGroup(txn4, groupId);
+			oneOf(db).getGroup(txn3, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn4, messageId3);
+			oneOf(db).getMessageMetadataForValidator(txn3, messageId3);
 			will(returnValue(metadata));
 			// Deliver message 3
-			oneOf(hook).incomingMessage(txn4, message3, metadata);
+			oneOf(hook).incomingMessage(txn3, message3, metadata);
 			will(returnValue(ACCEPT_DO_NOT_SHARE));
-			oneOf(db).setMessageState(txn4, messageId3, DELIVERED);
+			oneOf(db).setMessageState(txn3, messageId3, DELIVERED);
 			// Message 3 has one pending dependent: 4
-			oneOf(db).getMessageDependents(txn4, messageId3);
+			oneOf(db).getMessageDependents(txn3, messageId3);
 			will(returnValue(singletonMap(messageId4, PENDING)));
 			// Check whether message 3 is ready to be delivered (again, via 2)
-			oneOf(db).transaction(with(false), withDbRunnable(txn5));
-			oneOf(db).getMessageState(txn5, messageId3);
+			oneOf(db).getMessageState(txn3, messageId3);
 			will(returnValue(DELIVERED)); // Already delivered
 			// Check whether message 4 is ready to be delivered (via 1 and 3)
-			oneOf(db).transaction(with(false), withDbRunnable(txn6));
-			oneOf(db).getMessageState(txn6, messageId4);
+			oneOf(db).transaction(with(false), withDbRunnable(txn4));
+			oneOf(db).getMessageState(txn4, messageId4);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn6, messageId4);
+			oneOf(db).getMessageDependencies(txn4, messageId4);
 			will(returnValue(singletonMap(messageId3, DELIVERED)));
 			// Get message 4 and its metadata
-			oneOf(db).getMessage(txn6, messageId4);
+			oneOf(db).getMessage(txn4, messageId4);
 			will(returnValue(message4));
-			oneOf(db).getGroup(txn6, groupId);
+			oneOf(db).getGroup(txn4, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn6, messageId4);
+			oneOf(db).getMessageMetadataForValidator(txn4, messageId4);
 			will(returnValue(metadata));
 			// Deliver message 4
-			oneOf(hook).incomingMessage(txn6, message4, metadata);
+			oneOf(hook).incomingMessage(txn4, message4, metadata);
 			will(returnValue(ACCEPT_DO_NOT_SHARE));
-			oneOf(db).setMessageState(txn6, messageId4, DELIVERED);
+			oneOf(db).setMessageState(txn4, messageId4, DELIVERED);
 			// Message 4 has no pending dependents
-			oneOf(db).getMessageDependents(txn6, messageId4);
+			oneOf(db).getMessageDependents(txn4, messageId4);
 			will(returnValue(emptyMap()));
 		}});
 
@@ -734,6 +825,20 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 		vm.eventOccurred(new MessageAddedEvent(message, contactId));
 	}
 
+	private ValidationManagerImpl createWithQueuedDbExecutor(
+			Queue<Runnable> dbTasks) {
+		ValidationManagerImpl vm = new ValidationManagerImpl(db,
+				dbTasks::add, validationExecutor);
+		vm.registerMessageValidator(clientId, majorVersion, validator);
+		vm.registerIncomingMessageHook(clientId, majorVersion, hook);
+		return vm;
+	}
+
+	private void runTasks(Queue<Runnable> tasks) {
+		Runnable r;
+		while ((r = tasks.poll()) != null) r.run();
+	}
+
 	private void expectGetMessagesToValidate(MessageId... ids)
 			throws Exception {
 		Transaction txn = new Transaction(null, true);
@@ -0,0 +1,168 @@
+package org.briarproject.bramble.sync.validation;
+
+import org.briarproject.bramble.BrambleCoreIntegrationTestEagerSingletons;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.identity.Identity;
+import org.briarproject.bramble.api.identity.IdentityManager;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageContext;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfigModule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.logging.Level.OFF;
+import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.bramble.api.sync.validation.IncomingMessageHook.DeliveryAction.ACCEPT_DO_NOT_SHARE;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput of validating and delivering a large backlog of
+ * unvalidated messages at startup, such as after importing messages from a
+ * removable drive.
+ */
+@Ignore
+public class ValidationPerformanceTest extends BrambleTestCase {
+
+	private static final int MESSAGES = 20_000;
+	private static final int MESSAGES_PER_IMPORT_TRANSACTION = 1000;
+	private static final int MESSAGE_BODY_LENGTH = 1024;
+	private static final int MAJOR_VERSION = 123;
+
+	private final File testDir = getTestDirectory();
+	private final File resultsFile = new File(getTestName() + ".tsv");
+
+	private ValidationPerformanceTestComponent component;
+	private DatabaseComponent db;
+	private ContactId contactId;
+
+	public ValidationPerformanceTest() {
+		// Disable logging
+		Logger.getLogger("").setLevel(OFF);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		assertTrue(testDir.mkdirs());
+		component = DaggerValidationPerformanceTestComponent.builder()
+				.testDatabaseConfigModule(
+						new TestDatabaseConfigModule(testDir)).build();
+		BrambleCoreIntegrationTestEagerSingletons.Helper
+				.injectEagerSingletons(component);
+		IdentityManager identityManager = component.getIdentityManager();
+		Identity identity = identityManager.createIdentity("Alice");
+		identityManager.registerIdentity(identity);
+		LifecycleManager lifecycleManager = component.getLifecycleManager();
+		lifecycleManager.startServices(getSecretKey());
+		lifecycleManager.waitForStartup();
+		db = component.getDatabaseComponent();
+		contactId = db.transactionWithResult(false, txn -> db.addContact(txn,
+				getAuthor(), identity.getId(), null, true));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		LifecycleManager lifecycleManager = component.getLifecycleManager();
+		lifecycleManager.stopServices();
+		lifecycleManager.waitForShutdown();
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testValidateBacklogAtStartup() throws Exception {
+		Group g = importBacklog();
+		long duration = validateBacklog(g);
+		String result = String.format("%,d messages\t%,d", MESSAGES,
+				MESSAGES * 1_000_000_000L / Math.max(1, duration));
+		writeResult(result);
+	}
+
+	/**
+	 * Receives a backlog of messages in a new group that's shared with the
+	 * contact. No validator is registered for the group's client, so the
+	 * messages are left unvalidated.
+	 */
+	private Group importBacklog() throws Exception {
+		Group g = getGroup(getClientId(), MAJOR_VERSION);
+		db.transaction(false, txn -> {
+			db.addGroup(txn, g);
+			db.setGroupVisibility(txn, contactId, g.getId(), SHARED);
+		});
+		for (int i = 0; i < MESSAGES; i += MESSAGES_PER_IMPORT_TRANSACTION) {
+			List<Message> messages = new ArrayList<>();
+			for (int j = 0; j < MESSAGES_PER_IMPORT_TRANSACTION; j++) {
+				messages.add(getMessage(g.getId(), MESSAGE_BODY_LENGTH));
+			}
+			db.transaction(false, txn -> {
+				for (Message m : messages)
+					db.receiveMessage(txn, contactId, m);
+			});
+		}
+		// Wait for the running validation manager to finish looking for a
+		// validator for each message
+		CountDownLatch idle = new CountDownLatch(1);
+		component.getDatabaseExecutor().execute(idle::countDown);
+		assertTrue(idle.await(1, MINUTES));
+		return g;
+	}
+
+	/**
+	 * Starts a validation manager with a validator and a hook for the
+	 * backlog's client, as happens when the app restarts, and returns the
+	 * time taken in nanoseconds to validate and deliver the backlog.
+	 */
+	private long validateBacklog(Group g) throws Exception {
+		ValidationManagerImpl validationManager = new ValidationManagerImpl(
+				db, component.getDatabaseExecutor(),
+				component.getValidationExecutor());
+		CountDownLatch delivered = new CountDownLatch(MESSAGES);
+		validationManager.registerMessageValidator(g.getClientId(),
+				MAJOR_VERSION, (m, group) ->
+						new MessageContext(new Metadata()));
+		validationManager.registerIncomingMessageHook(g.getClientId(),
+				MAJOR_VERSION, (txn, m, meta) -> {
+					delivered.countDown();
+					return ACCEPT_DO_NOT_SHARE;
+				});
+		long start = System.nanoTime();
+		validationManager.startService();
+		assertTrue(delivered.await(10, MINUTES));
+		return System.nanoTime() - start;
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
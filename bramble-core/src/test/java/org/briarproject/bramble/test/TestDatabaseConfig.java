@@ -12,10 +12,24 @@ import javax.annotation.Nullable;
 public class TestDatabaseConfig implements DatabaseConfig {
 
 	private final File dbDir, keyDir;
+	private final int maxConcurrentReadTransactions;
+	private final long groupCommitDelay;
 
 	public TestDatabaseConfig(File testDir) {
+		this(testDir, 0);
+	}
+
+	public TestDatabaseConfig(File testDir,
+			int maxConcurrentReadTransactions) {
+		this(testDir, maxConcurrentReadTransactions, 0);
+	}
+
+	public TestDatabaseConfig(File testDir,
+			int maxConcurrentReadTransactions, long groupCommitDelay) {
 		dbDir = new File(testDir, "db");
 		keyDir = new File(testDir, "key");
+		this.maxConcurrentReadTransactions = maxConcurrentReadTransactions;
+		this.groupCommitDelay = groupCommitDelay;
 	}
 
 	@Override
@@ -33,4 +47,14 @@ public class TestDatabaseConfig implements DatabaseConfig {
 	public KeyStrengthener getKeyStrengthener() {
 		return null;
 	}
+
+	@Override
+	public int getMaxConcurrentReadTransactions() {
+		return maxConcurrentReadTransactions;
+	}
+
+	@Override
+	public long getGroupCommitDelay() {
+		return groupCommitDelay;
+	}
 }
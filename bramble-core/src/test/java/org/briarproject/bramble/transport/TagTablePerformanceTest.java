@@ -0,0 +1,159 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.Bytes;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+
+/**
+ * Measures the memory footprint and lookup latency of the tags expected
+ * from a given number of contacts, stored in a {@link HashMap} with a key
+ * object and a context object per tag (before) and in a {@link TagTable}
+ * with a shared context object per set of incoming keys (after).
+ */
+@Ignore
+public class TagTablePerformanceTest extends BrambleTestCase {
+
+	private static final int[] CONTACT_COUNTS = {1_000, 10_000, 50_000};
+	// Previous, current and next incoming keys for each contact
+	private static final int KEY_SETS_PER_CONTACT = 3;
+	private static final int LOOKUPS = 1_000_000;
+
+	private final String resultsFile = getClass().getSimpleName() + ".tsv";
+	private final Random random = new Random();
+
+	@Test
+	public void testMemoryAndLookupLatency() throws IOException {
+		for (int contacts : CONTACT_COUNTS) {
+			byte[][] tags = createTags(contacts);
+			long mapMemory = measureHashMapMemory(tags);
+			long mapLookup = measureHashMapLookup(tags);
+			long tableMemory = measureTagTableMemory(tags);
+			long tableLookup = measureTagTableLookup(tags);
+			writeResult(String.format(
+					"%,d contacts\t%,d tags\t%,d\t%,d\t%,d\t%,d", contacts,
+					tags.length, mapMemory, mapLookup, tableMemory,
+					tableLookup));
+		}
+	}
+
+	private byte[][] createTags(int contacts) {
+		int count = contacts * KEY_SETS_PER_CONTACT * REORDERING_WINDOW_SIZE;
+		byte[][] tags = new byte[count][TAG_LENGTH];
+		for (byte[] tag : tags) random.nextBytes(tag);
+		return tags;
+	}
+
+	/**
+	 * Returns the memory used by the map in bytes.
+	 */
+	private long measureHashMapMemory(byte[][] tags) {
+		long before = getUsedMemory();
+		Map<Bytes, Object> map = createHashMap(tags);
+		long after = getUsedMemory();
+		if (map.size() != tags.length) throw new AssertionError();
+		return after - before;
+	}
+
+	/**
+	 * Returns the mean lookup latency in nanoseconds.
+	 */
+	private long measureHashMapLookup(byte[][] tags) {
+		Map<Bytes, Object> map = createHashMap(tags);
+		int found = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			byte[] tag = tags[random.nextInt(tags.length)];
+			if (map.get(new Bytes(tag)) != null) found++;
+		}
+		long duration = System.nanoTime() - start;
+		if (found != LOOKUPS) throw new AssertionError();
+		return duration / LOOKUPS;
+	}
+
+	private Map<Bytes, Object> createHashMap(byte[][] tags) {
+		Map<Bytes, Object> map = new HashMap<>();
+		for (int i = 0; i < tags.length; i++) {
+			// Each tag has its own key and context
+			map.put(new Bytes(tags[i].clone()), new TagContext(i));
+		}
+		return map;
+	}
+
+	/**
+	 * Returns the memory used by the table in bytes.
+	 */
+	private long measureTagTableMemory(byte[][] tags) {
+		long before = getUsedMemory();
+		TagTable<TagContext> table = createTagTable(tags);
+		long after = getUsedMemory();
+		if (table.size() != tags.length) throw new AssertionError();
+		return after - before;
+	}
+
+	/**
+	 * Returns the mean lookup latency in nanoseconds.
+	 */
+	private long measureTagTableLookup(byte[][] tags) {
+		TagTable<TagContext> table = createTagTable(tags);
+		int found = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			byte[] tag = tags[random.nextInt(tags.length)];
+			if (table.find(tag) != -1) found++;
+		}
+		long duration = System.nanoTime() - start;
+		if (found != LOOKUPS) throw new AssertionError();
+		return duration / LOOKUPS;
+	}
+
+	private TagTable<TagContext> createTagTable(byte[][] tags) {
+		TagTable<TagContext> table = new TagTable<>();
+		TagContext context = null;
+		for (int i = 0; i < tags.length; i++) {
+			// Tags from the same incoming keys share a context
+			if (i % REORDERING_WINDOW_SIZE == 0) context = new TagContext(i);
+			table.put(tags[i], context, i % REORDERING_WINDOW_SIZE);
+		}
+		return table;
+	}
+
+	private long getUsedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+
+	/**
+	 * Stands in for the context of an incoming tag, which refers to the
+	 * key set and incoming keys.
+	 */
+	private static class TagContext {
+
+		private final long streamNumber;
+		private final Object keySet = new Object();
+
+		private TagContext(long streamNumber) {
+			this.streamNumber = streamNumber;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TagTableTest extends BrambleTestCase {
+
+	private final Object context = new Object();
+	private final Object context1 = new Object();
+
+	@Test
+	public void testTagIsFound() {
+		TagTable<Object> table = new TagTable<>();
+		byte[] tag = getRandomBytes(TAG_LENGTH);
+		table.put(tag, context, 123);
+		assertEquals(1, table.size());
+		int slot = table.find(tag.clone());
+		assertNotEquals(-1, slot);
+		assertSame(context, table.getValue(slot));
+		assertEquals(123, table.getStreamNumber(slot));
+		assertEquals(-1, table.find(getRandomBytes(TAG_LENGTH)));
+	}
+
+	@Test
+	public void testExistingTagIsReplaced() {
+		TagTable<Object> table = new TagTable<>();
+		byte[] tag = getRandomBytes(TAG_LENGTH);
+		table.put(tag, context, 123);
+		table.put(tag, context1, MAX_32_BIT_UNSIGNED);
+		assertEquals(1, table.size());
+		int slot = table.find(tag);
+		assertSame(context1, table.getValue(slot));
+		assertEquals(MAX_32_BIT_UNSIGNED, table.getStreamNumber(slot));
+	}
+
+	@Test
+	public void testRemovedTagIsNotFound() {
+		TagTable<Object> table = new TagTable<>();
+		List<byte[]> tags = addTags(table, 1000);
+		for (int i = 0; i < tags.size(); i += 2) table.remove(tags.get(i));
+		assertEquals(500, table.size());
+		for (int i = 0; i < tags.size(); i++) {
+			int slot = table.find(tags.get(i));
+			if (i % 2 == 0) {
+				assertEquals(-1, slot);
+			} else {
+				assertSame(context, table.getValue(slot));
+				assertEquals(i, table.getStreamNumber(slot));
+			}
+		}
+	}
+
+	@Test
+	public void testRemovingBySlot() {
+		TagTable<Object> table = new TagTable<>();
+		List<byte[]> tags = addTags(table, 100);
+		for (int i = 0; i < table.getCapacity(); i++)
+			if (table.getValue(i) != null) table.removeAt(i);
+		assertEquals(0, table.size());
+		for (byte[] tag : tags) assertEquals(-1, table.find(tag));
+		// The table can be reused after removing entries
+		addTags(table, 100);
+		assertEquals(100, table.size());
+	}
+
+	@Test
+	public void testPutAll() {
+		TagTable<Object> table = new TagTable<>();
+		TagTable<Object> other = new TagTable<>();
+		List<byte[]> tags = addTags(table, 100);
+		List<byte[]> otherTags = addTags(other, 100);
+		table.putAll(other);
+		assertEquals(200, table.size());
+		for (byte[] tag : tags) assertNotEquals(-1, table.find(tag));
+		for (byte[] tag : otherTags) assertNotEquals(-1, table.find(tag));
+	}
+
+	@Test
+	public void testClear() {
+		TagTable<Object> table = new TagTable<>();
+		List<byte[]> tags = addTags(table, 100);
+		table.clear();
+		assertEquals(0, table.size());
+		for (byte[] tag : tags) assertEquals(-1, table.find(tag));
+	}
+
+	@Test
+	public void testEmptySlotHasNoValue() {
+		TagTable<Object> table = new TagTable<>();
+		for (int i = 0; i < table.getCapacity(); i++)
+			assertNull(table.getValue(i));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testStreamNumberMustBeUnsigned32BitInteger() {
+		new TagTable<>().put(getRandomBytes(TAG_LENGTH), context,
+				MAX_32_BIT_UNSIGNED + 1);
+	}
+
+	private List<byte[]> addTags(TagTable<Object> table, int count) {
+		List<byte[]> tags = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			table.put(tag, context, i);
+			tags.add(tag);
+		}
+		return tags;
+	}
+}
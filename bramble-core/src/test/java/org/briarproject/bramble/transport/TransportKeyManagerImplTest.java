@@ -16,6 +16,7 @@ import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.bramble.test.RunAction;
 import org.hamcrest.Description;
@@ -29,6 +30,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
@@ -56,6 +58,9 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 	private final Executor dbExecutor = context.mock(Executor.class);
 	private final TaskScheduler scheduler = context.mock(TaskScheduler.class);
 	private final Clock clock = context.mock(Clock.class);
+	// Tags aren't precomputed unless a test runs the tasks
+	private final List<Runnable> cryptoTasks = new ArrayList<>();
+	private final Executor cryptoExecutor = cryptoTasks::add;
 
 	private final TransportId transportId = getTransportId();
 	private final long maxLatency = 30 * 1000; // 30 seconds
@@ -73,7 +78,7 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 
 	private final TransportKeyManager transportKeyManager =
 			new TransportKeyManagerImpl(db, transportCrypto, dbExecutor,
-					scheduler, clock, transportId, maxLatency);
+					cryptoExecutor, scheduler, clock, transportId, maxLatency);
 
 	@Test
 	public void testKeysAreUpdatedAtStartup() throws Exception {
@@ -153,8 +158,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		}});
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		// The timestamp is 1 ms before the start of time period 1000
 		long timestamp = timePeriodLength * 1000 - 1;
 		assertEquals(keySetId, transportKeyManager.addRotationKeys(txn,
@@ -234,8 +239,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		Transaction txn = new Transaction(null, false);
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		assertNull(transportKeyManager.getStreamContext(txn, contactId));
 		assertFalse(transportKeyManager.canSendOutgoingStreams(contactId));
 	}
@@ -246,8 +251,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		Transaction txn = new Transaction(null, false);
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		assertNull(transportKeyManager.getStreamContext(txn, pendingContactId));
 		assertFalse(transportKeyManager.canSendOutgoingStreams(
 				pendingContactId));
@@ -498,9 +503,10 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 			oneOf(transportCrypto).updateTransportKeys(
 					with(any(TransportKeys.class)), with(1001L));
 			will(returnValue(updated));
-			// Encode the tags (3 sets)
+			// Encode the tags for the new incoming keys (1 set). The other
+			// incoming keys are retained along with their tags
 			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
-				exactly(3).of(transportCrypto).encodeTag(
+				oneOf(transportCrypto).encodeTag(
 						with(any(byte[].class)), with(tagKey),
 						with(PROTOCOL_VERSION), with(i));
 				will(new EncodeTagAction());
@@ -518,6 +524,90 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertTrue(transportKeyManager.canSendOutgoingStreams(contactId));
 	}
 
+	@Test
+	public void testPrecomputedTagsAreUsedWhenKeysAreUpdated()
+			throws Exception {
+		TransportKeys transportKeys = createTransportKeys(1000, 0, true);
+		Collection<TransportKeySet> loaded = singletonList(
+				new TransportKeySet(keySetId, contactId, null, transportKeys));
+		TransportKeys updated = createTransportKeys(1001, 0, true);
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+		AtomicReference<Runnable> keyUpdate = new AtomicReference<>();
+		List<byte[]> precomputed = new ArrayList<>();
+
+		context.checking(new DbExpectations() {{
+			// Get the current time (the start of time period 1000)
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(timePeriodLength * 1000));
+			// Load the transport keys
+			oneOf(db).getTransportKeys(txn, transportId);
+			will(returnValue(loaded));
+			// Update the transport keys (the keys are unaffected)
+			oneOf(transportCrypto).updateTransportKeys(transportKeys, 1000);
+			will(returnValue(transportKeys));
+			// Encode the tags (3 sets)
+			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
+				exactly(3).of(transportCrypto).encodeTag(
+						with(any(byte[].class)), with(tagKey),
+						with(PROTOCOL_VERSION), with(i));
+				will(new EncodeTagAction());
+			}
+			// Schedule a key update at the start of the next time period
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(timePeriodLength),
+					with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(keyUpdate, Runnable.class, 0));
+		}});
+
+		transportKeyManager.start(txn);
+		context.assertIsSatisfied();
+
+		context.checking(new Expectations() {{
+			// Derive the keys for the next time period in advance
+			oneOf(transportCrypto).updateTransportKeys(transportKeys, 1001);
+			will(returnValue(updated));
+			// Encode the tags for the new incoming keys (1 set)
+			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
+				oneOf(transportCrypto).encodeTag(
+						with(any(byte[].class)), with(tagKey),
+						with(PROTOCOL_VERSION), with(i));
+				will(new EncodeTagAction(precomputed));
+			}
+		}});
+
+		assertEquals(1, cryptoTasks.size());
+		cryptoTasks.remove(0).run();
+		context.assertIsSatisfied();
+
+		context.checking(new DbExpectations() {{
+			// Start a transaction for updating keys
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			// Get the current time (the start of time period 1001)
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(timePeriodLength * 1001));
+			// Update the transport keys - no tags need to be encoded
+			oneOf(transportCrypto).updateTransportKeys(
+					with(any(TransportKeys.class)), with(1001L));
+			will(returnValue(updated));
+			// Save the keys that were updated
+			oneOf(db).updateTransportKeys(txn1, singletonList(
+					new TransportKeySet(keySetId, contactId, null, updated)));
+			// Schedule a key update at the start of the next time period
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(timePeriodLength),
+					with(MILLISECONDS));
+		}});
+
+		keyUpdate.get().run();
+		// The precomputed tags should be recognised
+		assertEquals(REORDERING_WINDOW_SIZE, precomputed.size());
+		for (byte[] tag : precomputed) {
+			assertNotNull(transportKeyManager.getStreamContextOnly(txn1,
+					tag));
+		}
+	}
+
 	@Test
 	public void testActivatingKeys() throws Exception {
 		boolean alice = random.nextBoolean();
@@ -693,7 +783,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		public Object invoke(Invocation invocation) {
 			byte[] tag = (byte[]) invocation.getParameter(0);
 			random.nextBytes(tag);
-			if (tags != null) tags.add(tag);
+			// The manager may reuse the buffer, so store a copy of the tag
+			if (tags != null) tags.add(tag.clone());
 			return null;
 		}
 
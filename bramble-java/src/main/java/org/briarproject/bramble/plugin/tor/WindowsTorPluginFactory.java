@@ -8,12 +8,13 @@ import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.network.NetworkManager;
 import org.briarproject.bramble.api.plugin.Backoff;
 import org.briarproject.bramble.api.plugin.BackoffFactory;
+import org.briarproject.bramble.api.plugin.ConnectionScheduler;
+import org.briarproject.bramble.api.plugin.ConnectionSchedulerFactory;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.plugin.TorControlPort;
 import org.briarproject.bramble.api.plugin.TorDirectory;
 import org.briarproject.bramble.api.plugin.TorSocksPort;
 import org.briarproject.bramble.api.system.Clock;
-import org.briarproject.bramble.api.system.WakefulIoExecutor;
 import org.briarproject.nullsafety.NotNullByDefault;
 import org.briarproject.onionwrapper.CircumventionProvider;
 import org.briarproject.onionwrapper.LocationUtils;
@@ -38,12 +39,12 @@ public class WindowsTorPluginFactory extends TorPluginFactory {
 	@Inject
 	WindowsTorPluginFactory(@IoExecutor Executor ioExecutor,
 			@EventExecutor Executor eventExecutor,
-			@WakefulIoExecutor Executor wakefulIoExecutor,
 			NetworkManager networkManager,
 			LocationUtils locationUtils,
 			EventBus eventBus,
 			SocketFactory torSocketFactory,
 			BackoffFactory backoffFactory,
+			ConnectionSchedulerFactory connectionSchedulerFactory,
 			CircumventionProvider circumventionProvider,
 			BatteryManager batteryManager,
 			Clock clock,
@@ -51,10 +52,11 @@ public class WindowsTorPluginFactory extends TorPluginFactory {
 			@TorDirectory File torDirectory,
 			@TorSocksPort int torSocksPort,
 			@TorControlPort int torControlPort) {
-		super(ioExecutor, eventExecutor, wakefulIoExecutor, networkManager,
-				locationUtils, eventBus, torSocketFactory, backoffFactory,
-				circumventionProvider, batteryManager, clock, crypto,
-				torDirectory, torSocksPort, torControlPort);
+		super(ioExecutor, eventExecutor, networkManager, locationUtils,
+				eventBus, torSocketFactory, backoffFactory,
+				connectionSchedulerFactory, circumventionProvider,
+				batteryManager, clock, crypto, torDirectory, torSocksPort,
+				torControlPort);
 	}
 
 	@Nullable
@@ -71,11 +73,12 @@ public class WindowsTorPluginFactory extends TorPluginFactory {
 
 	@Override
 	TorPlugin createPluginInstance(Backoff backoff,
+			ConnectionScheduler connectionScheduler,
 			TorRendezvousCrypto torRendezvousCrypto, PluginCallback callback,
 			String architecture) {
 		TorWrapper tor = new WindowsTorWrapper(ioExecutor, eventExecutor,
 				architecture, torDirectory, torSocksPort, torControlPort);
-		return new TorPlugin(ioExecutor, wakefulIoExecutor, networkManager,
+		return new TorPlugin(ioExecutor, connectionScheduler, networkManager,
 				locationUtils, torSocketFactory, circumventionProvider,
 				batteryManager, backoff, torRendezvousCrypto, tor, callback,
 				MAX_LATENCY, MAX_IDLE_TIME);
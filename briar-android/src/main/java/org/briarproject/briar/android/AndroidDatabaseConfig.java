@@ -37,4 +37,14 @@ class AndroidDatabaseConfig implements DatabaseConfig {
 	public KeyStrengthener getKeyStrengthener() {
 		return keyStrengthener;
 	}
+
+	@Override
+	public int getMaxConcurrentReadTransactions() {
+		return 0;
+	}
+
+	@Override
+	public long getGroupCommitDelay() {
+		return 0;
+	}
 }
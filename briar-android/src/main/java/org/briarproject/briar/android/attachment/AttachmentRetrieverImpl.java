@@ -209,6 +209,8 @@ class AttachmentRetrieverImpl implements AttachmentRetriever {
 			tryToClose(is, LOG, WARNING);
 			item = createAttachmentItem(h, size);
 		} else {
+			// The stream isn't needed, but it may hold an open file
+			tryToClose(a.getStream(), LOG, WARNING);
 			String extension =
 					imageHelper.getExtensionFromMimeType(h.getContentType());
 			State state = AVAILABLE;
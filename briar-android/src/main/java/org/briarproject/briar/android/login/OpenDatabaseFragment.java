@@ -20,7 +20,6 @@ import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.ViewModelProvider;
 
 import static org.briarproject.briar.android.login.StartupViewModel.State;
-import static org.briarproject.briar.android.login.StartupViewModel.State.COMPACTING;
 import static org.briarproject.briar.android.login.StartupViewModel.State.MIGRATING;
 
 @MethodsNotNullByDefault
@@ -62,7 +61,6 @@ public class OpenDatabaseFragment extends BaseFragment {
 
 	private void onStateChanged(State state) {
 		if (state == MIGRATING) showMigration();
-		else if (state == COMPACTING) showCompaction();
 	}
 
 	private void showMigration() {
@@ -70,11 +68,6 @@ public class OpenDatabaseFragment extends BaseFragment {
 		imageView.setImageResource(R.drawable.startup_migration);
 	}
 
-	private void showCompaction() {
-		textView.setText(R.string.startup_compact_database);
-		imageView.setImageResource(R.drawable.startup_migration);
-	}
-
 	@Override
 	public String getUniqueTag() {
 		return TAG;
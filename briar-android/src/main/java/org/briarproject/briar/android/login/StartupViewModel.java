@@ -27,10 +27,8 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
 import static org.briarproject.bramble.api.crypto.DecryptionResult.SUCCESS;
-import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.COMPACTING_DATABASE;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.MIGRATING_DATABASE;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STARTING_SERVICES;
-import static org.briarproject.briar.android.login.StartupViewModel.State.COMPACTING;
 import static org.briarproject.briar.android.login.StartupViewModel.State.MIGRATING;
 import static org.briarproject.briar.android.login.StartupViewModel.State.SIGNED_IN;
 import static org.briarproject.briar.android.login.StartupViewModel.State.SIGNED_OUT;
@@ -41,7 +39,7 @@ import static org.briarproject.briar.android.login.StartupViewModel.State.STARTI
 public class StartupViewModel extends AndroidViewModel
 		implements EventListener {
 
-	enum State {SIGNED_OUT, SIGNED_IN, STARTING, MIGRATING, COMPACTING, STARTED}
+	enum State {SIGNED_OUT, SIGNED_IN, STARTING, MIGRATING, STARTED}
 
 	private final AccountManager accountManager;
 	private final AndroidNotificationManager notificationManager;
@@ -90,7 +88,6 @@ public class StartupViewModel extends AndroidViewModel
 		if (accountManager.hasDatabaseKey()) {
 			if (s.isAfter(STARTING_SERVICES)) state.setValue(STARTED);
 			else if (s == MIGRATING_DATABASE) state.setValue(MIGRATING);
-			else if (s == COMPACTING_DATABASE) state.setValue(COMPACTING);
 			else state.setValue(STARTING);
 		} else {
 			state.setValue(SIGNED_OUT);
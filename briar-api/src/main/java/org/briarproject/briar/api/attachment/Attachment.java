@@ -22,6 +22,11 @@ public class Attachment {
 		return header;
 	}
 
+	/**
+	 * Returns a stream for reading the attachment's data. The data may be
+	 * read from storage as the stream is read, so the caller is responsible
+	 * for closing the stream, even if it isn't read.
+	 */
 	public InputStream getStream() {
 		return stream;
 	}
@@ -1,6 +1,7 @@
 package org.briarproject.briar.api.avatar;
 
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.sync.ClientId;
@@ -9,6 +10,8 @@ import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -45,6 +48,14 @@ public interface AvatarManager {
 	AttachmentHeader getAvatarHeader(Transaction txn, Contact c)
 			throws DbException;
 
+	/**
+	 * Returns the current known profile image headers for the given
+	 * contacts, loaded with a single query. Contacts without a known profile
+	 * image are omitted.
+	 */
+	Map<ContactId, AttachmentHeader> getAvatarHeaders(Transaction txn,
+			Collection<Contact> contacts) throws DbException;
+
 	/**
 	 * Returns our current profile image header or null if none has been added.
 	 */
@@ -13,6 +13,8 @@ import org.briarproject.briar.api.messaging.MessagingManager;
 import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @NotNullByDefault
@@ -47,6 +49,36 @@ public interface ConversationManager {
 	Collection<ConversationMessageHeader> getMessageHeaders(Transaction txn, ContactId c)
 			throws DbException;
 
+	/**
+	 * Returns the headers of the newest messages in the given private
+	 * conversation with timestamps earlier than the given timestamp,
+	 * newest first.
+	 * <p>
+	 * Up to the given number of headers are returned, or more if several
+	 * messages share the timestamp of the last header, so that timestamp
+	 * can be passed as the cursor for the next page.
+	 * <p>
+	 * Headers are ordered and paged by the timestamps of their messages,
+	 * which are also the timestamps of the headers.
+	 */
+	List<ConversationMessageHeader> getMessageHeaders(ContactId c,
+			long beforeTimestamp, int limit) throws DbException;
+
+	/**
+	 * Returns the headers of the newest messages in the given private
+	 * conversation with timestamps earlier than the given timestamp,
+	 * newest first.
+	 * <p>
+	 * Up to the given number of headers are returned, or more if several
+	 * messages share the timestamp of the last header, so that timestamp
+	 * can be passed as the cursor for the next page.
+	 * <p>
+	 * Headers are ordered and paged by the timestamps of their messages,
+	 * which are also the timestamps of the headers.
+	 */
+	List<ConversationMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, long beforeTimestamp, int limit) throws DbException;
+
 	/**
 	 * Returns the unified group count for all private conversation messages.
 	 */
@@ -122,6 +154,15 @@ public interface ConversationManager {
 		Collection<ConversationMessageHeader> getMessageHeaders(Transaction txn,
 				ContactId contactId) throws DbException;
 
+		/**
+		 * Returns the headers of the given messages from the contact group
+		 * with the given contact. Messages that aren't shown in the
+		 * conversation are omitted.
+		 */
+		Map<MessageId, ConversationMessageHeader> getMessageHeaders(
+				Transaction txn, ContactId contactId, GroupId contactGroupId,
+				Collection<MessageId> ids) throws DbException;
+
 		/**
 		 * Returns all conversation {@link MessageId}s for the given contact
 		 * this client is responsible for.
@@ -7,6 +7,9 @@ import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.LocalAuthor;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
+import java.util.Map;
+
 @NotNullByDefault
 public interface AuthorManager {
 
@@ -20,6 +23,18 @@ public interface AuthorManager {
 	 */
 	AuthorInfo getAuthorInfo(Transaction txn, AuthorId a) throws DbException;
 
+	/**
+	 * Returns the {@link AuthorInfo} for each of the given authors. This is
+	 * cheaper than calling {@link #getAuthorInfo(Transaction, AuthorId)} for
+	 * each author.
+	 * <p>
+	 * Info that's already cached is returned without touching the database.
+	 * If any info isn't cached, the contacts are loaded with a single query
+	 * and the avatars of the contacts whose info isn't cached with another.
+	 */
+	Map<AuthorId, AuthorInfo> getAuthorInfos(Transaction txn,
+			Collection<AuthorId> authorIds) throws DbException;
+
 	/**
 	 * Returns the {@link AuthorInfo} for the given contact.
 	 */
@@ -3,17 +3,16 @@ package org.briarproject.briar.attachment;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
-import org.briarproject.bramble.api.db.TransactionManager;
-import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.attachment.Attachment;
 import org.briarproject.briar.api.attachment.AttachmentHeader;
 import org.briarproject.briar.api.attachment.AttachmentReader;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 
 import javax.inject.Inject;
@@ -23,11 +22,11 @@ import static org.briarproject.briar.api.attachment.MediaConstants.MSG_KEY_DESCR
 
 public class AttachmentReaderImpl implements AttachmentReader {
 
-	private final TransactionManager db;
+	private final DatabaseComponent db;
 	private final ClientHelper clientHelper;
 
 	@Inject
-	public AttachmentReaderImpl(TransactionManager db,
+	public AttachmentReaderImpl(DatabaseComponent db,
 			ClientHelper clientHelper) {
 		this.db = db;
 		this.clientHelper = clientHelper;
@@ -41,15 +40,13 @@ public class AttachmentReaderImpl implements AttachmentReader {
 	@Override
 	public Attachment getAttachment(Transaction txn, AttachmentHeader h)
 			throws DbException {
-		// TODO: Support large messages
 		MessageId m = h.getMessageId();
-		Message message = clientHelper.getMessage(txn, m);
+		GroupId g = db.getGroupId(txn, m);
 		// Check that the message is in the expected group, to prevent it from
 		// being loaded in the context of a different group
-		if (!message.getGroupId().equals(h.getGroupId())) {
+		if (!g.equals(h.getGroupId())) {
 			throw new NoSuchMessageException();
 		}
-		byte[] body = message.getBody();
 		try {
 			BdfDictionary meta =
 					clientHelper.getMessageMetadataAsDictionary(txn, m);
@@ -57,8 +54,11 @@ public class AttachmentReaderImpl implements AttachmentReader {
 			if (!contentType.equals(h.getContentType()))
 				throw new NoSuchMessageException();
 			int offset = meta.getInt(MSG_KEY_DESCRIPTOR_LENGTH);
-			InputStream stream = new ByteArrayInputStream(body, offset,
-					body.length - offset);
+			// Stream the body without copying it. Large bodies are read from
+			// the blob store as the stream is read. The blob is opened here,
+			// so it can still be read if the message is deleted after this
+			// transaction
+			InputStream stream = db.getMessageBody(txn, m, offset);
 			return new Attachment(h, stream);
 		} catch (FormatException e) {
 			throw new NoSuchMessageException();
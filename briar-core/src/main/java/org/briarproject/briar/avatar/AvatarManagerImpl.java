@@ -34,7 +34,10 @@ import org.briarproject.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
@@ -210,6 +213,32 @@ class AvatarManagerImpl implements AvatarManager, OpenDatabaseHook, ContactHook,
 		}
 	}
 
+	@Override
+	public Map<ContactId, AttachmentHeader> getAvatarHeaders(Transaction txn,
+			Collection<Contact> contacts) throws DbException {
+		Map<GroupId, ContactId> groups = new HashMap<>(contacts.size());
+		for (Contact c : contacts) {
+			groups.put(getGroup(c.getAuthor().getId()).getId(), c.getId());
+		}
+		try {
+			Map<GroupId, Map<MessageId, BdfDictionary>> metadata =
+					clientHelper.getMessageMetadataByGroup(txn,
+							groups.keySet());
+			Map<ContactId, AttachmentHeader> headers =
+					new HashMap<>(metadata.size());
+			for (Entry<GroupId, Map<MessageId, BdfDictionary>> e :
+					metadata.entrySet()) {
+				LatestUpdate latest = findLatest(e.getValue());
+				if (latest == null) continue;
+				headers.put(groups.get(e.getKey()), new AttachmentHeader(
+						e.getKey(), latest.messageId, latest.contentType));
+			}
+			return headers;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
 	@Nullable
 	@Override
 	public AttachmentHeader getMyAvatarHeader(Transaction txn)
@@ -234,9 +263,13 @@ class AvatarManagerImpl implements AvatarManager, OpenDatabaseHook, ContactHook,
 	@Nullable
 	private LatestUpdate findLatest(Transaction txn, GroupId g)
 			throws DbException, FormatException {
-		Map<MessageId, BdfDictionary> metadata =
-				clientHelper.getMessageMetadataAsDictionary(txn, g);
-		for (Map.Entry<MessageId, BdfDictionary> e : metadata.entrySet()) {
+		return findLatest(clientHelper.getMessageMetadataAsDictionary(txn, g));
+	}
+
+	@Nullable
+	private LatestUpdate findLatest(Map<MessageId, BdfDictionary> metadata)
+			throws FormatException {
+		for (Entry<MessageId, BdfDictionary> e : metadata.entrySet()) {
 			BdfDictionary meta = e.getValue();
 			long version = meta.getLong(MSG_KEY_VERSION);
 			String contentType = meta.getString(MSG_KEY_CONTENT_TYPE);
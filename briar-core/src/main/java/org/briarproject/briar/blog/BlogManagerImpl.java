@@ -539,11 +539,8 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 				authors.add(a.getId());
 			}
 			// get information for all authors
-			Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
-			for (AuthorId authorId : authors) {
-				authorInfos.put(authorId,
-						authorManager.getAuthorInfo(txn, authorId));
-			}
+			Map<AuthorId, AuthorInfo> authorInfos =
+					authorManager.getAuthorInfos(txn, authors);
 			// get post headers
 			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
 				BdfDictionary meta = entry.getValue();
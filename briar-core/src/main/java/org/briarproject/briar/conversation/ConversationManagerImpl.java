@@ -1,6 +1,7 @@
 package org.briarproject.briar.conversation;
 
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
@@ -21,13 +22,21 @@ import org.briarproject.nullsafety.NotNullByDefault;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.lang.Integer.MAX_VALUE;
 import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 
 @ThreadSafe
 @NotNullByDefault
@@ -72,6 +81,42 @@ class ConversationManagerImpl implements ConversationManager {
 		return messages;
 	}
 
+	@Override
+	public List<ConversationMessageHeader> getMessageHeaders(ContactId c,
+			long beforeTimestamp, int limit) throws DbException {
+		return db.transactionWithResult(true,
+				txn -> getMessageHeaders(txn, c, beforeTimestamp, limit));
+	}
+
+	@Override
+	public List<ConversationMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, long beforeTimestamp, int limit) throws DbException {
+		if (limit < 1) throw new IllegalArgumentException();
+		Contact contact = db.getContact(txn, c);
+		// Merge the clients' headers, newest first, reading each client's
+		// messages only as far as the page needs
+		Queue<HeaderReader> readers =
+				new PriorityQueue<>(max(1, clients.size()));
+		for (ConversationClient client : clients) {
+			GroupId g = client.getContactGroup(contact).getId();
+			HeaderReader reader = new HeaderReader(txn, client, c, g,
+					beforeTimestamp, limit);
+			if (reader.advance()) readers.add(reader);
+		}
+		List<ConversationMessageHeader> headers = new ArrayList<>(limit);
+		long last = 0;
+		while (!readers.isEmpty()) {
+			HeaderReader reader = readers.poll();
+			long timestamp = reader.getNextTimestamp();
+			// Don't split messages with equal timestamps between pages
+			if (headers.size() >= limit && timestamp != last) break;
+			headers.add(reader.getNext());
+			last = timestamp;
+			if (reader.advance()) readers.add(reader);
+		}
+		return headers;
+	}
+
 	@Override
 	public GroupCount getGroupCount(ContactId contactId) throws DbException {
 		return db.transactionWithResult(true,
@@ -179,4 +224,107 @@ class ConversationManagerImpl implements ConversationManager {
 		return result;
 	}
 
+	/**
+	 * Reads the headers of a client's messages in a contact group, newest
+	 * first. Message IDs are read from the database in chunks, starting
+	 * with the page size, and each chunk is twice the size of the last.
+	 * As the IDs are returned in a stable order, each chunk starts with the
+	 * IDs of the last chunk, which are skipped. The headers of the rest of
+	 * the chunk are read from the client in a single call.
+	 * <p>
+	 * Readers are ordered by the timestamp of the next message, newest
+	 * first. This is the message timestamp stored by the database, which
+	 * is what the database pages by.
+	 */
+	@NotNullByDefault
+	private class HeaderReader implements Comparable<HeaderReader> {
+
+		private final Transaction txn;
+		private final ConversationClient client;
+		private final ContactId contactId;
+		private final GroupId contactGroupId;
+		private final long beforeTimestamp;
+
+		private List<MessageId> ids = emptyList();
+		private List<Long> timestamps = emptyList();
+		private Map<MessageId, ConversationMessageHeader> headers =
+				emptyMap();
+		private int position = 0, chunkSize;
+		private boolean lastChunk = false;
+		@Nullable
+		private ConversationMessageHeader next = null;
+		private long nextTimestamp = 0;
+
+		private HeaderReader(Transaction txn, ConversationClient client,
+				ContactId contactId, GroupId contactGroupId,
+				long beforeTimestamp, int chunkSize) {
+			this.txn = txn;
+			this.client = client;
+			this.contactId = contactId;
+			this.contactGroupId = contactGroupId;
+			this.beforeTimestamp = beforeTimestamp;
+			this.chunkSize = chunkSize;
+		}
+
+		/**
+		 * Returns the header most recently read by {@link #advance()}.
+		 */
+		private ConversationMessageHeader getNext() {
+			if (next == null) throw new IllegalStateException();
+			return next;
+		}
+
+		/**
+		 * Returns the timestamp of the message whose header was most
+		 * recently read by {@link #advance()}.
+		 */
+		private long getNextTimestamp() {
+			if (next == null) throw new IllegalStateException();
+			return nextTimestamp;
+		}
+
+		@Override
+		public int compareTo(HeaderReader r) {
+			long timestamp = getNextTimestamp();
+			long otherTimestamp = r.getNextTimestamp();
+			if (timestamp > otherTimestamp) return -1;
+			if (timestamp < otherTimestamp) return 1;
+			return 0;
+		}
+
+		/**
+		 * Reads the next header, returning false if there are no more.
+		 */
+		private boolean advance() throws DbException {
+			while (true) {
+				if (position == ids.size()) {
+					if (lastChunk) {
+						next = null;
+						return false;
+					}
+					readChunk();
+					continue;
+				}
+				MessageId m = ids.get(position);
+				nextTimestamp = timestamps.get(position);
+				position++;
+				next = headers.get(m);
+				if (next != null) return true;
+			}
+		}
+
+		private void readChunk() throws DbException {
+			Map<MessageId, Long> chunk = db.getMessageIds(txn,
+					contactGroupId, beforeTimestamp, chunkSize);
+			// A chunk smaller than requested is the last one
+			if (chunk.size() < chunkSize) lastChunk = true;
+			else chunkSize = (int) min(2L * chunkSize, MAX_VALUE);
+			ids = new ArrayList<>(chunk.keySet());
+			timestamps = new ArrayList<>(chunk.values());
+			List<MessageId> unread = ids.subList(position, ids.size());
+			if (unread.isEmpty()) headers = emptyMap();
+			else headers = client.getMessageHeaders(txn, contactId,
+					contactGroupId, unread);
+		}
+	}
 }
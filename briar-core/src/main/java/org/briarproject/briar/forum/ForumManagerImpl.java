@@ -33,7 +33,6 @@ import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -232,10 +231,8 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 				authors.add(a.getId());
 			}
 			// get information for all authors
-			Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
-			for (AuthorId id : authors) {
-				authorInfos.put(id, authorManager.getAuthorInfo(txn, id));
-			}
+			Map<AuthorId, AuthorInfo> authorInfos =
+					authorManager.getAuthorInfos(txn, authors);
 			// Parse the metadata
 			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
 				BdfDictionary meta = entry.getValue();
@@ -1,23 +1,42 @@
 package org.briarproject.briar.identity;
 
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactAddedEvent;
+import org.briarproject.bramble.api.contact.event.ContactAliasChangedEvent;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.contact.event.ContactVerifiedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.IdentityManager;
 import org.briarproject.bramble.api.identity.LocalAuthor;
 import org.briarproject.briar.api.attachment.AttachmentHeader;
 import org.briarproject.briar.api.avatar.AvatarManager;
+import org.briarproject.briar.api.avatar.event.AvatarUpdatedEvent;
 import org.briarproject.briar.api.identity.AuthorInfo;
 import org.briarproject.briar.api.identity.AuthorManager;
 import org.briarproject.nullsafety.NotNullByDefault;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.Collections.emptyMap;
 import static org.briarproject.briar.api.identity.AuthorInfo.Status.OURSELVES;
 import static org.briarproject.briar.api.identity.AuthorInfo.Status.UNKNOWN;
 import static org.briarproject.briar.api.identity.AuthorInfo.Status.UNVERIFIED;
@@ -25,11 +44,38 @@ import static org.briarproject.briar.api.identity.AuthorInfo.Status.VERIFIED;
 
 @ThreadSafe
 @NotNullByDefault
-class AuthorManagerImpl implements AuthorManager {
+class AuthorManagerImpl implements AuthorManager, EventListener {
+
+	/**
+	 * The maximum number of {@link AuthorInfo AuthorInfos} to cache.
+	 */
+	static final int MAX_CACHED_AUTHOR_INFOS = 4096;
 
 	private final DatabaseComponent db;
 	private final IdentityManager identityManager;
 	private final AvatarManager avatarManager;
+	private final Object lock = new Object();
+
+	/**
+	 * Cached info for authors other than ourselves, in access order. The
+	 * cache is cleared whenever a contact or a contact's avatar changes.
+	 */
+	@GuardedBy("lock")
+	private final Map<AuthorId, AuthorInfo> cache =
+			new LinkedHashMap<AuthorId, AuthorInfo>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Entry<AuthorId, AuthorInfo> eldest) {
+					return size() > MAX_CACHED_AUTHOR_INFOS;
+				}
+			};
+
+	/**
+	 * Incremented whenever the cache is cleared, so that info loaded before
+	 * a change isn't added to the cache after the change.
+	 */
+	@GuardedBy("lock")
+	private long generation = 0;
 
 	@Inject
 	AuthorManagerImpl(DatabaseComponent db, IdentityManager identityManager,
@@ -39,6 +85,20 @@ class AuthorManagerImpl implements AuthorManager {
 		this.avatarManager = avatarManager;
 	}
 
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof ContactAddedEvent ||
+				e instanceof ContactRemovedEvent ||
+				e instanceof ContactVerifiedEvent ||
+				e instanceof ContactAliasChangedEvent ||
+				e instanceof AvatarUpdatedEvent) {
+			synchronized (lock) {
+				cache.clear();
+				generation++;
+			}
+		}
+	}
+
 	@Override
 	public AuthorInfo getAuthorInfo(AuthorId a) throws DbException {
 		return db.transactionWithResult(true, txn -> getAuthorInfo(txn, a));
@@ -49,11 +109,59 @@ class AuthorManagerImpl implements AuthorManager {
 			throws DbException {
 		LocalAuthor localAuthor = identityManager.getLocalAuthor(txn);
 		if (localAuthor.getId().equals(authorId)) return getMyAuthorInfo(txn);
+		AuthorInfo cached = getCachedAuthorInfo(txn, authorId);
+		if (cached != null) return cached;
+		long loadedGeneration = getGeneration();
 		Collection<Contact> contacts = db.getContactsByAuthorId(txn, authorId);
-		if (contacts.isEmpty()) return new AuthorInfo(UNKNOWN);
-		if (contacts.size() > 1) throw new AssertionError();
-		Contact c = contacts.iterator().next();
-		return getAuthorInfo(txn, c);
+		AuthorInfo info;
+		if (contacts.isEmpty()) {
+			info = new AuthorInfo(UNKNOWN);
+		} else {
+			if (contacts.size() > 1) throw new AssertionError();
+			info = loadAuthorInfo(txn, contacts.iterator().next());
+		}
+		cacheAuthorInfo(txn, authorId, info, loadedGeneration);
+		return info;
+	}
+
+	@Override
+	public Map<AuthorId, AuthorInfo> getAuthorInfos(Transaction txn,
+			Collection<AuthorId> authorIds) throws DbException {
+		Map<AuthorId, AuthorInfo> infos = new HashMap<>();
+		Set<AuthorId> uncached = new HashSet<>();
+		long loadedGeneration = getGeneration();
+		AuthorId local = identityManager.getLocalAuthor(txn).getId();
+		for (AuthorId a : authorIds) {
+			if (infos.containsKey(a)) continue;
+			if (a.equals(local)) {
+				infos.put(a, getMyAuthorInfo(txn));
+				continue;
+			}
+			AuthorInfo info = getCachedAuthorInfo(txn, a);
+			if (info == null) uncached.add(a);
+			else infos.put(a, info);
+		}
+		if (uncached.isEmpty()) return infos;
+		// Load all contacts with one query, and the avatars of the contacts
+		// whose info isn't cached with another
+		Map<AuthorId, Contact> contacts = getContactsByAuthorId(txn);
+		List<Contact> uncachedContacts = new ArrayList<>();
+		for (AuthorId a : uncached) {
+			Contact c = contacts.get(a);
+			if (c != null) uncachedContacts.add(c);
+		}
+		Map<ContactId, AttachmentHeader> avatars = emptyMap();
+		if (!uncachedContacts.isEmpty())
+			avatars = avatarManager.getAvatarHeaders(txn, uncachedContacts);
+		for (AuthorId a : uncached) {
+			Contact c = contacts.get(a);
+			AuthorInfo info;
+			if (c == null) info = new AuthorInfo(UNKNOWN);
+			else info = createAuthorInfo(c, avatars.get(c.getId()));
+			cacheAuthorInfo(txn, a, info, loadedGeneration);
+			infos.put(a, info);
+		}
+		return infos;
 	}
 
 	@Override
@@ -64,10 +172,13 @@ class AuthorManagerImpl implements AuthorManager {
 	@Override
 	public AuthorInfo getAuthorInfo(Transaction txn, Contact c)
 			throws DbException {
-		AttachmentHeader avatar = avatarManager.getAvatarHeader(txn, c);
-		if (c.isVerified())
-			return new AuthorInfo(VERIFIED, c.getAlias(), avatar);
-		else return new AuthorInfo(UNVERIFIED, c.getAlias(), avatar);
+		AuthorId authorId = c.getAuthor().getId();
+		AuthorInfo cached = getCachedAuthorInfo(txn, authorId);
+		if (cached != null) return cached;
+		long loadedGeneration = getGeneration();
+		AuthorInfo info = loadAuthorInfo(txn, c);
+		cacheAuthorInfo(txn, authorId, info, loadedGeneration);
+		return info;
 	}
 
 	@Override
@@ -81,4 +192,52 @@ class AuthorManagerImpl implements AuthorManager {
 		return new AuthorInfo(OURSELVES, null, avatar);
 	}
 
+	private AuthorInfo loadAuthorInfo(Transaction txn, Contact c)
+			throws DbException {
+		return createAuthorInfo(c, avatarManager.getAvatarHeader(txn, c));
+	}
+
+	private AuthorInfo createAuthorInfo(Contact c,
+			@Nullable AttachmentHeader avatar) {
+		if (c.isVerified())
+			return new AuthorInfo(VERIFIED, c.getAlias(), avatar);
+		else return new AuthorInfo(UNVERIFIED, c.getAlias(), avatar);
+	}
+
+	private Map<AuthorId, Contact> getContactsByAuthorId(Transaction txn)
+			throws DbException {
+		Map<AuthorId, Contact> contacts = new HashMap<>();
+		for (Contact c : db.getContacts(txn)) {
+			contacts.put(c.getAuthor().getId(), c);
+		}
+		return contacts;
+	}
+
+	private long getGeneration() {
+		synchronized (lock) {
+			return generation;
+		}
+	}
+
+	/**
+	 * Returns the cached info for the given author, or null if the info
+	 * isn't cached. The cache is only used by read-only transactions, as a
+	 * read-write transaction may have made changes that haven't been
+	 * broadcast yet.
+	 */
+	@Nullable
+	private AuthorInfo getCachedAuthorInfo(Transaction txn, AuthorId a) {
+		if (!txn.isReadOnly()) return null;
+		synchronized (lock) {
+			return cache.get(a);
+		}
+	}
+
+	private void cacheAuthorInfo(Transaction txn, AuthorId a, AuthorInfo info,
+			long loadedGeneration) {
+		if (!txn.isReadOnly()) return;
+		synchronized (lock) {
+			if (generation == loadedGeneration) cache.put(a, info);
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package org.briarproject.briar.identity;
 
+import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.briar.api.identity.AuthorManager;
 
 import javax.inject.Inject;
@@ -18,7 +19,9 @@ public class IdentityModule {
 
 	@Provides
 	@Singleton
-	AuthorManager provideAuthorManager(AuthorManagerImpl authorManager) {
+	AuthorManager provideAuthorManager(AuthorManagerImpl authorManager,
+			EventBus eventBus) {
+		eventBus.addListener(authorManager);
 		return authorManager;
 	}
 
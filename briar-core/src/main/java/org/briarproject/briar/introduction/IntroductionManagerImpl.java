@@ -66,6 +66,7 @@ import static org.briarproject.briar.introduction.IntroduceeState.REMOTE_DECLINE
 import static org.briarproject.briar.introduction.IntroducerState.A_DECLINED;
 import static org.briarproject.briar.introduction.IntroducerState.B_DECLINED;
 import static org.briarproject.briar.introduction.IntroducerState.START;
+import static org.briarproject.briar.introduction.IntroductionConstants.MSG_KEY_VISIBLE_IN_UI;
 import static org.briarproject.briar.introduction.MessageType.ABORT;
 import static org.briarproject.briar.introduction.MessageType.ACCEPT;
 import static org.briarproject.briar.introduction.MessageType.ACTIVATE;
@@ -436,19 +437,38 @@ class IntroductionManagerImpl extends ConversationClientImpl
 				MessageMetadata meta =
 						messageParser.parseMetadata(e.getValue());
 				MessageStatus status = db.getMessageStatus(txn, c, m);
-				StoredSession ss = getSession(txn, meta.getSessionId());
-				if (ss == null) throw new AssertionError();
-				MessageType type = meta.getMessageType();
-				if (type == REQUEST) {
-					messages.add(parseInvitationRequest(txn, contactGroupId, m,
-							meta, status, meta.getSessionId(), authorInfos));
-				} else if (type == ACCEPT) {
-					messages.add(parseInvitationResponse(txn, contactGroupId, m,
-							meta, status, ss.bdfSession, authorInfos, true));
-				} else if (type == DECLINE) {
-					messages.add(parseInvitationResponse(txn, contactGroupId, m,
-							meta, status, ss.bdfSession, authorInfos, false));
-				}
+				ConversationMessageHeader h = getMessageHeader(txn, c,
+						contactGroupId, m, meta, status, authorInfos);
+				if (h != null) messages.add(h);
+			}
+			return messages;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, ConversationMessageHeader> getMessageHeaders(
+			Transaction txn, ContactId c, GroupId contactGroupId,
+			Collection<MessageId> ids) throws DbException {
+		try {
+			Map<MessageId, BdfDictionary> results =
+					clientHelper.getMessageMetadataAsDictionary(txn, ids);
+			Map<MessageId, MessageStatus> statuses =
+					db.getMessageStatus(txn, c, ids);
+			Map<MessageId, ConversationMessageHeader> messages =
+					new HashMap<>();
+			Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
+			for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
+				MessageId m = e.getKey();
+				BdfDictionary d = e.getValue();
+				MessageStatus status = statuses.get(m);
+				if (status == null) continue;
+				if (!d.getBoolean(MSG_KEY_VISIBLE_IN_UI, false)) continue;
+				MessageMetadata meta = messageParser.parseMetadata(d);
+				ConversationMessageHeader h = getMessageHeader(txn, c,
+						contactGroupId, m, meta, status, authorInfos);
+				if (h != null) messages.put(m, h);
 			}
 			return messages;
 		} catch (FormatException e) {
@@ -456,6 +476,28 @@ class IntroductionManagerImpl extends ConversationClientImpl
 		}
 	}
 
+	@Nullable
+	private ConversationMessageHeader getMessageHeader(Transaction txn,
+			ContactId c, GroupId contactGroupId, MessageId m,
+			MessageMetadata meta, MessageStatus status,
+			Map<AuthorId, AuthorInfo> authorInfos)
+			throws DbException, FormatException {
+		StoredSession ss = getSession(txn, meta.getSessionId());
+		if (ss == null) throw new AssertionError();
+		MessageType type = meta.getMessageType();
+		if (type == REQUEST) {
+			return parseInvitationRequest(txn, contactGroupId, m, meta,
+					status, meta.getSessionId(), authorInfos);
+		} else if (type == ACCEPT) {
+			return parseInvitationResponse(txn, contactGroupId, m, meta,
+					status, ss.bdfSession, authorInfos, true);
+		} else if (type == DECLINE) {
+			return parseInvitationResponse(txn, contactGroupId, m, meta,
+					status, ss.bdfSession, authorInfos, false);
+		}
+		return null;
+	}
+
 	private IntroductionRequest parseInvitationRequest(Transaction txn,
 			GroupId contactGroupId, MessageId m, MessageMetadata meta,
 			MessageStatus status, SessionId sessionId,
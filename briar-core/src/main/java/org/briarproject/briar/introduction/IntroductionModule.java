@@ -4,6 +4,7 @@ import org.briarproject.bramble.api.cleanup.CleanupManager;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.data.MetadataEncoder;
+import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.sync.validation.ValidationManager;
 import org.briarproject.bramble.api.system.Clock;
@@ -17,9 +18,12 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.briar.api.introduction.IntroductionManager.CLIENT_ID;
 import static org.briarproject.briar.api.introduction.IntroductionManager.MAJOR_VERSION;
 import static org.briarproject.briar.api.introduction.IntroductionManager.MINOR_VERSION;
+import static org.briarproject.briar.introduction.IntroductionConstants.MSG_KEY_AVAILABLE_TO_ANSWER;
+import static org.briarproject.briar.introduction.IntroductionConstants.SESSION_KEY_SESSION_ID;
 
 @Module
 public class IntroductionModule {
@@ -52,7 +56,7 @@ public class IntroductionModule {
 			ConversationManager conversationManager,
 			ClientVersioningManager clientVersioningManager,
 			IntroductionManagerImpl introductionManager,
-			CleanupManager cleanupManager) {
+			CleanupManager cleanupManager, DatabaseComponent db) {
 		lifecycleManager.registerOpenDatabaseHook(introductionManager);
 		contactManager.registerContactHook(introductionManager);
 		validationManager.registerIncomingMessageHook(CLIENT_ID,
@@ -62,6 +66,8 @@ public class IntroductionModule {
 				MINOR_VERSION, introductionManager);
 		cleanupManager.registerCleanupHook(CLIENT_ID, MAJOR_VERSION,
 				introductionManager);
+		db.registerIndexedMetadataKeys(asList(SESSION_KEY_SESSION_ID,
+				MSG_KEY_AVAILABLE_TO_ANSWER));
 		return introductionManager;
 	}
 
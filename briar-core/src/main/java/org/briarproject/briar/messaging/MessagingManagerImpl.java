@@ -50,6 +50,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -57,10 +58,12 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.client.ContactGroupConstants.GROUP_KEY_CONTACT_ID;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
@@ -271,8 +274,10 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 				new BdfEntry(MSG_KEY_MSG_TYPE, PRIVATE_MESSAGE),
 				new BdfEntry(MSG_KEY_LOCAL, false));
 		try {
+			// Only the attachment headers are needed, not the message text
 			Map<MessageId, BdfDictionary> results = clientHelper
-					.getMessageMetadataAsDictionary(txn, m.getGroupId(), query);
+					.getMessageMetadataAsDictionary(txn, m.getGroupId(), query,
+							singletonList(MSG_KEY_ATTACHMENT_HEADERS));
 			for (BdfDictionary meta : results.values()) {
 				List<AttachmentHeader> headers =
 						parseAttachmentHeaders(m.getGroupId(), meta);
@@ -418,25 +423,8 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 			BdfDictionary meta = metadata.get(id);
 			if (meta == null) continue;
 			try {
-				// Message type is null for version 0.0 private messages
-				Integer messageType = meta.getOptionalInt(MSG_KEY_MSG_TYPE);
-				if (messageType != null && messageType != PRIVATE_MESSAGE)
-					continue;
-				long timestamp = meta.getLong(MSG_KEY_TIMESTAMP);
-				boolean local = meta.getBoolean(MSG_KEY_LOCAL);
-				boolean read = meta.getBoolean(MSG_KEY_READ);
-				if (messageType == null) {
-					headers.add(new PrivateMessageHeader(id, g, timestamp,
-							local, read, s.isSent(), s.isSeen(), true,
-							emptyList(), NO_AUTO_DELETE_TIMER));
-				} else {
-					boolean hasText = meta.getBoolean(MSG_KEY_HAS_TEXT);
-					long timer = meta.getLong(MSG_KEY_AUTO_DELETE_TIMER,
-							NO_AUTO_DELETE_TIMER);
-					headers.add(new PrivateMessageHeader(id, g, timestamp,
-							local, read, s.isSent(), s.isSeen(), hasText,
-							parseAttachmentHeaders(g, meta), timer));
-				}
+				PrivateMessageHeader h = getMessageHeader(g, id, meta, s);
+				if (h != null) headers.add(h);
 			} catch (FormatException e) {
 				throw new DbException(e);
 			}
@@ -444,6 +432,54 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		return headers;
 	}
 
+	@Override
+	public Map<MessageId, ConversationMessageHeader> getMessageHeaders(
+			Transaction txn, ContactId c, GroupId contactGroupId,
+			Collection<MessageId> ids) throws DbException {
+		try {
+			Map<MessageId, BdfDictionary> metadata =
+					clientHelper.getMessageMetadataAsDictionary(txn, ids);
+			Map<MessageId, MessageStatus> statuses =
+					db.getMessageStatus(txn, c, ids);
+			Map<MessageId, ConversationMessageHeader> headers =
+					new HashMap<>();
+			for (Entry<MessageId, BdfDictionary> e : metadata.entrySet()) {
+				MessageId id = e.getKey();
+				MessageStatus s = statuses.get(id);
+				if (s == null) continue;
+				PrivateMessageHeader h =
+						getMessageHeader(contactGroupId, id, e.getValue(), s);
+				if (h != null) headers.put(id, h);
+			}
+			return headers;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Nullable
+	private PrivateMessageHeader getMessageHeader(GroupId g, MessageId id,
+			BdfDictionary meta, MessageStatus s) throws FormatException {
+		// Message type is null for version 0.0 private messages
+		Integer messageType = meta.getOptionalInt(MSG_KEY_MSG_TYPE);
+		if (messageType != null && messageType != PRIVATE_MESSAGE)
+			return null;
+		long timestamp = meta.getLong(MSG_KEY_TIMESTAMP);
+		boolean local = meta.getBoolean(MSG_KEY_LOCAL);
+		boolean read = meta.getBoolean(MSG_KEY_READ);
+		if (messageType == null) {
+			return new PrivateMessageHeader(id, g, timestamp, local, read,
+					s.isSent(), s.isSeen(), true, emptyList(),
+					NO_AUTO_DELETE_TIMER);
+		}
+		boolean hasText = meta.getBoolean(MSG_KEY_HAS_TEXT);
+		long timer = meta.getLong(MSG_KEY_AUTO_DELETE_TIMER,
+				NO_AUTO_DELETE_TIMER);
+		return new PrivateMessageHeader(id, g, timestamp, local, read,
+				s.isSent(), s.isSeen(), hasText,
+				parseAttachmentHeaders(g, meta), timer);
+	}
+
 	@Override
 	public Set<MessageId> getMessageIds(Transaction txn, ContactId c)
 			throws DbException {
@@ -4,6 +4,8 @@ import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.BdfMessageContext;
 import org.briarproject.bramble.api.client.BdfMessageValidator;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.crypto.SignatureCheck;
+import org.briarproject.bramble.api.crypto.SignatureVerifier;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataEncoder;
@@ -21,6 +23,7 @@ import org.briarproject.nullsafety.NotNullByDefault;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.concurrent.Immutable;
 
@@ -47,13 +50,16 @@ class GroupMessageValidator extends BdfMessageValidator {
 
 	private final PrivateGroupFactory privateGroupFactory;
 	private final GroupInvitationFactory groupInvitationFactory;
+	private final SignatureVerifier signatureVerifier;
 
 	GroupMessageValidator(PrivateGroupFactory privateGroupFactory,
 			ClientHelper clientHelper, MetadataEncoder metadataEncoder,
-			Clock clock, GroupInvitationFactory groupInvitationFactory) {
+			Clock clock, GroupInvitationFactory groupInvitationFactory,
+			SignatureVerifier signatureVerifier) {
 		super(clientHelper, metadataEncoder, clock);
 		this.privateGroupFactory = privateGroupFactory;
 		this.groupInvitationFactory = groupInvitationFactory;
+		this.signatureVerifier = signatureVerifier;
 	}
 
 	@Override
@@ -95,6 +101,7 @@ class GroupMessageValidator extends BdfMessageValidator {
 		PrivateGroup pg = privateGroupFactory.parsePrivateGroup(g);
 		Author creator = pg.getCreator();
 		boolean isCreator = member.equals(creator);
+		List<SignatureCheck> checks = new ArrayList<>(2);
 		if (isCreator) {
 			if (inviteList != null) throw new FormatException();
 		} else {
@@ -111,16 +118,12 @@ class GroupMessageValidator extends BdfMessageValidator {
 			BdfList token = groupInvitationFactory.createInviteToken(
 					creator.getId(), member.getId(), g.getId(),
 					inviteTimestamp);
-			try {
-				clientHelper.verifySignature(creatorSignature,
-						SIGNING_LABEL_INVITE,
-						token, creator.getPublicKey());
-			} catch (GeneralSecurityException e) {
-				throw new FormatException();
-			}
+			checks.add(new SignatureCheck(creatorSignature,
+					SIGNING_LABEL_INVITE, clientHelper.toByteArray(token),
+					creator.getPublicKey()));
 		}
 
-		// Verify the member's signature
+		// The join message is signed by the member
 		BdfList memberList = body.getList(1); // Already validated
 		BdfList signed = BdfList.of(
 				g.getId(),
@@ -128,11 +131,12 @@ class GroupMessageValidator extends BdfMessageValidator {
 				memberList,
 				inviteList
 		);
-		try {
-			clientHelper.verifySignature(memberSignature, SIGNING_LABEL_JOIN,
-					signed, member.getPublicKey());
-		} catch (GeneralSecurityException e) {
-			throw new FormatException();
+		checks.add(new SignatureCheck(memberSignature, SIGNING_LABEL_JOIN,
+				clientHelper.toByteArray(signed), member.getPublicKey()));
+
+		// Verify the creator's and member's signatures in parallel
+		for (boolean valid : signatureVerifier.verify(checks)) {
+			if (!valid) throw new FormatException();
 		}
 
 		// Return the metadata and no dependencies
@@ -354,10 +354,8 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 				authors.add(getAuthor(meta).getId());
 			}
 			// get information for all authors
-			Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
-			for (AuthorId id : authors) {
-				authorInfos.put(id, authorManager.getAuthorInfo(txn, id));
-			}
+			Map<AuthorId, AuthorInfo> authorInfos =
+					authorManager.getAuthorInfos(txn, authors);
 			// parse the metadata
 			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
 				BdfDictionary meta = entry.getValue();
@@ -422,9 +420,14 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		Map<Author, Visibility> authors = getMemberAuthors(txn, g);
 		LocalAuthor la = identityManager.getLocalAuthor(txn);
 		PrivateGroup privateGroup = getPrivateGroup(txn, g);
+		// get information for all members
+		Set<AuthorId> authorIds = new HashSet<>();
+		for (Author a : authors.keySet()) authorIds.add(a.getId());
+		Map<AuthorId, AuthorInfo> authorInfos =
+				authorManager.getAuthorInfos(txn, authorIds);
 		for (Entry<Author, Visibility> m : authors.entrySet()) {
 			Author a = m.getKey();
-			AuthorInfo authorInfo = authorManager.getAuthorInfo(txn, a.getId());
+			AuthorInfo authorInfo = authorInfos.get(a.getId());
 			Status status = authorInfo.getStatus();
 			Visibility v = m.getValue();
 			ContactId c = null;
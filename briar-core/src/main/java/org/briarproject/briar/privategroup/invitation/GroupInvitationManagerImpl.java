@@ -63,6 +63,7 @@ import static org.briarproject.briar.privategroup.invitation.CreatorState.ERROR;
 import static org.briarproject.briar.privategroup.invitation.CreatorState.INVITED;
 import static org.briarproject.briar.privategroup.invitation.CreatorState.JOINED;
 import static org.briarproject.briar.privategroup.invitation.CreatorState.START;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.MSG_KEY_VISIBLE_IN_UI;
 import static org.briarproject.briar.privategroup.invitation.MessageType.ABORT;
 import static org.briarproject.briar.privategroup.invitation.MessageType.INVITE;
 import static org.briarproject.briar.privategroup.invitation.MessageType.JOIN;
@@ -464,17 +465,9 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 				MessageMetadata meta =
 						messageParser.parseMetadata(e.getValue());
 				MessageStatus status = db.getMessageStatus(txn, c, m);
-				MessageType type = meta.getMessageType();
-				if (type == INVITE) {
-					messages.add(parseInvitationRequest(txn, contactGroupId, m,
-							meta, status));
-				} else if (type == JOIN) {
-					messages.add(parseInvitationResponse(contactGroupId, m,
-							meta, status, true));
-				} else if (type == LEAVE) {
-					messages.add(parseInvitationResponse(contactGroupId, m,
-							meta, status, false));
-				}
+				ConversationMessageHeader h = getMessageHeader(txn, c,
+						contactGroupId, m, meta, status);
+				if (h != null) messages.add(h);
 			}
 			return messages;
 		} catch (FormatException e) {
@@ -482,6 +475,53 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		}
 	}
 
+	@Override
+	public Map<MessageId, ConversationMessageHeader> getMessageHeaders(
+			Transaction txn, ContactId c, GroupId contactGroupId,
+			Collection<MessageId> ids) throws DbException {
+		try {
+			Map<MessageId, BdfDictionary> results =
+					clientHelper.getMessageMetadataAsDictionary(txn, ids);
+			Map<MessageId, MessageStatus> statuses =
+					db.getMessageStatus(txn, c, ids);
+			Map<MessageId, ConversationMessageHeader> messages =
+					new HashMap<>();
+			for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
+				MessageId m = e.getKey();
+				BdfDictionary d = e.getValue();
+				MessageStatus status = statuses.get(m);
+				if (status == null) continue;
+				if (!d.getBoolean(MSG_KEY_VISIBLE_IN_UI, false)) continue;
+				MessageMetadata meta = messageParser.parseMetadata(d);
+				ConversationMessageHeader h = getMessageHeader(txn, c,
+						contactGroupId, m, meta, status);
+				if (h != null) messages.put(m, h);
+			}
+			return messages;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Nullable
+	private ConversationMessageHeader getMessageHeader(Transaction txn,
+			ContactId c, GroupId contactGroupId, MessageId m,
+			MessageMetadata meta, MessageStatus status)
+			throws DbException, FormatException {
+		MessageType type = meta.getMessageType();
+		if (type == INVITE) {
+			return parseInvitationRequest(txn, contactGroupId, m, meta,
+					status);
+		} else if (type == JOIN) {
+			return parseInvitationResponse(contactGroupId, m, meta, status,
+					true);
+		} else if (type == LEAVE) {
+			return parseInvitationResponse(contactGroupId, m, meta, status,
+					false);
+		}
+		return null;
+	}
+
 	private GroupInvitationRequest parseInvitationRequest(Transaction txn,
 			GroupId contactGroupId, MessageId m, MessageMetadata meta,
 			MessageStatus status) throws DbException, FormatException {
@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.cleanup.CleanupManager;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.data.MetadataEncoder;
+import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.sync.validation.ValidationManager;
 import org.briarproject.bramble.api.system.Clock;
@@ -21,9 +22,14 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.briar.api.privategroup.invitation.GroupInvitationManager.CLIENT_ID;
 import static org.briarproject.briar.api.privategroup.invitation.GroupInvitationManager.MAJOR_VERSION;
 import static org.briarproject.briar.api.privategroup.invitation.GroupInvitationManager.MINOR_VERSION;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.MSG_KEY_AVAILABLE_TO_ANSWER;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.MSG_KEY_PRIVATE_GROUP_ID;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_IS_SESSION;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_SESSION_ID;
 
 @Module
 public class GroupInvitationModule {
@@ -44,7 +50,14 @@ public class GroupInvitationModule {
 			PrivateGroupManager privateGroupManager,
 			ConversationManager conversationManager,
 			ClientVersioningManager clientVersioningManager,
-			CleanupManager cleanupManager, FeatureFlags featureFlags) {
+			CleanupManager cleanupManager, FeatureFlags featureFlags,
+			DatabaseComponent db) {
+		// The keys must be registered before the database is opened. They're
+		// registered whether or not the feature is enabled, so enabling or
+		// disabling the feature doesn't rebuild the index
+		db.registerIndexedMetadataKeys(asList(SESSION_KEY_SESSION_ID,
+				SESSION_KEY_IS_SESSION, MSG_KEY_AVAILABLE_TO_ANSWER,
+				MSG_KEY_PRIVATE_GROUP_ID));
 		if (!featureFlags.shouldEnablePrivateGroupsInCore()) {
 			return groupInvitationManager;
 		}
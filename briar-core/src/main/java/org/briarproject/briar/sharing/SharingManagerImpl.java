@@ -58,6 +58,7 @@ import static org.briarproject.briar.sharing.MessageType.ACCEPT;
 import static org.briarproject.briar.sharing.MessageType.DECLINE;
 import static org.briarproject.briar.sharing.MessageType.INVITE;
 import static org.briarproject.briar.sharing.MessageType.LEAVE;
+import static org.briarproject.briar.sharing.SharingConstants.MSG_KEY_VISIBLE_IN_UI;
 import static org.briarproject.briar.sharing.State.LOCAL_INVITED;
 import static org.briarproject.briar.sharing.State.LOCAL_LEFT;
 import static org.briarproject.briar.sharing.State.REMOTE_HANGING;
@@ -366,17 +367,9 @@ abstract class SharingManagerImpl<S extends Shareable>
 				MessageMetadata meta =
 						messageParser.parseMetadata(e.getValue());
 				MessageStatus status = db.getMessageStatus(txn, c, m);
-				MessageType type = meta.getMessageType();
-				if (type == INVITE) {
-					messages.add(parseInvitationRequest(txn, c, m,
-							meta, status));
-				} else if (type == ACCEPT) {
-					messages.add(parseInvitationResponse(contactGroupId, m,
-							meta, status, true));
-				} else if (type == DECLINE) {
-					messages.add(parseInvitationResponse(contactGroupId, m,
-							meta, status, false));
-				}
+				ConversationMessageHeader h = getMessageHeader(txn, c,
+						contactGroupId, m, meta, status);
+				if (h != null) messages.add(h);
 			}
 			return messages;
 		} catch (FormatException e) {
@@ -384,6 +377,52 @@ abstract class SharingManagerImpl<S extends Shareable>
 		}
 	}
 
+	@Override
+	public Map<MessageId, ConversationMessageHeader> getMessageHeaders(
+			Transaction txn, ContactId c, GroupId contactGroupId,
+			Collection<MessageId> ids) throws DbException {
+		try {
+			Map<MessageId, BdfDictionary> results =
+					clientHelper.getMessageMetadataAsDictionary(txn, ids);
+			Map<MessageId, MessageStatus> statuses =
+					db.getMessageStatus(txn, c, ids);
+			Map<MessageId, ConversationMessageHeader> messages =
+					new HashMap<>();
+			for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
+				MessageId m = e.getKey();
+				BdfDictionary d = e.getValue();
+				MessageStatus status = statuses.get(m);
+				if (status == null) continue;
+				if (!d.getBoolean(MSG_KEY_VISIBLE_IN_UI, false)) continue;
+				MessageMetadata meta = messageParser.parseMetadata(d);
+				ConversationMessageHeader h = getMessageHeader(txn, c,
+						contactGroupId, m, meta, status);
+				if (h != null) messages.put(m, h);
+			}
+			return messages;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Nullable
+	private ConversationMessageHeader getMessageHeader(Transaction txn,
+			ContactId c, GroupId contactGroupId, MessageId m,
+			MessageMetadata meta, MessageStatus status)
+			throws DbException, FormatException {
+		MessageType type = meta.getMessageType();
+		if (type == INVITE) {
+			return parseInvitationRequest(txn, c, m, meta, status);
+		} else if (type == ACCEPT) {
+			return parseInvitationResponse(contactGroupId, m, meta, status,
+					true);
+		} else if (type == DECLINE) {
+			return parseInvitationResponse(contactGroupId, m, meta, status,
+					false);
+		}
+		return null;
+	}
+
 	private ConversationRequest<S> parseInvitationRequest(Transaction txn,
 			ContactId c, MessageId m, MessageMetadata meta,
 			MessageStatus status) throws DbException, FormatException {
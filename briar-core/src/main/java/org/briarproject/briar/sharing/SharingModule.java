@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.cleanup.CleanupManager;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.data.MetadataEncoder;
+import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.sync.validation.ValidationManager;
 import org.briarproject.bramble.api.system.Clock;
@@ -27,6 +28,12 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static java.util.Arrays.asList;
+import static org.briarproject.briar.sharing.SharingConstants.MSG_KEY_AVAILABLE_TO_ANSWER;
+import static org.briarproject.briar.sharing.SharingConstants.MSG_KEY_SHAREABLE_ID;
+import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_IS_SESSION;
+import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_SESSION_ID;
+
 @Module
 public class SharingModule {
 
@@ -81,7 +88,9 @@ public class SharingModule {
 			ConversationManager conversationManager, BlogManager blogManager,
 			ClientVersioningManager clientVersioningManager,
 			BlogSharingManagerImpl blogSharingManager,
-			CleanupManager cleanupManager, FeatureFlags featureFlags) {
+			CleanupManager cleanupManager, FeatureFlags featureFlags,
+			DatabaseComponent db) {
+		registerIndexedMetadataKeys(db);
 		if (!featureFlags.shouldEnableBlogsInCore()) {
 			return blogSharingManager;
 		}
@@ -149,7 +158,9 @@ public class SharingModule {
 			ConversationManager conversationManager, ForumManager forumManager,
 			ClientVersioningManager clientVersioningManager,
 			ForumSharingManagerImpl forumSharingManager,
-			CleanupManager cleanupManager, FeatureFlags featureFlags) {
+			CleanupManager cleanupManager, FeatureFlags featureFlags,
+			DatabaseComponent db) {
+		registerIndexedMetadataKeys(db);
 		if (!featureFlags.shouldEnableForumsInCore()) {
 			return forumSharingManager;
 		}
@@ -192,4 +203,16 @@ public class SharingModule {
 		return forumInvitationFactory;
 	}
 
+	/**
+	 * Registers the keys used in queries by both sharing clients. The keys
+	 * must be registered before the database is opened. They're registered
+	 * whether or not each feature is enabled, so enabling or disabling a
+	 * feature doesn't rebuild the index.
+	 */
+	private void registerIndexedMetadataKeys(DatabaseComponent db) {
+		db.registerIndexedMetadataKeys(asList(SESSION_KEY_SESSION_ID,
+				SESSION_KEY_IS_SESSION, MSG_KEY_AVAILABLE_TO_ANSWER,
+				MSG_KEY_SHAREABLE_ID));
+	}
+
 }
@@ -6,7 +6,6 @@ import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
-import org.briarproject.bramble.api.db.TransactionManager;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.test.BrambleMockTestCase;
@@ -15,6 +14,7 @@ import org.briarproject.briar.api.attachment.Attachment;
 import org.briarproject.briar.api.attachment.AttachmentHeader;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 
@@ -28,7 +28,7 @@ import static org.junit.Assert.assertArrayEquals;
 
 public class AttachmentReaderImplTest extends BrambleMockTestCase {
 
-	private final TransactionManager db = context.mock(DatabaseComponent.class);
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
 	private final ClientHelper clientHelper = context.mock(ClientHelper.class);
 
 	private final GroupId groupId = new GroupId(getRandomId());
@@ -50,8 +50,8 @@ public class AttachmentReaderImplTest extends BrambleMockTestCase {
 
 		context.checking(new DbExpectations() {{
 			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
-			oneOf(clientHelper).getMessage(txn, message.getId());
-			will(returnValue(message));
+			oneOf(db).getGroupId(txn, message.getId());
+			will(returnValue(groupId));
 		}});
 
 		attachmentReader.getAttachment(wrongGroup);
@@ -85,8 +85,8 @@ public class AttachmentReaderImplTest extends BrambleMockTestCase {
 
 		context.checking(new DbExpectations() {{
 			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
-			oneOf(clientHelper).getMessage(txn, message.getId());
-			will(returnValue(message));
+			oneOf(db).getGroupId(txn, message.getId());
+			will(returnValue(groupId));
 			oneOf(clientHelper)
 					.getMessageMetadataAsDictionary(txn, message.getId());
 			will(returnValue(meta));
@@ -110,11 +110,13 @@ public class AttachmentReaderImplTest extends BrambleMockTestCase {
 
 		context.checking(new DbExpectations() {{
 			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
-			oneOf(clientHelper).getMessage(txn, message.getId());
-			will(returnValue(message));
+			oneOf(db).getGroupId(txn, message.getId());
+			will(returnValue(groupId));
 			oneOf(clientHelper)
 					.getMessageMetadataAsDictionary(txn, message.getId());
 			will(returnValue(meta));
+			oneOf(db).getMessageBody(txn, message.getId(), descriptorLength);
+			will(returnValue(new ByteArrayInputStream(expectedData)));
 		}});
 
 		Attachment attachment = attachmentReader.getAttachment(header);
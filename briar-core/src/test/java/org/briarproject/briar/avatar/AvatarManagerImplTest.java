@@ -37,10 +37,13 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 
 import javax.annotation.Nullable;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
@@ -351,6 +354,35 @@ public class AvatarManagerImplTest extends BrambleMockTestCase {
 		assertEquals(contentType, header.getContentType());
 	}
 
+	@Test
+	public void testGetAvatarHeaders() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Contact contact2 = getContact();
+		Group contactGroup2 = getGroup(CLIENT_ID, MAJOR_VERSION, 32);
+		Map<MessageId, BdfDictionary> updates =
+				singletonMap(contactMsg.getId(), metaDict);
+		// The second contact hasn't sent an avatar
+		Map<GroupId, Map<MessageId, BdfDictionary>> metadata =
+				singletonMap(contactGroupId, updates);
+
+		expectCreateGroup(contact.getAuthor().getId(), contactGroup);
+		expectCreateGroup(contact2.getAuthor().getId(), contactGroup2);
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getMessageMetadataByGroup(txn,
+					new HashSet<>(asList(contactGroupId,
+							contactGroup2.getId())));
+			will(returnValue(metadata));
+		}});
+
+		Map<ContactId, AttachmentHeader> headers =
+				avatarManager.getAvatarHeaders(txn, asList(contact, contact2));
+		assertEquals(1, headers.size());
+		AttachmentHeader header = headers.get(contact.getId());
+		assertEquals(contactGroupId, header.getGroupId());
+		assertEquals(contactMsg.getId(), header.getMessageId());
+		assertEquals(contentType, header.getContentType());
+	}
+
 	private void expectGetContactId(Transaction txn, GroupId groupId,
 			ContactId contactId) throws DbException, FormatException {
 		BdfDictionary d = BdfDictionary
@@ -0,0 +1,195 @@
+package org.briarproject.briar.conversation;
+
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.briar.api.client.MessageTracker;
+import org.briarproject.briar.api.conversation.ConversationManager.ConversationClient;
+import org.briarproject.briar.api.conversation.ConversationMessageHeader;
+import org.briarproject.briar.api.messaging.PrivateMessageHeader;
+import org.jmock.Expectations;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getContact;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.NO_AUTO_DELETE_TIMER;
+import static org.junit.Assert.assertEquals;
+
+public class ConversationManagerImplTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final MessageTracker messageTracker =
+			context.mock(MessageTracker.class);
+	private final Clock clock = context.mock(Clock.class);
+	private final ClientHelper clientHelper = context.mock(ClientHelper.class);
+	private final ConversationClient client1 =
+			context.mock(ConversationClient.class, "client1");
+	private final ConversationClient client2 =
+			context.mock(ConversationClient.class, "client2");
+
+	private final Transaction txn = new Transaction(null, true);
+	private final Contact contact = getContact();
+	private final Group group1 = getGroup(getClientId(), 123);
+	private final Group group2 = getGroup(getClientId(), 123);
+
+	private ConversationManagerImpl conversationManager;
+
+	@Before
+	public void setUp() {
+		conversationManager = new ConversationManagerImpl(db, messageTracker,
+				clock, clientHelper);
+		conversationManager.registerConversationClient(client1);
+		conversationManager.registerConversationClient(client2);
+	}
+
+	@Test
+	public void testHeadersAreMergedWithoutSplittingTimestamps()
+			throws Exception {
+		// The second header from each client has the same timestamp
+		ConversationMessageHeader a1 = getHeader(group1, 50);
+		ConversationMessageHeader a2 = getHeader(group1, 30);
+		ConversationMessageHeader a3 = getHeader(group1, 10);
+		ConversationMessageHeader b1 = getHeader(group2, 40);
+		ConversationMessageHeader b2 = getHeader(group2, 30);
+		ConversationMessageHeader b3 = getHeader(group2, 20);
+
+		expectGetContactGroups();
+		expectGetMessageIds(group1, Long.MAX_VALUE, 3, a1, a2, a3);
+		expectGetMessageIds(group2, Long.MAX_VALUE, 3, b1, b2, b3);
+		expectGetMessageHeaders(client1, group1, a1, a2, a3);
+		expectGetMessageHeaders(client2, group2, b1, b2, b3);
+
+		List<ConversationMessageHeader> headers = conversationManager
+				.getMessageHeaders(txn, contact.getId(), Long.MAX_VALUE, 3);
+		// The page is allowed to exceed the limit so that the timestamp of
+		// the last header can be used as the cursor for the next page
+		assertEquals(4, headers.size());
+		assertEquals(a1, headers.get(0));
+		assertEquals(b1, headers.get(1));
+		assertEquals(new HashSet<>(asList(a2, b2)),
+				new HashSet<>(headers.subList(2, 4)));
+	}
+
+	@Test
+	public void testHeadersAreMergedByMessageTimestamp() throws Exception {
+		// The header timestamps disagree with the message timestamps
+		ConversationMessageHeader a1 = getHeader(group1, 10);
+		ConversationMessageHeader b1 = getHeader(group2, 20);
+
+		expectGetContactGroups();
+		context.checking(new Expectations() {{
+			oneOf(db).getMessageIds(txn, group1.getId(), Long.MAX_VALUE, 1);
+			will(returnValue(singletonMap(a1.getId(), 50L)));
+			oneOf(db).getMessageIds(txn, group2.getId(), Long.MAX_VALUE, 1);
+			will(returnValue(singletonMap(b1.getId(), 40L)));
+			// The first client's next chunk has no more messages
+			oneOf(db).getMessageIds(txn, group1.getId(), Long.MAX_VALUE, 2);
+			will(returnValue(singletonMap(a1.getId(), 50L)));
+		}});
+		expectGetMessageHeaders(client1, group1, a1);
+		expectGetMessageHeaders(client2, group2, b1);
+
+		List<ConversationMessageHeader> headers = conversationManager
+				.getMessageHeaders(txn, contact.getId(), Long.MAX_VALUE, 1);
+		assertEquals(singletonList(a1), headers);
+	}
+
+	@Test
+	public void testMoreMessagesAreReadIfSomeAreNotShown() throws Exception {
+		// The first message in the contact group isn't shown
+		MessageId hidden = new MessageId(getRandomId());
+		ConversationMessageHeader a1 = getHeader(group1, 50);
+		ConversationMessageHeader a2 = getHeader(group1, 40);
+		ConversationMessageHeader a3 = getHeader(group1, 30);
+		Map<MessageId, Long> firstChunk = new LinkedHashMap<>();
+		firstChunk.put(hidden, 60L);
+		firstChunk.put(a1.getId(), 50L);
+		Map<MessageId, Long> secondChunk = new LinkedHashMap<>(firstChunk);
+		secondChunk.put(a2.getId(), 40L);
+		secondChunk.put(a3.getId(), 30L);
+
+		expectGetContactGroups();
+		context.checking(new Expectations() {{
+			oneOf(db).getMessageIds(txn, group1.getId(), 100, 2);
+			will(returnValue(firstChunk));
+			oneOf(client1).getMessageHeaders(txn, contact.getId(),
+					group1.getId(), asList(hidden, a1.getId()));
+			will(returnValue(singletonMap(a1.getId(), a1)));
+			// The second client has no messages before the cursor
+			oneOf(db).getMessageIds(txn, group2.getId(), 100, 2);
+			will(returnValue(emptyMap()));
+			// The next chunk is twice the size and starts with the last
+			// one, so only the headers of the new messages are read
+			oneOf(db).getMessageIds(txn, group1.getId(), 100, 4);
+			will(returnValue(secondChunk));
+		}});
+		expectGetMessageHeaders(client1, group1, a2, a3);
+
+		List<ConversationMessageHeader> headers = conversationManager
+				.getMessageHeaders(txn, contact.getId(), 100, 2);
+		assertEquals(asList(a1, a2), headers);
+	}
+
+	private ConversationMessageHeader getHeader(Group g, long timestamp) {
+		return new PrivateMessageHeader(new MessageId(getRandomId()),
+				g.getId(), timestamp, true, true, true, true, true,
+				emptyList(), NO_AUTO_DELETE_TIMER);
+	}
+
+	private void expectGetContactGroups() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(db).getContact(txn, contact.getId());
+			will(returnValue(contact));
+			oneOf(client1).getContactGroup(contact);
+			will(returnValue(group1));
+			oneOf(client2).getContactGroup(contact);
+			will(returnValue(group2));
+		}});
+	}
+
+	private void expectGetMessageIds(Group g, long beforeTimestamp,
+			int limit, ConversationMessageHeader... headers) throws Exception {
+		Map<MessageId, Long> ids = new LinkedHashMap<>();
+		for (ConversationMessageHeader h : headers)
+			ids.put(h.getId(), h.getTimestamp());
+		context.checking(new Expectations() {{
+			oneOf(db).getMessageIds(txn, g.getId(), beforeTimestamp, limit);
+			will(returnValue(ids));
+		}});
+	}
+
+	private void expectGetMessageHeaders(ConversationClient client, Group g,
+			ConversationMessageHeader... headers) throws Exception {
+		List<MessageId> ids = new ArrayList<>(headers.length);
+		Map<MessageId, ConversationMessageHeader> results = new HashMap<>();
+		for (ConversationMessageHeader h : headers) {
+			ids.add(h.getId());
+			results.put(h.getId(), h);
+		}
+		context.checking(new Expectations() {{
+			oneOf(client).getMessageHeaders(txn, contact.getId(), g.getId(),
+					ids);
+			will(returnValue(results));
+		}});
+	}
+}
@@ -1,6 +1,7 @@
 package org.briarproject.briar.identity;
 
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.event.ContactVerifiedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
@@ -14,14 +15,18 @@ import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.briar.api.attachment.AttachmentHeader;
 import org.briarproject.briar.api.avatar.AvatarManager;
+import org.briarproject.briar.api.avatar.event.AvatarUpdatedEvent;
 import org.briarproject.briar.api.identity.AuthorInfo;
 import org.jmock.Expectations;
 import org.junit.Test;
 
 import java.util.Collection;
+import java.util.Map;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.briarproject.bramble.test.TestUtils.getAuthor;
 import static org.briarproject.bramble.test.TestUtils.getContact;
 import static org.briarproject.bramble.test.TestUtils.getLocalAuthor;
@@ -34,6 +39,7 @@ import static org.briarproject.briar.api.identity.AuthorInfo.Status.UNVERIFIED;
 import static org.briarproject.briar.api.identity.AuthorInfo.Status.VERIFIED;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 public class AuthorManagerImplTest extends BrambleMockTestCase {
 
@@ -139,6 +145,157 @@ public class AuthorManagerImplTest extends BrambleMockTestCase {
 		assertEquals(avatarHeader, authorInfo.getAvatarHeader());
 	}
 
+	@Test
+	public void testGetAuthorInfoIsCachedForReadOnlyTransactions()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+
+		checkAuthorInfoContext(txn, remote.getId(), singletonList(contact));
+		context.checking(new Expectations() {{
+			oneOf(avatarManager).getAvatarHeader(txn, contact);
+			will(returnValue(avatarHeader));
+		}});
+
+		AuthorInfo authorInfo =
+				authorManager.getAuthorInfo(txn, remote.getId());
+		assertEquals(UNVERIFIED, authorInfo.getStatus());
+
+		// The second lookup should be served from the cache
+		context.checking(new Expectations() {{
+			oneOf(identityManager).getLocalAuthor(txn1);
+			will(returnValue(localAuthor));
+		}});
+
+		assertSame(authorInfo,
+				authorManager.getAuthorInfo(txn1, remote.getId()));
+	}
+
+	@Test
+	public void testGetAuthorInfoIsNotCachedForReadWriteTransactions()
+			throws Exception {
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, true);
+
+		checkAuthorInfoContext(txn, remote.getId(), singletonList(contact));
+		context.checking(new Expectations() {{
+			oneOf(avatarManager).getAvatarHeader(txn, contact);
+			will(returnValue(avatarHeader));
+		}});
+
+		authorManager.getAuthorInfo(txn, remote.getId());
+
+		// The info should be loaded again
+		checkAuthorInfoContext(txn1, remote.getId(), singletonList(contact));
+		context.checking(new Expectations() {{
+			oneOf(avatarManager).getAvatarHeader(txn1, contact);
+			will(returnValue(avatarHeader));
+		}});
+
+		authorManager.getAuthorInfo(txn1, remote.getId());
+	}
+
+	@Test
+	public void testCacheIsClearedWhenContactIsVerified() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+
+		checkAuthorInfoContext(txn, remote.getId(), singletonList(contact));
+		context.checking(new Expectations() {{
+			oneOf(avatarManager).getAvatarHeader(txn, contact);
+			will(returnValue(avatarHeader));
+		}});
+
+		AuthorInfo authorInfo =
+				authorManager.getAuthorInfo(txn, remote.getId());
+		assertEquals(UNVERIFIED, authorInfo.getStatus());
+
+		authorManager.eventOccurred(new ContactVerifiedEvent(contact.getId()));
+
+		// The info should be loaded again
+		Contact verified = getContact(remote, local, true);
+		checkAuthorInfoContext(txn1, remote.getId(), singletonList(verified));
+		context.checking(new Expectations() {{
+			oneOf(avatarManager).getAvatarHeader(txn1, verified);
+			will(returnValue(avatarHeader));
+		}});
+
+		authorInfo = authorManager.getAuthorInfo(txn1, remote.getId());
+		assertEquals(VERIFIED, authorInfo.getStatus());
+	}
+
+	@Test
+	public void testCacheIsClearedWhenAvatarIsUpdated() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			oneOf(avatarManager).getAvatarHeader(txn, contact);
+			will(returnValue(null));
+		}});
+
+		AuthorInfo authorInfo = authorManager.getAuthorInfo(txn, contact);
+		assertNull(authorInfo.getAvatarHeader());
+
+		authorManager.eventOccurred(
+				new AvatarUpdatedEvent(contact.getId(), avatarHeader));
+
+		// The info should be loaded again
+		context.checking(new Expectations() {{
+			oneOf(avatarManager).getAvatarHeader(txn1, contact);
+			will(returnValue(avatarHeader));
+		}});
+
+		authorInfo = authorManager.getAuthorInfo(txn1, contact);
+		assertEquals(avatarHeader, authorInfo.getAvatarHeader());
+	}
+
+	@Test
+	public void testGetAuthorInfos() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Author unknown = getAuthor();
+		Collection<AuthorId> authorIds =
+				asList(local, remote.getId(), unknown.getId());
+
+		// All contacts should be loaded with a single query, and their
+		// avatars with another
+		context.checking(new Expectations() {{
+			oneOf(identityManager).getLocalAuthor(txn);
+			will(returnValue(localAuthor));
+			oneOf(avatarManager).getMyAvatarHeader(txn);
+			will(returnValue(null));
+			oneOf(db).getContacts(txn);
+			will(returnValue(singletonList(contact)));
+			oneOf(avatarManager).getAvatarHeaders(txn,
+					singletonList(contact));
+			will(returnValue(singletonMap(contact.getId(), avatarHeader)));
+		}});
+
+		Map<AuthorId, AuthorInfo> infos =
+				authorManager.getAuthorInfos(txn, authorIds);
+		assertEquals(3, infos.size());
+		assertEquals(OURSELVES, infos.get(local).getStatus());
+		AuthorInfo remoteInfo = infos.get(remote.getId());
+		assertEquals(UNVERIFIED, remoteInfo.getStatus());
+		assertEquals(contact.getAlias(), remoteInfo.getAlias());
+		assertEquals(avatarHeader, remoteInfo.getAvatarHeader());
+		assertEquals(UNKNOWN, infos.get(unknown.getId()).getStatus());
+
+		// The second lookup should only load our own info
+		context.checking(new Expectations() {{
+			oneOf(identityManager).getLocalAuthor(txn1);
+			will(returnValue(localAuthor));
+			oneOf(avatarManager).getMyAvatarHeader(txn1);
+			will(returnValue(null));
+		}});
+
+		infos = authorManager.getAuthorInfos(txn1, authorIds);
+		assertEquals(3, infos.size());
+		assertSame(remoteInfo, infos.get(remote.getId()));
+		assertEquals(UNKNOWN, infos.get(unknown.getId()).getStatus());
+	}
+
 	private void checkAuthorInfoContext(Transaction txn, AuthorId authorId,
 			Collection<Contact> contacts) throws DbException {
 		context.checking(new Expectations() {{
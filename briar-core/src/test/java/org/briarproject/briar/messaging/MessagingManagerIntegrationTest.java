@@ -20,6 +20,7 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -27,6 +28,7 @@ import java.util.Set;
 
 import javax.annotation.Nullable;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singletonList;
@@ -153,6 +155,44 @@ public class MessagingManagerIntegrationTest
 		assertGroupCounts(c1, 1, 1);
 	}
 
+	@Test
+	public void testPagedConversation() throws Exception {
+		// Send five messages, one of them with an attachment, which isn't
+		// shown in the conversation itself
+		GroupId g = messagingManager0.getConversationId(contactId);
+		long timestamp = c0.getClock().currentTimeMillis();
+		List<MessageId> sent = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			List<AttachmentHeader> attachments = i == 2 ?
+					singletonList(addAttachment(c0)) : emptyList();
+			PrivateMessage m = messageFactory.createPrivateMessage(g,
+					timestamp + i, getRandomString(42), attachments,
+					NO_AUTO_DELETE_TIMER);
+			messagingManager0.addLocalMessage(m);
+			syncMessage(c0, c1, contactId, 1 + attachments.size(), true);
+			sent.add(0, m.getMessage().getId());
+		}
+
+		// Both sides should page through the messages newest first
+		for (BriarIntegrationTestComponent c : asList(c0, c1)) {
+			List<MessageId> received = new ArrayList<>();
+			long before = Long.MAX_VALUE;
+			while (true) {
+				long cursor = before;
+				List<ConversationMessageHeader> page = c.getDatabaseComponent()
+						.transactionWithResult(true, txn -> c
+								.getConversationManager()
+								.getMessageHeaders(txn, contactId, cursor, 2));
+				if (page.isEmpty()) break;
+				assertTrue(page.size() <= 2);
+				for (ConversationMessageHeader h : page)
+					received.add(h.getId());
+				before = page.get(page.size() - 1).getTimestamp();
+			}
+			assertEquals(sent, received);
+		}
+	}
+
 	@Test
 	public void testAutoDeleteTimer() throws Exception {
 		// send message with auto-delete timer
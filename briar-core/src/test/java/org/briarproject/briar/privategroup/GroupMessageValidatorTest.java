@@ -2,11 +2,14 @@ package org.briarproject.briar.privategroup;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.BdfMessageContext;
+import org.briarproject.bramble.api.crypto.SignatureCheck;
+import org.briarproject.bramble.api.crypto.SignatureVerifier;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.sync.InvalidMessageException;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.PredicateMatcher;
 import org.briarproject.bramble.test.ValidatorTestCase;
 import org.briarproject.briar.api.privategroup.MessageType;
 import org.briarproject.briar.api.privategroup.PrivateGroup;
@@ -19,6 +22,7 @@ import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_SIGNATURE_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.getAuthor;
@@ -51,6 +55,8 @@ public class GroupMessageValidatorTest extends ValidatorTestCase {
 			context.mock(PrivateGroupFactory.class);
 	private final GroupInvitationFactory groupInvitationFactory =
 			context.mock(GroupInvitationFactory.class);
+	private final SignatureVerifier signatureVerifier =
+			context.mock(SignatureVerifier.class);
 
 	private final Author member = getAuthor();
 	private final BdfList memberList = BdfList.of(
@@ -80,7 +86,8 @@ public class GroupMessageValidatorTest extends ValidatorTestCase {
 
 	private final GroupMessageValidator validator =
 			new GroupMessageValidator(privateGroupFactory, clientHelper,
-					metadataEncoder, clock, groupInvitationFactory);
+					metadataEncoder, clock, groupInvitationFactory,
+					signatureVerifier);
 
 	// JOIN message
 
@@ -390,14 +397,17 @@ public class GroupMessageValidatorTest extends ValidatorTestCase {
 				creatorList,
 				null
 		);
+		byte[] signedBytes = getRandomBytes(123);
+		SignatureCheck memberCheck = new SignatureCheck(memberSignature,
+				SIGNING_LABEL_JOIN, signedBytes, creator.getPublicKey());
 		expectParseAuthor(creatorList, creator);
 		expectParsePrivateGroup();
 		context.checking(new Expectations() {{
-			oneOf(clientHelper).verifySignature(memberSignature,
-					SIGNING_LABEL_JOIN, signed, creator.getPublicKey());
-			if (!memberSigValid)
-				will(throwException(new GeneralSecurityException()));
+			oneOf(clientHelper).toByteArray(signed);
+			will(returnValue(signedBytes));
 		}});
+		expectVerifySignatures(Collections.singletonList(memberCheck),
+				memberSigValid);
 	}
 
 	private void expectMemberJoinMessage(boolean creatorSigValid,
@@ -408,23 +418,50 @@ public class GroupMessageValidatorTest extends ValidatorTestCase {
 				memberList,
 				invite
 		);
+		byte[] tokenBytes = getRandomBytes(123);
+		byte[] signedBytes = getRandomBytes(123);
+		SignatureCheck creatorCheck = new SignatureCheck(creatorSignature,
+				SIGNING_LABEL_INVITE, tokenBytes, creator.getPublicKey());
+		SignatureCheck memberCheck = new SignatureCheck(memberSignature,
+				SIGNING_LABEL_JOIN, signedBytes, member.getPublicKey());
 		expectParseAuthor(memberList, member);
 		expectParsePrivateGroup();
 		context.checking(new Expectations() {{
 			oneOf(groupInvitationFactory).createInviteToken(creator.getId(),
 					member.getId(), privateGroup.getId(), inviteTimestamp);
 			will(returnValue(token));
-			oneOf(clientHelper).verifySignature(creatorSignature,
-					SIGNING_LABEL_INVITE, token, creator.getPublicKey());
-			if (!creatorSigValid) {
-				will(throwException(new GeneralSecurityException()));
-			} else {
-				oneOf(clientHelper).verifySignature(memberSignature,
-						SIGNING_LABEL_JOIN, signed, member.getPublicKey());
-				if (!memberSigValid)
-					will(throwException(new GeneralSecurityException()));
-			}
+			oneOf(clientHelper).toByteArray(token);
+			will(returnValue(tokenBytes));
+			oneOf(clientHelper).toByteArray(signed);
+			will(returnValue(signedBytes));
 		}});
+		expectVerifySignatures(Arrays.asList(creatorCheck, memberCheck),
+				creatorSigValid, memberSigValid);
+	}
+
+	private void expectVerifySignatures(List<SignatureCheck> expected,
+			boolean... results) {
+		context.checking(new Expectations() {{
+			oneOf(signatureVerifier).verify(with(new PredicateMatcher<>(
+					List.class, checks -> checksMatch(expected, checks))));
+			will(returnValue(results));
+		}});
+	}
+
+	private boolean checksMatch(List<SignatureCheck> expected,
+			List<?> actual) {
+		if (expected.size() != actual.size()) return false;
+		for (int i = 0; i < expected.size(); i++) {
+			SignatureCheck e = expected.get(i);
+			SignatureCheck a = (SignatureCheck) actual.get(i);
+			if (!Arrays.equals(e.getSignature(), a.getSignature())
+					|| !e.getLabel().equals(a.getLabel())
+					|| !Arrays.equals(e.getSigned(), a.getSigned())
+					|| !e.getPublicKey().equals(a.getPublicKey())) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	// POST Message
@@ -47,6 +47,8 @@ internal const val EVENT_CONVERSATION_MESSAGE = "ConversationMessageReceivedEven
 internal const val EVENT_MESSAGES_ACKED = "MessagesAckedEvent"
 internal const val EVENT_MESSAGES_SENT = "MessagesSentEvent"
 
+internal const val DEFAULT_PAGE_SIZE = 50
+
 @Immutable
 @Singleton
 internal class MessagingControllerImpl
@@ -65,7 +67,20 @@ constructor(
     override fun list(ctx: Context): Context {
         val contact = getContact(ctx)
         val jsonVisitor = JsonVisitor(contact.id, messagingManager)
-        val messages = conversationManager.getMessageHeaders(contact.id)
+        val before = ctx.queryParam("before")
+        val limit = ctx.queryParam("limit")
+        val headers = if (before == null && limit == null) {
+            conversationManager.getMessageHeaders(contact.id)
+        } else {
+            // Return a page of the newest messages before the cursor
+            val beforeTimestamp = if (before == null) Long.MAX_VALUE else
+                before.toLongOrNull() ?: throw BadRequestResponse("Invalid 'before'")
+            val pageSize = if (limit == null) DEFAULT_PAGE_SIZE else
+                limit.toIntOrNull()?.takeIf { it > 0 }
+                    ?: throw BadRequestResponse("Invalid 'limit'")
+            conversationManager.getMessageHeaders(contact.id, beforeTimestamp, pageSize)
+        }
+        val messages = headers
             .sortedBy { it.timestamp }
             .map { header -> header.accept(jsonVisitor) }
         return ctx.json(messages)
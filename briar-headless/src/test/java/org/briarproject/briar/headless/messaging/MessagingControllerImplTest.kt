@@ -78,6 +78,7 @@ internal class MessagingControllerImplTest : ControllerTest() {
     @Test
     fun list() {
         expectGetContact()
+        expectCursor(null, null)
         every { conversationManager.getMessageHeaders(contact.id) } returns listOf(header)
         every { messagingManager.getMessageText(message.id) } returns text
         every { ctx.json(listOf(header.output(contact.id, text))) } returns ctx
@@ -93,6 +94,7 @@ internal class MessagingControllerImplTest : ControllerTest() {
         )
 
         expectGetContact()
+        expectCursor(null, null)
         every { conversationManager.getMessageHeaders(contact.id) } returns listOf(request)
         every { ctx.json(listOf(request.output(contact.id))) } returns ctx
 
@@ -103,12 +105,77 @@ internal class MessagingControllerImplTest : ControllerTest() {
     fun testEmptyList() {
         every { ctx.pathParam("contactId") } returns contact.id.int.toString()
         every { contactManager.getContact(contact.id) } returns contact
+        expectCursor(null, null)
         every { conversationManager.getMessageHeaders(contact.id) } returns emptyList()
         every { ctx.json(emptyList<Any>()) } returns ctx
 
         controller.list(ctx)
     }
 
+    @Test
+    fun listPage() {
+        val older = PrivateMessageHeader(
+            MessageId(getRandomId()), group.id, timestamp - 1, true, true, true, true, true,
+            emptyList(), NO_AUTO_DELETE_TIMER
+        )
+        val olderText = getRandomString(42)
+
+        expectGetContact()
+        expectCursor(timestamp + 1, 2)
+        every {
+            conversationManager.getMessageHeaders(contact.id, timestamp + 1, 2)
+        } returns listOf(header, older)
+        every { messagingManager.getMessageText(message.id) } returns text
+        every { messagingManager.getMessageText(older.id) } returns olderText
+        // The page is returned oldest first, like the full list
+        every {
+            ctx.json(listOf(older.output(contact.id, olderText), header.output(contact.id, text)))
+        } returns ctx
+
+        controller.list(ctx)
+    }
+
+    @Test
+    fun listPageWithDefaultCursor() {
+        expectGetContact()
+        expectCursor(null, 10)
+        every {
+            conversationManager.getMessageHeaders(contact.id, Long.MAX_VALUE, 10)
+        } returns emptyList()
+        every { ctx.json(emptyList<Any>()) } returns ctx
+
+        controller.list(ctx)
+    }
+
+    @Test
+    fun listPageWithDefaultLimit() {
+        expectGetContact()
+        expectCursor(timestamp, null)
+        every {
+            conversationManager.getMessageHeaders(contact.id, timestamp, DEFAULT_PAGE_SIZE)
+        } returns emptyList()
+        every { ctx.json(emptyList<Any>()) } returns ctx
+
+        controller.list(ctx)
+    }
+
+    @Test
+    fun listPageWithInvalidCursor() {
+        expectGetContact()
+        every { ctx.queryParam("before") } returns "foo"
+        every { ctx.queryParam("limit") } returns null
+
+        assertThrows(BadRequestResponse::class.java) { controller.list(ctx) }
+    }
+
+    @Test
+    fun listPageWithInvalidLimit() {
+        expectGetContact()
+        expectCursor(timestamp, 0)
+
+        assertThrows(BadRequestResponse::class.java) { controller.list(ctx) }
+    }
+
     @Test
     fun listInvalidContactId() {
         testInvalidContactId { controller.list(ctx) }
@@ -403,7 +470,12 @@ internal class MessagingControllerImplTest : ControllerTest() {
         every { contactManager.getContact(contact.id) } returns contact
     }
 
-    private fun testNonexistentContactId(function: () -> Context) {
+    private fun expectCursor(before: Long?, limit: Int?) {
+        every { ctx.queryParam("before") } returns before?.toString()
+        every { ctx.queryParam("limit") } returns limit?.toString()
+    }
+
+        private fun testNonexistentContactId(function: () -> Context) {
         every { ctx.pathParam("contactId") } returns "42"
         every { contactManager.getContact(ContactId(42)) } throws NoSuchContactException()
 